@@ -0,0 +1,49 @@
+package android.content;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Stand-in of an Android content provider for the JVM harness. Providers
+ * are registered with {@link ContentResolver#addProvider(String, ContentProvider, Context)}.
+ *
+ */
+public abstract class ContentProvider {
+
+	private Context context;
+
+	public final Context getContext() {
+		return context;
+	}
+
+	/**
+	 * Attaches the provider to its context, then creates it
+	 */
+	public void attachInfo(Context context) {
+		if (this.context == null) {
+			this.context = context;
+			onCreate();
+		}
+	}
+
+	public abstract boolean onCreate();
+
+	public abstract Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+			String sortOrder);
+
+	public abstract String getType(Uri uri);
+
+	public abstract Uri insert(Uri uri, ContentValues values);
+
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		for (ContentValues value : values) {
+			insert(uri, value);
+		}
+		return values.length;
+	}
+
+	public abstract int delete(Uri uri, String selection, String[] selectionArgs);
+
+	public abstract int update(Uri uri, ContentValues values, String selection, String[] selectionArgs);
+
+}
@@ -0,0 +1,86 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Stand-in of the Android content resolver for the JVM harness: calls are
+ * dispatched directly, on the calling thread, to the provider registered
+ * for the authority of the Uri. Change notifications are only counted.
+ *
+ */
+public class ContentResolver {
+
+	public static final String SCHEME_CONTENT = "content";
+	public static final String CURSOR_ITEM_BASE_TYPE = "vnd.android.cursor.item";
+	public static final String CURSOR_DIR_BASE_TYPE = "vnd.android.cursor.dir";
+
+	private final Map<String, ContentProvider> providers = new HashMap<String, ContentProvider>();
+
+	/**
+	 * Number of change notifications, guarded by this
+	 */
+	private long notifications;
+
+	/**
+	 * Registers a provider, as the manifest does on Android. The provider
+	 * is attached to the context of this resolver.
+	 * @param authority Authority of the provider
+	 * @param provider Provider, not yet attached
+	 * @param context Context of this resolver
+	 */
+	public synchronized void addProvider(String authority, ContentProvider provider, Context context) {
+		provider.attachInfo(context);
+		providers.put(authority, provider);
+	}
+
+	private synchronized ContentProvider getProvider(Uri uri) {
+		ContentProvider provider = providers.get(uri.getAuthority());
+		if (provider == null) {
+			throw new IllegalArgumentException("Unknown URL " + uri);
+		}
+		return provider;
+	}
+
+	public final String getType(Uri uri) {
+		return getProvider(uri).getType(uri);
+	}
+
+	public final Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+			String sortOrder) {
+		return getProvider(uri).query(uri, projection, selection, selectionArgs, sortOrder);
+	}
+
+	public final Uri insert(Uri url, ContentValues values) {
+		return getProvider(url).insert(url, values);
+	}
+
+	public final int bulkInsert(Uri url, ContentValues[] values) {
+		return getProvider(url).bulkInsert(url, values);
+	}
+
+	public final int update(Uri uri, ContentValues values, String where, String[] selectionArgs) {
+		return getProvider(uri).update(uri, values, where, selectionArgs);
+	}
+
+	public final int delete(Uri url, String where, String[] selectionArgs) {
+		return getProvider(url).delete(url, where, selectionArgs);
+	}
+
+	public void notifyChange(Uri uri, Object observer) {
+		synchronized (this) {
+			notifications++;
+		}
+	}
+
+	/**
+	 * @return Number of change notifications sent so far
+	 */
+	public synchronized long getNotificationCount() {
+		return notifications;
+	}
+
+}
@@ -0,0 +1,20 @@
+package android.content;
+
+import android.net.Uri;
+
+/**
+ * Stand-in of the Android content Uri helpers for the JVM harness.
+ *
+ */
+public class ContentUris {
+
+	public static long parseId(Uri contentUri) {
+		String last = contentUri.getLastPathSegment();
+		return last == null ? -1 : Long.parseLong(last);
+	}
+
+	public static Uri withAppendedId(Uri contentUri, long id) {
+		return contentUri.buildUpon().appendEncodedPath(String.valueOf(id)).build();
+	}
+
+}
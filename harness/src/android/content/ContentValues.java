@@ -0,0 +1,133 @@
+package android.content;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stand-in of the Android content values for the JVM harness.
+ *
+ */
+public final class ContentValues {
+
+	private final Map<String, Object> values;
+
+	public ContentValues() {
+		values = new LinkedHashMap<String, Object>();
+	}
+
+	public ContentValues(ContentValues from) {
+		values = new LinkedHashMap<String, Object>(from.values);
+	}
+
+	public void put(String key, String value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Byte value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Short value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Integer value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Long value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Float value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Double value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, Boolean value) {
+		values.put(key, value);
+	}
+
+	public void put(String key, byte[] value) {
+		values.put(key, value);
+	}
+
+	public void putNull(String key) {
+		values.put(key, null);
+	}
+
+	public void putAll(ContentValues other) {
+		values.putAll(other.values);
+	}
+
+	public int size() {
+		return values.size();
+	}
+
+	public void remove(String key) {
+		values.remove(key);
+	}
+
+	public void clear() {
+		values.clear();
+	}
+
+	public boolean containsKey(String key) {
+		return values.containsKey(key);
+	}
+
+	public Object get(String key) {
+		return values.get(key);
+	}
+
+	public String getAsString(String key) {
+		Object value = values.get(key);
+		return value == null ? null : value.toString();
+	}
+
+	public Long getAsLong(String key) {
+		Object value = values.get(key);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return value == null ? null : Long.valueOf(value.toString());
+	}
+
+	public Integer getAsInteger(String key) {
+		Object value = values.get(key);
+		if (value instanceof Number) {
+			return ((Number) value).intValue();
+		}
+		return value == null ? null : Integer.valueOf(value.toString());
+	}
+
+	public Double getAsDouble(String key) {
+		Object value = values.get(key);
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		return value == null ? null : Double.valueOf(value.toString());
+	}
+
+	public Float getAsFloat(String key) {
+		Object value = values.get(key);
+		if (value instanceof Number) {
+			return ((Number) value).floatValue();
+		}
+		return value == null ? null : Float.valueOf(value.toString());
+	}
+
+	public Set<Map.Entry<String, Object>> valueSet() {
+		return values.entrySet();
+	}
+
+	@Override
+	public String toString() {
+		return values.toString();
+	}
+
+}
@@ -0,0 +1,67 @@
+package android.content;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in of an Android context for the JVM harness. Databases and files are
+ * kept under a given directory, preferences in memory, and there is a single
+ * content resolver, see {@link ContentResolver#addProvider(String, ContentProvider)}.
+ *
+ */
+public class Context {
+
+	public static final int MODE_PRIVATE = 0;
+
+	private final File directory;
+
+	private final ContentResolver contentResolver = new ContentResolver();
+
+	private final Map<String, SharedPreferences> preferences = new HashMap<String, SharedPreferences>();
+
+	/**
+	 * @param directory Directory of the databases and files of the application
+	 */
+	public Context(File directory) {
+		this.directory = directory;
+	}
+
+	public Context getApplicationContext() {
+		return this;
+	}
+
+	public String getPackageName() {
+		return "me.guillaumin.android.osmtracker";
+	}
+
+	public ContentResolver getContentResolver() {
+		return contentResolver;
+	}
+
+	public File getFilesDir() {
+		File files = new File(directory, "files");
+		files.mkdirs();
+		return files;
+	}
+
+	public File getDatabasePath(String name) {
+		return new File(new File(directory, "databases"), name);
+	}
+
+	public boolean deleteDatabase(String name) {
+		File file = getDatabasePath(name);
+		new File(file.getPath() + "-journal").delete();
+		return file.delete();
+	}
+
+	public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+		SharedPreferences prefs = preferences.get(name);
+		if (prefs == null) {
+			prefs = new SharedPreferences();
+			preferences.put(name, prefs);
+		}
+		return prefs;
+	}
+
+}
@@ -0,0 +1,86 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stand-in of Android shared preferences for the JVM harness, kept in memory.
+ * Unlike on Android, this is a class rather than an interface.
+ *
+ */
+public class SharedPreferences {
+
+	/**
+	 * Values, guarded by this
+	 */
+	private final Map<String, Object> values = new HashMap<String, Object>();
+
+	public synchronized boolean contains(String key) {
+		return values.containsKey(key);
+	}
+
+	public synchronized String getString(String key, String defValue) {
+		return values.containsKey(key) ? (String) values.get(key) : defValue;
+	}
+
+	public synchronized boolean getBoolean(String key, boolean defValue) {
+		return values.containsKey(key) ? (Boolean) values.get(key) : defValue;
+	}
+
+	public synchronized int getInt(String key, int defValue) {
+		return values.containsKey(key) ? (Integer) values.get(key) : defValue;
+	}
+
+	public synchronized long getLong(String key, long defValue) {
+		return values.containsKey(key) ? (Long) values.get(key) : defValue;
+	}
+
+	public Editor edit() {
+		return new Editor();
+	}
+
+	public class Editor {
+
+		private final Map<String, Object> changes = new HashMap<String, Object>();
+
+		public Editor putString(String key, String value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		public Editor putBoolean(String key, boolean value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		public Editor putInt(String key, int value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		public Editor putLong(String key, long value) {
+			changes.put(key, value);
+			return this;
+		}
+
+		public Editor remove(String key) {
+			changes.put(key, null);
+			return this;
+		}
+
+		public boolean commit() {
+			synchronized (SharedPreferences.this) {
+				for (Map.Entry<String, Object> change : changes.entrySet()) {
+					if (change.getValue() == null) {
+						values.remove(change.getKey());
+					} else {
+						values.put(change.getKey(), change.getValue());
+					}
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
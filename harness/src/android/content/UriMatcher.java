@@ -0,0 +1,68 @@
+package android.content;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.net.Uri;
+
+/**
+ * Stand-in of the Android Uri matcher for the JVM harness. As on Android,
+ * '#' matches a number and '*' any text in a path segment, and patterns
+ * are tried in the order they were added.
+ *
+ */
+public class UriMatcher {
+
+	public static final int NO_MATCH = -1;
+
+	private final int rootCode;
+
+	private final List<String[]> patterns = new ArrayList<String[]>();
+
+	private final List<Integer> codes = new ArrayList<Integer>();
+
+	public UriMatcher(int code) {
+		rootCode = code;
+	}
+
+	public void addURI(String authority, String path, int code) {
+		List<String> segments = new ArrayList<String>();
+		segments.add(authority);
+		if (path != null) {
+			for (String segment : path.split("/")) {
+				if (segment.length() > 0) {
+					segments.add(segment);
+				}
+			}
+		}
+		patterns.add(segments.toArray(new String[segments.size()]));
+		codes.add(code);
+	}
+
+	public int match(Uri uri) {
+		List<String> segments = uri.getPathSegments();
+		if (uri.getAuthority() == null && segments.isEmpty()) {
+			return rootCode;
+		}
+		for (int i = 0; i < patterns.size(); i++) {
+			String[] pattern = patterns.get(i);
+			if (pattern.length != segments.size() + 1 || !pattern[0].equals(uri.getAuthority())) {
+				continue;
+			}
+			boolean matches = true;
+			for (int s = 1; s < pattern.length && matches; s++) {
+				String segment = segments.get(s - 1);
+				if ("#".equals(pattern[s])) {
+					matches = segment.matches("[0-9]+");
+				} else if (!"*".equals(pattern[s])) {
+					matches = pattern[s].equals(segment);
+				}
+			}
+			if (matches) {
+				return codes.get(i);
+			}
+		}
+		return NO_MATCH;
+	}
+
+}
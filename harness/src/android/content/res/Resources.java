@@ -0,0 +1,52 @@
+package android.content.res;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stand-in of Android resources for the JVM harness: only string resources,
+ * registered with {@link #putString(String, String)}. Identifiers are looked
+ * up in a map, faster than on Android.
+ *
+ */
+public class Resources {
+
+	/**
+	 * Identifiers by name, e.g. "string/app_name"
+	 */
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+	/**
+	 * Values, the index being the identifier minus 1
+	 */
+	private final List<String> strings = new ArrayList<String>();
+
+	/**
+	 * Registers a string resource
+	 * @param name Name of the resource, without its type
+	 * @param value Text
+	 */
+	public void putString(String name, String value) {
+		strings.add(value);
+		ids.put("string/" + name, strings.size());
+	}
+
+	/**
+	 * @param name Name, with its type ("string/app_name")
+	 * @return Identifier of the resource, 0 if there's none
+	 */
+	public int getIdentifier(String name, String defType, String defPackage) {
+		Integer id = ids.get(name);
+		return (id != null) ? id : 0;
+	}
+
+	public String getString(int id) {
+		if (id < 1 || id > strings.size()) {
+			throw new IllegalArgumentException("No string resource " + id);
+		}
+		return strings.get(id - 1);
+	}
+
+}
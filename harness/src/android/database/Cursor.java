@@ -0,0 +1,68 @@
+package android.database;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+
+/**
+ * Stand-in of the Android cursor for the JVM harness.
+ *
+ */
+public interface Cursor {
+
+	int getCount();
+
+	int getPosition();
+
+	boolean move(int offset);
+
+	boolean moveToPosition(int position);
+
+	boolean moveToFirst();
+
+	boolean moveToLast();
+
+	boolean moveToNext();
+
+	boolean moveToPrevious();
+
+	boolean isFirst();
+
+	boolean isLast();
+
+	boolean isBeforeFirst();
+
+	boolean isAfterLast();
+
+	int getColumnIndex(String columnName);
+
+	int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException;
+
+	String getColumnName(int columnIndex);
+
+	String[] getColumnNames();
+
+	int getColumnCount();
+
+	byte[] getBlob(int columnIndex);
+
+	String getString(int columnIndex);
+
+	short getShort(int columnIndex);
+
+	int getInt(int columnIndex);
+
+	long getLong(int columnIndex);
+
+	float getFloat(int columnIndex);
+
+	double getDouble(int columnIndex);
+
+	boolean isNull(int columnIndex);
+
+	void close();
+
+	boolean isClosed();
+
+	void setNotificationUri(ContentResolver cr, Uri uri);
+
+}
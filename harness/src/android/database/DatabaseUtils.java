@@ -0,0 +1,44 @@
+package android.database;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+
+/**
+ * Stand-in of the Android database utilities for the JVM harness.
+ *
+ */
+public class DatabaseUtils {
+
+	public static long longForQuery(SQLiteDatabase db, String query, String[] selectionArgs) {
+		Cursor c = db.rawQuery(query, selectionArgs);
+		try {
+			if (!c.moveToFirst()) {
+				throw new SQLiteDoneException();
+			}
+			return c.getLong(0);
+		} finally {
+			c.close();
+		}
+	}
+
+	public static String stringForQuery(SQLiteDatabase db, String query, String[] selectionArgs) {
+		Cursor c = db.rawQuery(query, selectionArgs);
+		try {
+			if (!c.moveToFirst()) {
+				throw new SQLiteDoneException();
+			}
+			return c.getString(0);
+		} finally {
+			c.close();
+		}
+	}
+
+	public static long queryNumEntries(SQLiteDatabase db, String table) {
+		return longForQuery(db, "select count(*) from " + table, null);
+	}
+
+	public static String sqlEscapeString(String value) {
+		return "'" + value.replace("'", "''") + "'";
+	}
+
+}
@@ -0,0 +1,22 @@
+package android.database;
+
+/**
+ * Stand-in of the Android SQL exception for the JVM harness.
+ *
+ */
+public class SQLException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SQLException() {
+	}
+
+	public SQLException(String error) {
+		super(error);
+	}
+
+	public SQLException(String error, Throwable cause) {
+		super(error, cause);
+	}
+
+}
@@ -0,0 +1,241 @@
+package android.database.sqlite;
+
+import java.util.List;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * Stand-in of the Android SQLite cursor for the JVM harness. All rows are
+ * read when the query runs, where Android fills a window of rows on the
+ * first move: the cost of reading them is counted in the query, not in the moves.
+ * Values are converted between types as SQLite does.
+ *
+ */
+public class SQLiteCursor implements Cursor {
+
+	private final String[] columns;
+
+	private final List<Object[]> rows;
+
+	private int position = -1;
+
+	private boolean closed;
+
+	SQLiteCursor(String[] columns, List<Object[]> rows) {
+		this.columns = columns;
+		this.rows = rows;
+	}
+
+	@Override
+	public int getCount() {
+		return rows.size();
+	}
+
+	@Override
+	public int getPosition() {
+		return position;
+	}
+
+	@Override
+	public boolean move(int offset) {
+		return moveToPosition(position + offset);
+	}
+
+	@Override
+	public boolean moveToPosition(int position) {
+		if (position >= rows.size()) {
+			this.position = rows.size();
+			return false;
+		}
+		if (position < 0) {
+			this.position = -1;
+			return false;
+		}
+		this.position = position;
+		return true;
+	}
+
+	@Override
+	public boolean moveToFirst() {
+		return moveToPosition(0);
+	}
+
+	@Override
+	public boolean moveToLast() {
+		return moveToPosition(rows.size() - 1);
+	}
+
+	@Override
+	public boolean moveToNext() {
+		return moveToPosition(position + 1);
+	}
+
+	@Override
+	public boolean moveToPrevious() {
+		return moveToPosition(position - 1);
+	}
+
+	@Override
+	public boolean isFirst() {
+		return position == 0 && !rows.isEmpty();
+	}
+
+	@Override
+	public boolean isLast() {
+		return position == rows.size() - 1 && !rows.isEmpty();
+	}
+
+	@Override
+	public boolean isBeforeFirst() {
+		return rows.isEmpty() || position == -1;
+	}
+
+	@Override
+	public boolean isAfterLast() {
+		return rows.isEmpty() || position == rows.size();
+	}
+
+	@Override
+	public int getColumnIndex(String columnName) {
+		// As on Android, "table.column" matches "column"
+		int dot = columnName.lastIndexOf('.');
+		String name = dot < 0 ? columnName : columnName.substring(dot + 1);
+		for (int i = 0; i < columns.length; i++) {
+			if (columns[i].equalsIgnoreCase(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int getColumnIndexOrThrow(String columnName) {
+		int index = getColumnIndex(columnName);
+		if (index < 0) {
+			throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+		}
+		return index;
+	}
+
+	@Override
+	public String getColumnName(int columnIndex) {
+		return columns[columnIndex];
+	}
+
+	@Override
+	public String[] getColumnNames() {
+		return columns.clone();
+	}
+
+	@Override
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	private Object get(int columnIndex) {
+		if (closed) {
+			throw new IllegalStateException("Cursor is closed");
+		}
+		if (position < 0 || position >= rows.size()) {
+			throw new IllegalStateException("Index " + position + " requested, with a size of " + rows.size());
+		}
+		return rows.get(position)[columnIndex];
+	}
+
+	@Override
+	public byte[] getBlob(int columnIndex) {
+		Object value = get(columnIndex);
+		if (value == null || value instanceof byte[]) {
+			return (byte[]) value;
+		}
+		return value.toString().getBytes();
+	}
+
+	@Override
+	public String getString(int columnIndex) {
+		Object value = get(columnIndex);
+		if (value == null || value instanceof String) {
+			return (String) value;
+		}
+		if (value instanceof byte[]) {
+			return new String((byte[]) value);
+		}
+		return value.toString();
+	}
+
+	@Override
+	public short getShort(int columnIndex) {
+		return (short) getLong(columnIndex);
+	}
+
+	@Override
+	public int getInt(int columnIndex) {
+		return (int) getLong(columnIndex);
+	}
+
+	@Override
+	public long getLong(int columnIndex) {
+		Object value = get(columnIndex);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		}
+		return (long) parseNumber(value);
+	}
+
+	@Override
+	public float getFloat(int columnIndex) {
+		return (float) getDouble(columnIndex);
+	}
+
+	@Override
+	public double getDouble(int columnIndex) {
+		Object value = get(columnIndex);
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		}
+		return parseNumber(value);
+	}
+
+	/**
+	 * Converts a text or blob to a number as SQLite does: from its longest
+	 * numeric prefix, 0 if there is none
+	 */
+	private static double parseNumber(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		String text = value instanceof byte[] ? new String((byte[]) value) : value.toString();
+		text = text.trim();
+		for (int end = text.length(); end > 0; end--) {
+			try {
+				return Double.parseDouble(text.substring(0, end));
+			} catch (NumberFormatException nfe) {
+				// Try a shorter prefix
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public boolean isNull(int columnIndex) {
+		return get(columnIndex) == null;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public void setNotificationUri(ContentResolver cr, Uri uri) {
+		// Observers aren't supported
+	}
+
+}
@@ -0,0 +1,469 @@
+package android.database.sqlite;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Stand-in of an Android SQLite database for the JVM harness, on a JDBC
+ * connection to the same SQLite engine (<code>org.xerial:sqlite-jdbc</code>).
+ * It behaves as the Android one where the application depends on it:
+ * <ul>
+ * <li>Transactions nest: only the outermost one commits, and it's rolled back
+ * if any of the nested ones wasn't marked successful.</li>
+ * <li>A thread holds the database while in a transaction, other threads wait.</li>
+ * <li>Query arguments are bound as text, and compiled statements are cached
+ * by SQL.</li>
+ * <li>{@link #insert(String, String, ContentValues)} returns -1 on error instead of throwing.</li>
+ * </ul>
+ *
+ */
+public class SQLiteDatabase {
+
+	private static final String TAG = SQLiteDatabase.class.getSimpleName();
+
+	public static final int OPEN_READWRITE = 0x00000000;
+	public static final int OPEN_READONLY = 0x00000001;
+	public static final int CREATE_IF_NECESSARY = 0x10000000;
+
+	/**
+	 * Number of compiled statements kept per database, as on Android
+	 */
+	private static final int STATEMENT_CACHE_SIZE = 25;
+
+	/**
+	 * Unused, cursors are always {@link SQLiteCursor}s
+	 */
+	public interface CursorFactory {
+	}
+
+	private final String path;
+
+	private Connection connection;
+
+	private final ReentrantLock lock = new ReentrantLock(true);
+
+	/**
+	 * Compiled statements, least recently used first
+	 */
+	private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(
+			STATEMENT_CACHE_SIZE, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+			if (size() > STATEMENT_CACHE_SIZE) {
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+			return false;
+		}
+	};
+
+	/**
+	 * Open transactions, innermost first: whether each was marked successful
+	 */
+	private final LinkedList<Boolean> transactions = new LinkedList<Boolean>();
+
+	/**
+	 * Whether a nested transaction of the outermost one wasn't marked successful
+	 */
+	private boolean nestedFailed;
+
+	private SQLiteDatabase(String path) {
+		this.path = path;
+		try {
+			connection = DriverManager.getConnection("jdbc:sqlite:" + path);
+		} catch (java.sql.SQLException se) {
+			throw wrap("Unable to open database " + path, se);
+		}
+	}
+
+	public static SQLiteDatabase openDatabase(String path, CursorFactory factory, int flags) {
+		if ((flags & CREATE_IF_NECESSARY) == 0 && !new File(path).exists()) {
+			throw new SQLiteException("Unable to open database file " + path);
+		}
+		return new SQLiteDatabase(path);
+	}
+
+	public static SQLiteDatabase openOrCreateDatabase(File file, CursorFactory factory) {
+		return openOrCreateDatabase(file.getPath(), factory);
+	}
+
+	public static SQLiteDatabase openOrCreateDatabase(String path, CursorFactory factory) {
+		return openDatabase(path, factory, CREATE_IF_NECESSARY);
+	}
+
+	public static SQLiteDatabase create(CursorFactory factory) {
+		return new SQLiteDatabase(":memory:");
+	}
+
+	public final String getPath() {
+		return path;
+	}
+
+	public boolean isOpen() {
+		return connection != null;
+	}
+
+	public void close() {
+		lock.lock();
+		try {
+			if (connection == null) {
+				return;
+			}
+			for (PreparedStatement statement : statements.values()) {
+				closeQuietly(statement);
+			}
+			statements.clear();
+			try {
+				connection.close();
+			} catch (java.sql.SQLException se) {
+				Log.w(TAG, "Unable to close " + path, se);
+			}
+			connection = null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getVersion() {
+		return (int) longForQuery("PRAGMA user_version", null);
+	}
+
+	public void setVersion(int version) {
+		execSQL("PRAGMA user_version = " + version);
+	}
+
+	public void beginTransaction() {
+		lock.lock();
+		boolean begun = false;
+		try {
+			if (transactions.isEmpty()) {
+				execute("BEGIN EXCLUSIVE");
+				nestedFailed = false;
+			}
+			transactions.addFirst(Boolean.FALSE);
+			begun = true;
+		} finally {
+			if (!begun) {
+				lock.unlock();
+			}
+		}
+	}
+
+	public void setTransactionSuccessful() {
+		checkLockedTransaction();
+		if (transactions.getFirst()) {
+			throw new IllegalStateException("setTransactionSuccessful may only be called once per call to beginTransaction");
+		}
+		transactions.set(0, Boolean.TRUE);
+	}
+
+	public void endTransaction() {
+		checkLockedTransaction();
+		try {
+			if (!transactions.removeFirst()) {
+				nestedFailed = true;
+			}
+			if (transactions.isEmpty()) {
+				execute(nestedFailed ? "ROLLBACK" : "COMMIT");
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean inTransaction() {
+		return lock.isHeldByCurrentThread() && !transactions.isEmpty();
+	}
+
+	private void checkLockedTransaction() {
+		if (!inTransaction()) {
+			throw new IllegalStateException("no transaction pending");
+		}
+	}
+
+	public void execSQL(String sql) {
+		lock.lock();
+		try {
+			execute(sql);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void execSQL(String sql, Object[] bindArgs) {
+		lock.lock();
+		try {
+			PreparedStatement statement = prepare(sql, bindArgs);
+			if (statement.execute()) {
+				statement.getResultSet().close();
+			}
+		} catch (java.sql.SQLException se) {
+			throw wrap(sql, se);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs a statement without compiling it for later use. Caller must hold the lock.
+	 */
+	private void execute(String sql) {
+		try {
+			Statement statement = getConnection().createStatement();
+			try {
+				statement.execute(sql);
+			} finally {
+				statement.close();
+			}
+		} catch (java.sql.SQLException se) {
+			throw wrap(sql, se);
+		}
+	}
+
+	public Cursor rawQuery(String sql, String[] selectionArgs) {
+		lock.lock();
+		try {
+			PreparedStatement statement = prepare(sql, selectionArgs);
+			if (!statement.execute()) {
+				return new SQLiteCursor(new String[0], new ArrayList<Object[]>());
+			}
+			ResultSet rs = statement.getResultSet();
+			try {
+				ResultSetMetaData metaData = rs.getMetaData();
+				String[] columns = new String[metaData.getColumnCount()];
+				for (int i = 0; i < columns.length; i++) {
+					columns[i] = metaData.getColumnLabel(i + 1);
+				}
+				List<Object[]> rows = new ArrayList<Object[]>();
+				while (rs.next()) {
+					Object[] row = new Object[columns.length];
+					for (int i = 0; i < columns.length; i++) {
+						row[i] = rs.getObject(i + 1);
+					}
+					rows.add(row);
+				}
+				return new SQLiteCursor(columns, rows);
+			} finally {
+				rs.close();
+			}
+		} catch (java.sql.SQLException se) {
+			throw wrap(sql, se);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+			String groupBy, String having, String orderBy) {
+		return query(false, table, columns, selection, selectionArgs, groupBy, having, orderBy, null);
+	}
+
+	public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+			String groupBy, String having, String orderBy, String limit) {
+		return query(false, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
+	}
+
+	public Cursor query(boolean distinct, String table, String[] columns, String selection,
+			String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
+		return rawQuery(SQLiteQueryBuilder.buildQueryString(distinct, table, columns, selection,
+				groupBy, having, orderBy, limit), selectionArgs);
+	}
+
+	public long insert(String table, String nullColumnHack, ContentValues values) {
+		try {
+			return insertOrThrow(table, nullColumnHack, values);
+		} catch (android.database.SQLException se) {
+			Log.e(TAG, "Error inserting " + values, se);
+			return -1;
+		}
+	}
+
+	public long insertOrThrow(String table, String nullColumnHack, ContentValues values) {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append('(');
+		Object[] bindArgs;
+		if (values == null || values.size() == 0) {
+			sql.append(nullColumnHack).append(") VALUES (NULL)");
+			bindArgs = null;
+		} else {
+			bindArgs = new Object[values.size()];
+			StringBuilder placeholders = new StringBuilder();
+			int i = 0;
+			for (Map.Entry<String, Object> value : values.valueSet()) {
+				sql.append(i > 0 ? "," : "").append(value.getKey());
+				placeholders.append(i > 0 ? ",?" : "?");
+				bindArgs[i++] = value.getValue();
+			}
+			sql.append(") VALUES (").append(placeholders).append(')');
+		}
+		lock.lock();
+		try {
+			return executeInsert(prepare(sql.toString(), bindArgs));
+		} catch (java.sql.SQLException se) {
+			throw wrap(sql.toString(), se);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+		StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+		int whereCount = whereArgs == null ? 0 : whereArgs.length;
+		Object[] bindArgs = new Object[values.size() + whereCount];
+		int i = 0;
+		for (Map.Entry<String, Object> value : values.valueSet()) {
+			sql.append(i > 0 ? "," : "").append(value.getKey()).append("=?");
+			bindArgs[i++] = value.getValue();
+		}
+		for (int w = 0; w < whereCount; w++) {
+			bindArgs[i++] = whereArgs[w];
+		}
+		if (whereClause != null && whereClause.length() > 0) {
+			sql.append(" WHERE ").append(whereClause);
+		}
+		return executeUpdate(sql.toString(), bindArgs);
+	}
+
+	public int delete(String table, String whereClause, String[] whereArgs) {
+		String sql = "DELETE FROM " + table
+				+ (whereClause != null && whereClause.length() > 0 ? " WHERE " + whereClause : "");
+		return executeUpdate(sql, whereArgs);
+	}
+
+	private int executeUpdate(String sql, Object[] bindArgs) {
+		lock.lock();
+		try {
+			return prepare(sql, bindArgs).executeUpdate();
+		} catch (java.sql.SQLException se) {
+			throw wrap(sql, se);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public SQLiteStatement compileStatement(String sql) {
+		lock.lock();
+		try {
+			return new SQLiteStatement(this, getConnection().prepareStatement(sql), sql);
+		} catch (java.sql.SQLException se) {
+			throw wrap(sql, se);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return Result of a query returning a number, 0 if it returns no row
+	 */
+	long longForQuery(String sql, Object[] bindArgs) {
+		lock.lock();
+		try {
+			PreparedStatement statement = prepare(sql, bindArgs);
+			ResultSet rs = statement.executeQuery();
+			try {
+				return rs.next() ? rs.getLong(1) : 0;
+			} finally {
+				rs.close();
+			}
+		} catch (java.sql.SQLException se) {
+			throw wrap(sql, se);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Runs an insertion. Caller must hold the lock.
+	 * @return Id of the inserted row, -1 if none was
+	 */
+	long executeInsert(PreparedStatement statement) throws java.sql.SQLException {
+		if (statement.executeUpdate() == 0) {
+			return -1;
+		}
+		ResultSet rs = prepare("SELECT last_insert_rowid()", null).executeQuery();
+		try {
+			rs.next();
+			return rs.getLong(1);
+		} finally {
+			rs.close();
+		}
+	}
+
+	/**
+	 * @return Compiled statement of the cache, with the arguments bound. Caller must hold the lock.
+	 */
+	private PreparedStatement prepare(String sql, Object[] bindArgs) throws java.sql.SQLException {
+		PreparedStatement statement = statements.get(sql);
+		if (statement == null) {
+			statement = getConnection().prepareStatement(sql);
+			statements.put(sql, statement);
+		} else {
+			statement.clearParameters();
+		}
+		if (bindArgs != null) {
+			for (int i = 0; i < bindArgs.length; i++) {
+				bind(statement, i + 1, bindArgs[i]);
+			}
+		}
+		return statement;
+	}
+
+	static void bind(PreparedStatement statement, int index, Object value) throws java.sql.SQLException {
+		if (value == null) {
+			statement.setNull(index, Types.NULL);
+		} else if (value instanceof String) {
+			statement.setString(index, (String) value);
+		} else if (value instanceof byte[]) {
+			statement.setBytes(index, (byte[]) value);
+		} else if (value instanceof Double || value instanceof Float) {
+			statement.setDouble(index, ((Number) value).doubleValue());
+		} else if (value instanceof Number) {
+			statement.setLong(index, ((Number) value).longValue());
+		} else if (value instanceof Boolean) {
+			statement.setLong(index, (Boolean) value ? 1 : 0);
+		} else {
+			statement.setString(index, value.toString());
+		}
+	}
+
+	ReentrantLock getLock() {
+		return lock;
+	}
+
+	private Connection getConnection() {
+		if (connection == null) {
+			throw new IllegalStateException("database " + path + " already closed");
+		}
+		return connection;
+	}
+
+	static SQLiteException wrap(String sql, java.sql.SQLException se) {
+		return new SQLiteException(se.getMessage() + ", while compiling: " + sql, se);
+	}
+
+	private static void closeQuietly(Statement statement) {
+		try {
+			statement.close();
+		} catch (java.sql.SQLException se) {
+			Log.w(TAG, "Unable to close statement", se);
+		}
+	}
+
+}
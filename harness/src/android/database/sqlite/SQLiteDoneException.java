@@ -0,0 +1,15 @@
+package android.database.sqlite;
+
+/**
+ * Stand-in of the Android exception thrown when a simple query returns no row.
+ *
+ */
+public class SQLiteDoneException extends SQLiteException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SQLiteDoneException() {
+		super("not an error");
+	}
+
+}
@@ -0,0 +1,22 @@
+package android.database.sqlite;
+
+import android.database.SQLException;
+
+/**
+ * Stand-in of the Android SQLite exception for the JVM harness, wrapping
+ * the JDBC exception it is thrown for.
+ *
+ */
+public class SQLiteException extends SQLException {
+
+	private static final long serialVersionUID = 1L;
+
+	public SQLiteException(String error) {
+		super(error);
+	}
+
+	public SQLiteException(String error, Throwable cause) {
+		super(error, cause);
+	}
+
+}
@@ -0,0 +1,86 @@
+package android.database.sqlite;
+
+import java.io.File;
+
+import android.content.Context;
+
+/**
+ * Stand-in of the Android open helper for the JVM harness: the database is
+ * created or upgraded in a transaction on first use, as on Android.
+ *
+ */
+public abstract class SQLiteOpenHelper {
+
+	private final Context context;
+
+	private final String name;
+
+	private final int newVersion;
+
+	private SQLiteDatabase database;
+
+	public SQLiteOpenHelper(Context context, String name, SQLiteDatabase.CursorFactory factory, int version) {
+		if (version < 1) {
+			throw new IllegalArgumentException("Version must be >= 1, was " + version);
+		}
+		this.context = context;
+		this.name = name;
+		this.newVersion = version;
+	}
+
+	public synchronized SQLiteDatabase getWritableDatabase() {
+		if (database != null && database.isOpen()) {
+			return database;
+		}
+
+		SQLiteDatabase db;
+		if (name == null) {
+			db = SQLiteDatabase.create(null);
+		} else {
+			File file = context.getDatabasePath(name);
+			file.getParentFile().mkdirs();
+			db = SQLiteDatabase.openOrCreateDatabase(file, null);
+		}
+
+		int version = db.getVersion();
+		if (version != newVersion) {
+			db.beginTransaction();
+			try {
+				if (version == 0) {
+					onCreate(db);
+				} else if (version > newVersion) {
+					throw new SQLiteException("Can't downgrade database from version " + version + " to " + newVersion);
+				} else {
+					onUpgrade(db, version, newVersion);
+				}
+				db.setVersion(newVersion);
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		}
+
+		onOpen(db);
+		database = db;
+		return db;
+	}
+
+	public synchronized SQLiteDatabase getReadableDatabase() {
+		return getWritableDatabase();
+	}
+
+	public synchronized void close() {
+		if (database != null) {
+			database.close();
+			database = null;
+		}
+	}
+
+	public abstract void onCreate(SQLiteDatabase db);
+
+	public abstract void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion);
+
+	public void onOpen(SQLiteDatabase db) {
+	}
+
+}
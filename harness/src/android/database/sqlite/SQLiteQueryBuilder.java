@@ -0,0 +1,78 @@
+package android.database.sqlite;
+
+import android.database.Cursor;
+
+/**
+ * Stand-in of the Android query builder for the JVM harness. Projection
+ * maps and strict mode aren't supported.
+ *
+ */
+public class SQLiteQueryBuilder {
+
+	private String tables = "";
+
+	private boolean distinct;
+
+	public void setDistinct(boolean distinct) {
+		this.distinct = distinct;
+	}
+
+	public String getTables() {
+		return tables;
+	}
+
+	public void setTables(String inTables) {
+		tables = inTables;
+	}
+
+	public static String buildQueryString(boolean distinct, String tables, String[] columns, String where,
+			String groupBy, String having, String orderBy, String limit) {
+		if (isEmpty(groupBy) && !isEmpty(having)) {
+			throw new IllegalArgumentException("HAVING clauses are only permitted when using a groupBy clause");
+		}
+
+		StringBuilder query = new StringBuilder(120);
+		query.append("SELECT ");
+		if (distinct) {
+			query.append("DISTINCT ");
+		}
+		if (columns != null && columns.length != 0) {
+			for (int i = 0; i < columns.length; i++) {
+				query.append(i > 0 ? ", " : "").append(columns[i]);
+			}
+			query.append(' ');
+		} else {
+			query.append("* ");
+		}
+		query.append("FROM ").append(tables);
+		appendClause(query, " WHERE ", where);
+		appendClause(query, " GROUP BY ", groupBy);
+		appendClause(query, " HAVING ", having);
+		appendClause(query, " ORDER BY ", orderBy);
+		appendClause(query, " LIMIT ", limit);
+		return query.toString();
+	}
+
+	public Cursor query(SQLiteDatabase db, String[] projectionIn, String selection, String[] selectionArgs,
+			String groupBy, String having, String sortOrder) {
+		return query(db, projectionIn, selection, selectionArgs, groupBy, having, sortOrder, null);
+	}
+
+	public Cursor query(SQLiteDatabase db, String[] projectionIn, String selection, String[] selectionArgs,
+			String groupBy, String having, String sortOrder, String limit) {
+		String where = isEmpty(selection) ? null : "(" + selection + ")";
+		return db.rawQuery(buildQueryString(distinct, tables, projectionIn, where, groupBy, having, sortOrder, limit),
+				selectionArgs);
+	}
+
+	private static void appendClause(StringBuilder s, String name, String clause) {
+		if (!isEmpty(clause)) {
+			s.append(name).append(clause);
+		}
+	}
+
+	private static boolean isEmpty(String s) {
+		return s == null || s.length() == 0;
+	}
+
+}
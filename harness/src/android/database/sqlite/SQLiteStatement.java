@@ -0,0 +1,129 @@
+package android.database.sqlite;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * Stand-in of an Android compiled statement for the JVM harness, on a JDBC
+ * prepared statement. Bound arguments are kept between executions, as on Android.
+ *
+ */
+public class SQLiteStatement {
+
+	private final SQLiteDatabase db;
+
+	private final PreparedStatement statement;
+
+	private final String sql;
+
+	SQLiteStatement(SQLiteDatabase db, PreparedStatement statement, String sql) {
+		this.db = db;
+		this.statement = statement;
+		this.sql = sql;
+	}
+
+	private void bind(int index, Object value) {
+		try {
+			SQLiteDatabase.bind(statement, index, value);
+		} catch (java.sql.SQLException se) {
+			throw SQLiteDatabase.wrap(sql, se);
+		}
+	}
+
+	public void bindNull(int index) {
+		bind(index, null);
+	}
+
+	public void bindLong(int index, long value) {
+		bind(index, value);
+	}
+
+	public void bindDouble(int index, double value) {
+		bind(index, value);
+	}
+
+	public void bindString(int index, String value) {
+		if (value == null) {
+			throw new IllegalArgumentException("the bind value at index " + index + " is null");
+		}
+		bind(index, value);
+	}
+
+	public void bindBlob(int index, byte[] value) {
+		if (value == null) {
+			throw new IllegalArgumentException("the bind value at index " + index + " is null");
+		}
+		bind(index, value);
+	}
+
+	public void clearBindings() {
+		try {
+			statement.clearParameters();
+		} catch (java.sql.SQLException se) {
+			throw SQLiteDatabase.wrap(sql, se);
+		}
+	}
+
+	public void execute() {
+		db.getLock().lock();
+		try {
+			if (statement.execute()) {
+				statement.getResultSet().close();
+			}
+		} catch (java.sql.SQLException se) {
+			throw SQLiteDatabase.wrap(sql, se);
+		} finally {
+			db.getLock().unlock();
+		}
+	}
+
+	/**
+	 * @return Id of the inserted row, -1 if none was
+	 */
+	public long executeInsert() {
+		db.getLock().lock();
+		try {
+			return db.executeInsert(statement);
+		} catch (java.sql.SQLException se) {
+			throw SQLiteDatabase.wrap(sql, se);
+		} finally {
+			db.getLock().unlock();
+		}
+	}
+
+	public long simpleQueryForLong() {
+		String value = simpleQueryForString();
+		if (value == null) {
+			return 0;
+		}
+		return (long) Double.parseDouble(value);
+	}
+
+	public String simpleQueryForString() {
+		db.getLock().lock();
+		try {
+			ResultSet rs = statement.executeQuery();
+			try {
+				if (!rs.next()) {
+					throw new SQLiteException("query returned no rows: " + sql);
+				}
+				return rs.getString(1);
+			} finally {
+				rs.close();
+			}
+		} catch (java.sql.SQLException se) {
+			throw SQLiteDatabase.wrap(sql, se);
+		} finally {
+			db.getLock().unlock();
+		}
+	}
+
+	public void close() {
+		try {
+			statement.close();
+		} catch (java.sql.SQLException se) {
+			throw SQLiteDatabase.wrap(sql, se);
+		}
+	}
+
+}
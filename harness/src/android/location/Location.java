@@ -0,0 +1,76 @@
+package android.location;
+
+/**
+ * Stand-in of an Android location fix for the JVM harness.
+ *
+ */
+public class Location {
+
+	private final String provider;
+	private long time;
+	private double latitude;
+	private double longitude;
+	private boolean hasAltitude;
+	private double altitude;
+	private boolean hasAccuracy;
+	private float accuracy;
+
+	public Location(String provider) {
+		this.provider = provider;
+	}
+
+	public String getProvider() {
+		return provider;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public void setTime(long time) {
+		this.time = time;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+
+	public boolean hasAltitude() {
+		return hasAltitude;
+	}
+
+	public double getAltitude() {
+		return altitude;
+	}
+
+	public void setAltitude(double altitude) {
+		this.altitude = altitude;
+		hasAltitude = true;
+	}
+
+	public boolean hasAccuracy() {
+		return hasAccuracy;
+	}
+
+	public float getAccuracy() {
+		return accuracy;
+	}
+
+	public void setAccuracy(float accuracy) {
+		this.accuracy = accuracy;
+		hasAccuracy = true;
+	}
+
+}
@@ -0,0 +1,11 @@
+package android.location;
+
+/**
+ * Stand-in of the Android location manager for the JVM harness: only its constants.
+ *
+ */
+public class LocationManager {
+
+	public static final String GPS_PROVIDER = "gps";
+
+}
@@ -0,0 +1,230 @@
+package android.net;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stand-in of the Android Uri for the JVM harness. Only hierarchical
+ * Uris (<code>scheme://authority/path?query</code>) are supported,
+ * which is what content Uris are.
+ *
+ */
+public final class Uri {
+
+	private final String scheme;
+	private final String authority;
+
+	/**
+	 * Encoded path, with a leading '/' if not empty
+	 */
+	private final String path;
+
+	/**
+	 * Encoded query, or null
+	 */
+	private final String query;
+
+	private Uri(String scheme, String authority, String path, String query) {
+		this.scheme = scheme;
+		this.authority = authority;
+		this.path = path;
+		this.query = query;
+	}
+
+	public static Uri parse(String uriString) {
+		String rest = uriString;
+		int fragment = rest.indexOf('#');
+		if (fragment >= 0) {
+			rest = rest.substring(0, fragment);
+		}
+		String query = null;
+		int queryStart = rest.indexOf('?');
+		if (queryStart >= 0) {
+			query = rest.substring(queryStart + 1);
+			rest = rest.substring(0, queryStart);
+		}
+		String scheme = null;
+		int colon = rest.indexOf(':');
+		if (colon >= 0) {
+			scheme = rest.substring(0, colon);
+			rest = rest.substring(colon + 1);
+		}
+		String authority = null;
+		if (rest.startsWith("//")) {
+			int pathStart = rest.indexOf('/', 2);
+			if (pathStart < 0) {
+				pathStart = rest.length();
+			}
+			authority = rest.substring(2, pathStart);
+			rest = rest.substring(pathStart);
+		}
+		return new Uri(scheme, authority, rest, query);
+	}
+
+	public static Uri withAppendedPath(Uri baseUri, String pathSegment) {
+		return baseUri.buildUpon().appendEncodedPath(pathSegment).build();
+	}
+
+	public String getScheme() {
+		return scheme;
+	}
+
+	public String getAuthority() {
+		return authority;
+	}
+
+	public String getPath() {
+		return decode(path);
+	}
+
+	public String getEncodedPath() {
+		return path;
+	}
+
+	public String getQuery() {
+		return query == null ? null : decode(query);
+	}
+
+	public List<String> getPathSegments() {
+		List<String> segments = new ArrayList<String>();
+		for (String segment : path.split("/")) {
+			if (segment.length() > 0) {
+				segments.add(decode(segment));
+			}
+		}
+		return Collections.unmodifiableList(segments);
+	}
+
+	public String getLastPathSegment() {
+		List<String> segments = getPathSegments();
+		return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+	}
+
+	public String getQueryParameter(String key) {
+		if (query == null) {
+			return null;
+		}
+		for (String parameter : query.split("&")) {
+			int equals = parameter.indexOf('=');
+			String name = equals < 0 ? parameter : parameter.substring(0, equals);
+			if (decode(name).equals(key)) {
+				return equals < 0 ? "" : decode(parameter.substring(equals + 1));
+			}
+		}
+		return null;
+	}
+
+	public Builder buildUpon() {
+		return new Builder().scheme(scheme).encodedAuthority(authority).encodedPath(path).encodedQuery(query);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (scheme != null) {
+			sb.append(scheme).append(':');
+		}
+		if (authority != null) {
+			sb.append("//").append(authority);
+		}
+		sb.append(path);
+		if (query != null) {
+			sb.append('?').append(query);
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Uri && toString().equals(o.toString());
+	}
+
+	@Override
+	public int hashCode() {
+		return toString().hashCode();
+	}
+
+	public static String encode(String s) {
+		try {
+			return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException uee) {
+			throw new AssertionError(uee);
+		}
+	}
+
+	public static String decode(String s) {
+		try {
+			return URLDecoder.decode(s.replace("+", "%2B"), "UTF-8");
+		} catch (UnsupportedEncodingException uee) {
+			throw new AssertionError(uee);
+		}
+	}
+
+	public static final class Builder {
+
+		private String scheme;
+		private String authority;
+		private StringBuilder path = new StringBuilder();
+		private StringBuilder query;
+
+		public Builder scheme(String scheme) {
+			this.scheme = scheme;
+			return this;
+		}
+
+		public Builder authority(String authority) {
+			return encodedAuthority(authority == null ? null : encode(authority));
+		}
+
+		public Builder encodedAuthority(String authority) {
+			this.authority = authority;
+			return this;
+		}
+
+		public Builder path(String path) {
+			return encodedPath(path == null ? "" : encode(path).replace("%2F", "/"));
+		}
+
+		public Builder encodedPath(String path) {
+			this.path = new StringBuilder(path == null ? "" : path);
+			return this;
+		}
+
+		public Builder appendPath(String segment) {
+			return appendEncodedPath(encode(segment));
+		}
+
+		public Builder appendEncodedPath(String segments) {
+			if (path.length() == 0 || path.charAt(path.length() - 1) != '/') {
+				path.append('/');
+			}
+			path.append(segments.startsWith("/") ? segments.substring(1) : segments);
+			return this;
+		}
+
+		public Builder encodedQuery(String query) {
+			this.query = query == null ? null : new StringBuilder(query);
+			return this;
+		}
+
+		public Builder appendQueryParameter(String key, String value) {
+			if (query == null) {
+				query = new StringBuilder();
+			} else {
+				query.append('&');
+			}
+			query.append(encode(key)).append('=').append(encode(value));
+			return this;
+		}
+
+		public Uri build() {
+			return new Uri(scheme, authority, path.toString(), query == null ? null : query.toString());
+		}
+
+	}
+
+}
@@ -0,0 +1,26 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * Stand-in of the Android environment for the JVM harness: the external
+ * storage is the directory given by the <code>harness.storage</code> system
+ * property, or the temporary directory.
+ *
+ */
+public final class Environment {
+
+	public static final String MEDIA_MOUNTED = "mounted";
+
+	private Environment() {
+	}
+
+	public static File getExternalStorageDirectory() {
+		return new File(System.getProperty("harness.storage", System.getProperty("java.io.tmpdir")));
+	}
+
+	public static String getExternalStorageState() {
+		return MEDIA_MOUNTED;
+	}
+
+}
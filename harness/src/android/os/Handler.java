@@ -0,0 +1,52 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Stand-in of an Android handler for the JVM harness. There is no looper:
+ * posted runnables are run on a single timer thread, shared by all handlers.
+ *
+ */
+public class Handler {
+
+	private static final Timer timer = new Timer("harness-handler", true);
+
+	/**
+	 * Scheduled tasks of posted runnables, to remove them. Guarded by this.
+	 */
+	private final Map<Runnable, TimerTask> tasks = new HashMap<Runnable, TimerTask>();
+
+	public final boolean post(Runnable r) {
+		return postDelayed(r, 0);
+	}
+
+	public final boolean postDelayed(final Runnable r, long delayMillis) {
+		TimerTask task = new TimerTask() {
+			@Override
+			public void run() {
+				synchronized (Handler.this) {
+					if (tasks.get(r) == this) {
+						tasks.remove(r);
+					}
+				}
+				r.run();
+			}
+		};
+		synchronized (this) {
+			tasks.put(r, task);
+		}
+		timer.schedule(task, Math.max(0, delayMillis));
+		return true;
+	}
+
+	public final synchronized void removeCallbacks(Runnable r) {
+		TimerTask task = tasks.remove(r);
+		if (task != null) {
+			task.cancel();
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package android.os;
+
+/**
+ * Stand-in of the Android clocks for the JVM harness, based on {@link System#nanoTime()}.
+ *
+ */
+public final class SystemClock {
+
+	private static final long ORIGIN = System.nanoTime();
+
+	private SystemClock() {
+	}
+
+	public static long elapsedRealtime() {
+		return (System.nanoTime() - ORIGIN) / 1000000;
+	}
+
+	public static long uptimeMillis() {
+		return elapsedRealtime();
+	}
+
+	public static void sleep(long ms) {
+		long end = elapsedRealtime() + ms;
+		while (ms > 0) {
+			try {
+				Thread.sleep(ms);
+			} catch (InterruptedException ie) {
+				// Ignored, as on Android
+			}
+			ms = end - elapsedRealtime();
+		}
+	}
+
+}
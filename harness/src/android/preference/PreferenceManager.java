@@ -0,0 +1,16 @@
+package android.preference;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Stand-in of the Android preference manager for the JVM harness.
+ *
+ */
+public class PreferenceManager {
+
+	public static SharedPreferences getDefaultSharedPreferences(Context context) {
+		return context.getSharedPreferences(context.getPackageName() + "_preferences", Context.MODE_PRIVATE);
+	}
+
+}
@@ -0,0 +1,98 @@
+package android.util;
+
+/**
+ * Stand-in of the Android logger for the JVM harness: messages at or above
+ * the level given by the <code>harness.log</code> system property
+ * (VERBOSE, DEBUG, INFO, WARN or ERROR, INFO by default) are printed to stderr.
+ *
+ */
+public final class Log {
+
+	public static final int VERBOSE = 2;
+	public static final int DEBUG = 3;
+	public static final int INFO = 4;
+	public static final int WARN = 5;
+	public static final int ERROR = 6;
+
+	private static final String[] LEVEL_NAMES = {"VERBOSE", "DEBUG", "INFO", "WARN", "ERROR"};
+
+	private static final int threshold = parseLevel(System.getProperty("harness.log", "INFO"));
+
+	private Log() {
+	}
+
+	private static int parseLevel(String name) {
+		for (int i = 0; i < LEVEL_NAMES.length; i++) {
+			if (LEVEL_NAMES[i].equalsIgnoreCase(name)) {
+				return VERBOSE + i;
+			}
+		}
+		return INFO;
+	}
+
+	public static boolean isLoggable(String tag, int level) {
+		return level >= threshold;
+	}
+
+	public static int println(int priority, String tag, String msg) {
+		if (priority < threshold) {
+			return 0;
+		}
+		String line = LEVEL_NAMES[priority - VERBOSE].charAt(0) + "/" + tag + ": " + msg;
+		System.err.println(line);
+		return line.length();
+	}
+
+	private static int println(int priority, String tag, String msg, Throwable tr) {
+		int written = println(priority, tag, msg);
+		if (written > 0 && tr != null) {
+			tr.printStackTrace();
+		}
+		return written;
+	}
+
+	public static int v(String tag, String msg) {
+		return println(VERBOSE, tag, msg);
+	}
+
+	public static int v(String tag, String msg, Throwable tr) {
+		return println(VERBOSE, tag, msg, tr);
+	}
+
+	public static int d(String tag, String msg) {
+		return println(DEBUG, tag, msg);
+	}
+
+	public static int d(String tag, String msg, Throwable tr) {
+		return println(DEBUG, tag, msg, tr);
+	}
+
+	public static int i(String tag, String msg) {
+		return println(INFO, tag, msg);
+	}
+
+	public static int i(String tag, String msg, Throwable tr) {
+		return println(INFO, tag, msg, tr);
+	}
+
+	public static int w(String tag, String msg) {
+		return println(WARN, tag, msg);
+	}
+
+	public static int w(String tag, String msg, Throwable tr) {
+		return println(WARN, tag, msg, tr);
+	}
+
+	public static int w(String tag, Throwable tr) {
+		return println(WARN, tag, "", tr);
+	}
+
+	public static int e(String tag, String msg) {
+		return println(ERROR, tag, msg);
+	}
+
+	public static int e(String tag, String msg, Throwable tr) {
+		return println(ERROR, tag, msg, tr);
+	}
+
+}
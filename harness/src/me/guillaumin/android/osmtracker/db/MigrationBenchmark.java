@@ -0,0 +1,480 @@
+package me.guillaumin.android.osmtracker.db;
+
+import java.io.File;
+
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Times the upgrade path from an old database version: a scratch database
+ * is generated with the schema of that version and a given number of trackpoints,
+ * then opened with {@link DatabaseHelper} to upgrade it, then pending
+ * {@link Migration}s are run to completion.
+ * <br />
+ * {@link #compareStorage(Context, int)} compares the size and read speed of the
+ * trackpoint storage formats (see {@link TrackpointStorage} and {@link PackedTrack})
+ * the same way, and {@link #compareEndpointQueries(Context, int)} times reading the first
+ * and last trackpoints of many tracks, one query per track or a single one.
+ * <br />
+ * The scratch database is deleted afterwards. The user's database isn't touched.
+ * <br />
+ * Part of the JVM harness, run by {@link me.guillaumin.android.osmtracker.harness.ProviderBenchmark}:
+ * it's in this package to reach the storage classes, but isn't shipped with the application.
+ *
+ */
+public class MigrationBenchmark {
+
+	private static final String TAG = MigrationBenchmark.class.getSimpleName();
+
+	/**
+	 * Name of the scratch database
+	 */
+	private static final String DB_NAME = "migration_benchmark";
+
+	/**
+	 * Oldest version that can be generated
+	 */
+	public static final int MIN_VERSION = 12;
+
+	/**
+	 * Trackpoints of each generated track
+	 */
+	private static final int TRACKPOINTS_PER_TRACK = 10000;
+
+	/**
+	 * Trackpoints of each track generated to compare endpoint queries
+	 */
+	private static final int ENDPOINTS_TRACKPOINTS_PER_TRACK = 100;
+
+	/**
+	 * Trackpoints inserted per transaction when generating
+	 */
+	private static final int TRACKPOINTS_PER_TRANSACTION = 10000;
+
+	/**
+	 * Table TRACK as of version 12 and 13
+	 */
+	@SuppressWarnings("deprecation")
+	private static final String SQL_CREATE_TABLE_TRACK_V12 = ""
+		+ "create table " + Schema.TBL_TRACK + " ("
+		+ Schema.COL_ID + " integer primary key autoincrement,"
+		+ Schema.COL_NAME + " text,"
+		+ Schema.COL_START_DATE + " long not null,"
+		+ Schema.COL_DIR + " text,"
+		+ Schema.COL_ACTIVE + " integer not null default 0,"
+		+ Schema.COL_EXPORT_DATE + " long"
+		+ ")";
+
+	/**
+	 * Table TRACKPOINT as of version 12 to 14
+	 */
+	private static final String SQL_CREATE_TABLE_TRACKPOINT_V12 = ""
+		+ "create table " + Schema.TBL_TRACKPOINT + " ("
+		+ Schema.COL_ID	+ " integer primary key autoincrement,"
+		+ Schema.COL_TRACK_ID + " integer not null,"
+		+ Schema.COL_LATITUDE + " double not null,"
+		+ Schema.COL_LONGITUDE + " double not null,"
+		+ Schema.COL_ELEVATION + " double null,"
+		+ Schema.COL_ACCURACY + " double null,"
+		+ Schema.COL_TIMESTAMP + " long not null" + ")";
+
+	/**
+	 * Table WAYPOINT as of version 12 to 14
+	 */
+	private static final String SQL_CREATE_TABLE_WAYPOINT_V12 = ""
+		+ "create table " + Schema.TBL_WAYPOINT + " ("
+		+ Schema.COL_ID + " integer primary key autoincrement,"
+		+ Schema.COL_TRACK_ID + " integer not null,"
+		+ Schema.COL_UUID + " text,"
+		+ Schema.COL_LATITUDE + " double not null,"
+		+ Schema.COL_LONGITUDE + " double not null,"
+		+ Schema.COL_ELEVATION + " double null,"
+		+ Schema.COL_ACCURACY + " double null,"
+		+ Schema.COL_TIMESTAMP + " long not null,"
+		+ Schema.COL_NAME + " text,"
+		+ Schema.COL_LINK + " text,"
+		+ Schema.COL_NBSATELLITES + " integer not null" + ")";
+
+	/**
+	 * Times the upgrade of a generated database
+	 * @param context Context
+	 * @param fromVersion Version to upgrade from, at least {@link #MIN_VERSION}
+	 * @param trackpoints Number of trackpoints to generate
+	 * @return Durations (ms) of the generation, the upgrade and the background
+	 * migrations, and the size of the database (bytes)
+	 * @throws JSONException
+	 */
+	public static JSONObject run(Context context, int fromVersion, int trackpoints) throws JSONException {
+		if (fromVersion < MIN_VERSION) {
+			throw new IllegalArgumentException("Can't generate version " + fromVersion);
+		}
+
+		context.deleteDatabase(DB_NAME);
+		try {
+			long start = SystemClock.elapsedRealtime();
+			generate(context, fromVersion, trackpoints, TRACKPOINTS_PER_TRACK);
+			long generationDuration = SystemClock.elapsedRealtime() - start;
+			long sizeBefore = context.getDatabasePath(DB_NAME).length();
+
+			DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+			start = SystemClock.elapsedRealtime();
+			SQLiteDatabase db = helper.getWritableDatabase();
+			long upgradeDuration = SystemClock.elapsedRealtime() - start;
+
+			start = SystemClock.elapsedRealtime();
+			int steps = Migration.runAll(db);
+			long migrationDuration = SystemClock.elapsedRealtime() - start;
+			helper.close();
+
+			JSONObject result = new JSONObject();
+			result.put("from_version", fromVersion);
+			result.put("trackpoints", trackpoints);
+			result.put("generation_ms", generationDuration);
+			result.put("upgrade_ms", upgradeDuration);
+			result.put("migration_ms", migrationDuration);
+			result.put("migration_steps", steps);
+			result.put("size_before_bytes", sizeBefore);
+			result.put("size_after_bytes", context.getDatabasePath(DB_NAME).length());
+			Log.i(TAG, "Upgrade from v" + fromVersion + " with " + trackpoints + " trackpoints: "
+					+ upgradeDuration + "ms, background migrations: " + migrationDuration + "ms");
+			return result;
+		} finally {
+			context.deleteDatabase(DB_NAME);
+		}
+	}
+
+	/**
+	 * Compares the legacy, packed and fixed point storage of trackpoints: a database of the
+	 * current version is generated and measured, then its tracks are sealed into packs and
+	 * measured, then it's converted by {@link FixedPointMigration} and measured again.
+	 * Databases are vacuumed before being measured. Reads are timed on a warm cache,
+	 * reading all the trackpoints of each track in order, as the export does. Scans
+	 * aggregate the timestamps of the whole table, as statistics over all tracks do.
+	 * @param context Context
+	 * @param trackpoints Number of trackpoints to generate
+	 * @return Size (bytes) and read duration (ms) of each format, scan duration (ms) of
+	 * the legacy and fixed point formats, and duration (ms) of the sealing and the conversion
+	 * @throws JSONException
+	 */
+	public static JSONObject compareStorage(Context context, int trackpoints) throws JSONException {
+		context.deleteDatabase(DB_NAME);
+		try {
+			generate(context, 14, trackpoints, TRACKPOINTS_PER_TRACK);
+			DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+			SQLiteDatabase db = helper.getWritableDatabase();
+			Migration.runAll(db);
+
+			JSONObject result = new JSONObject();
+			result.put("trackpoints", trackpoints);
+			db.execSQL("VACUUM");
+			result.put("legacy_size_bytes", context.getDatabasePath(DB_NAME).length());
+			result.put("legacy_read_ms", timeReads(db));
+			result.put("legacy_scan_ms", timeScans(db));
+
+			long[] trackIds = getTrackIds(db);
+			long start = SystemClock.elapsedRealtime();
+			for (long trackId : trackIds) {
+				PackedTrack.seal(db, trackId);
+			}
+			result.put("seal_ms", SystemClock.elapsedRealtime() - start);
+			result.put("packed_size_bytes", DatabaseUtils.longForQuery(db, "select sum(length(" + Schema.COL_PACK_IDS
+					+ ") + length(" + Schema.COL_LATITUDE + ") + length(" + Schema.COL_LONGITUDE
+					+ ") + length(" + Schema.COL_TIMESTAMP + ") + length(" + Schema.COL_ELEVATION
+					+ ") + length(" + Schema.COL_ACCURACY + ")) from " + Schema.TBL_TRACKPOINT_PACK, null));
+			result.put("packed_read_ms", timePackedReads(db, trackIds));
+			// Not part of the next measures
+			db.delete(Schema.TBL_TRACKPOINT_PACK, null, null);
+
+			start = SystemClock.elapsedRealtime();
+			Migration.schedule(db, FixedPointMigration.NAME);
+			result.put("conversion_steps", Migration.runAll(db));
+			result.put("conversion_ms", SystemClock.elapsedRealtime() - start);
+
+			db.execSQL("VACUUM");
+			result.put("fixed_point_size_bytes", context.getDatabasePath(DB_NAME).length());
+			result.put("fixed_point_read_ms", timeReads(db));
+			result.put("fixed_point_scan_ms", timeScans(db));
+			helper.close();
+
+			Log.i(TAG, "Storage of " + trackpoints + " trackpoints: " + result.toString());
+			return result;
+		} finally {
+			context.deleteDatabase(DB_NAME);
+		}
+	}
+
+	/**
+	 * Compares reading the first and last trackpoints of all tracks with one query per
+	 * track, and with a single query for all of them, as {@link TrackContentProvider#trackEndpointsUri(long...)}
+	 * allows. Both run the statement of the provider, and are timed on a warm cache.
+	 * @param context Context
+	 * @param tracks Number of tracks to generate, of {@link #ENDPOINTS_TRACKPOINTS_PER_TRACK} trackpoints
+	 * @return Durations (ms) of both ways
+	 * @throws JSONException
+	 */
+	public static JSONObject compareEndpointQueries(Context context, int tracks) throws JSONException {
+		context.deleteDatabase(DB_NAME);
+		try {
+			generate(context, 14, tracks * ENDPOINTS_TRACKPOINTS_PER_TRACK, ENDPOINTS_TRACKPOINTS_PER_TRACK);
+			DatabaseHelper helper = new DatabaseHelper(context, DB_NAME);
+			SQLiteDatabase db = helper.getWritableDatabase();
+			Migration.runAll(db);
+
+			long[] trackIds = getTrackIds(db);
+			StringBuilder ids = new StringBuilder();
+			for (long trackId : trackIds) {
+				if (ids.length() > 0) {
+					ids.append(',');
+				}
+				ids.append(trackId);
+			}
+
+			JSONObject result = new JSONObject();
+			result.put("tracks", trackIds.length);
+			readEndpointsPerTrack(db, trackIds);
+			long start = SystemClock.elapsedRealtime();
+			readEndpointsPerTrack(db, trackIds);
+			result.put("per_track_ms", SystemClock.elapsedRealtime() - start);
+
+			readEndpoints(db, ids.toString());
+			start = SystemClock.elapsedRealtime();
+			readEndpoints(db, ids.toString());
+			result.put("single_query_ms", SystemClock.elapsedRealtime() - start);
+			helper.close();
+
+			Log.i(TAG, "Endpoints of " + trackIds.length + " tracks: " + result.toString());
+			return result;
+		} finally {
+			context.deleteDatabase(DB_NAME);
+		}
+	}
+
+	/**
+	 * Reads the endpoints of tracks, one query per track
+	 */
+	private static void readEndpointsPerTrack(SQLiteDatabase db, long[] trackIds) {
+		for (long trackId : trackIds) {
+			readEndpoints(db, Long.toString(trackId));
+		}
+	}
+
+	/**
+	 * Reads the endpoints of tracks with a single query
+	 * @param ids Comma separated track ids
+	 * @return Sum of the start timestamps, so that nothing is optimized out
+	 */
+	private static long readEndpoints(SQLiteDatabase db, String ids) {
+		long sum = 0;
+		Cursor c = db.rawQuery(TrackContentProvider.buildEndpointsQuery(ids), null);
+		try {
+			while (c.moveToNext()) {
+				for (int i = 1; i < c.getColumnCount(); i++) {
+					c.getDouble(i);
+				}
+				sum += c.getLong(1);
+			}
+		} finally {
+			c.close();
+		}
+		return sum;
+	}
+
+	/**
+	 * Reads all trackpoints once to warm the cache, then times a second read
+	 * @return Duration of the second read, in ms
+	 */
+	private static long timeReads(SQLiteDatabase db) {
+		readTrackpoints(db);
+		long start = SystemClock.elapsedRealtime();
+		readTrackpoints(db);
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	/**
+	 * Scans the timestamps of all trackpoints once to warm the cache, then times a second scan.
+	 * total() rather than sum(): millisecond timestamps of 10M trackpoints overflow a long.
+	 * @return Duration of the second scan, in ms
+	 */
+	private static long timeScans(SQLiteDatabase db) {
+		String scan = "select count(*), min(" + Schema.COL_TIMESTAMP + "), max(" + Schema.COL_TIMESTAMP
+				+ "), total(" + Schema.COL_TIMESTAMP + ") from " + Schema.TBL_TRACKPOINT;
+		DatabaseUtils.longForQuery(db, scan, null);
+		long start = SystemClock.elapsedRealtime();
+		DatabaseUtils.longForQuery(db, scan, null);
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	/**
+	 * Reads all packed trackpoints once to warm the cache, then times a second read
+	 * @return Duration of the second read, in ms
+	 */
+	private static long timePackedReads(SQLiteDatabase db, long[] trackIds) {
+		readPackedTrackpoints(db, trackIds);
+		long start = SystemClock.elapsedRealtime();
+		readPackedTrackpoints(db, trackIds);
+		return SystemClock.elapsedRealtime() - start;
+	}
+
+	/**
+	 * Reads the packed trackpoints of every track, as {@link #readTrackpoints(SQLiteDatabase)}
+	 * @return Sum of the latitudes, so that nothing is optimized out
+	 */
+	private static double readPackedTrackpoints(SQLiteDatabase db, long[] trackIds) {
+		double sum = 0;
+		for (long trackId : trackIds) {
+			PackedTrack track = PackedTrack.read(db, trackId);
+			for (int i = 0; i < track.size(); i++) {
+				sum += track.getLatitude(i);
+				track.getLongitude(i);
+				track.getElevation(i);
+				track.getTimestamp(i);
+			}
+		}
+		return sum;
+	}
+
+	private static long[] getTrackIds(SQLiteDatabase db) {
+		Cursor c = db.query(Schema.TBL_TRACK, new String[] {Schema.COL_ID}, null, null, null, null, null);
+		try {
+			long[] trackIds = new long[c.getCount()];
+			for (int i = 0; c.moveToNext(); i++) {
+				trackIds[i] = c.getLong(0);
+			}
+			return trackIds;
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Reads the trackpoints of every track, ordered by id
+	 * @return Sum of the latitudes, so that nothing is optimized out
+	 */
+	private static double readTrackpoints(SQLiteDatabase db) {
+		double sum = 0;
+		Cursor tracks = db.query(Schema.TBL_TRACK, new String[] {Schema.COL_ID}, null, null, null, null, null);
+		try {
+			while (tracks.moveToNext()) {
+				Cursor c = db.query(Schema.TBL_TRACKPOINT, new String[] {Schema.COL_LATITUDE, Schema.COL_LONGITUDE,
+						Schema.COL_ELEVATION, Schema.COL_TIMESTAMP}, Schema.COL_TRACK_ID + " = ?",
+						new String[] {Long.toString(tracks.getLong(0))}, null, null, Schema.COL_ID + " asc");
+				try {
+					while (c.moveToNext()) {
+						sum += c.getDouble(0);
+						c.getDouble(1);
+						c.getDouble(2);
+						c.getLong(3);
+					}
+				} finally {
+					c.close();
+				}
+			}
+		} finally {
+			tracks.close();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return Elevation of the i-th generated trackpoint, in m. Fractional as
+	 * the ones of GPS fixes: SQLite would store whole numbers as small integers.
+	 */
+	public static double getElevation(int i) {
+		return 100 + (i % 5000) * 0.0731;
+	}
+
+	/**
+	 * @return Accuracy of the i-th generated trackpoint, in m. A float widened
+	 * to a double, as Location#getAccuracy() gives.
+	 */
+	public static double getAccuracy(int i) {
+		return (float) (3 + (i % 97) * 0.173);
+	}
+
+	/**
+	 * Generates the scratch database with the schema of an old version. Tracks
+	 * reference a directory that doesn't exist, so no files are copied by migrations.
+	 * @param trackpointsPerTrack A new track is started every this many trackpoints
+	 */
+	@SuppressWarnings("deprecation")
+	private static void generate(Context context, int version, int trackpoints, int trackpointsPerTrack) {
+		File file = context.getDatabasePath(DB_NAME);
+		file.getParentFile().mkdirs();
+		SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+		try {
+			db.execSQL(SQL_CREATE_TABLE_TRACK_V12);
+			db.execSQL(SQL_CREATE_TABLE_TRACKPOINT_V12);
+			db.execSQL(SQL_CREATE_TABLE_WAYPOINT_V12);
+			db.execSQL("create index " + Schema.TBL_TRACKPOINT + "_idx ON " + Schema.TBL_TRACKPOINT
+					+ "(" + Schema.COL_TRACK_ID + ")");
+			db.execSQL("create index " + Schema.TBL_WAYPOINT + "_idx ON " + Schema.TBL_WAYPOINT
+					+ "(" + Schema.COL_TRACK_ID + ")");
+			if (version >= 14) {
+				for (String sql : DatabaseHelper.SQL_ADD_COLS_TRACK_ARCHIVE) {
+					db.execSQL(sql);
+				}
+			}
+
+			SQLiteStatement insertTrack = db.compileStatement("insert into " + Schema.TBL_TRACK + " ("
+					+ Schema.COL_NAME + "," + Schema.COL_START_DATE + "," + Schema.COL_DIR + ") values (?,?,?)");
+			SQLiteStatement insertTrackpoint = db.compileStatement("insert into " + Schema.TBL_TRACKPOINT + " ("
+					+ Schema.COL_TRACK_ID + "," + Schema.COL_LATITUDE + "," + Schema.COL_LONGITUDE + ","
+					+ Schema.COL_ELEVATION + "," + Schema.COL_ACCURACY + "," + Schema.COL_TIMESTAMP
+					+ ") values (?,?,?,?,?,?)");
+			try {
+				long time = System.currentTimeMillis() - trackpoints * 1000L;
+				long trackId = -1;
+				int i = 0;
+				while (i < trackpoints) {
+					int end = Math.min(trackpoints, i + TRACKPOINTS_PER_TRANSACTION);
+					db.beginTransaction();
+					try {
+						for (; i < end; i++) {
+							if (i % trackpointsPerTrack == 0) {
+								insertTrack.bindString(1, "Benchmark");
+								insertTrack.bindLong(2, time);
+								if (version < 13) {
+									insertTrack.bindString(3, new File(file.getParentFile(), "missing").getAbsolutePath());
+								} else {
+									insertTrack.bindNull(3);
+								}
+								trackId = insertTrack.executeInsert();
+							}
+
+							// A walk around 45N 0E, a point per second
+							insertTrackpoint.bindLong(1, trackId);
+							insertTrackpoint.bindDouble(2, 45 + (i % 3600) * 0.00001);
+							insertTrackpoint.bindDouble(3, (i % 7200) * 0.00001);
+							insertTrackpoint.bindDouble(4, getElevation(i));
+							insertTrackpoint.bindDouble(5, getAccuracy(i));
+							insertTrackpoint.bindLong(6, time);
+							insertTrackpoint.executeInsert();
+							time += 1000;
+						}
+						db.setTransactionSuccessful();
+					} finally {
+						db.endTransaction();
+					}
+				}
+			} finally {
+				insertTrack.close();
+				insertTrackpoint.close();
+			}
+
+			db.setVersion(version);
+		} finally {
+			db.close();
+		}
+	}
+
+}
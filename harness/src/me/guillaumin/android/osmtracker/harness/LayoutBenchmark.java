@@ -0,0 +1,231 @@
+package me.guillaumin.android.osmtracker.harness;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.HashMap;
+
+import me.guillaumin.android.osmtracker.layout.model.LayoutPage;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
+import me.guillaumin.android.osmtracker.util.UserDefinedLayoutCache;
+import me.guillaumin.android.osmtracker.util.UserDefinedLayoutReader;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import android.content.res.Resources;
+
+/**
+ * Times the loading of button layouts at the start of the track logger, as
+ * UserDefinedLayout does for a layout file: without a binary cache (XML parsed,
+ * cache written) and with it (cache read). Both hash the file to check the cache.
+ * <br />
+ * Times are recorded in {@link Instrumentation#LAYOUT_PARSE} and
+ * {@link Instrumentation#LAYOUT_CACHE_READ}, as on a device.
+ *
+ */
+public class LayoutBenchmark {
+
+	/**
+	 * Untimed loads of each kind, for the JIT
+	 */
+	private static final int WARMUP_RUNS = 20;
+
+	/**
+	 * Timed loads of each kind
+	 */
+	private static final int RUNS = 100;
+
+	/**
+	 * Pages of the generated large layout, after its root page
+	 */
+	private static final int LARGE_PAGES = 100;
+
+	private static final int LARGE_ROWS = 8;
+
+	private static final int LARGE_BUTTONS = 4;
+
+	private final File directory;
+
+	private final Resources resources = new Resources();
+
+	/**
+	 * @param directory Directory to write the layout and its cache to
+	 */
+	public LayoutBenchmark(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Times the bundled default layout, and a generated large one
+	 * @param defaultLayout The bundled default layout file
+	 * @return Average and median times of each load, in µs
+	 */
+	public JSONObject run(File defaultLayout) throws IOException, XmlPullParserException, JSONException {
+		directory.mkdirs();
+		JSONObject result = new JSONObject();
+		result.put("benchmark", "layout");
+		result.put("runs", RUNS);
+
+		// Loaded as a user layout file: the bundled one is compiled on Android
+		File copy = new File(directory, "default_layout.xml");
+		try {
+			copyWithoutBom(defaultLayout, copy);
+			time(copy, "default", result);
+		} finally {
+			copy.delete();
+		}
+
+		File large = new File(directory, "large_layout.xml");
+		try {
+			result.put("large_buttons", generate(large));
+			time(large, "large", result);
+		} finally {
+			large.delete();
+		}
+		return result;
+	}
+
+	/**
+	 * Times loads of a layout without, then with the binary cache
+	 * @param name Prefix of the result keys
+	 */
+	private void time(File layout, String name, JSONObject result)
+			throws IOException, XmlPullParserException, JSONException {
+		File cacheFile = new File(directory, "layout_" + name + ".cache");
+		try {
+			for (int i = 0; i < WARMUP_RUNS; i++) {
+				cacheFile.delete();
+				load(layout, cacheFile);
+				load(layout, cacheFile);
+			}
+
+			Instrumentation.reset();
+			for (int i = 0; i < RUNS; i++) {
+				cacheFile.delete();
+				load(layout, cacheFile);
+			}
+			for (int i = 0; i < RUNS; i++) {
+				load(layout, cacheFile);
+			}
+
+			result.put(name + "_bytes", layout.length());
+			result.put(name + "_cache_bytes", cacheFile.length());
+			put(result, name + "_uncached", Instrumentation.LAYOUT_PARSE);
+			put(result, name + "_cached", Instrumentation.LAYOUT_CACHE_READ);
+		} finally {
+			cacheFile.delete();
+		}
+	}
+
+	private static void put(JSONObject result, String name, Instrumentation.Histogram histogram) throws JSONException {
+		result.put(name + "_avg_us", histogram.getTotal() / Math.max(1, histogram.getCount()));
+		result.put(name + "_p50_us", histogram.getPercentile(0.5));
+	}
+
+	/**
+	 * Loads a layout from its binary cache, or parses it and writes the cache
+	 * @return Pages, with page name as key
+	 */
+	private HashMap<String, LayoutPage> load(File layout, File cacheFile) throws IOException, XmlPullParserException {
+		long start = Instrumentation.now();
+		String cacheKey = UserDefinedLayoutCache.hash(layout) + ":en";
+		HashMap<String, LayoutPage> pages = UserDefinedLayoutCache.read(cacheFile, cacheKey);
+		if (pages != null) {
+			Instrumentation.LAYOUT_CACHE_READ.record(start);
+			return pages;
+		}
+
+		XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+		Reader reader = new FileReader(layout);
+		try {
+			parser.setInput(reader);
+			pages = new UserDefinedLayoutReader(parser, resources).parseLayout();
+		} finally {
+			reader.close();
+		}
+		UserDefinedLayoutCache.write(cacheFile, cacheKey, pages);
+		Instrumentation.LAYOUT_PARSE.record(start);
+		return pages;
+	}
+
+	/**
+	 * Copies a file, without its UTF-8 byte order mark if any: the pull parser doesn't skip it
+	 */
+	private static void copyWithoutBom(File source, File target) throws IOException {
+		byte[] data = new byte[(int) source.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(source));
+		try {
+			in.readFully(data);
+		} finally {
+			in.close();
+		}
+		int offset = (data.length >= 3 && (data[0] & 0xff) == 0xef && (data[1] & 0xff) == 0xbb
+				&& (data[2] & 0xff) == 0xbf) ? 3 : 0;
+		OutputStream out = new FileOutputStream(target);
+		try {
+			out.write(data, offset, data.length - offset);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes a layout of {@link #LARGE_PAGES} pages of tag buttons, reached from
+	 * a root page. Half of the labels are string resources, as in translated layouts.
+	 * @return Number of buttons
+	 */
+	private int generate(File target) throws IOException {
+		int buttons = 0;
+		Writer writer = new FileWriter(target);
+		try {
+			writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<layouts>\n");
+			writer.write("\t<layout name=\"root\">\n");
+			for (int p = 0; p < LARGE_PAGES; p += LARGE_BUTTONS) {
+				writer.write("\t\t<row>\n");
+				for (int b = p; b < Math.min(LARGE_PAGES, p + LARGE_BUTTONS); b++) {
+					writer.write("\t\t\t<button type=\"page\" label=\"Page " + b + "\" icon=\"button_misc\" targetlayout=\"page"
+							+ b + "\" />\n");
+					buttons++;
+				}
+				writer.write("\t\t</row>\n");
+			}
+			writer.write("\t</layout>\n");
+
+			for (int p = 0; p < LARGE_PAGES; p++) {
+				writer.write("\t<layout name=\"page" + p + "\" iconpos=\"top\">\n");
+				for (int r = 0; r < LARGE_ROWS; r++) {
+					writer.write("\t\t<row>\n");
+					for (int b = 0; b < LARGE_BUTTONS; b++) {
+						String label;
+						if (buttons % 2 == 0) {
+							resources.putString("label_" + buttons, "Label " + buttons);
+							label = "@string/label_" + buttons;
+						} else {
+							label = "Tag " + buttons;
+						}
+						writer.write("\t\t\t<button type=\"tag\" label=\"" + label + "\" icon=\"tag_" + b + "\" />\n");
+						buttons++;
+					}
+					writer.write("\t\t</row>\n");
+				}
+				writer.write("\t</layout>\n");
+			}
+			writer.write("</layouts>\n");
+		} finally {
+			writer.close();
+		}
+		return buttons;
+	}
+
+}
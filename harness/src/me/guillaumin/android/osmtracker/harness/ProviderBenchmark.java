@@ -0,0 +1,303 @@
+package me.guillaumin.android.osmtracker.harness;
+
+import java.io.File;
+import java.io.IOException;
+
+import me.guillaumin.android.osmtracker.db.DatabaseHelper;
+import me.guillaumin.android.osmtracker.db.MigrationBenchmark;
+import me.guillaumin.android.osmtracker.db.TrackContentProvider;
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+
+/**
+ * Benchmarks the database code of the application on the JVM, with the
+ * stand-ins of the Android classes of this harness: {@link TrackContentProvider}
+ * and {@link DatabaseHelper} run their real statements on a JDBC SQLite database.
+ * <br />
+ * Usage: <code>ProviderBenchmark [insert|query|migration|storage|endpoints|layout|all] [trackpoints]</code>.
+ * Results are printed as JSON. The migration, storage and endpoints benchmarks
+ * are those of {@link MigrationBenchmark}, the layout one is {@link LayoutBenchmark}.
+ * Databases are created under the directory given by the <code>harness.dir</code>
+ * system property, and deleted afterwards. The <code>harness.res</code> one gives
+ * the resources directory of the application.
+ * <br />
+ * Timings are only comparable between runs on the same machine: they tell whether
+ * a change is faster or slower, not how long it takes on a device.
+ *
+ */
+public class ProviderBenchmark {
+
+	/**
+	 * Trackpoints inserted one by one, each in its own transaction
+	 */
+	private static final int SINGLE_INSERTS = 10000;
+
+	/**
+	 * Trackpoints per bulk insertion, as drained from the fix journal
+	 */
+	private static final int BULK_SIZE = 50;
+
+	/**
+	 * Trackpoints of each track of the query benchmark
+	 */
+	private static final int TRACKPOINTS_PER_TRACK = 10000;
+
+	/**
+	 * Trackpoints of a range query, as read by an observer of new trackpoints
+	 */
+	private static final int RANGE_SIZE = 50;
+
+	/**
+	 * Timed runs of each query, after a first one to warm the cache
+	 */
+	private static final int QUERY_RUNS = 5;
+
+	/**
+	 * Versions to upgrade from in the migration benchmark
+	 */
+	private static final int[] MIGRATION_VERSIONS = {12, 13, 14};
+
+	/**
+	 * Tracks of the endpoints benchmark
+	 */
+	private static final int ENDPOINTS_TRACKS = 1000;
+
+	private static final int DEFAULT_TRACKPOINTS = 1000000;
+
+	private final File directory;
+
+	/**
+	 * @param directory Directory to create the databases in
+	 */
+	public ProviderBenchmark(File directory) {
+		this.directory = directory;
+	}
+
+	public static void main(String[] args) throws JSONException, IOException, XmlPullParserException {
+		String benchmark = args.length > 0 ? args[0] : "all";
+		int trackpoints = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_TRACKPOINTS;
+		File directory = new File(System.getProperty("harness.dir",
+				new File(System.getProperty("java.io.tmpdir"), "osmtracker-harness").getPath()));
+
+		ProviderBenchmark harness = new ProviderBenchmark(directory);
+		JSONArray results = new JSONArray();
+		boolean all = "all".equals(benchmark);
+		if (all || "insert".equals(benchmark)) {
+			results.put(harness.insert(trackpoints));
+		}
+		if (all || "query".equals(benchmark)) {
+			results.put(harness.query(trackpoints));
+		}
+		if (all || "migration".equals(benchmark)) {
+			for (int version : MIGRATION_VERSIONS) {
+				results.put(MigrationBenchmark.run(harness.newContext(), version, trackpoints));
+			}
+		}
+		if (all || "storage".equals(benchmark)) {
+			results.put(MigrationBenchmark.compareStorage(harness.newContext(), trackpoints));
+		}
+		if (all || "endpoints".equals(benchmark)) {
+			results.put(MigrationBenchmark.compareEndpointQueries(harness.newContext(), ENDPOINTS_TRACKS));
+		}
+		if (all || "layout".equals(benchmark)) {
+			File res = new File(System.getProperty("harness.res", "res"));
+			results.put(new LayoutBenchmark(directory).run(new File(res, "xml/default_buttons_layout.xml")));
+		}
+		if (results.length() == 0) {
+			System.err.println("Unknown benchmark: " + benchmark
+					+ ", expected insert, query, migration, storage, endpoints, layout or all");
+			System.exit(1);
+		}
+		System.out.println(results.toString(2));
+		// Stops the handler thread of the provider
+		System.exit(0);
+	}
+
+	/**
+	 * @return A new context, with an empty database and the provider registered
+	 */
+	Context newContext() {
+		Context context = new Context(directory);
+		context.deleteDatabase(DatabaseHelper.DB_NAME);
+		context.getContentResolver().addProvider(TrackContentProvider.AUTHORITY, new TrackContentProvider(), context);
+		return context;
+	}
+
+	/**
+	 * Times trackpoint insertions through the provider: one by one, then in bulk.
+	 * @param trackpoints Number of trackpoints to insert
+	 * @return Insertion rates, and latencies of single insertions (µs)
+	 */
+	JSONObject insert(int trackpoints) throws JSONException {
+		Context context = newContext();
+		ContentResolver cr = context.getContentResolver();
+		try {
+			long trackId = createTrack(cr);
+			int singles = Math.min(trackpoints, SINGLE_INSERTS);
+
+			JSONObject result = new JSONObject();
+			result.put("benchmark", "insert");
+			result.put("trackpoints", trackpoints);
+
+			Instrumentation.reset();
+			Uri uri = TrackContentProvider.trackPointsUri(trackId);
+			long start = SystemClock.elapsedRealtime();
+			for (int i = 0; i < singles; i++) {
+				cr.insert(uri, trackpoint(trackId, i));
+			}
+			long duration = SystemClock.elapsedRealtime() - start;
+			result.put("single_inserts", singles);
+			result.put("single_ms", duration);
+			result.put("single_per_second", singles * 1000L / Math.max(1, duration));
+			result.put("single_p50_us", Instrumentation.TRACKPOINT_INSERT.getPercentile(0.5));
+			result.put("single_p99_us", Instrumentation.TRACKPOINT_INSERT.getPercentile(0.99));
+
+			start = SystemClock.elapsedRealtime();
+			int bulk = bulkInsert(cr, trackId, singles, trackpoints - singles);
+			duration = SystemClock.elapsedRealtime() - start;
+			result.put("bulk_inserts", bulk);
+			result.put("bulk_size", BULK_SIZE);
+			result.put("bulk_ms", duration);
+			result.put("bulk_per_second", bulk * 1000L / Math.max(1, duration));
+			result.put("notifications", cr.getNotificationCount());
+			result.put("size_bytes", context.getDatabasePath(DatabaseHelper.DB_NAME).length());
+			return result;
+		} finally {
+			close(context);
+		}
+	}
+
+	/**
+	 * Times the queries of the track list, track display and export through the
+	 * provider, on tracks of {@link #TRACKPOINTS_PER_TRACK} trackpoints.
+	 * @param trackpoints Number of trackpoints to generate
+	 * @return Average durations (ms) of warm queries
+	 */
+	JSONObject query(int trackpoints) throws JSONException {
+		Context context = newContext();
+		ContentResolver cr = context.getContentResolver();
+		try {
+			int tracks = Math.max(1, trackpoints / TRACKPOINTS_PER_TRACK);
+			long[] trackIds = new long[tracks];
+			for (int t = 0; t < tracks; t++) {
+				trackIds[t] = createTrack(cr);
+				bulkInsert(cr, trackIds[t], 0, Math.min(TRACKPOINTS_PER_TRACK, trackpoints - t * TRACKPOINTS_PER_TRACK));
+			}
+			long trackId = trackIds[tracks - 1];
+			Cursor last = cr.query(TrackContentProvider.trackEndUri(trackId), null, null, null, null);
+			last.moveToFirst();
+			long lastId = last.getLong(last.getColumnIndex(Schema.COL_ID));
+			last.close();
+
+			JSONObject result = new JSONObject();
+			result.put("benchmark", "query");
+			result.put("trackpoints", trackpoints);
+			result.put("tracks", tracks);
+			result.put("track_list_ms", time(cr, TrackContentProvider.CONTENT_URI_TRACK));
+			result.put("track_page_ms", time(cr, TrackContentProvider.trackPageUri(0, 20)));
+			result.put("track_endpoints_ms", time(cr, TrackContentProvider.trackEndpointsUri(trackIds)));
+			result.put("track_trackpoints_ms", time(cr, TrackContentProvider.trackPointsUri(trackId)));
+			result.put("track_range_ms", time(cr,
+					TrackContentProvider.trackPointsRangeUri(trackId, lastId - RANGE_SIZE + 1, lastId)));
+			result.put("track_start_ms", time(cr, TrackContentProvider.trackStartUri(trackId)));
+			result.put("track_end_ms", time(cr, TrackContentProvider.trackEndUri(trackId)));
+			return result;
+		} finally {
+			close(context);
+		}
+	}
+
+	/**
+	 * @return Average duration of a warm query, reading all values, in ms
+	 */
+	private static double time(ContentResolver cr, Uri uri) {
+		read(cr, uri);
+		long start = System.nanoTime();
+		for (int i = 0; i < QUERY_RUNS; i++) {
+			read(cr, uri);
+		}
+		return (System.nanoTime() - start) / 1000000.0 / QUERY_RUNS;
+	}
+
+	private static void read(ContentResolver cr, Uri uri) {
+		Cursor c = cr.query(uri, null, null, null, null);
+		try {
+			while (c.moveToNext()) {
+				for (int i = 0; i < c.getColumnCount(); i++) {
+					c.getString(i);
+				}
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @return Id of a new active track
+	 */
+	private static long createTrack(ContentResolver cr) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_NAME, "Benchmark");
+		values.put(Schema.COL_START_DATE, System.currentTimeMillis());
+		values.put(Schema.COL_ACTIVE, Schema.VAL_TRACK_ACTIVE);
+		return ContentUris.parseId(cr.insert(TrackContentProvider.CONTENT_URI_TRACK, values));
+	}
+
+	/**
+	 * Inserts trackpoints in batches of {@link #BULK_SIZE}
+	 * @param first Index of the first trackpoint, for its values
+	 * @return Number of inserted trackpoints
+	 */
+	private static int bulkInsert(ContentResolver cr, long trackId, int first, int count) {
+		Uri uri = TrackContentProvider.trackPointsUri(trackId);
+		int inserted = 0;
+		ContentValues[] batch = new ContentValues[BULK_SIZE];
+		for (int i = 0; i < count; i += BULK_SIZE) {
+			if (count - i < BULK_SIZE) {
+				batch = new ContentValues[count - i];
+			}
+			for (int b = 0; b < batch.length; b++) {
+				batch[b] = trackpoint(trackId, first + i + b);
+			}
+			inserted += cr.bulkInsert(uri, batch);
+		}
+		return inserted;
+	}
+
+	/**
+	 * @return Values of a trackpoint of a walk around 45N 0E, a point per second,
+	 * as {@link MigrationBenchmark} generates
+	 */
+	private static ContentValues trackpoint(long trackId, int i) {
+		ContentValues values = new ContentValues();
+		values.put(Schema.COL_TRACK_ID, trackId);
+		values.put(Schema.COL_LATITUDE, 45 + (i % 3600) * 0.00001);
+		values.put(Schema.COL_LONGITUDE, (i % 7200) * 0.00001);
+		values.put(Schema.COL_ELEVATION, MigrationBenchmark.getElevation(i));
+		values.put(Schema.COL_ACCURACY, MigrationBenchmark.getAccuracy(i));
+		values.put(Schema.COL_TIMESTAMP, 1000000000000L + i * 1000L);
+		return values;
+	}
+
+	/**
+	 * Deletes the database of a context. The provider has no way to close it,
+	 * as on Android: its connection is left open until the end of the process.
+	 */
+	private static void close(Context context) {
+		context.deleteDatabase(DatabaseHelper.DB_NAME);
+	}
+
+}
@@ -31,6 +31,14 @@ public class OSMTracker {
 		public final static String KEY_UI_DISPLAY_KEEP_ON = "ui.display_keep_on";
 		public final static String KEY_SOUND_ENABLED = "sound_enabled";
 		public final static String KEY_UI_ORIENTATION = "ui.orientation";
+		public final static String KEY_OSM_TILES_CACHE_SIZE = "osm.tiles.cache_size";
+		public final static String KEY_OSM_TILES_URL = "osm.tiles.url";
+		public final static String KEY_OSM_SEED_ZOOM_MIN = "osm.seed.zoom_min";
+		public final static String KEY_OSM_SEED_ZOOM_MAX = "osm.seed.zoom_max";
+		public final static String KEY_ARCHIVE_ENABLED = "storage.archive.enabled";
+		public final static String KEY_ARCHIVE_AGE = "storage.archive.age";
+		public final static String KEY_ARCHIVE_EXPORTED = "storage.archive.exported";
+		public final static String KEY_STORAGE_FIXED_POINT = "storage.trackpoints.fixed_point";
 
 		// Default values
 		public final static String VAL_STORAGE_DIR = "/osmtracker";
@@ -61,6 +69,16 @@ public class OSMTracker {
 		public final static String VAL_UI_ORIENTATION_PORTRAIT = "portrait";
 		public final static String VAL_UI_ORIENTATION_LANDSCAPE = "landscape";
 		public final static String VAL_UI_ORIENTATION = VAL_UI_ORIENTATION_NONE;
+		
+		public final static String VAL_OSM_TILES_CACHE_SIZE = "64";
+		public final static String VAL_OSM_TILES_URL = "";
+		public final static String VAL_OSM_SEED_ZOOM_MIN = "12";
+		public final static String VAL_OSM_SEED_ZOOM_MAX = "16";
+
+		public final static boolean VAL_ARCHIVE_ENABLED = false;
+		public final static String VAL_ARCHIVE_AGE = "30";
+		public final static boolean VAL_ARCHIVE_EXPORTED = true;
+		public final static boolean VAL_STORAGE_FIXED_POINT = false;
 	};
 	
 	/**
@@ -94,6 +112,12 @@ public class OSMTracker {
 	 */
 	public final static String INTENT_STOP_TRACKING = OSMTracker.PACKAGE_NAME + ".intent.STOP_TRACKING";
 
+	/**
+	 * Intent to replay a GPX or NMEA trace instead of the GPS, or to stop
+	 * the replay if there's no file. Only honoured by debuggable builds.
+	 */
+	public final static String INTENT_REPLAY = OSMTracker.PACKAGE_NAME + ".intent.REPLAY";
+
 	/**
 	 * Key for extra data "waypoint name" in Intent
 	 */
@@ -108,6 +132,28 @@ public class OSMTracker {
 	 * Key for extra data "uuid" in Intent
 	 */
 	public final static String INTENT_KEY_UUID = "uuid";
+
+	/**
+	 * Key for extra data "file" (absolute path) in Intent
+	 */
+	public final static String INTENT_KEY_FILE = "file";
+
+	/**
+	 * Key for extra data "speed" (float) in Intent
+	 */
+	public final static String INTENT_KEY_SPEED = "speed";
+
+	/**
+	 * Key for extra data "time" (long, {@link android.os.SystemClock#elapsedRealtime()}
+	 * when a waypoint was requested) in Intent
+	 */
+	public final static String INTENT_KEY_TIME = "time";
+
+	/**
+	 * Key for extra data "probe interval" (int) in Intent, see
+	 * {@link me.guillaumin.android.osmtracker.service.gps.TraceReplay}
+	 */
+	public final static String INTENT_KEY_PROBE_INTERVAL = "probe_interval";
 	
 	/**
 	 * Approximation factor for calculating Horizontal Dilution of Precision
@@ -1,6 +1,10 @@
 package me.guillaumin.android.osmtracker.activity;
 
+import java.io.File;
+
+import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
@@ -8,10 +12,13 @@ import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Bundle;
 import android.os.Environment;
+import android.preference.PreferenceManager;
+import android.util.Log;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
 import android.widget.TextView;
+import android.widget.Toast;
 
 /**
  * Simply display the about screen.
@@ -21,6 +28,8 @@ import android.widget.TextView;
  */
 public class About extends Activity {
 
+	private static final String TAG = About.class.getSimpleName();
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -49,6 +58,12 @@ public class About extends Activity {
 									dialog.cancel();									
 								}
 							})
+							.setPositiveButton(R.string.about_debug_info_save, new DialogInterface.OnClickListener() {
+								@Override
+								public void onClick(DialogInterface dialog, int which) {
+									saveDebugInfo();
+								}
+							})
 							.create().show();						
 					}
 				}
@@ -62,7 +77,27 @@ public class About extends Activity {
 				+ Environment.getExternalStorageState() + "'\n"
 			+ "Can write to external storage: "
 				+ Boolean.toString(Environment.getExternalStorageDirectory().canWrite()) + "\n"
+			+ "\n"
+			+ Instrumentation.dump()
 		;
 	}
 
+	/**
+	 * Writes instrumentation values as JSON in the storage directory,
+	 * for offline analysis.
+	 */
+	private void saveDebugInfo() {
+		File storageDir = new File(Environment.getExternalStorageDirectory(),
+				PreferenceManager.getDefaultSharedPreferences(this).getString(
+						OSMTracker.Preferences.KEY_STORAGE_DIR, OSMTracker.Preferences.VAL_STORAGE_DIR));
+		try {
+			File target = Instrumentation.writeJSON(storageDir);
+			Toast.makeText(this, getResources().getString(R.string.about_debug_info_saved).replace("{0}",
+					target.getAbsolutePath()), Toast.LENGTH_LONG).show();
+		} catch (Exception e) {
+			Log.e(TAG, "Unable to save debug info", e);
+			Toast.makeText(this, R.string.error_externalstorage_not_writable, Toast.LENGTH_SHORT).show();
+		}
+	}
+
 }
@@ -5,14 +5,20 @@ import java.util.List;
 
 import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
+import me.guillaumin.android.osmtracker.db.DataHelper;
+import me.guillaumin.android.osmtracker.db.PackedTrack;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import me.guillaumin.android.osmtracker.osm.CachedTileProvider;
+import me.guillaumin.android.osmtracker.osm.SeedTilesTask;
+import me.guillaumin.android.osmtracker.service.gps.GpsEventBuffer;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
+import me.guillaumin.android.osmtracker.view.TrackPathOverlay;
 
 import org.osmdroid.contributor.util.constants.OpenStreetMapContributorConstants;
 import org.osmdroid.util.GeoPoint;
 import org.osmdroid.views.MapController;
 import org.osmdroid.views.MapView;
-import org.osmdroid.views.overlay.PathOverlay;
 import org.osmdroid.views.overlay.SimpleLocationOverlay;
 
 import android.app.Activity;
@@ -30,6 +36,8 @@ import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewGroup;
+import android.view.ViewGroup.LayoutParams;
 
 /**
  * Display current track over an OSM map.
@@ -38,7 +46,7 @@ import android.view.View.OnClickListener;
  * @author Viesturs Zarins
  *
  */
-public class DisplayTrackMap extends Activity implements OpenStreetMapContributorConstants{
+public class DisplayTrackMap extends Activity implements OpenStreetMapContributorConstants, GpsEventBuffer.Listener {
 
 	@SuppressWarnings("unused")
 	private static final String TAG = DisplayTrackMap.class.getSimpleName();
@@ -76,7 +84,7 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
 	/**
 	 * OSM view overlay that displays current path
 	 */
-	private PathOverlay pathOverlay;
+	private TrackPathOverlay pathOverlay;
 	
 	/**
 	 * Current track id
@@ -93,6 +101,12 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
 	 */
 	private GeoPoint currentPosition;
 
+	/**
+	 * Reads live fixes from the GPS logger, if the displayed track is
+	 * being recorded. Null otherwise.
+	 */
+	private GpsEventBuffer.Reader gpsEventReader;
+
 	/**
 	 * The row id of the last location read from the database that has been added to the
 	 * list of layout points. Using this we to reduce DB load by only reading new points.
@@ -122,8 +136,11 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
         currentTrackId = getIntent().getExtras().getLong(Schema.COL_TRACK_ID);
         setTitle(getTitle() + ": #" + currentTrackId);
         
-        // Initialize OSM view
-        osmView = (MapView) findViewById(R.id.displaytrackmap_osmView);
+        // Initialize OSM view, backed by our own tile cache
+        CachedTileProvider tileProvider = CachedTileProvider.create(this);
+        osmView = new MapView(this, tileProvider.getTileSource().getTileSizePixels(), tileProvider);
+        ((ViewGroup) findViewById(R.id.displaytrackmap_osmContainer)).addView(osmView,
+        		new LayoutParams(LayoutParams.FILL_PARENT, LayoutParams.FILL_PARENT));
         // we'll use osmView to define if the screen is always on or not
         osmView.setKeepScreenOn(prefs.getBoolean(OSMTracker.Preferences.KEY_UI_DISPLAY_KEEP_ON, OSMTracker.Preferences.VAL_UI_DISPLAY_KEEP_ON));
         osmViewController = osmView.getController();
@@ -143,7 +160,9 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
         trackpointContentObserver = new ContentObserver(new Handler()) {
     		@Override
     		public void onChange(boolean selfChange) {		
+    			long start = Instrumentation.now();
     			pathChanged();		
+    			Instrumentation.DISPLAYTRACKMAP_OBSERVER.record(start);
     		}
     	};
         
@@ -181,6 +200,17 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
 				TrackContentProvider.trackPointsUri(currentTrackId),
 				true, trackpointContentObserver);
 		
+		// If this track is being recorded, the current position comes
+		// from the GPS logger rather than from the last trackpoint
+		if (DataHelper.getActiveTrackId(getContentResolver()) == currentTrackId) {
+			GpsEventBuffer gpsEvents = GpsEventBuffer.getInstance();
+			gpsEventReader = gpsEvents.newReader();
+			if (gpsEventReader.readLast(GpsEventBuffer.EVENT_LOCATION)) {
+				setCurrentPosition(new GeoPoint(gpsEventReader.getLatitude(), gpsEventReader.getLongitude()));
+			}
+			gpsEvents.subscribe(this);
+		}
+
 	    // Forget the last waypoint read from the DB
 		// This ensures that all waypoints for the track will be reloaded 
         // from the database to populate the path layout
@@ -196,6 +226,12 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
 	protected void onPause() {
 		// Unregister content observer
 		getContentResolver().unregisterContentObserver(trackpointContentObserver);
+
+		// Stop reading live fixes
+		if (gpsEventReader != null) {
+			GpsEventBuffer.getInstance().unsubscribe(this);
+			gpsEventReader = null;
+		}
 		
 		// Clear the points list.
 		pathOverlay.clearPath();
@@ -240,6 +276,10 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
 				osmViewController.animateTo(currentPosition);
 			}
 			break;
+		case R.id.displaytrackmap_menu_seed:
+			// Cache tiles around the track for offline use
+			new SeedTilesTask(this, currentTrackId).execute();
+			break;
 		case R.id.displaytrackmap_menu_settings:
 			// Start settings activity
 			startActivity(new Intent(this, Preferences.class));
@@ -264,7 +304,7 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
 	 * Creates overlays over the OSM view
 	 */
 	private void createOverlays() {
-        pathOverlay = new PathOverlay(Color.BLUE, this);
+        pathOverlay = new TrackPathOverlay(Color.BLUE, this);
         osmView.getOverlays().add(pathOverlay);
         
         myLocationOverlay = new SimpleLocationOverlay(this);
@@ -299,6 +339,26 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
 		    selectionArgs = selectionArgsList.toArray(new String[1]); 
 		}
 
+		// A sealed track is read at once from its packs
+		if (lastTrackPointIdProcessed == null) {
+			PackedTrack packed = PackedTrack.read(getContentResolver(), currentTrackId);
+			if (packed != null && packed.size() > 0) {
+				long lastId = -1;
+				for (int i = 0; i < packed.size(); i++) {
+					pathOverlay.addPoint((int)(packed.getLatitude(i) * 1e6), (int)(packed.getLongitude(i) * 1e6));
+					lastId = Math.max(lastId, packed.getId(i));
+				}
+				lastTrackPointIdProcessed = (int) lastId;
+				if (gpsEventReader == null || currentPosition == null) {
+					// Last point is current position.
+					int last = packed.size() - 1;
+					setCurrentPosition(new GeoPoint(packed.getLatitude(last), packed.getLongitude(last)));
+				}
+				osmView.invalidate();
+				return;
+			}
+		}
+
 		// Retrieve any points we have not yet seen
 		Cursor c = getContentResolver().query(
 				TrackContentProvider.trackPointsUri(currentTrackId),
@@ -322,11 +382,9 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
 				c.moveToNext();
 			}		
 		
-			// Last point is current position.
-			currentPosition = new GeoPoint(lastLat, lastLon); 
-			myLocationOverlay.setLocation(currentPosition);		
-			if(centerToGpsPos) {
-				osmViewController.setCenter(currentPosition);
+			if (gpsEventReader == null || currentPosition == null) {
+				// Last point is current position.
+				setCurrentPosition(new GeoPoint(lastLat, lastLon));
 			}
 		
 			// Repaint
@@ -334,4 +392,40 @@ public class DisplayTrackMap extends Activity implements OpenStreetMapContributo
 		}
 		c.close();
 	}
+
+	@Override
+	public void onGpsEventPublished() {
+		if (gpsEventReader == null || isFinishing()) {
+			return;
+		}
+
+		// Only the latest fix matters
+		boolean located = false;
+		double lat = 0;
+		double lon = 0;
+		while (gpsEventReader.next()) {
+			if (gpsEventReader.getType() == GpsEventBuffer.EVENT_LOCATION) {
+				located = true;
+				lat = gpsEventReader.getLatitude();
+				lon = gpsEventReader.getLongitude();
+			}
+		}
+
+		if (located) {
+			setCurrentPosition(new GeoPoint(lat, lon));
+			osmView.invalidate();
+		}
+	}
+
+	/**
+	 * Moves the current location overlay, and centers the map on it if needed
+	 * @param position New current position
+	 */
+	private void setCurrentPosition(GeoPoint position) {
+		currentPosition = position;
+		myLocationOverlay.setLocation(currentPosition);
+		if(centerToGpsPos) {
+			osmViewController.setCenter(currentPosition);
+		}
+	}
 }
\ No newline at end of file
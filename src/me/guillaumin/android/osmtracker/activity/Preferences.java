@@ -5,6 +5,8 @@ import java.io.FilenameFilter;
 
 import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
+import me.guillaumin.android.osmtracker.db.FixedPointMigration;
+import me.guillaumin.android.osmtracker.service.db.MigrationService;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.Environment;
@@ -128,6 +130,21 @@ public class Preferences extends PreferenceActivity {
 			}
 		});
 
+		// Compact storage can't be undone
+		pref = findPreference(OSMTracker.Preferences.KEY_STORAGE_FIXED_POINT);
+		pref.setEnabled(!PreferenceManager.getDefaultSharedPreferences(this).getBoolean(
+				OSMTracker.Preferences.KEY_STORAGE_FIXED_POINT, OSMTracker.Preferences.VAL_STORAGE_FIXED_POINT));
+		pref.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
+			@Override
+			public boolean onPreferenceChange(Preference preference, Object newValue) {
+				if ((Boolean) newValue) {
+					// Start the conversion now, the preference isn't saved yet
+					MigrationService.start(Preferences.this, FixedPointMigration.NAME);
+					preference.setEnabled(false);
+				}
+				return true;
+			}
+		});
 		
 	}
 
@@ -20,6 +20,7 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.Intent;
 import android.database.Cursor;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.view.Menu;
@@ -118,25 +119,18 @@ public class TrackDetail extends Activity {
 	protected void onResume() {
 		super.onResume();
 		
-		// Query the track values
-		ContentResolver cr = getContentResolver();
-		Cursor cursor = cr.query(
-			ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId),
-			null, null, null, null);
-		
-		if (! cursor.moveToFirst())	{
-			// This shouldn't occur, it's here just in case.
-			// So, don't make each language translate/localize it.
-			Toast.makeText(this, "Track ID not found.", Toast.LENGTH_SHORT).show();
-			cursor.close();
-			finish();
-			return;  // <--- Early return ---
-		}
+		// Query the track values in background: reading first & last
+		// track points may take some time on big tracks
+		new LoadTrackTask().execute();
+	}
 
+	/**
+	 * Binds the track values to the views
+	 * @param t Track to display, with its extra informations read
+	 */
+	private void bindTrack(Track t) {
 		// Bind WP count, TP count, start date, etc.
 		// Fill name-field only if empty (in case changed by user/restored by onRestoreInstanceState) 
-		Track t = Track.build(trackId, cursor, cr, true);
-	
 		if (etName.length() == 0) {
 			trackNameInDB = t.getName();
 			etName.setText(trackNameInDB);
@@ -186,15 +180,13 @@ public class TrackDetail extends Activity {
 		// if the user exports the track
 		map = new HashMap<String, String>();
 		map.put(ITEM_KEY, getResources().getString(R.string.trackdetail_exportdate));
-		if (cursor.isNull(cursor.getColumnIndex(Schema.COL_EXPORT_DATE))) {
+		if (t.getExportDate() == null) {
 			map.put(ITEM_VALUE, getResources().getString(R.string.trackdetail_export_notyet));
 		} else {
-			map.put(ITEM_VALUE, (DateFormat.getDateTimeInstance().format(new Date(cursor.getLong(cursor.getColumnIndex(Schema.COL_EXPORT_DATE))))));
+			map.put(ITEM_VALUE, (DateFormat.getDateTimeInstance().format(new Date(t.getExportDate()))));
 		}
 		data.add(map);
 		
-		cursor.close();
-		
 		SimpleAdapter adapter = new SimpleAdapter(this, data, R.layout.trackdetail_item, from, to);
 		lv.setAdapter(adapter);
 	}
@@ -236,15 +228,56 @@ public class TrackDetail extends Activity {
 		case R.id.trackdetail_menu_export:
 			new ExportTrackTask(this, trackId).execute();
 			// Pick last list item (Exported date) and update it
+			// (the list may still be loading)
 			SimpleAdapter adapter = ((SimpleAdapter) lv.getAdapter());
-			@SuppressWarnings("unchecked")
-			Map<String, String> data = (Map<String, String>) adapter.getItem(adapter.getCount()-1);
-			data.put(ITEM_VALUE, DateFormat.getDateTimeInstance().format(new Date(System.currentTimeMillis())));
-			adapter.notifyDataSetChanged();
+			if (adapter != null) {
+				@SuppressWarnings("unchecked")
+				Map<String, String> data = (Map<String, String>) adapter.getItem(adapter.getCount()-1);
+				data.put(ITEM_VALUE, DateFormat.getDateTimeInstance().format(new Date(System.currentTimeMillis())));
+				adapter.notifyDataSetChanged();
+			}
 			break;
 		}
 		return super.onOptionsItemSelected(item);
 	}
+
+	/**
+	 * Reads the track and its first & last track points, then
+	 * binds them to the views.
+	 */
+	private class LoadTrackTask extends AsyncTask<Void, Void, Track> {
+
+		@Override
+		protected Track doInBackground(Void... params) {
+			ContentResolver cr = getContentResolver();
+			Cursor cursor = cr.query(
+				ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId),
+				null, null, null, null);
+			try {
+				if (! cursor.moveToFirst()) {
+					return null;
+				}
+				return Track.build(trackId, cursor, cr, true);
+			} finally {
+				cursor.close();
+			}
+		}
+
+		@Override
+		protected void onPostExecute(Track t) {
+			if (isFinishing()) {
+				return;
+			}
+			if (t == null) {
+				// This shouldn't occur, it's here just in case.
+				// So, don't make each language translate/localize it.
+				Toast.makeText(TrackDetail.this, "Track ID not found.", Toast.LENGTH_SHORT).show();
+				finish();
+				return;
+			}
+			bindTrack(t);
+		}
+	}
 	
 
 }  // public class TrackDetail
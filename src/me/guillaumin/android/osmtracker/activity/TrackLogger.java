@@ -25,6 +25,7 @@ import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.provider.MediaStore;
 import android.provider.Settings;
@@ -66,9 +67,10 @@ public class TrackLogger extends Activity {
 	public static final String STATE_BUTTONS_ENABLED = "buttonsEnabled";
 
 	/**
-	 * GPS Logger service, to receive events and be able to update UI.
+	 * GPS Logger service binder, to receive events, be able to update UI
+	 * and track waypoints.
 	 */
-	private GPSLogger gpsLogger;
+	private GPSLogger.GPSLoggerBinder gpsLogger;
 
 	/**
 	 * GPS Logger service intent, to be used in start/stopService();
@@ -91,6 +93,12 @@ public class TrackLogger extends Activity {
 	 * Keeps track of the image file when taking a picture.
 	 */
 	private File currentImageFile;
+
+	/**
+	 * {@link SystemClock#elapsedRealtime()} when the picture was requested,
+	 * the waypoint is tracked at this time rather than when the camera returns.
+	 */
+	private long currentImageRequestTime;
 	
 	/**
 	 * Keeps track of the current track id.
@@ -329,8 +337,7 @@ public class TrackLogger extends Activity {
 		case R.id.tracklogger_menu_stoptracking:
 			// Start / Stop tracking	
 			if (gpsLogger.isTracking()) {
-				Intent intent = new Intent(OSMTracker.INTENT_STOP_TRACKING);
-				sendBroadcast(intent);
+				gpsLogger.stopTracking();
 				((GpsStatusRecord) findViewById(R.id.gpsStatus)).manageRecordingIndicator(false);
 				finish();
 			}		
@@ -411,6 +418,7 @@ public class TrackLogger extends Activity {
 			if (null != imageFile) {
 				Intent cameraIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
 				cameraIntent.putExtra(MediaStore.EXTRA_OUTPUT, Uri.fromFile(imageFile));
+				currentImageRequestTime = SystemClock.elapsedRealtime();
 				startActivityForResult(cameraIntent, TrackLogger.REQCODE_IMAGE_CAPTURE);
 			} else {
 				Toast.makeText(getBaseContext(), 
@@ -430,11 +438,8 @@ public class TrackLogger extends Activity {
 				// Send an intent to inform service to track the waypoint.
 				File imageFile = popImageFile();
 				if (imageFile != null) {
-					Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
-					intent.putExtra(Schema.COL_TRACK_ID, currentTrackId);
-					intent.putExtra(OSMTracker.INTENT_KEY_NAME, getResources().getString(R.string.wpt_stillimage));
-					intent.putExtra(OSMTracker.INTENT_KEY_LINK, imageFile.getName());
-					sendBroadcast(intent);
+					trackWaypoint(currentTrackId, getResources().getString(R.string.wpt_stillimage),
+							imageFile.getName(), null, currentImageRequestTime);
 				}			
 			}
 			break;
@@ -443,12 +448,101 @@ public class TrackLogger extends Activity {
 		super.onActivityResult(requestCode, resultCode, data);
 	}
 	
+	/**
+	 * Tracks a waypoint, requested now, through the GPS logger service.
+	 * If the service isn't bound yet, falls back to a broadcast.
+	 * 
+	 * @param trackId
+	 *            Id of the track
+	 * @param name
+	 *            Name of the waypoint
+	 * @param link
+	 *            Link of the waypoint (media file name), or null
+	 * @param uuid
+	 *            Unique id of the waypoint, or null
+	 */
+	public void trackWaypoint(long trackId, String name, String link, String uuid) {
+		trackWaypoint(trackId, name, link, uuid, SystemClock.elapsedRealtime());
+	}
+
+	/**
+	 * Tracks a waypoint at the position the user was at when requesting it,
+	 * see {@link #trackWaypoint(long, String, String, String)}.
+	 * 
+	 * @param trackId
+	 *            Id of the track
+	 * @param name
+	 *            Name of the waypoint
+	 * @param link
+	 *            Link of the waypoint (media file name), or null
+	 * @param uuid
+	 *            Unique id of the waypoint, or null
+	 * @param requestTime
+	 *            {@link SystemClock#elapsedRealtime()} when the waypoint was requested
+	 */
+	public void trackWaypoint(long trackId, String name, String link, String uuid, long requestTime) {
+		if (gpsLogger != null) {
+			gpsLogger.trackWaypoint(trackId, name, link, uuid, requestTime);
+		} else {
+			Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
+			intent.putExtra(Schema.COL_TRACK_ID, trackId);
+			intent.putExtra(OSMTracker.INTENT_KEY_NAME, name);
+			intent.putExtra(OSMTracker.INTENT_KEY_LINK, link);
+			intent.putExtra(OSMTracker.INTENT_KEY_UUID, uuid);
+			intent.putExtra(OSMTracker.INTENT_KEY_TIME, requestTime);
+			sendBroadcast(intent);
+		}
+	}
+
+	/**
+	 * Updates a waypoint through the GPS logger service. If the service
+	 * isn't bound yet, falls back to a broadcast.
+	 * 
+	 * @param trackId
+	 *            Id of the track
+	 * @param uuid
+	 *            Unique id of the waypoint
+	 * @param name
+	 *            New name, or null to keep it
+	 * @param link
+	 *            New link, or null to keep it
+	 */
+	public void updateWaypoint(long trackId, String uuid, String name, String link) {
+		if (gpsLogger != null) {
+			gpsLogger.updateWaypoint(trackId, uuid, name, link);
+		} else {
+			Intent intent = new Intent(OSMTracker.INTENT_UPDATE_WP);
+			intent.putExtra(Schema.COL_TRACK_ID, trackId);
+			intent.putExtra(OSMTracker.INTENT_KEY_UUID, uuid);
+			intent.putExtra(OSMTracker.INTENT_KEY_NAME, name);
+			intent.putExtra(OSMTracker.INTENT_KEY_LINK, link);
+			sendBroadcast(intent);
+		}
+	}
+
+	/**
+	 * Deletes a waypoint through the GPS logger service. If the service
+	 * isn't bound yet, falls back to a broadcast.
+	 * 
+	 * @param uuid
+	 *            Unique id of the waypoint
+	 */
+	public void deleteWaypoint(String uuid) {
+		if (gpsLogger != null) {
+			gpsLogger.deleteWaypoint(uuid);
+		} else {
+			Intent intent = new Intent(OSMTracker.INTENT_DELETE_WP);
+			intent.putExtra(OSMTracker.INTENT_KEY_UUID, uuid);
+			sendBroadcast(intent);
+		}
+	}
+
 	/**
 	 * Getter for gpsLogger
 	 * 
-	 * @return Activity {@link GPSLogger}
+	 * @return Activity {@link GPSLogger.GPSLoggerBinder}
 	 */
-	public GPSLogger getGpsLogger() {
+	public GPSLogger.GPSLoggerBinder getGpsLogger() {
 		return gpsLogger;
 	}
 
@@ -456,9 +550,9 @@ public class TrackLogger extends Activity {
 	 * Setter for gpsLogger
 	 * 
 	 * @param l
-	 *            {@link GPSLogger} to set.
+	 *            {@link GPSLogger.GPSLoggerBinder} to set.
 	 */
-	public void setGpsLogger(GPSLogger l) {
+	public void setGpsLogger(GPSLogger.GPSLoggerBinder l) {
 		this.gpsLogger = l;
 	}
 	
@@ -1,41 +1,47 @@
 package me.guillaumin.android.osmtracker.activity;
 
-import java.io.File;
 import java.util.Date;
 
 import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
 import me.guillaumin.android.osmtracker.db.DataHelper;
+import me.guillaumin.android.osmtracker.db.DeleteTrackTask;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
 import me.guillaumin.android.osmtracker.db.TracklistAdapter;
 import me.guillaumin.android.osmtracker.exception.CreateTrackException;
 import me.guillaumin.android.osmtracker.gpx.ExportTrackTask;
-import me.guillaumin.android.osmtracker.util.FileSystemUtils;
+import me.guillaumin.android.osmtracker.service.db.DatabaseCompactionService;
+import me.guillaumin.android.osmtracker.service.db.MigrationService;
 import android.app.AlertDialog;
 import android.app.ListActivity;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.database.Cursor;
+import android.database.ContentObserver;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AdapterView;
 import android.widget.AdapterView.AdapterContextMenuInfo;
-import android.widget.CursorAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 
 /**
  * Lists existing tracks.
- * Each track is displayed using {@link TracklistAdapter}.
+ * Each track is displayed using {@link TracklistAdapter}, which loads
+ * the list by pages. The list is only fully reloaded when coming back to
+ * this activity after tracks have changed; changes made from here are applied
+ * to the loaded rows.
  * 
  * @author Nicolas Guillaumin
  * 
@@ -57,25 +63,80 @@ public class TrackManager extends ListActivity {
 	/** The previous item visible, or -1; for scrolling back to its position in {@link #onResume()} */
 	private int prevItemVisible = -1;
 
+	/** Delay before refreshing the active track after a change notification, in ms */
+	private static final long REFRESH_DELAY = 1000;
+
+	/** Adapter for the track list */
+	private TracklistAdapter adapter;
+
+	/** Whether tracks have changed since the list was loaded, and it must be reloaded in {@link #onResume()} */
+	private boolean listStale = true;
+
+	/** Whether the activity is between {@link #onResume()} and {@link #onPause()} */
+	private boolean resumed = false;
+
+	/** Handler to delay refreshes */
+	private Handler handler = new Handler();
+
+	/**
+	 * Refreshes the active track row. Points and waypoints are only added
+	 * to the active track, so it's the only row to refresh.
+	 */
+	private Runnable refreshActiveTrack = new Runnable() {
+		@Override
+		public void run() {
+			if (currentTrackId != TRACK_ID_NO_TRACK) {
+				adapter.refreshTrack(currentTrackId);
+			}
+		}
+	};
+
+	/**
+	 * Observes changes on tracks (including points and waypoints)
+	 */
+	private ContentObserver trackObserver = new ContentObserver(handler) {
+		@Override
+		public void onChange(boolean selfChange) {
+			if (resumed) {
+				// Coalesce notifications: GPS logger may insert many points
+				handler.removeCallbacks(refreshActiveTrack);
+				handler.postDelayed(refreshActiveTrack, REFRESH_DELAY);
+			} else {
+				listStale = true;
+			}
+		}
+	};
+
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
 		setContentView(R.layout.trackmanager);	
-		getListView().setEmptyView(findViewById(R.id.trackmgr_empty));
+		// Prevents on-screen 'no tracks' message until the list is loaded
+		findViewById(R.id.trackmgr_empty).setVisibility(View.GONE);
+		adapter = new TracklistAdapter(this);
+		setListAdapter(adapter);
 		registerForContextMenu(getListView());
 		if (savedInstanceState != null) {
 			prevItemVisible = savedInstanceState.getInt(PREV_VISIBLE, -1);
 		}
+		getContentResolver().registerContentObserver(TrackContentProvider.CONTENT_URI_TRACK, true, trackObserver);
+
+		// Compact the database from time to time, when the device is idle
+		DatabaseCompactionService.schedule(this);
+		// Finish migrations left by a database upgrade
+		MigrationService.start(this);
+	}
+
+	@Override
+	protected void onDestroy() {
+		getContentResolver().unregisterContentObserver(trackObserver);
+		handler.removeCallbacks(refreshActiveTrack);
+		super.onDestroy();
 	}
 
 	@Override
 	protected void onResume() {
-		Cursor cursor = getContentResolver().query(
-				TrackContentProvider.CONTENT_URI_TRACK, null, null, null,
-				Schema.COL_START_DATE + " asc");
-		startManagingCursor(cursor);
-		setListAdapter(new TracklistAdapter(TrackManager.this, cursor));
-		getListView().setEmptyView(findViewById(R.id.trackmgr_empty));  // undo change from onPause
+		resumed = true;
 
 		// Is any track active?
 		currentTrackId = DataHelper.getActiveTrackId(getContentResolver());
@@ -83,31 +144,15 @@ public class TrackManager extends ListActivity {
 			((TextView) findViewById(R.id.trackmgr_hint)).setText(
 					getResources().getString(R.string.trackmgr_continuetrack_hint)
 						.replace("{0}", Long.toString(currentTrackId)));
-
-			// Scroll to the active track of the list
-			cursor.moveToFirst();
-			// we will use the flag selectionSet to handle the while loop
-			boolean selectionSet = false;
-			while(!selectionSet && cursor.moveToNext()){
-				if(cursor.getInt(cursor.getColumnIndex(Schema.COL_ACTIVE)) == 1){
-					// This is the active track
-					// set selection to the current cursor position
-					getListView().setSelection(cursor.getPosition());
-					selectionSet = true;
-				}
-			}
 		} else {
 			((TextView) findViewById(R.id.trackmgr_hint)).setText(R.string.trackmgr_newtrack_hint);
+		}
 
-			// Scroll to the previous listview position,
-			// now that we're bound to data again
-			if (prevItemVisible != -1) {
-				final int cmax = getListView().getCount() - 1;
-				if (prevItemVisible > cmax) {
-					prevItemVisible = cmax;
-				}
-				getListView().setSelection(prevItemVisible);
-			}
+		if (listStale) {
+			listStale = false;
+			new LoadListTask().execute(currentTrackId);
+		} else if (currentTrackId != TRACK_ID_NO_TRACK) {
+			adapter.refreshTrack(currentTrackId);
 		}
 
 		super.onResume();
@@ -115,19 +160,13 @@ public class TrackManager extends ListActivity {
 
 	@Override
 	protected void onPause() {
+		resumed = false;
+
 		// Remember position in listview (before any adapter change)
 		prevItemVisible = getListView().getFirstVisiblePosition();
 
-		CursorAdapter adapter = (CursorAdapter) getListAdapter();
-		if (adapter != null) {
-			// Prevents on-screen 'no tracks' message
-			getListView().setEmptyView(findViewById(android.R.id.empty));
-			// Properly close the adapter cursor
-			Cursor cursor = adapter.getCursor();
-			stopManagingCursor(cursor);
-			cursor.close();
-			setListAdapter(null);
-		}
+		// A pending refresh won't run, refresh on resume instead
+		handler.removeCallbacks(refreshActiveTrack);
 
 		super.onPause();
 	}
@@ -215,6 +254,11 @@ public class TrackManager extends ListActivity {
 		getMenuInflater().inflate(R.menu.trackmgr_contextmenu, menu);
 		
 		long selectedId = ((AdapterContextMenuInfo) menuInfo).id;
+		if (selectedId == AdapterView.INVALID_ROW_ID) {
+			// Row not loaded yet
+			menu.clear();
+			return;
+		}
 		menu.setHeaderTitle(getResources().getString(R.string.trackmgr_contextmenu_title).replace("{0}", Long.toString(selectedId)));
 		if(currentTrackId == selectedId){
 			// the selected one is the active track, so we will show the stop item
@@ -260,16 +304,11 @@ public class TrackManager extends ListActivity {
 					@Override
 					public void onClick(DialogInterface dialog, int which) {
 						
-						getContentResolver().delete(
-								ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, info.id),
-								null, null);
-						((CursorAdapter) TrackManager.this.getListAdapter()).getCursor().requery();
-
-						// Delete any data stored for the track we're deleting
-						File trackStorageDirectory = DataHelper.getTrackDirectory(info.id);
-						if (trackStorageDirectory.exists()) {
-							FileSystemUtils.delete(trackStorageDirectory, true);
-						}
+						// Remove the track from the list right away, big tracks
+						// may take a while to delete. The task hides it from
+						// pages loaded until it's deleted.
+						new DeleteTrackTask(TrackManager.this, info.id).execute();
+						adapter.removeTrack(info.id);
 
 						dialog.dismiss();
 					}
@@ -283,7 +322,14 @@ public class TrackManager extends ListActivity {
 			
 			break;
 		case R.id.trackmgr_contextmenu_export:	
-			new ExportTrackTask(this, info.id).execute();
+			new ExportTrackTask(this, info.id) {
+				@Override
+				protected void onPostExecute(Boolean success) {
+					super.onPostExecute(success);
+					// Export date has changed
+					adapter.refreshTrack(info.id);
+				}
+			}.execute();
 			break;
 		case R.id.trackmgr_contextmenu_display:
 			// Start display track activity, with or without OSM background
@@ -345,6 +391,9 @@ public class TrackManager extends ListActivity {
 		Uri trackUri = getContentResolver().insert(TrackContentProvider.CONTENT_URI_TRACK, values);
 		long trackId = ContentUris.parseId(trackUri);
 
+		// The new track is at the end of the list, reload it when coming back
+		listStale = true;
+
 		// set the active track
 		setActiveTrack(trackId);
 		
@@ -365,6 +414,7 @@ public class TrackManager extends ListActivity {
 		ContentValues values = new ContentValues();
 		values.put(Schema.COL_ACTIVE, Schema.VAL_TRACK_ACTIVE);
 		getContentResolver().update(TrackContentProvider.CONTENT_URI_TRACK, values, Schema.COL_ID + " = ?", new String[] {Long.toString(trackId)});
+		adapter.refreshTrack(trackId);
 	}
 	
 	/**
@@ -381,6 +431,7 @@ public class TrackManager extends ListActivity {
 			// need to get sure, that the database is up to date
 			DataHelper dataHelper = new DataHelper(this);
 			dataHelper.stopTracking(currentTrackId);
+			adapter.refreshTrack(currentTrackId);
 
 			// set the currentTrackId to "no track"
 			currentTrackId = TRACK_ID_NO_TRACK;
@@ -388,4 +439,41 @@ public class TrackManager extends ListActivity {
 		}
 	}
 	
+	/**
+	 * Counts tracks and finds the position of the active track in background,
+	 * then binds the list. Rows themselves are loaded by {@link TracklistAdapter}.
+	 */
+	private class LoadListTask extends AsyncTask<Long, Void, int[]> {
+
+		@Override
+		protected int[] doInBackground(Long... params) {
+			long activeTrackId = params[0];
+			int count = TracklistAdapter.getTrackCount(getContentResolver());
+			int activePosition = -1;
+			if (activeTrackId != TRACK_ID_NO_TRACK) {
+				activePosition = TracklistAdapter.getTrackPosition(getContentResolver(), activeTrackId);
+			}
+			return new int[] {count, activePosition};
+		}
+
+		@Override
+		protected void onPostExecute(int[] result) {
+			getListView().setEmptyView(findViewById(R.id.trackmgr_empty));
+			adapter.setCount(result[0]);
+
+			if (result[1] != -1) {
+				// Scroll to the active track of the list
+				getListView().setSelection(result[1]);
+			} else if (prevItemVisible != -1) {
+				// Scroll to the previous listview position,
+				// now that we're bound to data again
+				final int cmax = result[0] - 1;
+				if (prevItemVisible > cmax) {
+					prevItemVisible = cmax;
+				}
+				getListView().setSelection(prevItemVisible);
+			}
+		}
+	}
+
 }
@@ -1,44 +1,38 @@
 package me.guillaumin.android.osmtracker.activity;
 
-import me.guillaumin.android.osmtracker.db.TrackContentProvider;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
 import me.guillaumin.android.osmtracker.db.WaypointListAdapter;
 import android.app.ListActivity;
-import android.database.Cursor;
-import android.widget.CursorAdapter;
+import android.os.Bundle;
 
 /**
  * Activity that lists the previous waypoints tracked by the user.
- * 
+ *
  * @author Nicolas Guillaumin
- * 
+ *
  */
 public class WaypointList extends ListActivity {
 
+	/**
+	 * Adapter for the list, loading waypoints by pages
+	 */
+	private WaypointListAdapter adapter;
+
 	@Override
-	protected void onResume() {
-		Long trackId = getIntent().getExtras().getLong(Schema.COL_TRACK_ID);
-		
-		Cursor cursor = getContentResolver().query(TrackContentProvider.waypointsUri(trackId),
-				null, null, null, Schema.COL_TIMESTAMP + " asc");
-		startManagingCursor(cursor);
-		setListAdapter(new WaypointListAdapter(WaypointList.this, cursor));
-		
-		super.onResume();
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		long trackId = getIntent().getExtras().getLong(Schema.COL_TRACK_ID);
+		adapter = new WaypointListAdapter(WaypointList.this, trackId);
+		setListAdapter(adapter);
 	}
 
 	@Override
-	protected void onPause() {
-		CursorAdapter adapter = (CursorAdapter) getListAdapter();
-		if (adapter != null) {
-			// Properly close the adapter cursor
-			Cursor cursor = adapter.getCursor();
-			stopManagingCursor(cursor);
-			cursor.close();
-			setListAdapter(null);
-		}
-
-		super.onPause();
+	protected void onResume() {
+		// Waypoints may have been added or edited meanwhile
+		adapter.load();
+
+		super.onResume();
 	}
 
 }
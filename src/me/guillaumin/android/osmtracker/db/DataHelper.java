@@ -12,6 +12,7 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.location.Location;
+import android.location.LocationManager;
 import android.net.Uri;
 import android.os.Environment;
 import android.preference.PreferenceManager;
@@ -63,6 +64,11 @@ public class DataHelper {
 	 */
 	private ContentResolver contentResolver;
 
+	/**
+	 * Use the GPS clock whatever the preferences, see {@link #setGpsClockForced(boolean)}
+	 */
+	private volatile boolean gpsClockForced = false;
+
 	/**
 	 * Constructor.
 	 * 
@@ -84,6 +90,34 @@ public class DataHelper {
 	 */
 	public void track(long trackId, Location location) {
 		Log.v(TAG, "Tracking (trackId=" + trackId + ") location: " + location);
+		contentResolver.insert(TrackContentProvider.trackPointsUri(trackId), getTrackpointValues(trackId, location));
+	}
+
+	/**
+	 * Track several points into DB at once, in a single transaction: either all
+	 * of them are tracked, or none. They may belong to different tracks.
+	 * 
+	 * @param trackpoints
+	 *            Trackpoints, see {@link #getTrackpointValues(long, Location)}. Not empty.
+	 * @return Number of trackpoints tracked
+	 */
+	public int track(ContentValues[] trackpoints) {
+		long trackId = trackpoints[0].getAsLong(Schema.COL_TRACK_ID);
+		Log.v(TAG, "Tracking (trackId=" + trackId + ") " + trackpoints.length + " locations");
+		return contentResolver.bulkInsert(TrackContentProvider.trackPointsUri(trackId), trackpoints);
+	}
+
+	/**
+	 * Builds the row of a trackpoint. The timestamp is taken now, from the GPS or
+	 * the OS clock depending on preferences.
+	 * 
+	 * @param trackId
+	 *            Id of the track
+	 * @param location
+	 *            The Location to track
+	 * @return Values of the trackpoint, for {@link Schema#TBL_TRACKPOINT}
+	 */
+	public ContentValues getTrackpointValues(long trackId, Location location) {
 		ContentValues values = new ContentValues();
 		values.put(Schema.COL_TRACK_ID, trackId);
 		values.put(Schema.COL_LATITUDE, location.getLatitude());
@@ -95,17 +129,71 @@ public class DataHelper {
 			values.put(Schema.COL_ACCURACY, location.getAccuracy());
 		}
 		
+		values.put(Schema.COL_TIMESTAMP, getTimestamp(location));
+		return values;
+	}
+
+	/**
+	 * Forces the use of the GPS clock, whatever the preferences. Used when
+	 * replaying a trace, the OS clock would compress its timestamps.
+	 * @param forced true to force the GPS clock
+	 */
+	public void setGpsClockForced(boolean forced) {
+		gpsClockForced = forced;
+	}
+
+	/**
+	 * @param location Location to timestamp
+	 * @return Timestamp of the location, from the GPS or the OS clock
+	 * depending on preferences
+	 */
+	private long getTimestamp(Location location) {
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-		if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, OSMTracker.Preferences.VAL_GPS_IGNORE_CLOCK)) {
+		if (!gpsClockForced
+				&& prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, OSMTracker.Preferences.VAL_GPS_IGNORE_CLOCK)) {
 			// Use OS clock
-			values.put(Schema.COL_TIMESTAMP, System.currentTimeMillis());
+			return System.currentTimeMillis();
 		} else {
 			// Use GPS clock
-			values.put(Schema.COL_TIMESTAMP, location.getTime());
+			return location.getTime();
 		}
+	}
 
-		Uri trackUri = ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId);
-		contentResolver.insert(Uri.withAppendedPath(trackUri, Schema.TBL_TRACKPOINT + "s"), values);
+	/**
+	 * @param trackId Id of the track
+	 * @return Timestamp of the last trackpoint of the track, or -1 if it has none
+	 */
+	public long getLastTrackpointTimestamp(long trackId) {
+		Location last = getLastTrackpoint(trackId);
+		return (last != null) ? last.getTime() : -1;
+	}
+
+	/**
+	 * @param trackId Id of the track
+	 * @return Last trackpoint of the track, or null if it has none
+	 */
+	public Location getLastTrackpoint(long trackId) {
+		Cursor c = contentResolver.query(TrackContentProvider.trackEndUri(trackId), null, null, null, null);
+		try {
+			if (!c.moveToFirst()) {
+				return null;
+			}
+			Location location = new Location(LocationManager.GPS_PROVIDER);
+			location.setLatitude(c.getDouble(c.getColumnIndex(Schema.COL_LATITUDE)));
+			location.setLongitude(c.getDouble(c.getColumnIndex(Schema.COL_LONGITUDE)));
+			location.setTime(c.getLong(c.getColumnIndex(Schema.COL_TIMESTAMP)));
+			int elevation = c.getColumnIndex(Schema.COL_ELEVATION);
+			if (!c.isNull(elevation)) {
+				location.setAltitude(c.getDouble(elevation));
+			}
+			int accuracy = c.getColumnIndex(Schema.COL_ACCURACY);
+			if (!c.isNull(accuracy)) {
+				location.setAccuracy(c.getFloat(accuracy));
+			}
+			return location;
+		} finally {
+			c.close();
+		}
 	}
 
 	/**
@@ -152,14 +240,7 @@ public class DataHelper {
 				values.put(Schema.COL_LINK, renameFile(trackId, link, FILENAME_FORMATTER.format(location.getTime())));
 			}
 			
-			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-			if (prefs.getBoolean(OSMTracker.Preferences.KEY_GPS_IGNORE_CLOCK, OSMTracker.Preferences.VAL_GPS_IGNORE_CLOCK)) {
-				// Use OS clock
-				values.put(Schema.COL_TIMESTAMP, System.currentTimeMillis());
-			} else {
-				// Use GPS clock
-				values.put(Schema.COL_TIMESTAMP, location.getTime());
-			}
+			values.put(Schema.COL_TIMESTAMP, getTimestamp(location));
 
 			Uri trackUri = ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId);
 			contentResolver.insert(Uri.withAppendedPath(trackUri, Schema.TBL_WAYPOINT + "s"), values);
@@ -210,7 +291,8 @@ public class DataHelper {
 	
 	
 	/**
-	 * Stop tracking by making the track inactive
+	 * Stop tracking by making the track inactive. The track should then be
+	 * sealed, see {@link #sealTrack(long)}.
 	 * @param trackId Id of the track
 	 */
 	public void stopTracking(long trackId) {
@@ -220,6 +302,16 @@ public class DataHelper {
 		contentResolver.update(trackUri, values, null, null);
 	}
 
+	/**
+	 * Packs the trackpoints of a stopped track, for faster reads (see {@link PackedTrack}).
+	 * May take a while on long tracks, shouldn't be called from the UI thread.
+	 * @param trackId Id of the track
+	 * @return Number of trackpoints packed
+	 */
+	public int sealTrack(long trackId) {
+		return contentResolver.update(TrackContentProvider.trackPackUri(trackId), new ContentValues(), null, null);
+	}
+
 	/**
 	 * Find the active track ID, if any.
 	 * @param cr  {@link ContentResolver} for query
@@ -1,14 +1,10 @@
 package me.guillaumin.android.osmtracker.db;
 
-import java.io.File;
-import java.io.FilenameFilter;
-
 import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
-import me.guillaumin.android.osmtracker.util.FileSystemUtils;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
@@ -83,13 +79,82 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		+ Schema.COL_START_DATE + " long not null,"
 		+ Schema.COL_DIR + " text," // unused since DB_VERSION 13, since SQLite doesn't support to remove a column it will stay for now
 		+ Schema.COL_ACTIVE + " integer not null default 0,"
-		+ Schema.COL_EXPORT_DATE + " long"  // null indicates not yet exported
+		+ Schema.COL_EXPORT_DATE + " long,"  // null indicates not yet exported
+		+ Schema.COL_ARCHIVE_TP_COUNT + " integer," // null indicates not archived
+		+ Schema.COL_ARCHIVE_START_TIMESTAMP + " long,"
+		+ Schema.COL_ARCHIVE_START_LATITUDE + " double,"
+		+ Schema.COL_ARCHIVE_START_LONGITUDE + " double,"
+		+ Schema.COL_ARCHIVE_END_TIMESTAMP + " long,"
+		+ Schema.COL_ARCHIVE_END_LATITUDE + " double,"
+		+ Schema.COL_ARCHIVE_END_LONGITUDE + " double"
+		+ ")";
+
+	/**
+	 * SQL for adding TRACK.COL_ARCHIVE_TP_COUNT and the COL_ARCHIVE_START_* and COL_ARCHIVE_END_* columns
+	 * @since 14
+	 */
+	static final String[] SQL_ADD_COLS_TRACK_ARCHIVE = {
+		"alter table " + Schema.TBL_TRACK + " add column " + Schema.COL_ARCHIVE_TP_COUNT + " integer",
+		"alter table " + Schema.TBL_TRACK + " add column " + Schema.COL_ARCHIVE_START_TIMESTAMP + " long",
+		"alter table " + Schema.TBL_TRACK + " add column " + Schema.COL_ARCHIVE_START_LATITUDE + " double",
+		"alter table " + Schema.TBL_TRACK + " add column " + Schema.COL_ARCHIVE_START_LONGITUDE + " double",
+		"alter table " + Schema.TBL_TRACK + " add column " + Schema.COL_ARCHIVE_END_TIMESTAMP + " long",
+		"alter table " + Schema.TBL_TRACK + " add column " + Schema.COL_ARCHIVE_END_LATITUDE + " double",
+		"alter table " + Schema.TBL_TRACK + " add column " + Schema.COL_ARCHIVE_END_LONGITUDE + " double"
+	};
+
+	/**
+	 * SQL for creating table MIGRATION, see {@link Migration}
+	 * @since 15
+	 */
+	private static final String SQL_CREATE_TABLE_MIGRATION = ""
+		+ "create table if not exists " + Schema.TBL_MIGRATION + " ("
+		+ Schema.COL_ID + " integer primary key autoincrement,"
+		+ Schema.COL_NAME + " text not null unique,"
+		+ Schema.COL_MIGRATION_TOTAL + " integer," // null until the first step
+		+ Schema.COL_MIGRATION_REMAINING + " integer"
+		+ ")";
+
+	/**
+	 * SQL for creating table TRACKPOINT_PACK, see {@link PackedTrack}
+	 * @since 16
+	 */
+	private static final String SQL_CREATE_TABLE_TRACKPOINT_PACK = ""
+		+ "create table " + Schema.TBL_TRACKPOINT_PACK + " ("
+		+ Schema.COL_ID + " integer primary key autoincrement,"
+		+ Schema.COL_TRACK_ID + " integer not null,"
+		+ Schema.COL_PACK_COUNT + " integer not null,"
+		+ Schema.COL_PACK_IDS + " blob not null,"
+		+ Schema.COL_LATITUDE + " blob not null,"
+		+ Schema.COL_LONGITUDE + " blob not null,"
+		+ Schema.COL_TIMESTAMP + " blob not null,"
+		+ Schema.COL_ELEVATION + " blob not null,"
+		+ Schema.COL_ACCURACY + " blob not null"
 		+ ")";
 
+	/**
+	 * SQL for creating index TRACKPOINT_PACK_idx (track id)
+	 * @since 16
+	 */
+	private static final String SQL_CREATE_IDX_TRACKPOINT_PACK_TRACK = ""
+		+ "create index " + Schema.TBL_TRACKPOINT_PACK
+		+ "_idx ON " + Schema.TBL_TRACKPOINT_PACK + "(" + Schema.COL_TRACK_ID + ")";
+
+	/**
+	 * Number of free pages above which {@link #reclaimFreePages(SQLiteDatabase)}
+	 * releases them to the file system.
+	 */
+	private static final long FREE_PAGES_THRESHOLD = 256;
+
+	/**
+	 * Value of PRAGMA auto_vacuum for incremental mode
+	 */
+	private static final long AUTO_VACUUM_INCREMENTAL = 2;
+
 	/**
 	 * Database name.
 	 */
-	private static final String DB_NAME = OSMTracker.class.getSimpleName();
+	public static final String DB_NAME = OSMTracker.class.getSimpleName();
 
 	/**
 	 * Database version.
@@ -105,12 +170,26 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 	 *  v9: add TBL_TRACK.COL_ACTIVE  (r206)
 	 * v12: add TBL_TRACK.COL_EXPORT_DATE, IDX_TRACKPOINT_TRACK, IDX_WAYPOINT_TRACK (r207) v0.5.0
 	 * v13: TBL_TRACK.COL_DIR is now deprecated (rxxx) v0.5.3 TODO: fill in correct revision and version 
+	 * v14: add TBL_TRACK.COL_ARCHIVE_TP_COUNT, COL_ARCHIVE_START_* and COL_ARCHIVE_END_*
+	 * v15: add TBL_MIGRATION; the v13 storage path change is now run in background
+	 * v16: add TBL_TRACKPOINT_PACK
 	 *</pre>
+	 * Switching to incremental auto vacuum is not done here, but by {@link #compact(SQLiteDatabase)}:
+	 * it requires a VACUUM, that can't run within the upgrade transaction, and may take long.
 	 */
-	private static final int DB_VERSION = 13;
+	private static final int DB_VERSION = 16;
 
 	public DatabaseHelper(Context context) {
-		super(context, DB_NAME, null, DB_VERSION);
+		this(context, DB_NAME);
+	}
+
+	/**
+	 * @param context Context
+	 * @param name Name of the database. Another name than {@link #DB_NAME} gives a
+	 * scratch database with the same schema and upgrades, e.g. for benchmarks.
+	 */
+	public DatabaseHelper(Context context, String name) {
+		super(context, name, null, DB_VERSION);
 	}
 
 	@Override
@@ -123,6 +202,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 		db.execSQL(SQL_CREATE_IDX_WAYPOINT_TRACK);
 		db.execSQL("drop table if exists " + Schema.TBL_TRACK);
 		db.execSQL(SQL_CREATE_TABLE_TRACK);
+		db.execSQL("drop table if exists " + Schema.TBL_MIGRATION);
+		db.execSQL(SQL_CREATE_TABLE_MIGRATION);
+		db.execSQL("drop table if exists " + Schema.TBL_TRACKPOINT_PACK);
+		db.execSQL(SQL_CREATE_TABLE_TRACKPOINT_PACK);
+		db.execSQL(SQL_CREATE_IDX_TRACKPOINT_PACK_TRACK);
+	}
+
+	@Override
+	public void onOpen(SQLiteDatabase db) {
+		// A database may have been recreated at the same path
+		TrackpointStorage.forget(db);
 	}
 
 	@Override
@@ -142,70 +232,72 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 			onCreate(db);
 			break;
 		case 12:
-			manageNewStoragePath(db);
+			// Copying files of all tracks is too long for the upgrade transaction
+			db.execSQL(SQL_CREATE_TABLE_MIGRATION);
+			Migration.schedule(db, StoragePathMigration.NAME);
+		case 13:
+			for (String sql : SQL_ADD_COLS_TRACK_ARCHIVE) {
+				db.execSQL(sql);
+			}
+		case 14:
+			db.execSQL(SQL_CREATE_TABLE_MIGRATION);
+		case 15:
+			// Finished tracks are sealed when the database is next compacted
+			db.execSQL(SQL_CREATE_TABLE_TRACKPOINT_PACK);
+			db.execSQL(SQL_CREATE_IDX_TRACKPOINT_PACK_TRACK);
 		}
 		
 	}
 
 	/**
-	 * copies files from the tracks to our new storage directory and removes the path reference in COL_DIR
-	 * @param db the database to work on 
+	 * Releases free pages of the database file (left by deleted rows) when there
+	 * are more than {@link #FREE_PAGES_THRESHOLD}. This only shrinks the file
+	 * if the database is in incremental auto vacuum mode, it's a no-op otherwise.
+	 * @param db the database to work on
 	 */
-	@SuppressWarnings("deprecation")
-	private void manageNewStoragePath(SQLiteDatabase db){
-		Log.d(TAG,"manageNewStoragePath");
-		
-		// we'll need this FilenameFitler to clean up our track directory
-		FilenameFilter gpxFilenameFilter = new FilenameFilter() {
-			@Override
-			public boolean accept(File dir, String filename) {
-				if(filename.toLowerCase().endsWith(".gpx"))
-					return true;
-				return false;
+	public static void reclaimFreePages(SQLiteDatabase db) {
+		long freePages = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+		if (freePages > FREE_PAGES_THRESHOLD) {
+			Log.d(TAG, "reclaimFreePages (" + freePages + " free pages)");
+			// PRAGMA returns no row, but must be stepped to run
+			Cursor c = db.rawQuery("PRAGMA incremental_vacuum", null);
+			try {
+				c.moveToFirst();
+			} finally {
+				c.close();
 			}
-		};
-		
-		// query all tracks
-		String[] columns = new String[]{Schema.COL_ID, Schema.COL_DIR};
-		Cursor cursor = db.query(Schema.TBL_TRACK, columns, null, null, null, null, null);
-		
-		// if we have a valid cursor and can write to the sdcard, we'll go on and try to copy the files
-		if(cursor != null && cursor.moveToFirst()){
-			Log.d(TAG, "manageNewStoragePath (found " + cursor.getCount() + " tracks to be processed)");
-			do{
-				long trackId = cursor.getLong(cursor.getColumnIndex(Schema.COL_ID));
-				Log.d(TAG,"manageNewStoragePath (" + trackId + ")");
-				String oldDirName = cursor.getString(cursor.getColumnIndex(Schema.COL_DIR));
-				File newDir = DataHelper.getTrackDirectory(trackId);
-				File oldDir = new File(oldDirName);
-				if(oldDir.exists() && oldDir.canRead()){
-					
-					// if our new directory doesn't exist, we'll create it
-					if(!newDir.exists())
-						newDir.mkdirs();
-					
-					if(newDir.exists() && newDir.canWrite()){
-						Log.d(TAG,"manageNewStoragePath (" + trackId + "): copy directory");
-						// we'll first copy all files to our new storage area... we'll clean up later
-						FileSystemUtils.copyDirectoryContents(newDir, oldDir);
-						
-						// cleaning up new storage area
-						// find gpx files we accidentally copied to our new storage area and delete them 
-						for(File gpxFile:newDir.listFiles(gpxFilenameFilter)){
-							Log.d(TAG,"manageNewStoragePath (" + trackId + "): deleting gpx file ["+gpxFile+"]");
-							gpxFile.delete();
-						}
-					}else{
-						Log.e(TAG, "manageNewStoragePath (" + trackId + "): directory ["+newDir+"] is not writable or could not be created");
-					}
-					
-				}
-			}while(cursor.moveToNext());
 		}
-		
-		ContentValues vals = new ContentValues();
-		vals.putNull(Schema.COL_DIR);
-		db.update(Schema.TBL_TRACK, vals, null, null);
 	}
-	
+
+	/**
+	 * Compacts the database. The first time, switches it to incremental auto vacuum mode
+	 * (full VACUUM). Then, releases all free pages. Finally, updates the statistics used
+	 * by the query planner.
+	 * Must not be called within a transaction.
+	 * @param db the database to work on
+	 * @return Number of pages released
+	 */
+	public static int compact(SQLiteDatabase db) {
+		long pagesBefore = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+
+		if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL) {
+			Log.i(TAG, "compact: switching to incremental auto vacuum (" + pagesBefore + " pages)");
+			db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+			db.execSQL("VACUUM");
+		} else {
+			Cursor c = db.rawQuery("PRAGMA incremental_vacuum", null);
+			try {
+				c.moveToFirst();
+			} finally {
+				c.close();
+			}
+		}
+
+		db.execSQL("ANALYZE");
+
+		long pagesAfter = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+		Log.d(TAG, "compact: " + pagesBefore + " pages before, " + pagesAfter + " after");
+		return (int) (pagesBefore - pagesAfter);
+	}
+
 }
\ No newline at end of file
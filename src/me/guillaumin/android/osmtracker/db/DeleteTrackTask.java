@@ -0,0 +1,96 @@
+package me.guillaumin.android.osmtracker.db;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import me.guillaumin.android.osmtracker.util.FileSystemUtils;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Deletes a track in background: database rows first (see
+ * {@link TrackContentProvider#delete(android.net.Uri, String, String[])}),
+ * then any file stored for the track (pictures, voice records...).
+ * <br />
+ * Until the deletion is over, the track is excluded from the track list,
+ * see {@link #getPendingSelection()}.
+ *
+ */
+public class DeleteTrackTask extends AsyncTask<Void, Void, Void> {
+
+	private static final String TAG = DeleteTrackTask.class.getSimpleName();
+
+	/**
+	 * Ids of the tracks being deleted. Guarded by itself.
+	 */
+	private static final Set<Long> pendingTrackIds = new HashSet<Long>();
+
+	/**
+	 * {@link ContentResolver} to delete the track
+	 */
+	private ContentResolver contentResolver;
+
+	/**
+	 * Track ID to delete
+	 */
+	private long trackId;
+
+	public DeleteTrackTask(Context context, long trackId) {
+		this.contentResolver = context.getContentResolver();
+		this.trackId = trackId;
+	}
+
+	@Override
+	protected void onPreExecute() {
+		synchronized (pendingTrackIds) {
+			pendingTrackIds.add(trackId);
+		}
+	}
+
+	@Override
+	protected Void doInBackground(Void... params) {
+		long start = System.currentTimeMillis();
+		contentResolver.delete(ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId),
+				null, null);
+		Log.v(TAG, "Track " + trackId + " deleted from database in " + (System.currentTimeMillis() - start) + "ms");
+
+		// Delete any data stored for the track we're deleting
+		File trackStorageDirectory = DataHelper.getTrackDirectory(trackId);
+		if (trackStorageDirectory.exists()) {
+			FileSystemUtils.delete(trackStorageDirectory, true);
+		}
+		return null;
+	}
+
+	@Override
+	protected void onPostExecute(Void result) {
+		synchronized (pendingTrackIds) {
+			pendingTrackIds.remove(trackId);
+		}
+	}
+
+	/**
+	 * @return Selection on {@link Schema#TBL_TRACK} excluding the tracks being deleted,
+	 * or null if there are none
+	 */
+	public static String getPendingSelection() {
+		synchronized (pendingTrackIds) {
+			if (pendingTrackIds.isEmpty()) {
+				return null;
+			}
+			// Ids are numbers, so they can safely be part of the statement
+			StringBuilder selection = new StringBuilder(Schema.TBL_TRACK + "." + Schema.COL_ID + " not in (");
+			for (Long id : pendingTrackIds) {
+				selection.append(id).append(',');
+			}
+			selection.setCharAt(selection.length() - 1, ')');
+			return selection.toString();
+		}
+	}
+
+}
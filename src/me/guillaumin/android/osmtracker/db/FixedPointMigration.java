@@ -0,0 +1,80 @@
+package me.guillaumin.android.osmtracker.db;
+
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Converts the trackpoints to the fixed point format of {@link TrackpointStorage}.
+ * Each step copies {@link #TRACKPOINTS_PER_STEP} trackpoints, while the legacy
+ * table stays in use; the last step replaces it by the view.
+ * <br />
+ * Only run when enabled in the preferences, see
+ * {@link me.guillaumin.android.osmtracker.OSMTracker.Preferences#KEY_STORAGE_FIXED_POINT}.
+ *
+ */
+public class FixedPointMigration extends Migration {
+
+	private static final String TAG = FixedPointMigration.class.getSimpleName();
+
+	public static final String NAME = "fixed_point";
+
+	/**
+	 * Number of trackpoints copied by a step
+	 */
+	private static final int TRACKPOINTS_PER_STEP = 20000;
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int getRemaining(SQLiteDatabase db) {
+		if (TrackpointStorage.isFixedPoint(db)) {
+			return 0;
+		}
+		// Ids left to copy, plus the switch to the view. Compared rather than counted:
+		// both are read from the primary keys, whatever the number of trackpoints.
+		// Deleted trackpoints make it an upper bound.
+		return (int) Math.max(0, getLastLegacyId(db) - getLastCopiedId(db)) + 1;
+	}
+
+	@Override
+	protected void step(SQLiteDatabase db) {
+		if (TrackpointStorage.isFixedPoint(db)) {
+			return;
+		}
+
+		db.execSQL(TrackpointStorage.SQL_CREATE_TABLE_TRACKPOINT_E7);
+		db.execSQL(TrackpointStorage.SQL_CREATE_IDX_TRACKPOINT_E7_TRACK);
+		long lastCopiedId = getLastCopiedId(db);
+		db.execSQL(TrackpointStorage.SQL_COPY_TO_E7, new Object[] {lastCopiedId, TRACKPOINTS_PER_STEP});
+
+		if (getLastCopiedId(db) >= getLastLegacyId(db)) {
+			Log.i(TAG, "All trackpoints copied, switching to fixed point storage");
+			TrackpointStorage.switchToFixedPoint(db);
+		}
+	}
+
+	/**
+	 * @return Id of the last trackpoint of the legacy table, 0 if none
+	 */
+	private static long getLastLegacyId(SQLiteDatabase db) {
+		return DatabaseUtils.longForQuery(db, "select coalesce(max(" + Schema.COL_ID + "), 0) from "
+				+ Schema.TBL_TRACKPOINT, null);
+	}
+
+	/**
+	 * @return Id of the last trackpoint copied, 0 if none
+	 */
+	private static long getLastCopiedId(SQLiteDatabase db) {
+		if (!TrackpointStorage.tableExists(db, TrackpointStorage.TBL_TRACKPOINT_E7)) {
+			return 0;
+		}
+		return DatabaseUtils.longForQuery(db, "select coalesce(max(" + Schema.COL_ID + "), 0) from "
+				+ TrackpointStorage.TBL_TRACKPOINT_E7, null);
+	}
+
+}
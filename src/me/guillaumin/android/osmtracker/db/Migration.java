@@ -0,0 +1,160 @@
+package me.guillaumin.android.osmtracker.db;
+
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Data migration too long to run in {@link DatabaseHelper#onUpgrade(SQLiteDatabase, int, int)}.
+ * The upgrade only schedules it ({@link #schedule(SQLiteDatabase, String)}), then it's
+ * run in the background by steps, each one in its own transaction with the progress
+ * (see {@link TrackContentProvider#CONTENT_URI_MIGRATION}). If the application is
+ * stopped, the migration resumes after the last committed step.
+ * <br />
+ * Pending migrations are kept in {@link Schema#TBL_MIGRATION}, and run in the order
+ * they were scheduled.
+ *
+ */
+public abstract class Migration {
+
+	private static final String TAG = Migration.class.getSimpleName();
+
+	/**
+	 * All known migrations
+	 */
+	private static final Migration[] MIGRATIONS = {
+		new StoragePathMigration(),
+		new FixedPointMigration()
+	};
+
+	/**
+	 * @return Unique name of the migration
+	 */
+	public abstract String getName();
+
+	/**
+	 * @param db Database to migrate
+	 * @return Units of work left (tracks, rows...), 0 when the migration is done
+	 */
+	public abstract int getRemaining(SQLiteDatabase db);
+
+	/**
+	 * Performs a step of the migration. A step must be short, as it holds a transaction:
+	 * e.g. a few thousand rows. Steps must be idempotent, a step may be run again
+	 * if the application was stopped before it was committed.
+	 * @param db Database to migrate, within a transaction
+	 */
+	protected abstract void step(SQLiteDatabase db);
+
+	/**
+	 * @param name Name of a migration
+	 * @return The migration, or null if it's unknown
+	 */
+	static Migration forName(String name) {
+		for (Migration migration : MIGRATIONS) {
+			if (migration.getName().equals(name)) {
+				return migration;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Schedules a migration, if it isn't already
+	 * @param db Database to migrate
+	 * @param name Name of the migration
+	 */
+	static void schedule(SQLiteDatabase db, String name) {
+		Log.d(TAG, "Scheduling migration " + name);
+		db.execSQL("insert or ignore into " + Schema.TBL_MIGRATION + " (" + Schema.COL_NAME + ") values (?)",
+				new Object[] {name});
+	}
+
+	/**
+	 * Runs one step of the first pending migration, in a transaction with its progress.
+	 * @param db Database to migrate
+	 * @return Number of pending migrations left, 0 when all are done
+	 */
+	static int runStep(SQLiteDatabase db) {
+		long id;
+		String name;
+		boolean hasTotal;
+		Cursor c = db.query(Schema.TBL_MIGRATION, new String[] {Schema.COL_ID, Schema.COL_NAME, Schema.COL_MIGRATION_TOTAL},
+				null, null, null, null, Schema.COL_ID + " asc", "1");
+		try {
+			if (!c.moveToFirst()) {
+				return 0;
+			}
+			id = c.getLong(0);
+			name = c.getString(1);
+			hasTotal = !c.isNull(2);
+		} finally {
+			c.close();
+		}
+
+		Migration migration = forName(name);
+		String[] whereArgs = new String[] {Long.toString(id)};
+		db.beginTransaction();
+		try {
+			if (migration == null) {
+				// Scheduled by another version of the application
+				Log.w(TAG, "Dropping unknown migration " + name);
+				db.delete(Schema.TBL_MIGRATION, Schema.COL_ID + " = ?", whereArgs);
+			} else {
+				ContentValues values = new ContentValues();
+				if (!hasTotal) {
+					// First step, keep the total to compute progress
+					values.put(Schema.COL_MIGRATION_TOTAL, migration.getRemaining(db));
+				}
+
+				migration.step(db);
+
+				int remaining = migration.getRemaining(db);
+				if (remaining > 0) {
+					values.put(Schema.COL_MIGRATION_REMAINING, remaining);
+					db.update(Schema.TBL_MIGRATION, values, Schema.COL_ID + " = ?", whereArgs);
+				} else {
+					Log.i(TAG, "Migration " + name + " done");
+					db.delete(Schema.TBL_MIGRATION, Schema.COL_ID + " = ?", whereArgs);
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		return getPendingCount(db);
+	}
+
+	/**
+	 * @param db Database to migrate
+	 * @return Number of pending migrations
+	 */
+	static int getPendingCount(SQLiteDatabase db) {
+		Cursor c = db.rawQuery("select count(*) from " + Schema.TBL_MIGRATION, null);
+		try {
+			c.moveToFirst();
+			return c.getInt(0);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Runs all pending migrations to completion, in the calling thread
+	 * @param db Database to migrate
+	 * @return Number of steps run
+	 */
+	static int runAll(SQLiteDatabase db) {
+		int steps = 0;
+		int pending = getPendingCount(db);
+		while (pending > 0) {
+			pending = runStep(db);
+			steps++;
+		}
+		return steps;
+	}
+
+}
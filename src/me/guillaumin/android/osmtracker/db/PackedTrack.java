@@ -0,0 +1,380 @@
+package me.guillaumin.android.osmtracker.db;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Trackpoints of a finished track, read from their packed form.
+ * <br />
+ * Once a track is stopped, its trackpoints are sealed into {@link Schema#TBL_TRACKPOINT_PACK}:
+ * packs of up to {@link #POINTS_PER_PACK} trackpoints, ordered by time, with one
+ * compressed blob per column. Values are delta encoded as variable length integers, then
+ * deflated. Doubles are encoded from their bits, so that they're read back exactly as
+ * stored: a track exports the same before and after it's sealed.
+ * Reading a whole track then costs a few blobs instead of a row per trackpoint.
+ * <br />
+ * Packs are a read-only copy: trackpoints stay in {@link Schema#TBL_TRACKPOINT}, and
+ * packs are dropped if the track gets new trackpoints, is archived or deleted.
+ *
+ */
+public class PackedTrack {
+
+	private static final String TAG = PackedTrack.class.getSimpleName();
+
+	/**
+	 * Maximum number of trackpoints in a pack. Keeps blobs well under the size
+	 * of a cursor window.
+	 */
+	static final int POINTS_PER_PACK = 8192;
+
+	/**
+	 * Columns of {@link Schema#TBL_TRACKPOINT_PACK} read back
+	 */
+	private static final String[] PACK_COLUMNS = {
+		Schema.COL_PACK_COUNT, Schema.COL_PACK_IDS, Schema.COL_LATITUDE, Schema.COL_LONGITUDE,
+		Schema.COL_TIMESTAMP, Schema.COL_ELEVATION, Schema.COL_ACCURACY
+	};
+
+	private final long[] ids;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final long[] timestamps;
+	/** NaN when the trackpoint has no elevation */
+	private final double[] elevations;
+	/** NaN when the trackpoint has no accuracy */
+	private final double[] accuracies;
+
+	private PackedTrack(int size) {
+		ids = new long[size];
+		latitudes = new double[size];
+		longitudes = new double[size];
+		timestamps = new long[size];
+		elevations = new double[size];
+		accuracies = new double[size];
+	}
+
+	/**
+	 * @return Number of trackpoints
+	 */
+	public int size() {
+		return ids.length;
+	}
+
+	public long getId(int i) {
+		return ids[i];
+	}
+
+	public double getLatitude(int i) {
+		return latitudes[i];
+	}
+
+	public double getLongitude(int i) {
+		return longitudes[i];
+	}
+
+	public long getTimestamp(int i) {
+		return timestamps[i];
+	}
+
+	public boolean hasElevation(int i) {
+		return !Double.isNaN(elevations[i]);
+	}
+
+	public double getElevation(int i) {
+		return elevations[i];
+	}
+
+	public boolean hasAccuracy(int i) {
+		return !Double.isNaN(accuracies[i]);
+	}
+
+	public double getAccuracy(int i) {
+		return accuracies[i];
+	}
+
+	/**
+	 * Reads the trackpoints of a track from its packs
+	 * @param cr {@link ContentResolver} for query
+	 * @param trackId Id of the track
+	 * @return The trackpoints ordered by time, or null if the track isn't sealed:
+	 * trackpoints must then be read from {@link TrackContentProvider#trackPointsUri(long)}
+	 */
+	public static PackedTrack read(ContentResolver cr, long trackId) {
+		Cursor c = cr.query(TrackContentProvider.trackPackUri(trackId), PACK_COLUMNS, null, null, null);
+		if (c == null) {
+			return null;
+		}
+		try {
+			return read(c);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * Reads the trackpoints of a track from its packs, in the calling thread
+	 * @see #read(ContentResolver, long)
+	 */
+	static PackedTrack read(SQLiteDatabase db, long trackId) {
+		Cursor c = db.query(Schema.TBL_TRACKPOINT_PACK, PACK_COLUMNS, Schema.COL_TRACK_ID + " = ?",
+				new String[] {Long.toString(trackId)}, null, null, Schema.COL_ID + " asc");
+		try {
+			return read(c);
+		} finally {
+			c.close();
+		}
+	}
+
+	/**
+	 * @param c Packs of a track, in order, with {@link #PACK_COLUMNS}
+	 */
+	private static PackedTrack read(Cursor c) {
+		if (c.getCount() == 0) {
+			return null;
+		}
+
+		int size = 0;
+		while (c.moveToNext()) {
+			size += c.getInt(0);
+		}
+
+		PackedTrack track = new PackedTrack(size);
+		Inflater inflater = new Inflater();
+		try {
+			int offset = 0;
+			for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+				int count = c.getInt(0);
+				long[] values = new long[count];
+				boolean[] present = new boolean[count];
+
+				decode(inflater, c.getBlob(1), values, null);
+				System.arraycopy(values, 0, track.ids, offset, count);
+				decode(inflater, c.getBlob(2), values, null);
+				for (int i = 0; i < count; i++) {
+					track.latitudes[offset + i] = Double.longBitsToDouble(values[i]);
+				}
+				decode(inflater, c.getBlob(3), values, null);
+				for (int i = 0; i < count; i++) {
+					track.longitudes[offset + i] = Double.longBitsToDouble(values[i]);
+				}
+				decode(inflater, c.getBlob(4), values, null);
+				System.arraycopy(values, 0, track.timestamps, offset, count);
+				decode(inflater, c.getBlob(5), values, present);
+				for (int i = 0; i < count; i++) {
+					track.elevations[offset + i] = present[i] ? Double.longBitsToDouble(values[i]) : Double.NaN;
+				}
+				decode(inflater, c.getBlob(6), values, present);
+				for (int i = 0; i < count; i++) {
+					track.accuracies[offset + i] = present[i] ? Double.longBitsToDouble(values[i]) : Double.NaN;
+				}
+				offset += count;
+			}
+		} catch (DataFormatException dfe) {
+			Log.e(TAG, "Corrupted pack, reading trackpoints from the table", dfe);
+			return null;
+		} finally {
+			inflater.end();
+		}
+		return track;
+	}
+
+	/**
+	 * @param db the database to work on
+	 * @param trackId Id of a track
+	 * @return true if the track trackpoints are packed
+	 */
+	static boolean isSealed(SQLiteDatabase db, long trackId) {
+		return DatabaseUtils.longForQuery(db, "SELECT count(" + Schema.COL_ID + ") FROM " + Schema.TBL_TRACKPOINT_PACK
+				+ " WHERE " + Schema.COL_TRACK_ID + " = ?", new String[] {Long.toString(trackId)}) > 0;
+	}
+
+	/**
+	 * Packs the trackpoints of a finished track. Active, archived, empty or already
+	 * sealed tracks are left as is. The track is checked within the transaction that
+	 * packs it: the DataWriter and the compaction service may seal it concurrently.
+	 * @param db the database to work on
+	 * @param trackId Id of the track
+	 * @return Number of trackpoints packed, 0 if there was nothing to do
+	 */
+	static int seal(SQLiteDatabase db, long trackId) {
+		String[] args = new String[] {Long.toString(trackId)};
+		long[] ids = new long[POINTS_PER_PACK];
+		long[] latitudes = new long[POINTS_PER_PACK];
+		long[] longitudes = new long[POINTS_PER_PACK];
+		long[] timestamps = new long[POINTS_PER_PACK];
+		long[] elevations = new long[POINTS_PER_PACK];
+		boolean[] hasElevation = new boolean[POINTS_PER_PACK];
+		long[] accuracies = new long[POINTS_PER_PACK];
+		boolean[] hasAccuracy = new boolean[POINTS_PER_PACK];
+
+		int total = 0;
+		Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+		Cursor c = null;
+		db.beginTransaction();
+		try {
+			if (DatabaseUtils.longForQuery(db, "SELECT count(" + Schema.COL_ID + ") FROM " + Schema.TBL_TRACK
+					+ " WHERE " + Schema.COL_ID + " = ? AND " + Schema.COL_ACTIVE + " = " + Schema.VAL_TRACK_INACTIVE
+					+ " AND " + Schema.COL_ARCHIVE_TP_COUNT + " IS NULL", args) == 0
+					|| isSealed(db, trackId)) {
+				return 0;
+			}
+
+			c = db.query(Schema.TBL_TRACKPOINT, new String[] {Schema.COL_ID, Schema.COL_LATITUDE,
+					Schema.COL_LONGITUDE, Schema.COL_TIMESTAMP, Schema.COL_ELEVATION, Schema.COL_ACCURACY},
+					Schema.COL_TRACK_ID + " = ?", args, null, null, Schema.COL_TIMESTAMP + " asc, " + Schema.COL_ID + " asc");
+			int count = 0;
+			while (c.moveToNext()) {
+				ids[count] = c.getLong(0);
+				latitudes[count] = Double.doubleToLongBits(c.getDouble(1));
+				longitudes[count] = Double.doubleToLongBits(c.getDouble(2));
+				timestamps[count] = c.getLong(3);
+				hasElevation[count] = !c.isNull(4);
+				elevations[count] = Double.doubleToLongBits(c.getDouble(4));
+				hasAccuracy[count] = !c.isNull(5);
+				accuracies[count] = Double.doubleToLongBits(c.getDouble(5));
+				count++;
+
+				if (count == POINTS_PER_PACK || c.isLast()) {
+					ContentValues values = new ContentValues();
+					values.put(Schema.COL_TRACK_ID, trackId);
+					values.put(Schema.COL_PACK_COUNT, count);
+					values.put(Schema.COL_PACK_IDS, encode(deflater, ids, null, count));
+					values.put(Schema.COL_LATITUDE, encode(deflater, latitudes, null, count));
+					values.put(Schema.COL_LONGITUDE, encode(deflater, longitudes, null, count));
+					values.put(Schema.COL_TIMESTAMP, encode(deflater, timestamps, null, count));
+					values.put(Schema.COL_ELEVATION, encode(deflater, elevations, hasElevation, count));
+					values.put(Schema.COL_ACCURACY, encode(deflater, accuracies, hasAccuracy, count));
+					db.insert(Schema.TBL_TRACKPOINT_PACK, null, values);
+					total += count;
+					count = 0;
+				}
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			if (c != null) {
+				c.close();
+			}
+			db.endTransaction();
+			deflater.end();
+		}
+
+		Log.v(TAG, "Sealed " + total + " trackpoints of track " + trackId);
+		return total;
+	}
+
+	/**
+	 * Drops the packs of a track, e.g. when it gets new trackpoints
+	 * @param db the database to work on
+	 * @param trackId Id of the track
+	 */
+	static void unseal(SQLiteDatabase db, long trackId) {
+		db.delete(Schema.TBL_TRACKPOINT_PACK, Schema.COL_TRACK_ID + " = ?", new String[] {Long.toString(trackId)});
+	}
+
+	/**
+	 * Encodes a column: each value as the zigzag variable length difference with the
+	 * previous one, then deflated. For nullable columns, 0 marks a missing value and
+	 * present ones are shifted by 1.
+	 * @param deflater Deflater to use, reset
+	 * @param values Values of the column
+	 * @param present Whether each value is present, null if the column isn't nullable
+	 * @param count Number of values
+	 */
+	private static byte[] encode(Deflater deflater, long[] values, boolean[] present, int count) {
+		ByteArrayOutputStream varints = new ByteArrayOutputStream(count * 4);
+		long previous = 0;
+		for (int i = 0; i < count; i++) {
+			if (present != null && !present[i]) {
+				varints.write(0);
+				continue;
+			}
+			long delta = values[i] - previous;
+			long zigzag = (delta << 1) ^ (delta >> 63);
+			if (present != null) {
+				zigzag++;
+			}
+			while ((zigzag & ~0x7fL) != 0) {
+				varints.write((int) ((zigzag & 0x7f) | 0x80));
+				zigzag >>>= 7;
+			}
+			varints.write((int) zigzag);
+			previous = values[i];
+		}
+
+		deflater.reset();
+		deflater.setInput(varints.toByteArray());
+		deflater.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(varints.size() / 2 + 16);
+		byte[] buffer = new byte[4096];
+		while (!deflater.finished()) {
+			out.write(buffer, 0, deflater.deflate(buffer));
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a column written by {@link #encode(Deflater, long[], boolean[], int)}
+	 * @param inflater Inflater to use, reset
+	 * @param blob Encoded column
+	 * @param values Receives the values, its length is the number of values
+	 * @param present Receives whether each value is present, null if the column isn't nullable
+	 * @throws DataFormatException
+	 */
+	private static void decode(Inflater inflater, byte[] blob, long[] values, boolean[] present)
+			throws DataFormatException {
+		inflater.reset();
+		inflater.setInput(blob);
+		// A value takes up to 10 bytes: 1 or 2 for ids and timestamps, more for doubles
+		byte[] varints = new byte[values.length * 4 + 16];
+		int length = 0;
+		while (!inflater.finished()) {
+			if (length == varints.length) {
+				byte[] larger = new byte[varints.length * 2];
+				System.arraycopy(varints, 0, larger, 0, length);
+				varints = larger;
+			}
+			int inflated = inflater.inflate(varints, length, varints.length - length);
+			if (inflated == 0 && inflater.needsInput()) {
+				throw new DataFormatException("Truncated pack");
+			}
+			length += inflated;
+		}
+
+		int pos = 0;
+		long previous = 0;
+		for (int i = 0; i < values.length; i++) {
+			long zigzag = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (pos >= length) {
+					throw new DataFormatException("Truncated pack");
+				}
+				b = varints[pos++];
+				zigzag |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+
+			if (present != null) {
+				present[i] = zigzag != 0;
+				if (zigzag == 0) {
+					continue;
+				}
+				zigzag--;
+			}
+			previous += (zigzag >>> 1) ^ -(zigzag & 1);
+			values[i] = previous;
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package me.guillaumin.android.osmtracker.db;
+
+import java.io.File;
+import java.io.FilenameFilter;
+
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import me.guillaumin.android.osmtracker.util.FileSystemUtils;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Copies the files of the tracks to the new storage directory, and removes the
+ * path reference in {@link Schema#COL_DIR} (database version 13).
+ * Each step processes {@link #TRACKS_PER_STEP} tracks.
+ *
+ */
+@SuppressWarnings("deprecation")
+class StoragePathMigration extends Migration {
+
+	private static final String TAG = StoragePathMigration.class.getSimpleName();
+
+	public static final String NAME = "storage_path";
+
+	/**
+	 * Number of tracks processed by a step
+	 */
+	private static final int TRACKS_PER_STEP = 10;
+
+	/**
+	 * we'll need this FilenameFitler to clean up our track directory
+	 */
+	private static final FilenameFilter gpxFilenameFilter = new FilenameFilter() {
+		@Override
+		public boolean accept(File dir, String filename) {
+			if(filename.toLowerCase().endsWith(".gpx"))
+				return true;
+			return false;
+		}
+	};
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public int getRemaining(SQLiteDatabase db) {
+		return (int) DatabaseUtils.longForQuery(db, "select count(*) from " + Schema.TBL_TRACK
+				+ " where " + Schema.COL_DIR + " is not null", null);
+	}
+
+	@Override
+	protected void step(SQLiteDatabase db) {
+		// tracks not processed yet
+		String[] columns = new String[]{Schema.COL_ID, Schema.COL_DIR};
+		Cursor cursor = db.query(Schema.TBL_TRACK, columns, Schema.COL_DIR + " is not null", null, null, null,
+				Schema.COL_ID + " asc", Integer.toString(TRACKS_PER_STEP));
+
+		StringBuilder processedIds = new StringBuilder();
+		try {
+			int idIdx = cursor.getColumnIndex(Schema.COL_ID);
+			int dirIdx = cursor.getColumnIndex(Schema.COL_DIR);
+			while (cursor.moveToNext()) {
+				long trackId = cursor.getLong(idIdx);
+				copyTrackFiles(trackId, cursor.getString(dirIdx));
+				if (processedIds.length() > 0) {
+					processedIds.append(',');
+				}
+				processedIds.append(trackId);
+			}
+		} finally {
+			cursor.close();
+		}
+
+		if (processedIds.length() > 0) {
+			ContentValues vals = new ContentValues();
+			vals.putNull(Schema.COL_DIR);
+			db.update(Schema.TBL_TRACK, vals, Schema.COL_ID + " in (" + processedIds + ")", null);
+		}
+	}
+
+	/**
+	 * copies files of a track to our new storage directory
+	 * @param trackId Id of the track
+	 * @param oldDirName Previous directory of the track
+	 */
+	private void copyTrackFiles(long trackId, String oldDirName) {
+		Log.d(TAG,"copyTrackFiles (" + trackId + ")");
+		File newDir = DataHelper.getTrackDirectory(trackId);
+		File oldDir = new File(oldDirName);
+		if(oldDir.exists() && oldDir.canRead()){
+
+			// if our new directory doesn't exist, we'll create it
+			if(!newDir.exists())
+				newDir.mkdirs();
+
+			if(newDir.exists() && newDir.canWrite()){
+				Log.d(TAG,"copyTrackFiles (" + trackId + "): copy directory");
+				// we'll first copy all files to our new storage area... we'll clean up later
+				FileSystemUtils.copyDirectoryContents(newDir, oldDir);
+
+				// cleaning up new storage area
+				// find gpx files we accidentally copied to our new storage area and delete them
+				for(File gpxFile:newDir.listFiles(gpxFilenameFilter)){
+					Log.d(TAG,"copyTrackFiles (" + trackId + "): deleting gpx file ["+gpxFile+"]");
+					gpxFile.delete();
+				}
+			}else{
+				Log.e(TAG, "copyTrackFiles (" + trackId + "): directory ["+newDir+"] is not writable or could not be created");
+			}
+
+		}
+	}
+
+}
@@ -0,0 +1,292 @@
+package me.guillaumin.android.osmtracker.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+/**
+ * Moves the trackpoints of a track out of the database, into a compressed
+ * archive file, and back.
+ * <br />
+ * While a track is archived, its row in {@link Schema#TBL_TRACK} stays, with
+ * {@link Schema#COL_ARCHIVE_TP_COUNT} holding its number of trackpoints, and
+ * the COL_ARCHIVE_START_* and COL_ARCHIVE_END_* columns its first and last
+ * trackpoints, so that the track list doesn't need to restore it. Waypoints
+ * are not archived, they're few and small.
+ *
+ */
+public class TrackArchive {
+
+	private static final String TAG = TrackArchive.class.getSimpleName();
+
+	/**
+	 * Magic number at the beginning of archive files
+	 */
+	private static final int MAGIC = 0x4f534d41;
+
+	/**
+	 * Version of the archive format
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final String[] TRACKPOINT_COLUMNS = {
+		Schema.COL_LATITUDE, Schema.COL_LONGITUDE, Schema.COL_ELEVATION, Schema.COL_ACCURACY, Schema.COL_TIMESTAMP,
+		Schema.COL_ID
+	};
+
+	/**
+	 * Directory holding archive files
+	 */
+	private File directory;
+
+	/**
+	 * @param directory Directory holding archive files. Should be on internal storage,
+	 * archives are the only copy of the trackpoints.
+	 */
+	public TrackArchive(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * @param trackId Id of a track
+	 * @return The archive file of this track (may not exist)
+	 */
+	public File getFile(long trackId) {
+		return new File(directory, "track-" + trackId + ".gz");
+	}
+
+	/**
+	 * @param db the database to work on
+	 * @param trackId Id of a track
+	 * @return true if the track trackpoints are archived
+	 */
+	public static boolean isArchived(SQLiteDatabase db, long trackId) {
+		return DatabaseUtils.longForQuery(db, "SELECT count(" + Schema.COL_ID + ") FROM " + Schema.TBL_TRACK
+				+ " WHERE " + Schema.COL_ID + " = ? AND " + Schema.COL_ARCHIVE_TP_COUNT + " IS NOT NULL",
+				new String[] {Long.toString(trackId)}) > 0;
+	}
+
+	/**
+	 * Archives the trackpoints of an inactive track, and removes them from the database.
+	 * Nothing is archived if the track is resumed meanwhile.
+	 * @param db the database to work on
+	 * @param trackId Id of the track
+	 * @return Number of archived trackpoints, 0 if there was nothing to archive
+	 * @throws IOException If the archive file can't be written. The database is left untouched.
+	 */
+	public int archive(SQLiteDatabase db, long trackId) throws IOException {
+		if (isArchived(db, trackId)) {
+			return 0;
+		}
+
+		String[] args = new String[] {Long.toString(trackId)};
+		File file = getFile(trackId);
+		File tmp = new File(file.getPath() + ".tmp");
+		directory.mkdirs();
+
+		// Write the archive first: if anything goes wrong,
+		// trackpoints are still in the database
+		int count = 0;
+		long lastId = -1;
+		ContentValues values = new ContentValues();
+		Cursor c = db.query(Schema.TBL_TRACKPOINT, TRACKPOINT_COLUMNS, Schema.COL_TRACK_ID + " = ?", args,
+				null, null, Schema.COL_ID + " asc");
+		try {
+			if (c.getCount() == 0) {
+				return 0;
+			}
+
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new GZIPOutputStream(new FileOutputStream(tmp)), BUFFER_SIZE));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeLong(trackId);
+				out.writeInt(c.getCount());
+				while (c.moveToNext()) {
+					out.writeDouble(c.getDouble(0));
+					out.writeDouble(c.getDouble(1));
+					writeNullableDouble(out, c, 2);
+					writeNullableDouble(out, c, 3);
+					out.writeLong(c.getLong(4));
+					lastId = c.getLong(5);
+					count++;
+				}
+			} finally {
+				out.close();
+			}
+
+			c.moveToFirst();
+			putEndpoint(values, true, c.getLong(4), c.getDouble(0), c.getDouble(1));
+			c.moveToLast();
+			putEndpoint(values, false, c.getLong(4), c.getDouble(0), c.getDouble(1));
+		} catch (IOException ioe) {
+			tmp.delete();
+			throw ioe;
+		} finally {
+			c.close();
+		}
+
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+			throw new IOException("Unable to rename " + tmp + " to " + file);
+		}
+
+		db.beginTransaction();
+		try {
+			// The track may have been resumed while the archive was written:
+			// its new trackpoints would be deleted without being archived
+			if (DatabaseUtils.longForQuery(db, "SELECT count(" + Schema.COL_ID + ") FROM " + Schema.TBL_TRACK
+					+ " WHERE " + Schema.COL_ID + " = ? AND " + Schema.COL_ACTIVE + " = " + Schema.VAL_TRACK_INACTIVE,
+					args) == 0
+					|| DatabaseUtils.longForQuery(db, "SELECT count(" + Schema.COL_ID + ") FROM " + Schema.TBL_TRACKPOINT
+					+ " WHERE " + Schema.COL_TRACK_ID + " = ? AND " + Schema.COL_ID + " > ?",
+					new String[] {args[0], Long.toString(lastId)}) > 0) {
+				Log.i(TAG, "Track " + trackId + " changed while being archived, not archiving it");
+				file.delete();
+				return 0;
+			}
+
+			values.put(Schema.COL_ARCHIVE_TP_COUNT, count);
+			db.update(Schema.TBL_TRACK, values, Schema.COL_ID + " = ?", args);
+			db.delete(TrackpointStorage.getTable(db), Schema.COL_TRACK_ID + " = ? AND " + Schema.COL_ID + " <= ?",
+					new String[] {args[0], Long.toString(lastId)});
+			// Restored trackpoints get new ids
+			PackedTrack.unseal(db, trackId);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+
+		Log.v(TAG, "Archived " + count + " trackpoints of track " + trackId + " to " + file);
+		return count;
+	}
+
+	/**
+	 * Restores the trackpoints of an archived track into the database, and
+	 * deletes the archive file.
+	 * @param db the database to work on
+	 * @param trackId Id of the track
+	 * @return Number of restored trackpoints
+	 * @throws IOException If the archive can't be read. The track stays archived.
+	 */
+	public int restore(SQLiteDatabase db, long trackId) throws IOException {
+		if (!isArchived(db, trackId)) {
+			return 0;
+		}
+
+		File file = getFile(trackId);
+		String[] args = new String[] {Long.toString(trackId)};
+		int count;
+
+		DataInputStream in = null;
+		db.beginTransaction();
+		try {
+			// Checked again within the transaction: the track
+			// may have been restored meanwhile, and its archive deleted
+			if (!isArchived(db, trackId)) {
+				return 0;
+			}
+
+			in = open(trackId);
+			count = in.readInt();
+
+			ContentValues values = new ContentValues();
+			for (int i = 0; i < count; i++) {
+				values.clear();
+				values.put(Schema.COL_TRACK_ID, trackId);
+				values.put(Schema.COL_LATITUDE, in.readDouble());
+				values.put(Schema.COL_LONGITUDE, in.readDouble());
+				putNullableDouble(values, Schema.COL_ELEVATION, in);
+				putNullableDouble(values, Schema.COL_ACCURACY, in);
+				values.put(Schema.COL_TIMESTAMP, in.readLong());
+				db.insert(Schema.TBL_TRACKPOINT, null, values);
+			}
+
+			values.clear();
+			values.putNull(Schema.COL_ARCHIVE_TP_COUNT);
+			putEndpoint(values, true, null, null, null);
+			putEndpoint(values, false, null, null, null);
+			db.update(Schema.TBL_TRACK, values, Schema.COL_ID + " = ?", args);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			if (in != null) {
+				in.close();
+			}
+		}
+
+		file.delete();
+		Log.v(TAG, "Restored " + count + " trackpoints of track " + trackId);
+		return count;
+	}
+
+	/**
+	 * Deletes the archive file of a track, if any.
+	 * @param trackId Id of the track
+	 */
+	public void delete(long trackId) {
+		getFile(trackId).delete();
+	}
+
+	/**
+	 * Opens the archive of a track, and checks its header
+	 * @return Stream positioned on the number of trackpoints
+	 */
+	private DataInputStream open(long trackId) throws IOException {
+		File file = getFile(trackId);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file)), BUFFER_SIZE));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != trackId) {
+				throw new IOException("Invalid archive file " + file);
+			}
+		} catch (IOException ioe) {
+			in.close();
+			throw ioe;
+		}
+		return in;
+	}
+
+	/**
+	 * Puts the first or last trackpoint of a track, for its row
+	 * @param start true for the first trackpoint, false for the last one
+	 */
+	private static void putEndpoint(ContentValues values, boolean start, Long timestamp, Double latitude, Double longitude) {
+		values.put(start ? Schema.COL_ARCHIVE_START_TIMESTAMP : Schema.COL_ARCHIVE_END_TIMESTAMP, timestamp);
+		values.put(start ? Schema.COL_ARCHIVE_START_LATITUDE : Schema.COL_ARCHIVE_END_LATITUDE, latitude);
+		values.put(start ? Schema.COL_ARCHIVE_START_LONGITUDE : Schema.COL_ARCHIVE_END_LONGITUDE, longitude);
+	}
+
+	private static void writeNullableDouble(DataOutputStream out, Cursor c, int columnIndex) throws IOException {
+		out.writeBoolean(!c.isNull(columnIndex));
+		if (!c.isNull(columnIndex)) {
+			out.writeDouble(c.getDouble(columnIndex));
+		}
+	}
+
+	private static void putNullableDouble(ContentValues values, String key, DataInputStream in) throws IOException {
+		if (in.readBoolean()) {
+			values.put(key, in.readDouble());
+		} else {
+			values.putNull(key);
+		}
+	}
+
+}
@@ -1,17 +1,24 @@
 package me.guillaumin.android.osmtracker.db;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import me.guillaumin.android.osmtracker.OSMTracker;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
 import android.content.ContentProvider;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Handler;
 import android.util.Log;
 
 /**
@@ -40,18 +47,45 @@ public class TrackContentProvider extends ContentProvider {
 	 */
 	public static final Uri CONTENT_URI_TRACK_ACTIVE = Uri.parse("content://" + AUTHORITY + "/" + Schema.TBL_TRACK + "/active");
 
+	/**
+	 * Uri for the number of tracks
+	 */
+	public static final Uri CONTENT_URI_TRACK_COUNT = Uri.parse("content://" + AUTHORITY + "/" + Schema.TBL_TRACK + "/count");
+
+	/**
+	 * Uri to compact the database, with {@link #update(Uri, ContentValues, String, String[])}.
+	 * Returns the number of database pages released.
+	 */
+	public static final Uri CONTENT_URI_COMPACT = Uri.parse("content://" + AUTHORITY + "/maintenance/compact");
+
+	/**
+	 * Uri for pending migrations (see {@link Migration}): query returns their name, total
+	 * and remaining work. {@link #update(Uri, ContentValues, String, String[])} runs one
+	 * step, and returns the number of pending migrations left. If the values hold a
+	 * {@link Schema#COL_NAME}, that migration is scheduled first.
+	 */
+	public static final Uri CONTENT_URI_MIGRATION = Uri.parse("content://" + AUTHORITY + "/maintenance/migration");
+
 	/**
 	 * Uri for a specific waypoint
 	 */
 	public static final Uri CONTENT_URI_WAYPOINT_UUID = Uri.parse("content://" + AUTHORITY + "/" + Schema.TBL_WAYPOINT + "/uuid");
 	
 	/**
-	 * tables and joins to be used within a query to get the important informations of a track
+	 * Query parameter limiting the number of tracks returned by {@link #CONTENT_URI_TRACK},
+	 * or of waypoints returned by {@link #waypointsUri(long)}
 	 */
-	private static final String TRACK_TABLES = Schema.TBL_TRACK + " left join " + Schema.TBL_TRACKPOINT + " on " + Schema.TBL_TRACK + "." + Schema.COL_ID + " = " + Schema.TBL_TRACKPOINT + "." + Schema.COL_TRACK_ID;
-	
+	public static final String QUERY_PARAM_LIMIT = "limit";
+
 	/**
-	 * the projection to be used to get the important informations of a track
+	 * Query parameter giving the number of tracks to skip, used with {@link #QUERY_PARAM_LIMIT}
+	 */
+	public static final String QUERY_PARAM_OFFSET = "offset";
+
+	/**
+	 * the projection to be used to get the important informations of a track.
+	 * Counts are computed with sub-queries rather than a join + group by, so that
+	 * they're only computed for the rows actually returned when a limit is used.
 	 */
 	private static final String[] TRACK_TABLES_PROJECTION = {
 		Schema.TBL_TRACK + "." + Schema.COL_ID + " as " + Schema.COL_ID,
@@ -60,17 +94,68 @@ public class TrackContentProvider extends ContentProvider {
 		Schema.COL_EXPORT_DATE,
 		Schema.TBL_TRACK + "." + Schema.COL_NAME + " as "+ Schema.COL_NAME,
 		Schema.COL_START_DATE,
-		"count(" + Schema.TBL_TRACKPOINT + "." + Schema.COL_ID + ") as " + Schema.COL_TRACKPOINT_COUNT,
+		// archived tracks have their count stored, as their trackpoints are not in the table
+		"CASE WHEN " + Schema.TBL_TRACK + "." + Schema.COL_ARCHIVE_TP_COUNT + " IS NULL"
+			+ " THEN (SELECT count("+Schema.TBL_TRACKPOINT+"."+Schema.COL_ID+") FROM "+Schema.TBL_TRACKPOINT+" WHERE "+Schema.TBL_TRACKPOINT+"."+Schema.COL_TRACK_ID+" = " + Schema.TBL_TRACK + "." + Schema.COL_ID + ")"
+			+ " ELSE " + Schema.TBL_TRACK + "." + Schema.COL_ARCHIVE_TP_COUNT + " END as " + Schema.COL_TRACKPOINT_COUNT,
 		"(SELECT count("+Schema.TBL_WAYPOINT+"."+Schema.COL_TRACK_ID+") FROM "+Schema.TBL_WAYPOINT+" WHERE "+Schema.TBL_WAYPOINT+"."+Schema.COL_TRACK_ID+" = " + Schema.TBL_TRACK + "." + Schema.COL_ID + ") as " + Schema.COL_WAYPOINT_COUNT
 	};
 	
 	/**
-	 * the group by statement that is used for the track statements
+	 * Query parameter giving a comma separated list of track ids, for {@link #trackEndpointsUri(long...)}
 	 */
-	private static final String TRACK_TABLES_GROUP_BY = Schema.TBL_TRACK + "." + Schema.COL_ID;
-	
-	
-	
+	public static final String QUERY_PARAM_IDS = "ids";
+
+	/**
+	 * Query parameters giving the first and last trackpoint ids of a range,
+	 * for {@link #trackPointsRangeUri(long, long, long)}
+	 */
+	public static final String QUERY_PARAM_FIRST_ID = "first_id";
+	public static final String QUERY_PARAM_LAST_ID = "last_id";
+
+	/**
+	 * Time during which trackpoint insertions are batched into a single change
+	 * notification, in ms
+	 */
+	public static final long TRACKPOINT_NOTIFICATION_WINDOW = 500;
+
+	/**
+	 * tables and joins to get the first and last trackpoint of tracks. The trackpoint index
+	 * on track id allows to find min / max id for each track without scanning its points.
+	 */
+	private static final String TRACK_ENDPOINTS_TABLES = Schema.TBL_TRACK
+		+ " left join " + Schema.TBL_TRACKPOINT + " s on s." + Schema.COL_ID + " = (SELECT min(" + Schema.COL_ID + ") FROM " + Schema.TBL_TRACKPOINT
+			+ " WHERE " + Schema.TBL_TRACKPOINT + "." + Schema.COL_TRACK_ID + " = " + Schema.TBL_TRACK + "." + Schema.COL_ID + ")"
+		+ " left join " + Schema.TBL_TRACKPOINT + " e on e." + Schema.COL_ID + " = (SELECT max(" + Schema.COL_ID + ") FROM " + Schema.TBL_TRACKPOINT
+			+ " WHERE " + Schema.TBL_TRACKPOINT + "." + Schema.COL_TRACK_ID + " = " + Schema.TBL_TRACK + "." + Schema.COL_ID + ")";
+
+	/**
+	 * the projection to be used to get the first and last trackpoint of tracks.
+	 * Archived tracks have them stored, see {@link TrackArchive}.
+	 */
+	private static final String[] TRACK_ENDPOINTS_PROJECTION = {
+		Schema.TBL_TRACK + "." + Schema.COL_ID + " as " + Schema.COL_TRACK_ID,
+		endpointColumn("s." + Schema.COL_TIMESTAMP, Schema.COL_ARCHIVE_START_TIMESTAMP, Schema.COL_START_TIMESTAMP),
+		endpointColumn("s." + Schema.COL_LATITUDE, Schema.COL_ARCHIVE_START_LATITUDE, Schema.COL_START_LATITUDE),
+		endpointColumn("s." + Schema.COL_LONGITUDE, Schema.COL_ARCHIVE_START_LONGITUDE, Schema.COL_START_LONGITUDE),
+		endpointColumn("e." + Schema.COL_TIMESTAMP, Schema.COL_ARCHIVE_END_TIMESTAMP, Schema.COL_END_TIMESTAMP),
+		endpointColumn("e." + Schema.COL_LATITUDE, Schema.COL_ARCHIVE_END_LATITUDE, Schema.COL_END_LATITUDE),
+		endpointColumn("e." + Schema.COL_LONGITUDE, Schema.COL_ARCHIVE_END_LONGITUDE, Schema.COL_END_LONGITUDE)
+	};
+
+	/**
+	 * the projection to be used to count tracks
+	 */
+	private static final String[] TRACK_COUNT_PROJECTION = {
+		"count(" + Schema.COL_ID + ") as " + Schema.COL_TRACK_COUNT
+	};
+
+	/**
+	 * Maximum number of rows deleted in a single transaction when deleting a track,
+	 * to avoid locking the database for a long time with big tracks
+	 */
+	private static final int DELETE_CHUNK_SIZE = 2000;
+
 	/**
 	 * Uri Matcher
 	 */
@@ -78,15 +163,50 @@ public class TrackContentProvider extends ContentProvider {
 	static {
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK, Schema.URI_CODE_TRACK);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/active", Schema.URI_CODE_TRACK_ACTIVE);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/count", Schema.URI_CODE_TRACK_COUNT);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/endpoints", Schema.URI_CODE_TRACK_ENDPOINTS);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#", Schema.URI_CODE_TRACK_ID);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/start", Schema.URI_CODE_TRACK_START);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/end", Schema.URI_CODE_TRACK_END);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/archive", Schema.URI_CODE_TRACK_ARCHIVE);
+		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/pack", Schema.URI_CODE_TRACK_PACK);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/" + Schema.TBL_WAYPOINT + "s", Schema.URI_CODE_TRACK_WAYPOINTS);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_TRACK + "/#/" + Schema.TBL_TRACKPOINT + "s", Schema.URI_CODE_TRACK_TRACKPOINTS);
 		uriMatcher.addURI(AUTHORITY, Schema.TBL_WAYPOINT + "/uuid/*", Schema.URI_CODE_WAYPOINT_UUID);
+		uriMatcher.addURI(AUTHORITY, "maintenance/compact", Schema.URI_CODE_COMPACT);
+		uriMatcher.addURI(AUTHORITY, "maintenance/migration", Schema.URI_CODE_MIGRATION);
 		
 	}
 	
+	/**
+	 * @param offset number of tracks to skip
+	 * @param count maximum number of tracks to return
+	 * @return Uri for a page of the track list
+	 */
+	public static final Uri trackPageUri(int offset, int count) {
+		return CONTENT_URI_TRACK.buildUpon()
+				.appendQueryParameter(QUERY_PARAM_OFFSET, Integer.toString(offset))
+				.appendQueryParameter(QUERY_PARAM_LIMIT, Integer.toString(count))
+				.build();
+	}
+
+	/**
+	 * @param trackIds target track ids
+	 * @return Uri for the first and last trackpoints of the tracks
+	 */
+	public static final Uri trackEndpointsUri(long... trackIds) {
+		StringBuilder ids = new StringBuilder();
+		for (long trackId : trackIds) {
+			if (ids.length() > 0) {
+				ids.append(',');
+			}
+			ids.append(trackId);
+		}
+		return Uri.withAppendedPath(CONTENT_URI_TRACK, "endpoints").buildUpon()
+				.appendQueryParameter(QUERY_PARAM_IDS, ids.toString())
+				.build();
+	}
+
 	/**
 	 * @param trackId target track id
 	 * @return Uri for the waypoints of the track 
@@ -97,6 +217,19 @@ public class TrackContentProvider extends ContentProvider {
 				Schema.TBL_WAYPOINT + "s" );
 	}
 	
+	/**
+	 * @param trackId target track id
+	 * @param offset number of waypoints to skip
+	 * @param count maximum number of waypoints to return
+	 * @return Uri for a page of the waypoints of the track
+	 */
+	public static final Uri waypointsPageUri(long trackId, int offset, int count) {
+		return waypointsUri(trackId).buildUpon()
+				.appendQueryParameter(QUERY_PARAM_OFFSET, Integer.toString(offset))
+				.appendQueryParameter(QUERY_PARAM_LIMIT, Integer.toString(count))
+				.build();
+	}
+
 	/**
 	 * @param trackId target track id
 	 * @return Uri for the trackpoints of the track 
@@ -107,6 +240,43 @@ public class TrackContentProvider extends ContentProvider {
 				Schema.TBL_TRACKPOINT + "s" );		
 	}
 
+	/**
+	 * @param trackId target track id
+	 * @param firstId Id of the first trackpoint of the range
+	 * @param lastId Id of the last trackpoint of the range
+	 * @return Uri for a range of trackpoints of the track. Change notifications
+	 * of new trackpoints are sent on such an Uri.
+	 */
+	public static final Uri trackPointsRangeUri(long trackId, long firstId, long lastId) {
+		return trackPointsUri(trackId).buildUpon()
+				.appendQueryParameter(QUERY_PARAM_FIRST_ID, Long.toString(firstId))
+				.appendQueryParameter(QUERY_PARAM_LAST_ID, Long.toString(lastId))
+				.build();
+	}
+
+	/**
+	 * @param trackId target track id
+	 * @return Uri to archive the trackpoints of the track, with {@link #update(Uri, ContentValues, String, String[])}.
+	 * Archived trackpoints are restored when they're queried.
+	 */
+	public static final Uri trackArchiveUri(long trackId) {
+		return Uri.withAppendedPath(
+				ContentUris.withAppendedId(CONTENT_URI_TRACK, trackId),
+				"archive" );
+	}
+
+	/**
+	 * @param trackId target track id
+	 * @return Uri for the packed trackpoints of a finished track, see {@link PackedTrack}.
+	 * {@link #update(Uri, ContentValues, String, String[])} seals the track, and returns
+	 * the number of trackpoints packed.
+	 */
+	public static final Uri trackPackUri(long trackId) {
+		return Uri.withAppendedPath(
+				ContentUris.withAppendedId(CONTENT_URI_TRACK, trackId),
+				"pack" );
+	}
+
 	/**
 	 * @param trackId target track id
 	 * @return Uri for the startpoint of the track 
@@ -132,12 +302,92 @@ public class TrackContentProvider extends ContentProvider {
 	 */
 	private DatabaseHelper dbHelper;
 
+	/**
+	 * Archived trackpoints
+	 */
+	private TrackArchive archive;
+
+	/**
+	 * Batches change notifications of inserted trackpoints
+	 */
+	private TrackpointNotifier trackpointNotifier;
+
+	/**
+	 * Track trackpoints were last inserted into, already checked not to be archived
+	 * nor sealed. Reset when it's archived, sealed or deleted, so that it's checked again.
+	 */
+	private volatile long insertTrackId = -1;
+
 	@Override
 	public boolean onCreate() {
 		dbHelper = new DatabaseHelper(getContext());
+		archive = new TrackArchive(new File(getContext().getFilesDir(), "archive"));
+		trackpointNotifier = new TrackpointNotifier(getContext().getContentResolver(),
+				new Handler(), TRACKPOINT_NOTIFICATION_WINDOW);
 		return true;
 	}
 
+	/**
+	 * @return Column of the first or last trackpoint of a track, read from the
+	 * track row if it's archived
+	 */
+	private static String endpointColumn(String trackpointColumn, String archiveColumn, String name) {
+		return "CASE WHEN " + Schema.TBL_TRACK + "." + Schema.COL_ARCHIVE_TP_COUNT + " IS NULL THEN " + trackpointColumn
+			+ " ELSE " + Schema.TBL_TRACK + "." + archiveColumn + " END as " + name;
+	}
+
+	/**
+	 * @param ids Comma separated track ids, parsed as numbers
+	 * @return Statement reading the first and last trackpoints of tracks, as
+	 * {@link #trackEndpointsUri(long...)} does
+	 */
+	static String buildEndpointsQuery(String ids) {
+		return SQLiteQueryBuilder.buildQueryString(false, TRACK_ENDPOINTS_TABLES, TRACK_ENDPOINTS_PROJECTION,
+				Schema.TBL_TRACK + "." + Schema.COL_ID + " in (" + ids + ")", null, null, null, null);
+	}
+
+	/**
+	 * Prepares a track for new trackpoints: an archived track is restored to keep
+	 * points in order, and packs of a sealed track are dropped as they're outdated.
+	 * Done once when a track is resumed, not for each point of the recording.
+	 * @param db the database to work on
+	 * @param trackId Id of the track
+	 */
+	private void prepareTrackpointInsert(SQLiteDatabase db, long trackId) {
+		if (trackId != insertTrackId) {
+			restoreIfArchived(trackId);
+			PackedTrack.unseal(db, trackId);
+			insertTrackId = trackId;
+		}
+	}
+
+	/**
+	 * @param values trackpoint to insert
+	 * @throws IllegalArgumentException if a mandatory column is missing
+	 */
+	private static void checkTrackpoint(ContentValues values) {
+		if (!values.containsKey(Schema.COL_TRACK_ID) || !values.containsKey(Schema.COL_LONGITUDE)
+				|| !values.containsKey(Schema.COL_LATITUDE) || !values.containsKey(Schema.COL_TIMESTAMP)) {
+			throw new IllegalArgumentException("values should provide " + Schema.COL_LONGITUDE + ", "
+					+ Schema.COL_LATITUDE + ", " + Schema.COL_TIMESTAMP);
+		}
+	}
+
+	/**
+	 * Restores the trackpoints of a track if it's archived, before they're used.
+	 * @param trackId Id of the track
+	 */
+	private void restoreIfArchived(long trackId) {
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		if (TrackArchive.isArchived(db, trackId)) {
+			try {
+				archive.restore(db, trackId);
+			} catch (IOException ioe) {
+				Log.e(TAG, "Unable to restore archived track " + trackId, ioe);
+			}
+		}
+	}
+
 	@Override
 	public int delete(Uri uri, String selection, String[] selectionArgs) {
 		Log.v(TAG, "delete(), uri=" + uri);
@@ -149,11 +399,19 @@ public class TrackContentProvider extends ContentProvider {
 			count = dbHelper.getWritableDatabase().delete(Schema.TBL_TRACK, selection, selectionArgs);
 			break;
 		case Schema.URI_CODE_TRACK_ID:
-			// the URI matches a specific track, delete all related entities
+			// the URI matches a specific track, delete all related entities.
+			// The track itself is deleted last, so that an interrupted deletion can be restarted.
 			String trackId = Long.toString(ContentUris.parseId(uri));
-			dbHelper.getWritableDatabase().delete(Schema.TBL_WAYPOINT, Schema.COL_TRACK_ID + " = ?", new String[] {trackId});
-			dbHelper.getWritableDatabase().delete(Schema.TBL_TRACKPOINT, Schema.COL_TRACK_ID + " = ?", new String[] {trackId});
-			count = dbHelper.getWritableDatabase().delete(Schema.TBL_TRACK, Schema.COL_ID + " = ?", new String[] {trackId});
+			SQLiteDatabase db = dbHelper.getWritableDatabase();
+			deleteByChunks(db, Schema.TBL_WAYPOINT, trackId);
+			deleteByChunks(db, TrackpointStorage.getTable(db), trackId);
+			PackedTrack.unseal(db, ContentUris.parseId(uri));
+			count = db.delete(Schema.TBL_TRACK, Schema.COL_ID + " = ?", new String[] {trackId});
+			if (ContentUris.parseId(uri) == insertTrackId) {
+				insertTrackId = -1;
+			}
+			archive.delete(ContentUris.parseId(uri));
+			DatabaseHelper.reclaimFreePages(db);
 			break;
 		case Schema.URI_CODE_WAYPOINT_UUID:
 			String uuid = uri.getLastPathSegment();
@@ -167,10 +425,33 @@ public class TrackContentProvider extends ContentProvider {
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
 
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri);
 		return count;
 	}
 
+	/**
+	 * Deletes the rows of a track in a table, by chunks of {@link #DELETE_CHUNK_SIZE},
+	 * each chunk in its own transaction.
+	 * @param db the database to work on
+	 * @param table table to delete from ({@link Schema#TBL_WAYPOINT}, or the table
+	 * of the trackpoints: {@link TrackpointStorage#getTable(SQLiteDatabase)})
+	 * @param trackId id of the track
+	 */
+	private static void deleteByChunks(SQLiteDatabase db, String table, String trackId) {
+		String where = Schema.COL_ID + " in (SELECT " + Schema.COL_ID + " FROM " + table
+			+ " WHERE " + Schema.COL_TRACK_ID + " = ? LIMIT " + DELETE_CHUNK_SIZE + ")";
+		int deleted;
+		do {
+			db.beginTransaction();
+			try {
+				deleted = db.delete(table, where, new String[] {trackId});
+				db.setTransactionSuccessful();
+			} finally {
+				db.endTransaction();
+			}
+		} while (deleted == DELETE_CHUNK_SIZE);
+	}
+
 	@Override
 	public String getType(Uri uri) {
 		Log.v(TAG, "getType(), uri=" + uri);
@@ -198,18 +479,17 @@ public class TrackContentProvider extends ContentProvider {
 		switch (uriMatcher.match(uri)) {
 		case Schema.URI_CODE_TRACK_TRACKPOINTS:
 			// Check that mandatory columns are present.
-			if (values.containsKey(Schema.COL_TRACK_ID) && values.containsKey(Schema.COL_LONGITUDE)
-					&& values.containsKey(Schema.COL_LATITUDE) && values.containsKey(Schema.COL_TIMESTAMP)) {
-
-				long rowId = dbHelper.getWritableDatabase().insert(Schema.TBL_TRACKPOINT, null, values);
-				if (rowId > 0) {
-					Uri trackpointUri = ContentUris.withAppendedId(uri, rowId);
-					getContext().getContentResolver().notifyChange(trackpointUri, null);
-					return trackpointUri;
-				}
-			} else {
-				throw new IllegalArgumentException("values should provide " + Schema.COL_LONGITUDE + ", "
-						+ Schema.COL_LATITUDE + ", " + Schema.COL_TIMESTAMP);
+			checkTrackpoint(values);
+			long trackId = values.getAsLong(Schema.COL_TRACK_ID);
+			SQLiteDatabase db = dbHelper.getWritableDatabase();
+			prepareTrackpointInsert(db, trackId);
+			long start = Instrumentation.now();
+			long trackpointId = TrackpointStorage.insert(db, values);
+			Instrumentation.TRACKPOINT_INSERT.record(start);
+			if (trackpointId > 0) {
+				// Observers are notified once per batch of insertions
+				trackpointNotifier.trackpointInserted(trackId, trackpointId);
+				return ContentUris.withAppendedId(uri, trackpointId);
 			}
 			break;
 		case Schema.URI_CODE_TRACK_WAYPOINTS:
@@ -220,7 +500,7 @@ public class TrackContentProvider extends ContentProvider {
 				long rowId = dbHelper.getWritableDatabase().insert(Schema.TBL_WAYPOINT, null, values);
 				if (rowId > 0) {
 					Uri waypointUri = ContentUris.withAppendedId(uri, rowId);
-					getContext().getContentResolver().notifyChange(waypointUri, null);
+					notifyChange(waypointUri);
 					return waypointUri;
 				}
 			} else {
@@ -233,7 +513,7 @@ public class TrackContentProvider extends ContentProvider {
 				long rowId = dbHelper.getWritableDatabase().insert(Schema.TBL_TRACK, null, values);
 				if (rowId > 0) {
 					Uri trackUri = ContentUris.withAppendedId(CONTENT_URI_TRACK, rowId);
-					getContext().getContentResolver().notifyChange(trackUri, null);
+					notifyChange(trackUri);
 					return trackUri;
 				}
 			} else {
@@ -247,6 +527,62 @@ public class TrackContentProvider extends ContentProvider {
 		return null;
 	}
 
+	/**
+	 * Trackpoints are inserted in a single transaction with a compiled statement,
+	 * other data one by one. Trackpoints of a batch may belong to several tracks.
+	 */
+	@Override
+	public int bulkInsert(Uri uri, ContentValues[] values) {
+		if (uriMatcher.match(uri) != Schema.URI_CODE_TRACK_TRACKPOINTS) {
+			return super.bulkInsert(uri, values);
+		}
+		Log.v(TAG, "bulkInsert(), uri=" + uri + ", " + values.length + " trackpoints");
+
+		SQLiteDatabase db = dbHelper.getWritableDatabase();
+		// Inserted ids (first, last), per track id
+		Map<Long, long[]> insertedRanges = new LinkedHashMap<Long, long[]>();
+		int count = 0;
+		boolean committed = false;
+		db.beginTransaction();
+		TrackpointStorage.Inserter inserter = null;
+		try {
+			inserter = new TrackpointStorage.Inserter(db);
+			for (ContentValues trackpoint : values) {
+				checkTrackpoint(trackpoint);
+				long trackId = trackpoint.getAsLong(Schema.COL_TRACK_ID);
+				prepareTrackpointInsert(db, trackId);
+				long start = Instrumentation.now();
+				long rowId = inserter.insert(trackpoint);
+				Instrumentation.TRACKPOINT_INSERT.record(start);
+				if (rowId > 0) {
+					long[] range = insertedRanges.get(trackId);
+					if (range == null) {
+						insertedRanges.put(trackId, new long[] {rowId, rowId});
+					} else {
+						range[1] = rowId;
+					}
+					count++;
+				}
+			}
+			db.setTransactionSuccessful();
+			committed = true;
+		} finally {
+			if (inserter != null) {
+				inserter.close();
+			}
+			db.endTransaction();
+			if (!committed) {
+				// A restore or unseal may have been rolled back with the batch
+				insertTrackId = -1;
+			}
+		}
+
+		for (Map.Entry<Long, long[]> range : insertedRanges.entrySet()) {
+			trackpointNotifier.trackpointsInserted(range.getKey(), range.getValue()[0], range.getValue()[1]);
+		}
+		return count;
+	}
+
 	
 	@Override
 	public Cursor query(Uri uri, String[] projection, String selectionIn, String[] selectionArgsIn, String sortOrder) {
@@ -263,15 +599,24 @@ public class TrackContentProvider extends ContentProvider {
 		switch (uriMatcher.match(uri)) {
 		case Schema.URI_CODE_TRACK_TRACKPOINTS:
 			String trackId = uri.getPathSegments().get(1);
+			restoreIfArchived(Long.parseLong(trackId));
 			qb.setTables(Schema.TBL_TRACKPOINT);
 			selection = Schema.COL_TRACK_ID + " = ?";
+			List<String> selctionArgsList = new ArrayList<String>();
+			selctionArgsList.add(trackId);
+			// Range of ids, from a change notification
+			String firstId = uri.getQueryParameter(QUERY_PARAM_FIRST_ID);
+			String lastId = uri.getQueryParameter(QUERY_PARAM_LAST_ID);
+			if (firstId != null && lastId != null) {
+				selection += " AND " + Schema.COL_ID + " BETWEEN ? AND ?";
+				selctionArgsList.add(Long.toString(Long.parseLong(firstId)));
+				selctionArgsList.add(Long.toString(Long.parseLong(lastId)));
+			}
 			// Deal with any additional selection info provided by the caller 
 			if (null != selectionIn) {
 			    selection += " AND " + selectionIn;      
 			}
 			
-			List<String> selctionArgsList = new ArrayList<String>();
-			selctionArgsList.add(trackId);
 			// Add the callers selection arguments, if any
 			if (null != selectionArgsIn) {
 			    for (String arg : selectionArgsIn) {
@@ -292,6 +637,18 @@ public class TrackContentProvider extends ContentProvider {
 			qb.setTables(Schema.TBL_WAYPOINT);
 			selection = Schema.COL_TRACK_ID + " = ?";
 			selectionArgs = new String[] {trackId};
+			limit = getPageLimit(uri);
+			break;
+		case Schema.URI_CODE_TRACK_PACK:
+			if (selectionIn != null || selectionArgsIn != null) {
+				// Any selection/selectionArgs will be ignored
+				throw new UnsupportedOperationException();
+			}
+			trackId = uri.getPathSegments().get(1);
+			qb.setTables(Schema.TBL_TRACKPOINT_PACK);
+			selection = Schema.COL_TRACK_ID + " = ?";
+			selectionArgs = new String[] {trackId};
+			sortOrder = Schema.COL_ID + " asc";
 			break;
 		case Schema.URI_CODE_TRACK_START:
 			if (selectionIn != null || selectionArgsIn != null) {
@@ -299,6 +656,7 @@ public class TrackContentProvider extends ContentProvider {
 				throw new UnsupportedOperationException();
 			}
 			trackId = uri.getPathSegments().get(1);
+			restoreIfArchived(Long.parseLong(trackId));
 			qb.setTables(Schema.TBL_TRACKPOINT);
 			selection = Schema.COL_TRACK_ID + " = ?";
 			selectionArgs = new String[] {trackId};
@@ -311,6 +669,7 @@ public class TrackContentProvider extends ContentProvider {
 				throw new UnsupportedOperationException();
 			}
 			trackId = uri.getPathSegments().get(1);
+			restoreIfArchived(Long.parseLong(trackId));
 			qb.setTables(Schema.TBL_TRACKPOINT);
 			selection = Schema.COL_TRACK_ID + " = ?";
 			selectionArgs = new String[] {trackId};
@@ -318,9 +677,39 @@ public class TrackContentProvider extends ContentProvider {
 			limit = "1";
 			break;
 		case Schema.URI_CODE_TRACK:
-			qb.setTables(TRACK_TABLES);
+			qb.setTables(Schema.TBL_TRACK);
 			projection = TRACK_TABLES_PROJECTION;
-			groupBy = TRACK_TABLES_GROUP_BY;
+			limit = getPageLimit(uri);
+			break;
+		case Schema.URI_CODE_TRACK_ENDPOINTS:
+			if (selectionIn != null || selectionArgsIn != null) {
+				// Any selection/selectionArgs will be ignored
+				throw new UnsupportedOperationException();
+			}
+			qb.setTables(TRACK_ENDPOINTS_TABLES);
+			projection = TRACK_ENDPOINTS_PROJECTION;
+			// Ids are parsed as numbers, so they can safely be part of the statement
+			// (and there's no limit on their number, unlike bound parameters)
+			StringBuilder ids = new StringBuilder();
+			String idsParam = uri.getQueryParameter(QUERY_PARAM_IDS);
+			if (idsParam != null) {
+				for (String id : idsParam.split(",")) {
+					if (id.length() > 0) {
+						if (ids.length() > 0) {
+							ids.append(',');
+						}
+						ids.append(Long.parseLong(id));
+					}
+				}
+			}
+			// Archived tracks aren't restored, their endpoints are on the track row
+			selection = Schema.TBL_TRACK + "." + Schema.COL_ID + " in (" + ids + ")";
+			selectionArgs = null;
+			break;
+		case Schema.URI_CODE_TRACK_COUNT:
+			qb.setTables(Schema.TBL_TRACK);
+			projection = TRACK_COUNT_PROJECTION;
+			sortOrder = null;
 			break;
 		case Schema.URI_CODE_TRACK_ID:
 			if (selectionIn != null || selectionArgsIn != null) {
@@ -328,9 +717,8 @@ public class TrackContentProvider extends ContentProvider {
 				throw new UnsupportedOperationException();
 			}
 			trackId = uri.getLastPathSegment();
-			qb.setTables(TRACK_TABLES);
+			qb.setTables(Schema.TBL_TRACK);
 			projection = TRACK_TABLES_PROJECTION;
-			groupBy = TRACK_TABLES_GROUP_BY;
 			selection = Schema.TBL_TRACK + "." + Schema.COL_ID + " = ?";
 			selectionArgs = new String[] {trackId};			
 			break;
@@ -343,6 +731,13 @@ public class TrackContentProvider extends ContentProvider {
 			selection = Schema.COL_ACTIVE + " = ?";
 			selectionArgs = new String[] {Integer.toString(Schema.VAL_TRACK_ACTIVE)};			
 			break;
+		case Schema.URI_CODE_MIGRATION:
+			qb.setTables(Schema.TBL_MIGRATION);
+			if (sortOrder == null) {
+				// Order they'll be run in
+				sortOrder = Schema.COL_ID + " asc";
+			}
+			break;
 		default:
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
@@ -352,6 +747,30 @@ public class TrackContentProvider extends ContentProvider {
 		return c;
 	}
 
+	/**
+	 * @param uri Uri with optional {@link #QUERY_PARAM_LIMIT} and {@link #QUERY_PARAM_OFFSET} parameters
+	 * @return The corresponding LIMIT clause, or null if there's no limit
+	 */
+	private static String getPageLimit(Uri uri) {
+		String pageLimit = uri.getQueryParameter(QUERY_PARAM_LIMIT);
+		if (pageLimit == null) {
+			return null;
+		}
+		String pageOffset = uri.getQueryParameter(QUERY_PARAM_OFFSET);
+		return (pageOffset != null) ? Integer.parseInt(pageOffset) + "," + Integer.parseInt(pageLimit)
+				: Integer.toString(Integer.parseInt(pageLimit));
+	}
+
+	/**
+	 * Notifies observers of a change
+	 * @param uri Changed Uri
+	 */
+	private void notifyChange(Uri uri) {
+		long start = Instrumentation.now();
+		getContext().getContentResolver().notifyChange(uri, null);
+		Instrumentation.NOTIFY_CHANGE.record(start);
+	}
+
 	@Override
 	public int update(Uri uri, ContentValues values, String selectionIn, String[] selectionArgsIn) {
 		Log.v(TAG, "update(), uri=" + uri);
@@ -392,12 +811,50 @@ public class TrackContentProvider extends ContentProvider {
 			// to switch all the tracks to inactive
 			table = Schema.TBL_TRACK;
 			break;
+		case Schema.URI_CODE_TRACK_ARCHIVE:
+			long archivedTrackId = Long.parseLong(uri.getPathSegments().get(1));
+			if (archivedTrackId == insertTrackId) {
+				insertTrackId = -1;
+			}
+			int archived;
+			try {
+				archived = archive.archive(dbHelper.getWritableDatabase(), archivedTrackId);
+			} catch (IOException ioe) {
+				Log.e(TAG, "Unable to archive track " + archivedTrackId, ioe);
+				archived = 0;
+			}
+			notifyChange(ContentUris.withAppendedId(CONTENT_URI_TRACK, archivedTrackId));
+			return archived;
+		case Schema.URI_CODE_TRACK_PACK:
+			long sealedTrackId = Long.parseLong(uri.getPathSegments().get(1));
+			if (sealedTrackId == insertTrackId) {
+				// Packs must be dropped again if the track is resumed
+				insertTrackId = -1;
+			}
+			// Same trackpoints, nothing to notify
+			return PackedTrack.seal(dbHelper.getWritableDatabase(), sealedTrackId);
+		case Schema.URI_CODE_COMPACT:
+			// Not a data update, nothing to notify
+			return DatabaseHelper.compact(dbHelper.getWritableDatabase());
+		case Schema.URI_CODE_MIGRATION:
+			if (values != null && values.containsKey(Schema.COL_NAME)) {
+				// Schedule a migration before running the next step
+				String name = values.getAsString(Schema.COL_NAME);
+				if (Migration.forName(name) == null) {
+					throw new IllegalArgumentException("Unknown migration: " + name);
+				}
+				Migration.schedule(dbHelper.getWritableDatabase(), name);
+			}
+			int pending = Migration.runStep(dbHelper.getWritableDatabase());
+			// Progress changed
+			notifyChange(uri);
+			return pending;
 		default:
 			throw new IllegalArgumentException("Unknown URI: " + uri);
 		}
 		
 		int rows = dbHelper.getWritableDatabase().update(table, values, selection, selectionArgs);
-		getContext().getContentResolver().notifyChange(uri, null);
+		notifyChange(uri);
 		return rows;
 
 	}
@@ -409,6 +866,8 @@ public class TrackContentProvider extends ContentProvider {
 		public static final String TBL_TRACKPOINT = "trackpoint";
 		public static final String TBL_WAYPOINT = "waypoint";
 		public static final String TBL_TRACK = "track";
+		public static final String TBL_MIGRATION = "migration";
+		public static final String TBL_TRACKPOINT_PACK = "trackpoint_pack";
 		
 		public static final String COL_ID = "_id";
 		public static final String COL_TRACK_ID = "track_id";
@@ -426,10 +885,28 @@ public class TrackContentProvider extends ContentProvider {
 		public static final String COL_DIR = "directory";
 		public static final String COL_ACTIVE = "active";
 		public static final String COL_EXPORT_DATE = "export_date";
+		public static final String COL_ARCHIVE_TP_COUNT = "archive_tp_count";
+		public static final String COL_ARCHIVE_START_TIMESTAMP = "archive_start_timestamp";
+		public static final String COL_ARCHIVE_START_LATITUDE = "archive_start_latitude";
+		public static final String COL_ARCHIVE_START_LONGITUDE = "archive_start_longitude";
+		public static final String COL_ARCHIVE_END_TIMESTAMP = "archive_end_timestamp";
+		public static final String COL_ARCHIVE_END_LATITUDE = "archive_end_latitude";
+		public static final String COL_ARCHIVE_END_LONGITUDE = "archive_end_longitude";
+		public static final String COL_MIGRATION_TOTAL = "total";
+		public static final String COL_MIGRATION_REMAINING = "remaining";
+		public static final String COL_PACK_COUNT = "point_count";
+		public static final String COL_PACK_IDS = "ids";
 		
 		// virtual colums that are used in some sqls but dont exist in database
 		public static final String COL_TRACKPOINT_COUNT = "tp_count";
 		public static final String COL_WAYPOINT_COUNT = "wp_count";
+		public static final String COL_TRACK_COUNT = "track_count";
+		public static final String COL_START_TIMESTAMP = "start_timestamp";
+		public static final String COL_START_LATITUDE = "start_latitude";
+		public static final String COL_START_LONGITUDE = "start_longitude";
+		public static final String COL_END_TIMESTAMP = "end_timestamp";
+		public static final String COL_END_LATITUDE = "end_latitude";
+		public static final String COL_END_LONGITUDE = "end_longitude";
 		
 		// Codes for UriMatcher
 		public static final int URI_CODE_TRACK = 3;
@@ -440,6 +917,12 @@ public class TrackContentProvider extends ContentProvider {
 		public static final int URI_CODE_WAYPOINT_UUID = 8;
 		public static final int URI_CODE_TRACK_START = 9;
 		public static final int URI_CODE_TRACK_END = 10;
+		public static final int URI_CODE_TRACK_COUNT = 11;
+		public static final int URI_CODE_TRACK_ENDPOINTS = 12;
+		public static final int URI_CODE_COMPACT = 13;
+		public static final int URI_CODE_TRACK_ARCHIVE = 14;
+		public static final int URI_CODE_MIGRATION = 15;
+		public static final int URI_CODE_TRACK_PACK = 16;
 		
 
 		public static final int VAL_TRACK_ACTIVE = 1;
@@ -1,82 +1,309 @@
 package me.guillaumin.android.osmtracker.db;
 
+import java.util.HashSet;
+
 import me.guillaumin.android.osmtracker.R;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
 import me.guillaumin.android.osmtracker.db.model.Track;
+import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
+import android.os.AsyncTask;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 /**
  * Adapter for track list in {@link me.guillaumin.android.osmtracker.activity.TrackManager Track Manager}.
  * For each row's contents, see <tt>tracklist_item.xml</tt>.
- * 
+ * <br />
+ * Tracks are loaded by pages of {@link #PAGE_SIZE}, in background, when a row of
+ * the page is displayed. Rows not loaded yet are displayed empty and disabled.
+ * Tracks being deleted are left out, see {@link DeleteTrackTask}.
+ *
  * @author Nicolas Guillaumin
  *
  */
-public class TracklistAdapter extends CursorAdapter {
+public class TracklistAdapter extends BaseAdapter {
+
+	/**
+	 * Number of tracks loaded at once
+	 */
+	public static final int PAGE_SIZE = 50;
+
+	/**
+	 * Sort order of the list. Tracks with the same start date are sorted by id
+	 * so that the position of a track is always the same.
+	 */
+	private static final String SORT_ORDER = Schema.COL_START_DATE + " asc, " + Schema.COL_ID + " asc";
+
+	/**
+	 * Selection of the tracks displayed before a given track (start date & id parameters)
+	 */
+	private static final String SELECTION_BEFORE = Schema.COL_START_DATE + " < ? or ("
+		+ Schema.COL_START_DATE + " = ? and " + Schema.COL_ID + " < ?)";
+
+	private Context context;
+
+	/**
+	 * Total number of tracks
+	 */
+	private int count = 0;
+
+	/**
+	 * Loaded pages, by page number
+	 */
+	private SparseArray<Track[]> pages = new SparseArray<Track[]>();
+
+	/**
+	 * Pages being loaded
+	 */
+	private HashSet<Integer> loadingPages = new HashSet<Integer>();
+
+	/**
+	 * Increased each time loaded pages are discarded, so that
+	 * results of loads started before are ignored.
+	 */
+	private int generation = 0;
 
-	public TracklistAdapter(Context context, Cursor c) {
-		super(context, c);
+	public TracklistAdapter(Context context) {
+		this.context = context;
 	}
 
+	/**
+	 * Sets the total number of tracks, and discards loaded pages.
+	 * @param count Number of tracks, see {@link #getTrackCount(ContentResolver)}
+	 */
+	public void setCount(int count) {
+		this.count = count;
+		invalidate();
+	}
+
+	/**
+	 * Discards all loaded pages. Displayed ones will be loaded again.
+	 */
+	public void invalidate() {
+		pages.clear();
+		loadingPages.clear();
+		generation++;
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Removes a track from the list, without reloading pages
+	 * located before it. Its deletion must be started before, so that
+	 * pages loaded meanwhile don't bring it back.
+	 * @param trackId Id of the removed track
+	 */
+	public void removeTrack(long trackId) {
+		int position = getPosition(trackId);
+		if (count > 0) {
+			count--;
+		}
+
+		// Following tracks have moved, discard their pages
+		int firstPage = (position != -1) ? position / PAGE_SIZE : 0;
+		for (int i = pages.size() - 1; i >= 0; i--) {
+			if (pages.keyAt(i) >= firstPage) {
+				pages.delete(pages.keyAt(i));
+			}
+		}
+		loadingPages.clear();
+		generation++;
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Reloads a single track in background, if it's part of a loaded page.
+	 * @param trackId Id of the track to reload
+	 */
+	public void refreshTrack(final long trackId) {
+		if (getPosition(trackId) == -1) {
+			return;
+		}
+
+		new AsyncTask<Void, Void, Track>() {
+			@Override
+			protected Track doInBackground(Void... params) {
+				Cursor c = context.getContentResolver().query(
+						ContentUris.withAppendedId(TrackContentProvider.CONTENT_URI_TRACK, trackId),
+						null, null, null, null);
+				try {
+					if (c.moveToFirst()) {
+						return Track.build(trackId, c, context.getContentResolver(), false);
+					}
+					return null;
+				} finally {
+					c.close();
+				}
+			}
+
+			@Override
+			protected void onPostExecute(Track track) {
+				// Position may have changed since the load was started
+				int position = getPosition(trackId);
+				if (track != null && position != -1) {
+					pages.get(position / PAGE_SIZE)[position % PAGE_SIZE] = track;
+					notifyDataSetChanged();
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * @param trackId Id of a track
+	 * @return Position of the track in the loaded pages, or -1 if it's not loaded
+	 */
+	public int getPosition(long trackId) {
+		for (int i = 0; i < pages.size(); i++) {
+			Track[] page = pages.valueAt(i);
+			for (int j = 0; j < page.length; j++) {
+				if (page[j].getTrackId() == trackId) {
+					return pages.keyAt(i) * PAGE_SIZE + j;
+				}
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The track at this position, or null if its page is not loaded yet
+	 * (loading is started then).
+	 */
 	@Override
-	public void bindView(View view, Context context, Cursor cursor) {
-		bind(cursor, view, context);	
+	public Track getItem(int position) {
+		int pageNumber = position / PAGE_SIZE;
+		Track[] page = pages.get(pageNumber);
+		if (page == null) {
+			loadPage(pageNumber);
+			return null;
+		}
+
+		int index = position % PAGE_SIZE;
+		return (index < page.length) ? page[index] : null;
 	}
 
 	@Override
-	public View newView(Context context, Cursor cursor, ViewGroup vg) {
-		View view = LayoutInflater.from(vg.getContext()).inflate(R.layout.tracklist_item,
-				vg, false);
-		return view;
+	public long getItemId(int position) {
+		Track t = getItem(position);
+		return (t != null) ? t.getTrackId() : AdapterView.INVALID_ROW_ID;
+	}
+
+	@Override
+	public boolean areAllItemsEnabled() {
+		return false;
+	}
+
+	@Override
+	public boolean isEnabled(int position) {
+		// Rows not loaded yet can't be clicked
+		return getItem(position) != null;
+	}
+
+	@Override
+	public View getView(int position, View convertView, ViewGroup parent) {
+		View view = convertView;
+		if (view == null) {
+			view = LayoutInflater.from(parent.getContext()).inflate(R.layout.tracklist_item,
+					parent, false);
+		}
+		return bind(getItem(position), view);
+	}
+
+	/**
+	 * Starts loading a page in background, if not already loading.
+	 * @param pageNumber Page to load
+	 */
+	private void loadPage(final int pageNumber) {
+		if (!loadingPages.add(pageNumber)) {
+			return;
+		}
+
+		final int loadGeneration = generation;
+		new AsyncTask<Void, Void, Track[]>() {
+			@Override
+			protected Track[] doInBackground(Void... params) {
+				ContentResolver cr = context.getContentResolver();
+				Cursor c = cr.query(TrackContentProvider.trackPageUri(pageNumber * PAGE_SIZE, PAGE_SIZE),
+						null, DeleteTrackTask.getPendingSelection(), null, SORT_ORDER);
+				try {
+					Track[] page = new Track[c.getCount()];
+					int idIdx = c.getColumnIndex(Schema.COL_ID);
+					for (int i = 0; c.moveToNext(); i++) {
+						page[i] = Track.build(c.getLong(idIdx), c, cr, false);
+					}
+					return page;
+				} finally {
+					c.close();
+				}
+			}
+
+			@Override
+			protected void onPostExecute(Track[] page) {
+				if (loadGeneration == generation) {
+					loadingPages.remove(pageNumber);
+					pages.put(pageNumber, page);
+					notifyDataSetChanged();
+				}
+			}
+		}.execute();
 	}
-	
+
 	/**
 	 * Do the binding between data and item view.
-	 * 
-	 * @param cursor
-	 *            Cursor to pull data
+	 *
+	 * @param t
+	 *            Track to display, or null if not loaded yet
 	 * @param v
 	 *            RelativeView representing one item
-	 * @param context
-	 *            Context, to get resources
 	 * @return The relative view with data bound.
 	 */
-	private View bind(Cursor cursor, View v, Context context) {
+	private View bind(Track t, View v) {
 		TextView vId = (TextView) v.findViewById(R.id.trackmgr_item_id);
 		TextView vNameOrStartDate = (TextView) v.findViewById(R.id.trackmgr_item_nameordate);
 		TextView vWps = (TextView) v.findViewById(R.id.trackmgr_item_wps);
 		TextView vTps = (TextView) v.findViewById(R.id.trackmgr_item_tps);
 		ImageView vStatus = (ImageView) v.findViewById(R.id.trackmgr_item_statusicon);
 
+		if (t == null) {
+			// Page still loading
+			vId.setText("");
+			vNameOrStartDate.setText("");
+			vTps.setText("");
+			vWps.setText("");
+			vStatus.setVisibility(View.INVISIBLE);
+			return v;
+		}
+
 		// Is track active ?
-		int active = cursor.getInt(cursor.getColumnIndex(Schema.COL_ACTIVE));
-		if (Schema.VAL_TRACK_ACTIVE == active) {
+		if (t.isActive()) {
 			// Yellow clock icon for Active
 			vStatus.setImageResource(android.R.drawable.presence_away);
 			vStatus.setVisibility(View.VISIBLE);
-		} else if (cursor.isNull(cursor.getColumnIndex(Schema.COL_EXPORT_DATE))) {
+		} else if (t.getExportDate() == null) {
 			// Hide green circle icon: Track not yet exported
 			vStatus.setVisibility(View.INVISIBLE);
 		} else {
-			// Show green circle icon (don't assume already visible with this drawable; may be a re-query)
+			// Show green circle icon (don't assume already visible with this drawable; may be a recycled view)
 			vStatus.setImageResource(android.R.drawable.presence_online);
 			vStatus.setVisibility(View.VISIBLE);
 		}
-		
+
 		// Bind id
-		long trackId = cursor.getLong(cursor.getColumnIndex(Schema.COL_ID));
-		String strTrackId = Long.toString(trackId);
-		vId.setText("#" + strTrackId);
+		vId.setText("#" + Long.toString(t.getTrackId()));
 
 		// Bind WP count, TP count, name
-		Track t = Track.build(trackId, cursor, context.getContentResolver(), false);
 		vTps.setText(Integer.toString(t.getTpCount()));
 		vWps.setText(Integer.toString(t.getWpCount()));
 		vNameOrStartDate.setText(t.getName());
@@ -84,4 +311,46 @@ public class TracklistAdapter extends CursorAdapter {
 		return v;
 	}
 
-}
+	/**
+	 * Counts the tracks.
+	 * @param cr {@link ContentResolver} for query
+	 * @return Number of tracks
+	 */
+	public static int getTrackCount(ContentResolver cr) {
+		return count(cr, null, null);
+	}
+
+	/**
+	 * Finds the position of a track in the list, without loading the list.
+	 * @param cr {@link ContentResolver} for query
+	 * @param trackId Id of the track
+	 * @return Position of the track, or -1 if it doesn't exist.
+	 */
+	public static int getTrackPosition(ContentResolver cr, long trackId) {
+		Cursor c = cr.query(TrackContentProvider.CONTENT_URI_TRACK, null,
+				Schema.COL_ID + " = ?", new String[] {Long.toString(trackId)}, null);
+		try {
+			if (!c.moveToFirst()) {
+				return -1;
+			}
+			String startDate = Long.toString(c.getLong(c.getColumnIndex(Schema.COL_START_DATE)));
+			return count(cr, SELECTION_BEFORE, new String[] {startDate, startDate, Long.toString(trackId)});
+		} finally {
+			c.close();
+		}
+	}
+
+	private static int count(ContentResolver cr, String selection, String[] selectionArgs) {
+		String pendingSelection = DeleteTrackTask.getPendingSelection();
+		if (pendingSelection != null) {
+			selection = (selection != null) ? "(" + selection + ") and " + pendingSelection : pendingSelection;
+		}
+		Cursor c = cr.query(TrackContentProvider.CONTENT_URI_TRACK_COUNT, null, selection, selectionArgs, null);
+		try {
+			return c.moveToFirst() ? c.getInt(0) : 0;
+		} finally {
+			c.close();
+		}
+	}
+
+}
\ No newline at end of file
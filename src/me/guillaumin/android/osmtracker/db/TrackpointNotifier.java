@@ -0,0 +1,109 @@
+package me.guillaumin.android.osmtracker.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.guillaumin.android.osmtracker.util.Instrumentation;
+import android.content.ContentResolver;
+import android.os.Handler;
+
+/**
+ * Batches change notifications of inserted trackpoints: insertions in the
+ * same track during a time window are notified once, on a
+ * {@link TrackContentProvider#trackPointsRangeUri(long, long, long)} giving
+ * the range of inserted ids. Observers can query this Uri to only read
+ * the new trackpoints.
+ * <br />
+ * Insertions can be reported from any thread. Notifications are sent on
+ * the thread of the handler.
+ *
+ */
+class TrackpointNotifier {
+
+	private final ContentResolver contentResolver;
+
+	private final Handler handler;
+
+	/**
+	 * Time during which insertions are batched, in ms
+	 */
+	private final long window;
+
+	/**
+	 * Pending ranges of inserted ids (first, last), per track id. Guarded by this.
+	 */
+	private final Map<Long, long[]> pendingRanges = new HashMap<Long, long[]>();
+
+	/**
+	 * Sends the pending notifications
+	 */
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	/**
+	 * @param contentResolver Resolver to notify changes to
+	 * @param handler Handler of the thread sending the notifications
+	 * @param window Time during which insertions are batched, in ms
+	 */
+	TrackpointNotifier(ContentResolver contentResolver, Handler handler, long window) {
+		this.contentResolver = contentResolver;
+		this.handler = handler;
+		this.window = window;
+	}
+
+	/**
+	 * Reports an inserted trackpoint. The notification is sent at
+	 * the end of the current window.
+	 * @param trackId Id of the track
+	 * @param trackpointId Id of the inserted trackpoint
+	 */
+	void trackpointInserted(long trackId, long trackpointId) {
+		trackpointsInserted(trackId, trackpointId, trackpointId);
+	}
+
+	/**
+	 * Reports a range of trackpoints inserted in a batch. The notification
+	 * is sent at the end of the current window.
+	 * @param trackId Id of the track
+	 * @param firstId Id of the first inserted trackpoint
+	 * @param lastId Id of the last inserted trackpoint
+	 */
+	synchronized void trackpointsInserted(long trackId, long firstId, long lastId) {
+		if (pendingRanges.isEmpty()) {
+			// First insertion of the window
+			handler.postDelayed(flush, window);
+		}
+
+		long[] range = pendingRanges.get(trackId);
+		if (range == null) {
+			pendingRanges.put(trackId, new long[] {firstId, lastId});
+		} else {
+			range[0] = Math.min(range[0], firstId);
+			range[1] = Math.max(range[1], lastId);
+		}
+	}
+
+	/**
+	 * Sends one notification per track with pending insertions
+	 */
+	private void flush() {
+		Map<Long, long[]> ranges;
+		synchronized (this) {
+			ranges = new HashMap<Long, long[]>(pendingRanges);
+			pendingRanges.clear();
+		}
+
+		for (Map.Entry<Long, long[]> entry : ranges.entrySet()) {
+			long[] range = entry.getValue();
+			long start = Instrumentation.now();
+			contentResolver.notifyChange(
+					TrackContentProvider.trackPointsRangeUri(entry.getKey(), range[0], range[1]), null);
+			Instrumentation.NOTIFY_CHANGE.record(start);
+		}
+	}
+
+}
@@ -0,0 +1,240 @@
+package me.guillaumin.android.osmtracker.db;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Storage of the trackpoints. Two formats are supported:
+ * <ul>
+ * <li>legacy: {@link Schema#TBL_TRACKPOINT} is a table of doubles,</li>
+ * <li>fixed point: trackpoints are stored as integers in {@link #TBL_TRACKPOINT_E7}
+ * (coordinates in 1e-7 degrees, elevation and accuracy in decimetres, time in ms),
+ * that is about half the size. {@link Schema#TBL_TRACKPOINT}
+ * is then a view converting them back, so that queries work the same on both formats.</li>
+ * </ul>
+ * The conversion is done by {@link FixedPointMigration}, and can't be undone.
+ * Writes that can't go through the view must use this class.
+ *
+ */
+class TrackpointStorage {
+
+	/**
+	 * Table of the fixed point format
+	 */
+	static final String TBL_TRACKPOINT_E7 = "trackpoint_e7";
+
+	static final String COL_LATITUDE_E7 = "latitude_e7";
+	static final String COL_LONGITUDE_E7 = "longitude_e7";
+	static final String COL_ELEVATION_DM = "elevation_dm";
+	static final String COL_ACCURACY_DM = "accuracy_dm";
+
+	static final String SQL_CREATE_TABLE_TRACKPOINT_E7 = ""
+		+ "create table if not exists " + TBL_TRACKPOINT_E7 + " ("
+		+ Schema.COL_ID + " integer primary key autoincrement,"
+		+ Schema.COL_TRACK_ID + " integer not null,"
+		+ COL_LATITUDE_E7 + " integer not null,"
+		+ COL_LONGITUDE_E7 + " integer not null,"
+		+ COL_ELEVATION_DM + " integer null,"
+		+ COL_ACCURACY_DM + " integer null,"
+		+ Schema.COL_TIMESTAMP + " integer not null" + ")";
+
+	static final String SQL_CREATE_IDX_TRACKPOINT_E7_TRACK = ""
+		+ "create index if not exists " + TBL_TRACKPOINT_E7 + "_idx ON "
+		+ TBL_TRACKPOINT_E7 + "(" + Schema.COL_TRACK_ID + ")";
+
+	private static final String SQL_CREATE_VIEW_TRACKPOINT = ""
+		+ "create view " + Schema.TBL_TRACKPOINT + " as select "
+		+ "p." + Schema.COL_ID + " as " + Schema.COL_ID + ","
+		+ "p." + Schema.COL_TRACK_ID + " as " + Schema.COL_TRACK_ID + ","
+		+ "p." + COL_LATITUDE_E7 + " / 10000000.0 as " + Schema.COL_LATITUDE + ","
+		+ "p." + COL_LONGITUDE_E7 + " / 10000000.0 as " + Schema.COL_LONGITUDE + ","
+		+ "p." + COL_ELEVATION_DM + " / 10.0 as " + Schema.COL_ELEVATION + ","
+		+ "p." + COL_ACCURACY_DM + " / 10.0 as " + Schema.COL_ACCURACY + ","
+		+ "p." + Schema.COL_TIMESTAMP + " as " + Schema.COL_TIMESTAMP
+		+ " from " + TBL_TRACKPOINT_E7 + " p";
+
+	/**
+	 * Column list and converted values of an insertion into {@link #TBL_TRACKPOINT_E7},
+	 * from the legacy columns given by the format arguments
+	 */
+	private static final String SQL_E7_COLUMNS = ""
+		+ Schema.COL_TRACK_ID + "," + COL_LATITUDE_E7 + "," + COL_LONGITUDE_E7 + ","
+		+ COL_ELEVATION_DM + "," + COL_ACCURACY_DM + "," + Schema.COL_TIMESTAMP;
+
+	private static final String SQL_E7_VALUES = ""
+		+ "%1$s, round(%2$s * 10000000), round(%3$s * 10000000), round(%4$s * 10), round(%5$s * 10), %6$s";
+
+	/**
+	 * Lets {@link TrackArchive#restore(SQLiteDatabase, long)} and others insert into the view
+	 */
+	private static final String SQL_CREATE_TRIGGER_INSERT = ""
+		+ "create trigger " + Schema.TBL_TRACKPOINT + "_insert instead of insert on " + Schema.TBL_TRACKPOINT
+		+ " begin insert into " + TBL_TRACKPOINT_E7 + " (" + SQL_E7_COLUMNS + ") values ("
+		+ String.format(SQL_E7_VALUES, "new." + Schema.COL_TRACK_ID, "new." + Schema.COL_LATITUDE,
+				"new." + Schema.COL_LONGITUDE, "new." + Schema.COL_ELEVATION, "new." + Schema.COL_ACCURACY,
+				"new." + Schema.COL_TIMESTAMP)
+		+ "); end";
+
+	private static final String SQL_CREATE_TRIGGER_DELETE = ""
+		+ "create trigger " + Schema.TBL_TRACKPOINT + "_delete instead of delete on " + Schema.TBL_TRACKPOINT
+		+ " begin delete from " + TBL_TRACKPOINT_E7 + " where " + Schema.COL_ID + " = old." + Schema.COL_ID
+		+ "; end";
+
+	/**
+	 * Insertion of a trackpoint in the legacy format
+	 */
+	private static final String SQL_INSERT = ""
+		+ "insert into " + Schema.TBL_TRACKPOINT + " (" + Schema.COL_TRACK_ID + "," + Schema.COL_LATITUDE + ","
+		+ Schema.COL_LONGITUDE + "," + Schema.COL_ELEVATION + "," + Schema.COL_ACCURACY + ","
+		+ Schema.COL_TIMESTAMP + ") values (?1, ?2, ?3, ?4, ?5, ?6)";
+
+	/**
+	 * Insertion of a trackpoint in the fixed point format. Through the view,
+	 * the id of the new row wouldn't be returned.
+	 */
+	private static final String SQL_INSERT_E7 = ""
+		+ "insert into " + TBL_TRACKPOINT_E7 + " (" + SQL_E7_COLUMNS + ") values ("
+		+ String.format(SQL_E7_VALUES, "?1", "?2", "?3", "?4", "?5", "?6") + ")";
+
+	/**
+	 * Copy of the legacy rows after a given id, at most a given count
+	 */
+	static final String SQL_COPY_TO_E7 = ""
+		+ "insert into " + TBL_TRACKPOINT_E7 + " (" + Schema.COL_ID + "," + SQL_E7_COLUMNS + ") select "
+		+ Schema.COL_ID + ","
+		+ String.format(SQL_E7_VALUES, Schema.TBL_TRACKPOINT + "." + Schema.COL_TRACK_ID, Schema.COL_LATITUDE,
+				Schema.COL_LONGITUDE, Schema.COL_ELEVATION, Schema.COL_ACCURACY, Schema.COL_TIMESTAMP)
+		+ " from " + Schema.TBL_TRACKPOINT + " where " + Schema.COL_ID + " > ?"
+		+ " order by " + Schema.COL_ID + " asc limit ?";
+
+	/**
+	 * Format of the databases already checked, by path
+	 */
+	private static final Map<String, Boolean> fixedPoint = new HashMap<String, Boolean>();
+
+	/**
+	 * @param db the database to check
+	 * @return true if the trackpoints are stored in the fixed point format
+	 */
+	static boolean isFixedPoint(SQLiteDatabase db) {
+		synchronized (fixedPoint) {
+			Boolean cached = fixedPoint.get(db.getPath());
+			if (cached == null) {
+				cached = DatabaseUtils.longForQuery(db, "select count(*) from sqlite_master where type = 'view'"
+						+ " and name = ?", new String[] {Schema.TBL_TRACKPOINT}) > 0;
+				fixedPoint.put(db.getPath(), cached);
+			}
+			return cached;
+		}
+	}
+
+	/**
+	 * Forgets the format of a database, it will be checked again on next use
+	 * @param db the database
+	 */
+	static void forget(SQLiteDatabase db) {
+		synchronized (fixedPoint) {
+			fixedPoint.remove(db.getPath());
+		}
+	}
+
+	/**
+	 * @param db the database to check
+	 * @param name name of a table
+	 * @return true if the table exists
+	 */
+	static boolean tableExists(SQLiteDatabase db, String name) {
+		return DatabaseUtils.longForQuery(db, "select count(*) from sqlite_master where type = 'table'"
+				+ " and name = ?", new String[] {name}) > 0;
+	}
+
+	/**
+	 * @param db the database to work on
+	 * @return The table actually holding the trackpoints, for statements that
+	 * can't run on a view (e.g. deletions with a subquery on the same table)
+	 */
+	static String getTable(SQLiteDatabase db) {
+		return isFixedPoint(db) ? TBL_TRACKPOINT_E7 : Schema.TBL_TRACKPOINT;
+	}
+
+	/**
+	 * Inserts a trackpoint, in either format
+	 * @param db the database to work on
+	 * @param values trackpoint, with the columns of {@link Schema#TBL_TRACKPOINT}
+	 * @return Id of the new row, or -1 on error
+	 */
+	static long insert(SQLiteDatabase db, ContentValues values) {
+		Inserter inserter = new Inserter(db);
+		try {
+			return inserter.insert(values);
+		} finally {
+			inserter.close();
+		}
+	}
+
+	/**
+	 * Insertion of trackpoints in either format, compiled once for a batch.
+	 * Must be closed after use.
+	 */
+	static class Inserter {
+
+		private final SQLiteStatement insert;
+
+		/**
+		 * @param db the database to insert into
+		 */
+		Inserter(SQLiteDatabase db) {
+			insert = db.compileStatement(isFixedPoint(db) ? SQL_INSERT_E7 : SQL_INSERT);
+		}
+
+		/**
+		 * @param values trackpoint, with the columns of {@link Schema#TBL_TRACKPOINT}
+		 * @return Id of the new row, or -1 on error
+		 */
+		long insert(ContentValues values) {
+			insert.bindLong(1, values.getAsLong(Schema.COL_TRACK_ID));
+			insert.bindDouble(2, values.getAsDouble(Schema.COL_LATITUDE));
+			insert.bindDouble(3, values.getAsDouble(Schema.COL_LONGITUDE));
+			bindDouble(insert, 4, values.getAsDouble(Schema.COL_ELEVATION));
+			bindDouble(insert, 5, values.getAsDouble(Schema.COL_ACCURACY));
+			insert.bindLong(6, values.getAsLong(Schema.COL_TIMESTAMP));
+			return insert.executeInsert();
+		}
+
+		void close() {
+			insert.close();
+		}
+	}
+
+	private static void bindDouble(SQLiteStatement statement, int index, Double value) {
+		if (value == null) {
+			statement.bindNull(index);
+		} else {
+			statement.bindDouble(index, value);
+		}
+	}
+
+	/**
+	 * Replaces the legacy table by the view on {@link #TBL_TRACKPOINT_E7}, once all
+	 * rows are copied. Rows copied but deleted since from the legacy table are dropped.
+	 * @param db the database to work on, within a transaction
+	 */
+	static void switchToFixedPoint(SQLiteDatabase db) {
+		db.execSQL("delete from " + TBL_TRACKPOINT_E7 + " where not exists (select 1 from " + Schema.TBL_TRACKPOINT
+				+ " where " + Schema.TBL_TRACKPOINT + "." + Schema.COL_ID + " = " + TBL_TRACKPOINT_E7 + "." + Schema.COL_ID + ")");
+		// Drops its index too
+		db.execSQL("drop table " + Schema.TBL_TRACKPOINT);
+		db.execSQL(SQL_CREATE_VIEW_TRACKPOINT);
+		db.execSQL(SQL_CREATE_TRIGGER_INSERT);
+		db.execSQL(SQL_CREATE_TRIGGER_DELETE);
+		// Checked again on next use, in case the transaction is rolled back
+		forget(db);
+	}
+
+}
@@ -2,97 +2,286 @@ package me.guillaumin.android.osmtracker.db;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashSet;
 
 import me.guillaumin.android.osmtracker.R;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import android.content.ContentResolver;
 import android.content.Context;
+import android.content.res.Resources;
 import android.database.Cursor;
+import android.os.AsyncTask;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
-import android.widget.RelativeLayout;
+import android.widget.BaseAdapter;
 import android.widget.TextView;
 
 /**
  * Adapter for the waypoint list. Gets waypoints from database.
- * 
+ * <br />
+ * Waypoints are loaded by pages of {@link #PAGE_SIZE}, in background, when
+ * a row of the page is displayed. Rows are formatted at loading time, so
+ * binding a row only sets texts.
+ *
  * @author Nicolas Guillaumin
- * 
+ *
  */
-public class WaypointListAdapter extends CursorAdapter {
+public class WaypointListAdapter extends BaseAdapter {
 
 	/**
-	 * Date formatter
+	 * Number of waypoints loaded at once
 	 */
-	public static final SimpleDateFormat DATE_FORMATTER = new SimpleDateFormat("HH:mm:ss 'UTC'");
+	public static final int PAGE_SIZE = 100;
+
+	/**
+	 * Date format. {@link SimpleDateFormat} is not thread-safe, each
+	 * page loading uses its own instance.
+	 */
+	public static final String DATE_FORMAT = "HH:mm:ss 'UTC'";
+
+	/**
+	 * Sort order of the list. Waypoints with the same timestamp are sorted by id
+	 * so that pages are stable.
+	 */
+	private static final String SORT_ORDER = Schema.COL_TIMESTAMP + " asc, " + Schema.COL_ID + " asc";
+
+	private static final String[] COLUMNS = {
+		Schema.COL_NAME, Schema.COL_LATITUDE, Schema.COL_LONGITUDE, Schema.COL_ELEVATION,
+		Schema.COL_ACCURACY, Schema.COL_TIMESTAMP
+	};
+
+	private ContentResolver contentResolver;
+
+	/**
+	 * Track to list waypoints of
+	 */
+	private long trackId;
+
+	/**
+	 * Labels of location fields
+	 */
+	private String latitudeLabel, longitudeLabel, elevationLabel, accuracyLabel;
+
+	/**
+	 * Total number of waypoints
+	 */
+	private int count = 0;
+
+	/**
+	 * Loaded pages, by page number
+	 */
+	private SparseArray<Row[]> pages = new SparseArray<Row[]>();
+
+	/**
+	 * Pages being loaded
+	 */
+	private HashSet<Integer> loadingPages = new HashSet<Integer>();
+
+	/**
+	 * Increased each time loaded pages are discarded, so that
+	 * results of loads started before are ignored.
+	 */
+	private int generation = 0;
 
 	/**
 	 * Constructor.
-	 * 
+	 *
 	 * @param context
 	 *            Application context
-	 * @param c
-	 *            {@link Cursor} to data
+	 * @param trackId
+	 *            Track to list waypoints of
+	 */
+	public WaypointListAdapter(Context context, long trackId) {
+		this.contentResolver = context.getContentResolver();
+		this.trackId = trackId;
+
+		Resources r = context.getResources();
+		latitudeLabel = r.getString(R.string.wplist_latitude);
+		longitudeLabel = r.getString(R.string.wplist_longitude);
+		elevationLabel = r.getString(R.string.wplist_elevation);
+		accuracyLabel = r.getString(R.string.wplist_accuracy);
+	}
+
+	/**
+	 * Counts waypoints in background, then discards loaded pages.
+	 * Displayed ones will be loaded again.
+	 */
+	public void load() {
+		new AsyncTask<Void, Void, Integer>() {
+			@Override
+			protected Integer doInBackground(Void... params) {
+				Cursor c = contentResolver.query(TrackContentProvider.waypointsUri(trackId),
+						new String[] {"count(" + Schema.COL_ID + ")"}, null, null, null);
+				try {
+					return c.moveToFirst() ? c.getInt(0) : 0;
+				} finally {
+					c.close();
+				}
+			}
+
+			@Override
+			protected void onPostExecute(Integer result) {
+				count = result;
+				pages.clear();
+				loadingPages.clear();
+				generation++;
+				notifyDataSetChanged();
+			}
+		}.execute();
+	}
+
+	@Override
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return The formatted waypoint at this position, or null if its page
+	 * is not loaded yet (loading is started then).
 	 */
-	public WaypointListAdapter(Context context, Cursor c) {
-		super(context, c);
+	@Override
+	public Row getItem(int position) {
+		int pageNumber = position / PAGE_SIZE;
+		Row[] page = pages.get(pageNumber);
+		if (page == null) {
+			loadPage(pageNumber);
+			return null;
+		}
+
+		int index = position % PAGE_SIZE;
+		return (index < page.length) ? page[index] : null;
 	}
 
 	@Override
-	public void bindView(View view, Context context, Cursor cursor) {
-		RelativeLayout rl = (RelativeLayout) view;
-		bind(cursor, rl, context);
+	public long getItemId(int position) {
+		return position;
 	}
 
 	@Override
-	public View newView(Context context, Cursor cursor, ViewGroup vg) {
-		RelativeLayout rl = (RelativeLayout) LayoutInflater.from(vg.getContext()).inflate(R.layout.waypointlist_item,
-				vg, false);
-		return bind(cursor, rl, context);
+	public View getView(int position, View convertView, ViewGroup parent) {
+		View view = convertView;
+		ViewHolder holder;
+		if (view == null) {
+			view = LayoutInflater.from(parent.getContext()).inflate(R.layout.waypointlist_item, parent, false);
+			holder = new ViewHolder();
+			holder.name = (TextView) view.findViewById(R.id.wplist_item_name);
+			holder.location = (TextView) view.findViewById(R.id.wplist_item_location);
+			holder.timestamp = (TextView) view.findViewById(R.id.wplist_item_timestamp);
+			view.setTag(holder);
+		} else {
+			holder = (ViewHolder) view.getTag();
+		}
+
+		Row row = getItem(position);
+		if (row != null) {
+			holder.name.setText(row.name);
+			holder.location.setText(row.location);
+			holder.timestamp.setText(row.timestamp);
+		} else {
+			// Page still loading
+			holder.name.setText("");
+			holder.location.setText("");
+			holder.timestamp.setText("");
+		}
+		return view;
 	}
 
 	/**
-	 * Do the binding between data and item view.
-	 * 
-	 * @param cursor
-	 *            Cursor to pull data
-	 * @param rl
-	 *            RelativeView representing one item
-	 * @param context
-	 *            Context, to get resources
-	 * @return The relative view with data bound.
-	 */
-	private View bind(Cursor cursor, RelativeLayout rl, Context context) {
-		TextView vName = (TextView) rl.findViewById(R.id.wplist_item_name);
-		TextView vLocation = (TextView) rl.findViewById(R.id.wplist_item_location);
-		TextView vTimestamp = (TextView) rl.findViewById(R.id.wplist_item_timestamp);
-
-		// Bind name
-		String name = cursor.getString(cursor.getColumnIndex(Schema.COL_NAME));
-		vName.setText(name);
-
-		// Bind location
-		StringBuffer locationAsString = new StringBuffer();
-		locationAsString.append(context.getResources().getString(R.string.wplist_latitude)
-				+ cursor.getString(cursor.getColumnIndex(Schema.COL_LATITUDE)));
-		locationAsString.append(", " + context.getResources().getString(R.string.wplist_longitude)
-				+ cursor.getString(cursor.getColumnIndex(Schema.COL_LONGITUDE)));
-		if (!cursor.isNull(cursor.getColumnIndex(Schema.COL_ELEVATION))) {
-			locationAsString.append(", " + context.getResources().getString(R.string.wplist_elevation)
-					+ cursor.getString(cursor.getColumnIndex(Schema.COL_ELEVATION)));
+	 * Starts loading a page in background, if not already loading.
+	 * @param pageNumber Page to load
+	 */
+	private void loadPage(final int pageNumber) {
+		if (!loadingPages.add(pageNumber)) {
+			return;
 		}
-		if (!cursor.isNull(cursor.getColumnIndex(Schema.COL_ACCURACY))) {
-			locationAsString.append(", " + context.getResources().getString(R.string.wplist_accuracy)
-					+ cursor.getString(cursor.getColumnIndex(Schema.COL_ACCURACY)));
+
+		final int loadGeneration = generation;
+		new AsyncTask<Void, Void, Row[]>() {
+			@Override
+			protected Row[] doInBackground(Void... params) {
+				Cursor c = contentResolver.query(
+						TrackContentProvider.waypointsPageUri(trackId, pageNumber * PAGE_SIZE, PAGE_SIZE),
+						COLUMNS, null, null, SORT_ORDER);
+				try {
+					return format(c);
+				} finally {
+					c.close();
+				}
+			}
+
+			@Override
+			protected void onPostExecute(Row[] page) {
+				if (loadGeneration == generation) {
+					loadingPages.remove(pageNumber);
+					pages.put(pageNumber, page);
+					notifyDataSetChanged();
+				}
+			}
+		}.execute();
+	}
+
+	/**
+	 * Formats the waypoints of a cursor.
+	 *
+	 * @param c
+	 *            Cursor to pull data, with {@link #COLUMNS}
+	 * @return The formatted rows
+	 */
+	private Row[] format(Cursor c) {
+		// Column indexes are resolved once per cursor
+		int nameIdx = c.getColumnIndex(Schema.COL_NAME);
+		int latIdx = c.getColumnIndex(Schema.COL_LATITUDE);
+		int lonIdx = c.getColumnIndex(Schema.COL_LONGITUDE);
+		int eleIdx = c.getColumnIndex(Schema.COL_ELEVATION);
+		int accIdx = c.getColumnIndex(Schema.COL_ACCURACY);
+		int tsIdx = c.getColumnIndex(Schema.COL_TIMESTAMP);
+
+		SimpleDateFormat dateFormatter = new SimpleDateFormat(DATE_FORMAT);
+		Date date = new Date();
+		StringBuilder sb = new StringBuilder();
+
+		Row[] rows = new Row[c.getCount()];
+		for (int i = 0; c.moveToNext(); i++) {
+			Row row = new Row();
+			row.name = c.getString(nameIdx);
+
+			sb.setLength(0);
+			sb.append(latitudeLabel).append(c.getString(latIdx));
+			sb.append(", ").append(longitudeLabel).append(c.getString(lonIdx));
+			if (!c.isNull(eleIdx)) {
+				sb.append(", ").append(elevationLabel).append(c.getString(eleIdx));
+			}
+			if (!c.isNull(accIdx)) {
+				sb.append(", ").append(accuracyLabel).append(c.getString(accIdx));
+			}
+			row.location = sb.toString();
+
+			date.setTime(c.getLong(tsIdx));
+			row.timestamp = dateFormatter.format(date);
+
+			rows[i] = row;
 		}
-		vLocation.setText(locationAsString.toString());
+		return rows;
+	}
 
-		// Bind timestamp
-		Date ts = new Date(cursor.getLong(cursor.getColumnIndex(Schema.COL_TIMESTAMP)));
-		vTimestamp.setText(DATE_FORMATTER.format(ts));
+	/**
+	 * A waypoint, formatted for display
+	 */
+	public static class Row {
+		public String name;
+		public String location;
+		public String timestamp;
+	}
 
-		return rl;
+	/**
+	 * Views of a row, to avoid looking them up at each binding
+	 */
+	private static class ViewHolder {
+		TextView name;
+		TextView location;
+		TextView timestamp;
 	}
 
 }
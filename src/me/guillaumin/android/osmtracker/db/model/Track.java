@@ -22,6 +22,8 @@ public class Track {
 	private int tpCount, wpCount;
 	private long trackDate;
 	private long trackId;
+	private boolean active;
+	private Long exportDate = null;
 	
 	private Long startDate=null, endDate=null;
 	private Float startLat=null, startLong=null, endLat=null, endLong=null;
@@ -50,6 +52,12 @@ public class Track {
 		out.tpCount = tc.getInt(tc.getColumnIndex(Schema.COL_TRACKPOINT_COUNT));
 		
 		out.wpCount = tc.getInt(tc.getColumnIndex(Schema.COL_WAYPOINT_COUNT));
+
+		out.active = (tc.getInt(tc.getColumnIndex(Schema.COL_ACTIVE)) == Schema.VAL_TRACK_ACTIVE);
+		int exportDateIdx = tc.getColumnIndex(Schema.COL_EXPORT_DATE);
+		if (!tc.isNull(exportDateIdx)) {
+			out.exportDate = tc.getLong(exportDateIdx);
+		}
 		
 		if(withExtraInformation){
 			out.readExtraInformation();
@@ -60,21 +68,37 @@ public class Track {
 	
 	private void readExtraInformation(){
 		if(!extraInformationRead){
-			Cursor startCursor = cr.query(TrackContentProvider.trackStartUri(trackId), null, null, null, null);
-			if(startCursor.moveToFirst()){
-				startDate = startCursor.getLong(startCursor.getColumnIndex(Schema.COL_TIMESTAMP));
-				startLat = startCursor.getFloat(startCursor.getColumnIndex(Schema.COL_LATITUDE));
-				startLong = startCursor.getFloat(startCursor.getColumnIndex(Schema.COL_LONGITUDE));
-			}
-			Cursor endCursor = cr.query(TrackContentProvider.trackEndUri(trackId), null, null, null, null);
-			if(endCursor.moveToFirst()){
-				endDate = endCursor.getLong(endCursor.getColumnIndex(Schema.COL_TIMESTAMP));
-				endLat = endCursor.getFloat(endCursor.getColumnIndex(Schema.COL_LATITUDE));
-				endLong = endCursor.getFloat(endCursor.getColumnIndex(Schema.COL_LONGITUDE));
+			Cursor c = cr.query(TrackContentProvider.trackEndpointsUri(trackId), null, null, null, null);
+			try {
+				if(c.moveToFirst()){
+					readEndpoints(c);
+				}
+			} finally {
+				c.close();
 			}
 			extraInformationRead = true;
 		}
 	}
+
+	/**
+	 * Reads first and last track point from a row of {@link TrackContentProvider#trackEndpointsUri(long...)}
+	 * @param c cursor positioned on the row of this track
+	 */
+	private void readEndpoints(Cursor c) {
+		int startDateIdx = c.getColumnIndex(Schema.COL_START_TIMESTAMP);
+		if (!c.isNull(startDateIdx)) {
+			startDate = c.getLong(startDateIdx);
+			startLat = c.getFloat(c.getColumnIndex(Schema.COL_START_LATITUDE));
+			startLong = c.getFloat(c.getColumnIndex(Schema.COL_START_LONGITUDE));
+		}
+		int endDateIdx = c.getColumnIndex(Schema.COL_END_TIMESTAMP);
+		if (!c.isNull(endDateIdx)) {
+			endDate = c.getLong(endDateIdx);
+			endLat = c.getFloat(c.getColumnIndex(Schema.COL_END_LATITUDE));
+			endLong = c.getFloat(c.getColumnIndex(Schema.COL_END_LONGITUDE));
+		}
+		extraInformationRead = true;
+	}
 	
 	public void setName(String name) {
 		this.name = name;
@@ -120,6 +144,21 @@ public class Track {
 		this.endLong = endLong;
 	}
 
+	public long getTrackId() {
+		return trackId;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	/**
+	 * @return Date of the last export, or null if the track has never been exported
+	 */
+	public Long getExportDate() {
+		return exportDate;
+	}
+
 	public Integer getWpCount() {
 		return wpCount;
 	}
@@ -14,10 +14,12 @@ import java.util.regex.Pattern;
 import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
 import me.guillaumin.android.osmtracker.db.DataHelper;
+import me.guillaumin.android.osmtracker.db.PackedTrack;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
 import me.guillaumin.android.osmtracker.exception.ExportTrackException;
 import me.guillaumin.android.osmtracker.util.FileSystemUtils;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.content.ContentResolver;
@@ -204,24 +206,32 @@ public class ExportTrackTask  extends AsyncTask<Void, Integer, Boolean> {
 
 				File trackFile = new File(trackGPXExportDirectory, filenameBase);
 
-				Cursor cTrackPoints = cr.query(TrackContentProvider.trackPointsUri(trackId), null,
-						null, null, Schema.COL_TIMESTAMP + " asc");
+				// Finished tracks are read from their packs, others row by row
+				PackedTrack packedTrackPoints = PackedTrack.read(cr, trackId);
+				Cursor cTrackPoints = null;
+				if (packedTrackPoints == null) {
+					cTrackPoints = cr.query(TrackContentProvider.trackPointsUri(trackId), null,
+							null, null, Schema.COL_TIMESTAMP + " asc");
+				}
 				Cursor cWayPoints = cr.query(TrackContentProvider.waypointsUri(trackId), null, null,
 						null, Schema.COL_TIMESTAMP + " asc");
 
-				if (null != cTrackPoints && null != cWayPoints) {
+				if ((null != packedTrackPoints || null != cTrackPoints) && null != cWayPoints) {
+					int trackPointCount = (packedTrackPoints != null) ? packedTrackPoints.size() : cTrackPoints.getCount();
 					dialog.setIndeterminate(false);
 					dialog.setProgress(0);
-					dialog.setMax(cTrackPoints.getCount() + cWayPoints.getCount());
+					dialog.setMax(trackPointCount + cWayPoints.getCount());
 					
 					try {
-						writeGpxFile(cTrackPoints, cWayPoints, trackFile);
+						writeGpxFile(packedTrackPoints, cTrackPoints, cWayPoints, trackFile);
 						copyWaypointFiles(trackGPXExportDirectory);
 						DataHelper.setTrackExportDate(trackId, System.currentTimeMillis(), cr);
 					} catch (IOException ioe) {
 						throw new ExportTrackException(ioe.getMessage());
 					} finally {
-						cTrackPoints.close();
+						if (cTrackPoints != null) {
+							cTrackPoints.close();
+						}
 						cWayPoints.close();
 					}
 				}
@@ -277,12 +287,14 @@ public class ExportTrackTask  extends AsyncTask<Void, Integer, Boolean> {
 	
 	/**
 	 * Writes the GPX file
-	 * @param cTrackPoints Cursor to track points.
+	 * @param packedTrackPoints Track points of a sealed track, or null to use cTrackPoints.
+	 * @param cTrackPoints Cursor to track points, if packedTrackPoints is null.
 	 * @param cWayPoints Cursor to way points.
 	 * @param target Target GPX file
 	 * @throws IOException 
 	 */
-	private void writeGpxFile(Cursor cTrackPoints, Cursor cWayPoints, File target) throws IOException {
+	private void writeGpxFile(PackedTrack packedTrackPoints, Cursor cTrackPoints, Cursor cWayPoints, File target)
+			throws IOException {
 		
 		String accuracyOutput = PreferenceManager.getDefaultSharedPreferences(context).getString(
 				OSMTracker.Preferences.KEY_OUTPUT_ACCURACY,
@@ -291,6 +303,7 @@ public class ExportTrackTask  extends AsyncTask<Void, Integer, Boolean> {
 				OSMTracker.Preferences.KEY_OUTPUT_GPX_HDOP_APPROXIMATION,
 				OSMTracker.Preferences.VAL_OUTPUT_GPX_HDOP_APPROXIMATION);
 		
+		long start = Instrumentation.now();
 		Writer writer = null;
 		try {
 			writer = new BufferedWriter(new FileWriter(target));
@@ -298,7 +311,12 @@ public class ExportTrackTask  extends AsyncTask<Void, Integer, Boolean> {
 			writer.write(XML_HEADER + "\n");
 			writer.write(TAG_GPX + "\n");
 			
-			writeTrackPoints(context.getResources().getString(R.string.gpx_track_name), writer, cTrackPoints, fillHDOP);
+			String trackName = context.getResources().getString(R.string.gpx_track_name);
+			if (packedTrackPoints != null) {
+				writeTrackPoints(trackName, writer, packedTrackPoints, fillHDOP);
+			} else {
+				writeTrackPoints(trackName, writer, cTrackPoints, fillHDOP);
+			}
 			writeWayPoints(writer, cWayPoints, accuracyOutput, fillHDOP);
 			
 			writer.write("</gpx>");
@@ -307,6 +325,9 @@ public class ExportTrackTask  extends AsyncTask<Void, Integer, Boolean> {
 				writer.close();
 			}
 		}
+		Instrumentation.EXPORT_FILE.record(start);
+		Instrumentation.EXPORT_POINTS.add(((packedTrackPoints != null) ? packedTrackPoints.size() : cTrackPoints.getCount())
+				+ cWayPoints.getCount());
 	}
 	
 	/**
@@ -324,6 +345,97 @@ public class ExportTrackTask  extends AsyncTask<Void, Integer, Boolean> {
 			dialogUpdateThreshold++;
 		}
 		
+		writeTrackStart(trackName, fw, fillHDOP);
+		
+		final int colLatitude = c.getColumnIndex(Schema.COL_LATITUDE);
+		final int colLongitude = c.getColumnIndex(Schema.COL_LONGITUDE);
+		final int colElevation = c.getColumnIndex(Schema.COL_ELEVATION);
+		final int colTimestamp = c.getColumnIndex(Schema.COL_TIMESTAMP);
+		final int colAccuracy = c.getColumnIndex(Schema.COL_ACCURACY);
+		StringBuffer out = new StringBuffer();
+		int i=0;
+		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext(),i++) {
+			writeTrackPoint(fw, out, c.getDouble(colLatitude), c.getDouble(colLongitude),
+					c.isNull(colElevation) ? Double.NaN : c.getDouble(colElevation),
+					c.getLong(colTimestamp),
+					c.isNull(colAccuracy) ? Double.NaN : c.getDouble(colAccuracy), fillHDOP);
+
+	        if (i % dialogUpdateThreshold == 0) {
+		    	dialog.incrementProgressBy(dialogUpdateThreshold);
+		    }
+		}
+		
+		writeTrackEnd(fw);
+	}
+
+	/**
+	 * Writes the track points of a sealed track.
+	 * @param trackName Name of the track (metadata).
+	 * @param fw Writer to the target file.
+	 * @param track Packed track points, ordered by time.
+	 * @param fillHDOP Indicates whether fill <hdop> tag with approximation from location accuracy.
+	 * @throws IOException
+	 */
+	private void writeTrackPoints(String trackName, Writer fw, PackedTrack track, boolean fillHDOP) throws IOException {
+		// Update dialog every 1%
+		int dialogUpdateThreshold = track.size() / 100;
+		if (dialogUpdateThreshold == 0) {
+			dialogUpdateThreshold++;
+		}
+
+		writeTrackStart(trackName, fw, fillHDOP);
+
+		StringBuffer out = new StringBuffer();
+		for (int i = 0; i < track.size(); i++) {
+			writeTrackPoint(fw, out, track.getLatitude(i), track.getLongitude(i), track.getElevation(i),
+					track.getTimestamp(i), track.getAccuracy(i), fillHDOP);
+
+			if (i % dialogUpdateThreshold == 0) {
+				dialog.incrementProgressBy(dialogUpdateThreshold);
+			}
+		}
+
+		writeTrackEnd(fw);
+	}
+
+	/**
+	 * Writes a track point, the same way whether it's read from a cursor or a pack.
+	 * @param fw Writer to the target file.
+	 * @param out Buffer to format the point in, reused between points.
+	 * @param latitude Latitude of the point.
+	 * @param longitude Longitude of the point.
+	 * @param elevation Elevation of the point, NaN if unknown.
+	 * @param timestamp Time of the point.
+	 * @param accuracy Accuracy of the point, NaN if unknown.
+	 * @param fillHDOP Indicates whether fill <hdop> tag with approximation from location accuracy.
+	 * @throws IOException
+	 */
+	private void writeTrackPoint(Writer fw, StringBuffer out, double latitude, double longitude, double elevation,
+			long timestamp, double accuracy, boolean fillHDOP) throws IOException {
+		out.setLength(0);
+		out.append("\t\t\t" + "<trkpt lat=\"").append(latitude).append("\" ")
+			.append("lon=\"").append(longitude).append("\">" + "\n");
+		if (! Double.isNaN(elevation)) {
+			out.append("\t\t\t\t" + "<ele>").append(elevation).append("</ele>" + "\n");
+		}
+		out.append("\t\t\t\t" + "<time>").append(POINT_DATE_FORMATTER.format(new Date(timestamp)))
+			.append("</time>" + "\n");
+		if (fillHDOP && ! Double.isNaN(accuracy)) {
+			out.append("\t\t\t\t" + "<hdop>").append(accuracy / OSMTracker.HDOP_APPROXIMATION_FACTOR)
+				.append("</hdop>" + "\n");
+		}
+		out.append("\t\t\t" + "</trkpt>" + "\n");
+		fw.write(out.toString());
+	}
+
+	/**
+	 * Writes the opening of the track and its segment.
+	 * @param trackName Name of the track (metadata).
+	 * @param fw Writer to the target file.
+	 * @param fillHDOP Indicates whether fill <hdop> tag with approximation from location accuracy.
+	 * @throws IOException
+	 */
+	private void writeTrackStart(String trackName, Writer fw, boolean fillHDOP) throws IOException {
 		fw.write("\t" + "<trk>" + "\n");
 		fw.write("\t\t" + "<name>" + CDATA_START + trackName + CDATA_END + "</name>" + "\n");
 		if (fillHDOP) {
@@ -335,30 +447,14 @@ public class ExportTrackTask  extends AsyncTask<Void, Integer, Boolean> {
 		}
 		
 		fw.write("\t\t" + "<trkseg>" + "\n");
-		
-		int i=0;
-		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext(),i++) {
-			StringBuffer out = new StringBuffer();
-			out.append("\t\t\t" + "<trkpt lat=\"" 
-					+ c.getDouble(c.getColumnIndex(Schema.COL_LATITUDE)) + "\" "
-					+ "lon=\"" + c.getDouble(c.getColumnIndex(Schema.COL_LONGITUDE)) + "\">" + "\n");
-	        if (! c.isNull(c.getColumnIndex(Schema.COL_ELEVATION))) {
-	        	out.append("\t\t\t\t" + "<ele>" + c.getDouble(c.getColumnIndex(Schema.COL_ELEVATION)) + "</ele>" + "\n");
-	        }
-	        out.append("\t\t\t\t" + "<time>" + POINT_DATE_FORMATTER.format(new Date(c.getLong(c.getColumnIndex(Schema.COL_TIMESTAMP)))) + "</time>" + "\n");
-	        
-	        if(fillHDOP && ! c.isNull(c.getColumnIndex(Schema.COL_ACCURACY))) {
-	        	out.append("\t\t\t\t" + "<hdop>" + (c.getDouble(c.getColumnIndex(Schema.COL_ACCURACY)) / OSMTracker.HDOP_APPROXIMATION_FACTOR) + "</hdop>" + "\n");
-	        }
-	       
-	        out.append("\t\t\t" + "</trkpt>" + "\n");
-	        fw.write(out.toString());
+	}
 
-	        if (i % dialogUpdateThreshold == 0) {
-		    	dialog.incrementProgressBy(dialogUpdateThreshold);
-		    }
-		}
-		
+	/**
+	 * Writes the closing of the track segment and the track.
+	 * @param fw Writer to the target file.
+	 * @throws IOException
+	 */
+	private void writeTrackEnd(Writer fw) throws IOException {
 		fw.write("\t\t" + "</trkseg>" + "\n");
 		fw.write("\t" + "</trk>" + "\n");
 	}
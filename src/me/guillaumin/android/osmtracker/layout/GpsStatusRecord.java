@@ -2,19 +2,11 @@ package me.guillaumin.android.osmtracker.layout;
 
 import java.text.DecimalFormat;
 
-import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
 import me.guillaumin.android.osmtracker.activity.TrackLogger;
+import me.guillaumin.android.osmtracker.service.gps.GpsEventBuffer;
 import android.content.Context;
-import android.location.GpsSatellite;
-import android.location.GpsStatus;
-import android.location.GpsStatus.Listener;
-import android.location.Location;
-import android.location.LocationListener;
-import android.location.LocationManager;
 import android.location.LocationProvider;
-import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -25,11 +17,14 @@ import android.widget.TextView;
 /**
  * Layout for the GPS Status image and misc
  * action buttons.
+ * <br />
+ * GPS events are read from the {@link GpsEventBuffer} published by
+ * the GPS logger service, already throttled at the logging interval.
  * 
  * @author Nicolas Guillaumin
  * 
  */
-public class GpsStatusRecord extends LinearLayout implements Listener, LocationListener {
+public class GpsStatusRecord extends LinearLayout implements GpsEventBuffer.Listener {
 	
 	private final static String TAG = GpsStatusRecord.class.getSimpleName();
 	
@@ -43,31 +38,24 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 	 * of satellites for each bars;
 	 */
 	private final static int[] SAT_INDICATOR_TRESHOLD = {2, 3, 4, 6, 8};
-	
-	/**
-	 * Containing activity
-	 */
-	private TrackLogger activity;
-	
+
 	/**
-	 * Reference to LocationManager
+	 * Satellite indicator drawables, by number of bars
 	 */
-	private LocationManager lmgr;
+	private final static int[] SAT_INDICATOR_DRAWABLES = {
+		R.drawable.sat_indicator_0, R.drawable.sat_indicator_1, R.drawable.sat_indicator_2,
+		R.drawable.sat_indicator_3, R.drawable.sat_indicator_4
+	};
 	
 	/**
-	 * the timestamp of the last GPS fix we used
-	 */
-	private long lastGPSTimestampStatus = 0;
-
-	/**
-	 * the timestamp of the last GPS fix we used for location updates
+	 * Containing activity
 	 */
-	private long lastGPSTimestampLocation = 0;
+	private TrackLogger activity;
 	
 	/**
-	 * the interval (in ms) to log GPS fixes defined in the preferences
+	 * Reads GPS events, while subscribed
 	 */
-	private final long gpsLoggingInterval;
+	private GpsEventBuffer.Reader gpsEventReader;
 	
 	/**
 	 * Is GPS active ?
@@ -78,111 +66,122 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 		super(context, attrs);
 		LayoutInflater.from(context).inflate(R.layout.gpsstatus_record, this, true);
 
-		//read the logging interval from preferences
-		gpsLoggingInterval = Long.parseLong(PreferenceManager.getDefaultSharedPreferences(context).getString(
-				OSMTracker.Preferences.KEY_GPS_LOGGING_INTERVAL, OSMTracker.Preferences.VAL_GPS_LOGGING_INTERVAL)) * 1000;
-		
 		if (context instanceof TrackLogger) {
 			activity = (TrackLogger) context;
-			lmgr = (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
 		}		
 
 	}
 	
 	public void requestLocationUpdates(boolean request) {
+		GpsEventBuffer gpsEvents = GpsEventBuffer.getInstance();
 		if (request) {
-			lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0,	this);
-			lmgr.addGpsStatusListener(this);
+			gpsEventReader = gpsEvents.newReader();
+			// The reader starts after the last event: show the current state
+			// right away, rather than on the next fix
+			if (gpsEventReader.readLast(GpsEventBuffer.EVENT_LOCATION)) {
+				onLocationChanged(gpsEventReader);
+			}
+			if (gpsEventReader.readLast(GpsEventBuffer.EVENT_SATELLITES)) {
+				onGpsStatusChanged(gpsEventReader);
+			}
+			gpsEvents.subscribe(this);
 		} else {
-			lmgr.removeUpdates(this);
-			lmgr.removeGpsStatusListener(this);
+			gpsEvents.unsubscribe(this);
+			gpsEventReader = null;
 		}
 	}
 
 	@Override
-	public void onGpsStatusChanged(int event) {
+	public void onGpsEventPublished() {
+		if (gpsEventReader == null) {
+			return;
+		}
+
+		while (gpsEventReader.next()) {
+			switch (gpsEventReader.getType()) {
+			case GpsEventBuffer.EVENT_LOCATION:
+				onLocationChanged(gpsEventReader);
+				break;
+			case GpsEventBuffer.EVENT_PROVIDER_ENABLED:
+				onProviderEnabled();
+				break;
+			case GpsEventBuffer.EVENT_PROVIDER_DISABLED:
+				onProviderDisabled();
+				break;
+			case GpsEventBuffer.EVENT_PROVIDER_STATUS:
+				onStatusChanged(gpsEventReader.getProviderStatus());
+				break;
+			default:
+				onGpsStatusChanged(gpsEventReader);
+			}
+		}
+	}
+
+	private void onGpsStatusChanged(GpsEventBuffer.Reader event) {
 		// Update GPS Status image according to event
 		ImageView imgSatIndicator = (ImageView) findViewById(R.id.gpsstatus_record_imgSatIndicator);
 
-		switch (event) {
-		case GpsStatus.GPS_EVENT_FIRST_FIX:
+		switch (event.getType()) {
+		case GpsEventBuffer.EVENT_FIRST_FIX:
 			imgSatIndicator.setImageResource(R.drawable.sat_indicator_0);
 			activity.onGpsEnabled();
 			break;
-		case GpsStatus.GPS_EVENT_STARTED:
+		case GpsEventBuffer.EVENT_GPS_STARTED:
 			imgSatIndicator.setImageResource(R.drawable.sat_indicator_unknown);
 			break;
-		case GpsStatus.GPS_EVENT_STOPPED:
+		case GpsEventBuffer.EVENT_GPS_STOPPED:
 			imgSatIndicator.setImageResource(R.drawable.sat_indicator_off);
 			activity.onGpsDisabled();
 			break;
-		case GpsStatus.GPS_EVENT_SATELLITE_STATUS:
-			// first of all we check if the time from the last used fix to the current fix is greater than the logging interval
-			if((event != GpsStatus.GPS_EVENT_SATELLITE_STATUS) || (lastGPSTimestampStatus + gpsLoggingInterval) < System.currentTimeMillis()){
-				lastGPSTimestampStatus = System.currentTimeMillis(); // save the time of this fix
-
-				GpsStatus status = lmgr.getGpsStatus(null);
-
-				// Count active satellites
-				int satCount = 0;
-				for (@SuppressWarnings("unused") GpsSatellite sat:status.getSatellites()) {
-					satCount++;
+		case GpsEventBuffer.EVENT_SATELLITES:
+			// Count active satellites
+			int satCount = event.getSatellitesInView();
+
+			// Count how many bars should we draw
+			int nbBars = 0;
+			for (int i=0; i<SAT_INDICATOR_TRESHOLD.length; i++) {
+				if (satCount >= SAT_INDICATOR_TRESHOLD[i]) {
+					nbBars = i;
 				}
-
-				// Count how many bars should we draw
-				int nbBars = 0;
-				for (int i=0; i<SAT_INDICATOR_TRESHOLD.length; i++) {
-					if (satCount >= SAT_INDICATOR_TRESHOLD[i]) {
-						nbBars = i;
-					}
-				}
-				Log.v(TAG, "Found " + satCount + " satellites. Will draw " + nbBars + " bars.");			
-				imgSatIndicator.setImageResource(getResources().getIdentifier("drawable/sat_indicator_" + nbBars, null, OSMTracker.class.getPackage().getName()));
 			}
+			Log.v(TAG, "Found " + satCount + " satellites. Will draw " + nbBars + " bars.");			
+			imgSatIndicator.setImageResource(SAT_INDICATOR_DRAWABLES[nbBars]);
 			break;
 		}
 	}
 
-	@Override
-	public void onLocationChanged(Location location) {
-		// first of all we check if the time from the last used fix to the current fix is greater than the logging interval
-		if((lastGPSTimestampLocation + gpsLoggingInterval) < System.currentTimeMillis()){
-			lastGPSTimestampLocation = System.currentTimeMillis(); // save the time of this fix
-			Log.v(TAG, "Location received " + location);
-			if (! gpsActive) {
-				gpsActive = true;
-				// GPS activated, activate UI
-				activity.onGpsEnabled();
-			}
-			
-			TextView tvAccuracy = (TextView) findViewById(R.id.gpsstatus_record_tvAccuracy);
-			if (location.hasAccuracy()) {
-				tvAccuracy.setText(getResources().getString(R.string.various_accuracy) + ": " + ACCURACY_FORMAT.format(location.getAccuracy()) + getResources().getString(R.string.various_unit_meters));
-			} else {
-				tvAccuracy.setText("");
-			}
+	private void onLocationChanged(GpsEventBuffer.Reader location) {
+		Log.v(TAG, "Location received " + location.getLatitude() + "," + location.getLongitude());
+		if (! gpsActive) {
+			gpsActive = true;
+			// GPS activated, activate UI
+			activity.onGpsEnabled();
+		}
+		
+		TextView tvAccuracy = (TextView) findViewById(R.id.gpsstatus_record_tvAccuracy);
+		if (location.hasAccuracy()) {
+			tvAccuracy.setText(getResources().getString(R.string.various_accuracy) + ": " + ACCURACY_FORMAT.format(location.getAccuracy()) + getResources().getString(R.string.various_unit_meters));
+		} else {
+			tvAccuracy.setText("");
 		}
 	}
 
-	@Override
-	public void onProviderDisabled(String provider) {
-		Log.d(TAG, "Location provider " + provider + " disabled");
+	private void onProviderDisabled() {
+		Log.d(TAG, "Location provider disabled");
 		gpsActive = false;
 		((ImageView) findViewById(R.id.gpsstatus_record_imgSatIndicator)).setImageResource(R.drawable.sat_indicator_off);
 		((TextView) findViewById(R.id.gpsstatus_record_tvAccuracy)).setText("");
 		activity.onGpsDisabled();
 	}
 
-	@Override
-	public void onProviderEnabled(String provider) {
-		Log.d(TAG, "Location provider " + provider + " enabled");
+	private void onProviderEnabled() {
+		Log.d(TAG, "Location provider enabled");
 		((ImageView) findViewById(R.id.gpsstatus_record_imgSatIndicator)).setImageResource(R.drawable.sat_indicator_unknown);
 	}
 
-	@Override
-	public void onStatusChanged(String provider, int status, Bundle extras) {
+	private void onStatusChanged(int status) {
 		// Update provider status image according to status
-		Log.d(TAG, "Location provider " + provider + " status changed to: " + status);
+		Log.d(TAG, "Location provider status changed to: " + status);
 		ImageView imgSatIndicator = (ImageView) findViewById(R.id.gpsstatus_record_imgSatIndicator);
 		TextView tvAccuracy = (TextView) findViewById(R.id.gpsstatus_record_tvAccuracy);
 		
@@ -204,6 +203,13 @@ public class GpsStatusRecord extends LinearLayout implements Listener, LocationL
 
 	}
 	
+	/**
+	 * @return true if a fix was received, and the GPS wasn't disabled since
+	 */
+	public boolean isGpsActive() {
+		return gpsActive;
+	}
+
 	/**
 	 * Manages the state of the recording indicator, depending if we're tracking or not.
 	 * @param isTracking true if the indicator must show that we're tracking, otherwise false
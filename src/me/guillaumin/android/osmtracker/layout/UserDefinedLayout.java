@@ -9,27 +9,37 @@ import java.util.Stack;
 import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
 import me.guillaumin.android.osmtracker.activity.TrackLogger;
+import me.guillaumin.android.osmtracker.layout.model.LayoutPage;
 import me.guillaumin.android.osmtracker.service.resources.AppResourceIconResolver;
 import me.guillaumin.android.osmtracker.service.resources.ExternalDirectoryIconResolver;
+import me.guillaumin.android.osmtracker.service.resources.IconResolver;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
+import me.guillaumin.android.osmtracker.util.UserDefinedLayoutCache;
+import me.guillaumin.android.osmtracker.util.UserDefinedLayoutInflater;
 import me.guillaumin.android.osmtracker.util.UserDefinedLayoutReader;
 
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.ViewGroup;
 import android.widget.LinearLayout;
 
 /**
  * Manages user-definable layout. User can define his own buttons
  * and pages of buttons in an XML file.
+ * Pages are inflated only the first time they're displayed, and the
+ * parsed XML is kept across activity recreations, and in a binary
+ * cache file across application restarts.
  * 
  * @author Nicolas Guillaumin
  *
  */
 public class UserDefinedLayout extends LinearLayout {
 
-	@SuppressWarnings("unused")
 	private static final String TAG = UserDefinedLayout.class.getSimpleName();
 	
 	/**
@@ -38,9 +48,41 @@ public class UserDefinedLayout extends LinearLayout {
 	private static final String ROOT_LAYOUT_NAME = "root";
 	
 	/**
-	 * List of layouts (button pages) read from XML
+	 * User icons are downsampled to fit in this fraction
+	 * of the smallest screen dimension.
+	 */
+	private static final int ICON_SCREEN_FRACTION = 3;
+	
+	/**
+	 * Prefix for binary cache files of parsed layouts
+	 */
+	private static final String CACHE_FILE_PREFIX = "layout-";
+	private static final String CACHE_FILE_EXTENSION = ".bin";
+	
+	/**
+	 * Key of the last parsed layout (file, modification date, locale)
+	 */
+	private static String cachedPagesKey = null;
+	
+	/**
+	 * Last parsed layout, reused as long as {@link #cachedPagesKey} matches
+	 */
+	private static HashMap<String, LayoutPage> cachedPages = null;
+	
+	/**
+	 * List of pages read from XML
+	 */
+	private HashMap<String, LayoutPage> pages;
+	
+	/**
+	 * List of layouts (button pages) already inflated
 	 */
 	private HashMap<String, ViewGroup> layouts = new HashMap<String, ViewGroup>();
+	
+	/**
+	 * Inflater building the views of a page on first display
+	 */
+	private UserDefinedLayoutInflater inflater;
 
 	/**
 	 * Stack for keeping track of user navigation in pages
@@ -53,23 +95,17 @@ public class UserDefinedLayout extends LinearLayout {
 		// Set default presentation parameters
 		setLayoutParams(new LinearLayout.LayoutParams(LinearLayout.LayoutParams.FILL_PARENT, LinearLayout.LayoutParams.FILL_PARENT, 1));
 		
-		UserDefinedLayoutReader udlr;
-		XmlPullParser parser;
+		IconResolver iconResolver;
 		if (xmlLayout == null) {
-			// No user file, use default file
-			parser = getResources().getXml(R.xml.default_buttons_layout);
-			udlr = new UserDefinedLayoutReader(this, getContext(), activity, trackId, parser, new AppResourceIconResolver(getResources(), OSMTracker.class.getPackage().getName()));
+			iconResolver = new AppResourceIconResolver(getResources(), OSMTracker.class.getPackage().getName());
 		} else {
-			// User file specified, parse it
-			XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
-			parser = factory.newPullParser();
-			parser.setInput(new FileReader(xmlLayout));
-			udlr = new UserDefinedLayoutReader(this, getContext(), activity, trackId, parser, new ExternalDirectoryIconResolver(xmlLayout.getParentFile()));
+			iconResolver = new ExternalDirectoryIconResolver(xmlLayout.getParentFile(), getMaxIconSize());
 		}
+		inflater = new UserDefinedLayoutInflater(this, getContext(), activity, trackId, iconResolver);
 		
-		layouts = udlr.parseLayout();
+		pages = getPages(xmlLayout);
 		
-		if (layouts == null || layouts.isEmpty() || layouts.get(ROOT_LAYOUT_NAME) == null) {
+		if (pages == null || pages.isEmpty() || pages.get(ROOT_LAYOUT_NAME) == null) {
 			throw new IOException("Error in layout file. Is there a layout name '" + ROOT_LAYOUT_NAME + "' defined ?");
 		}
 		
@@ -83,12 +119,16 @@ public class UserDefinedLayout extends LinearLayout {
 	 * @param s Name of layout to push.
 	 */
 	public void push(String s) {
-		if (layouts.get(s) != null) {
+		ViewGroup layout = getLayout(s);
+		if (layout != null) {
 			layoutStack.push(s);
 			if (this.getChildCount() > 0) {
 				this.removeAllViews();
 			}
-			this.addView(layouts.get(layoutStack.peek()));
+			// Page may have been inflated or hidden while buttons
+			// were disabled or enabled
+			layout.setEnabled(isEnabled());
+			this.addView(layout);
 		}
 	}
 	
@@ -118,6 +158,113 @@ public class UserDefinedLayout extends LinearLayout {
 		super.setEnabled(enabled);
 		this.getChildAt(0).setEnabled(enabled);
 	}
+	
+	/**
+	 * Gets an inflated page, inflating it if it's the first time
+	 * it's requested.
+	 * @param name Name of the page
+	 * @return The inflated page, or null if there's no such page.
+	 */
+	private ViewGroup getLayout(String name) {
+		ViewGroup layout = layouts.get(name);
+		if (layout == null) {
+			LayoutPage page = pages.get(name);
+			if (page != null) {
+				long start = Instrumentation.now();
+				layout = inflater.inflateLayout(page);
+				layouts.put(name, layout);
+				Instrumentation.LAYOUT_PAGE_INFLATE.record(start);
+				Log.v(TAG, "Page '" + name + "' inflated in " + (Instrumentation.now() - start) / 1000000 + "ms");
+			}
+		}
+		return layout;
+	}
+	
+	/**
+	 * Gets the parsed pages of a layout file. Parsing is skipped if the
+	 * same file, unmodified, has been parsed before with the same locale,
+	 * either in this process or in the binary cache.
+	 * @param xmlLayout Layout file, or null for the default layout
+	 * @return Pages, with page name as key
+	 */
+	private HashMap<String, LayoutPage> getPages(File xmlLayout) throws XmlPullParserException, IOException {
+		long start = Instrumentation.now();
+		String locale = getResources().getConfiguration().locale.toString();
+		
+		String key;
+		if (xmlLayout == null) {
+			key = Integer.toString(R.xml.default_buttons_layout);
+		} else {
+			key = xmlLayout.getAbsolutePath() + ":" + xmlLayout.lastModified();
+		}
+		key += ":" + locale;
+		
+		if (key.equals(cachedPagesKey)) {
+			return cachedPages;
+		}
+		
+		// Not in memory, try the binary cache. Its key is based on the
+		// file content, or on the application version for the default layout
+		String cacheKey;
+		File cacheFile;
+		if (xmlLayout == null) {
+			cacheKey = "default:" + getVersionCode() + ":" + locale;
+			cacheFile = new File(getContext().getCacheDir(), CACHE_FILE_PREFIX + "default" + CACHE_FILE_EXTENSION);
+		} else {
+			cacheKey = UserDefinedLayoutCache.hash(xmlLayout) + ":" + locale;
+			cacheFile = new File(getContext().getCacheDir(), CACHE_FILE_PREFIX
+					+ Integer.toHexString(xmlLayout.getAbsolutePath().hashCode()) + CACHE_FILE_EXTENSION);
+		}
+		
+		HashMap<String, LayoutPage> cached = UserDefinedLayoutCache.read(cacheFile, cacheKey);
+		if (cached != null) {
+			Instrumentation.LAYOUT_CACHE_READ.record(start);
+			Log.v(TAG, "Layout loaded from binary cache in " + (Instrumentation.now() - start) / 1000000 + "ms");
+			cachedPagesKey = key;
+			cachedPages = cached;
+			return cached;
+		}
+		
+		XmlPullParser parser;
+		if (xmlLayout == null) {
+			// No user file, use default file
+			parser = getResources().getXml(R.xml.default_buttons_layout);
+		} else {
+			// User file specified, parse it
+			XmlPullParserFactory factory = XmlPullParserFactory.newInstance();
+			parser = factory.newPullParser();
+			parser.setInput(new FileReader(xmlLayout));
+		}
+		
+		HashMap<String, LayoutPage> parsed = new UserDefinedLayoutReader(parser, getResources()).parseLayout();
+		UserDefinedLayoutCache.write(cacheFile, cacheKey, parsed);
+		Instrumentation.LAYOUT_PARSE.record(start);
+		Log.v(TAG, "Layout parsed from XML in " + (Instrumentation.now() - start) / 1000000 + "ms");
+		
+		cachedPagesKey = key;
+		cachedPages = parsed;
+		return parsed;
+	}
+	
+	/**
+	 * @return Version code of the application, to invalidate the
+	 * cache of the default layout on upgrades.
+	 */
+	private int getVersionCode() {
+		try {
+			return getContext().getPackageManager().getPackageInfo(getContext().getPackageName(), 0).versionCode;
+		} catch (NameNotFoundException nnfe) {
+			return 0;
+		}
+	}
+	
+	/**
+	 * @return Maximum size of a button icon, in pixels
+	 */
+	private int getMaxIconSize() {
+		DisplayMetrics metrics = getResources().getDisplayMetrics();
+		return Math.min(metrics.widthPixels, metrics.heightPixels) / ICON_SCREEN_FRACTION;
+	}
 
 
 }
@@ -0,0 +1,53 @@
+package me.guillaumin.android.osmtracker.layout.model;
+
+/**
+ * Represents a button of an user defined layout, as parsed
+ * from the XML file.
+ *
+ */
+public class LayoutButton {
+
+	/**
+	 * Button type (tag, page, voicerec, textnote, picture)
+	 */
+	private String type;
+
+	/**
+	 * Label, with resources references already resolved
+	 */
+	private String label;
+
+	/**
+	 * Icon key, to be looked up with an IconResolver
+	 */
+	private String icon;
+
+	/**
+	 * Target page name, for page buttons
+	 */
+	private String targetLayout;
+
+	public LayoutButton(String type, String label, String icon, String targetLayout) {
+		this.type = type;
+		this.label = label;
+		this.icon = icon;
+		this.targetLayout = targetLayout;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public String getIcon() {
+		return icon;
+	}
+
+	public String getTargetLayout() {
+		return targetLayout;
+	}
+
+}
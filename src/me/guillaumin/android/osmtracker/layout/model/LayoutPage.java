@@ -0,0 +1,62 @@
+package me.guillaumin.android.osmtracker.layout.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a page (&lt;layout&gt;) of an user defined layout,
+ * as parsed from the XML file. Views are built from it only when
+ * the page is displayed.
+ *
+ */
+public class LayoutPage {
+
+	public static final int ICON_POS_AUTO = 0;
+	public static final int ICON_POS_TOP = 1;
+	public static final int ICON_POS_RIGHT = 2;
+	public static final int ICON_POS_BOTTOM = 3;
+	public static final int ICON_POS_LEFT = 4;
+
+	/**
+	 * Page name
+	 */
+	private String name;
+
+	/**
+	 * Icon position for buttons of this page
+	 */
+	private int iconPos;
+
+	/**
+	 * Rows of buttons
+	 */
+	private List<List<LayoutButton>> rows = new ArrayList<List<LayoutButton>>();
+
+	public LayoutPage(String name, int iconPos) {
+		this.name = name;
+		this.iconPos = iconPos;
+	}
+
+	/**
+	 * Adds a new empty row at the end of the page.
+	 * @return The new row, to add buttons to.
+	 */
+	public List<LayoutButton> addRow() {
+		List<LayoutButton> row = new ArrayList<LayoutButton>();
+		rows.add(row);
+		return row;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getIconPos() {
+		return iconPos;
+	}
+
+	public List<List<LayoutButton>> getRows() {
+		return rows;
+	}
+
+}
@@ -1,9 +1,7 @@
 package me.guillaumin.android.osmtracker.listener;
 
-import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
-import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
-import android.content.Intent;
+import me.guillaumin.android.osmtracker.activity.TrackLogger;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.widget.Button;
@@ -11,7 +9,7 @@ import android.widget.Toast;
 
 /**
  * Listener for standard waypoint tag button.
- * Sends an Intent to track waypoint. Waypoint name is the
+ * Asks the GPS logger service to track waypoint. Waypoint name is the
  * label of the button.
  * 
  * @author Nicolas Guillaumin
@@ -19,9 +17,12 @@ import android.widget.Toast;
  */
 public class TagButtonOnClickListener implements OnClickListener {
 
+	private TrackLogger trackLogger;
+
 	private long currentTrackId;
 	
-	public TagButtonOnClickListener(long trackId) {
+	public TagButtonOnClickListener(TrackLogger tl, long trackId) {
+		trackLogger = tl;
 		currentTrackId = trackId;
 	}
 	
@@ -30,11 +31,8 @@ public class TagButtonOnClickListener implements OnClickListener {
 		Button button = (Button) view;
 		String label = button.getText().toString().replaceAll("\n", " ");
 
-		// Send an intent to inform service to track the waypoint.
-		Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
-		intent.putExtra(Schema.COL_TRACK_ID, currentTrackId);
-		intent.putExtra(OSMTracker.INTENT_KEY_NAME, label);
-		view.getContext().sendBroadcast(intent);
+		// Inform service to track the waypoint.
+		trackLogger.trackWaypoint(currentTrackId, label, null, null);
 		
 		// Inform user that the waypoint was tracked
 		Toast.makeText(view.getContext(), view.getContext().getResources().getString(R.string.tracklogger_tracked) + " " + label, Toast.LENGTH_SHORT).show();
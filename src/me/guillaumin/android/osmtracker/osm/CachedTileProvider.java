@@ -0,0 +1,107 @@
+package me.guillaumin.android.osmtracker.osm;
+
+import me.guillaumin.android.osmtracker.OSMTracker;
+
+import org.osmdroid.tileprovider.MapTileProviderArray;
+import org.osmdroid.tileprovider.modules.MapTileDownloader;
+import org.osmdroid.tileprovider.modules.MapTileFileArchiveProvider;
+import org.osmdroid.tileprovider.modules.MapTileModuleProviderBase;
+import org.osmdroid.tileprovider.modules.NetworkAvailabliltyCheck;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.TileSourceFactory;
+import org.osmdroid.tileprovider.util.SimpleRegisterReceiver;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Tile provider for the map display. Tiles are looked up, in order:
+ * <ul>
+ * <li>in memory (decoded), in a cache sized from the available heap,</li>
+ * <li>in the size-bounded {@link TileDiskCache},</li>
+ * <li>in local archives (ZIP, SQLite, GEMF) in the osmdroid directory,</li>
+ * <li>on the tile server, the result being stored in the disk cache.</li>
+ * </ul>
+ *
+ */
+public class CachedTileProvider extends MapTileProviderArray {
+
+	private static final String TAG = CachedTileProvider.class.getSimpleName();
+
+	/**
+	 * Share of the heap that the decoded tiles may use
+	 */
+	private static final int HEAP_FRACTION = 8;
+
+	/**
+	 * Size of a decoded 256x256 ARGB tile, in bytes
+	 */
+	private static final int DECODED_TILE_BYTES = 256 * 256 * 4;
+
+	/**
+	 * Never keep less tiles than this in memory, to cover a screen
+	 */
+	private static final int MIN_MEMORY_TILES = 12;
+
+	private static final long ONE_MB = 1024 * 1024;
+
+	private CachedTileProvider(Context context, ITileSource tileSource, TileDiskCache diskCache) {
+		super(new SimpleRegisterReceiver(context), new MapTileModuleProviderBase[] {
+				new DiskCacheTileModule(new SimpleRegisterReceiver(context), tileSource, diskCache),
+				new MapTileFileArchiveProvider(new SimpleRegisterReceiver(context), tileSource),
+				new MapTileDownloader(tileSource, diskCache, new NetworkAvailabliltyCheck(context)) });
+		setTileSource(tileSource);
+
+		int memoryTiles = getMemoryCacheCapacity();
+		Log.v(TAG, "Keeping up to " + memoryTiles + " decoded tiles in memory");
+		ensureCapacity(memoryTiles);
+	}
+
+	/**
+	 * Creates a provider configured from the preferences.
+	 */
+	public static CachedTileProvider create(Context context) {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		return new CachedTileProvider(context, getTileSource(prefs), getDiskCache(prefs));
+	}
+
+	/**
+	 * @return The tile source to use: the default one, or a custom server
+	 * if configured in the preferences.
+	 */
+	public static ITileSource getTileSource(SharedPreferences prefs) {
+		String url = prefs.getString(OSMTracker.Preferences.KEY_OSM_TILES_URL,
+				OSMTracker.Preferences.VAL_OSM_TILES_URL).trim();
+		if (url.length() > 0) {
+			return new UrlTileSource(url);
+		} else {
+			return TileSourceFactory.DEFAULT_TILE_SOURCE;
+		}
+	}
+
+	/**
+	 * @return The shared disk cache, with the budget set in the preferences.
+	 */
+	public static TileDiskCache getDiskCache(SharedPreferences prefs) {
+		long budgetMb;
+		try {
+			budgetMb = Long.parseLong(prefs.getString(OSMTracker.Preferences.KEY_OSM_TILES_CACHE_SIZE,
+					OSMTracker.Preferences.VAL_OSM_TILES_CACHE_SIZE));
+		} catch (NumberFormatException nfe) {
+			budgetMb = Long.parseLong(OSMTracker.Preferences.VAL_OSM_TILES_CACHE_SIZE);
+		}
+		return TileDiskCache.getInstance(budgetMb * ONE_MB);
+	}
+
+	/**
+	 * @return Number of decoded tiles to keep in memory, based on the heap size.
+	 */
+	private static int getMemoryCacheCapacity() {
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		int tiles = (int) (maxHeap / HEAP_FRACTION / DECODED_TILE_BYTES);
+		return Math.max(tiles, MIN_MEMORY_TILES);
+	}
+
+}
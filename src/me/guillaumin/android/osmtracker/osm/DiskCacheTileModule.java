@@ -0,0 +1,90 @@
+package me.guillaumin.android.osmtracker.osm;
+
+import java.io.File;
+
+import org.osmdroid.tileprovider.IRegisterReceiver;
+import org.osmdroid.tileprovider.MapTileRequestState;
+import org.osmdroid.tileprovider.modules.MapTileFileStorageProviderBase;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+
+import android.graphics.drawable.Drawable;
+
+/**
+ * Tile module reading tiles from the {@link TileDiskCache}. Unlike osmdroid's
+ * filesystem provider, cached tiles never expire: in the field we are mostly
+ * offline and an old tile is better than no tile.
+ *
+ */
+public class DiskCacheTileModule extends MapTileFileStorageProviderBase {
+
+	/**
+	 * Cache to read tiles from
+	 */
+	private final TileDiskCache diskCache;
+
+	/**
+	 * Current tile source
+	 */
+	private ITileSource tileSource;
+
+	public DiskCacheTileModule(IRegisterReceiver registerReceiver, ITileSource tileSource, TileDiskCache diskCache) {
+		super(registerReceiver, NUMBER_OF_TILE_FILESYSTEM_THREADS, TILE_FILESYSTEM_MAXIMUM_QUEUE_SIZE);
+		this.tileSource = tileSource;
+		this.diskCache = diskCache;
+	}
+
+	@Override
+	public boolean getUsesDataConnection() {
+		return false;
+	}
+
+	@Override
+	protected String getName() {
+		return "Disk cache";
+	}
+
+	@Override
+	protected String getThreadGroupName() {
+		return "diskcache";
+	}
+
+	@Override
+	protected Runnable getTileLoader() {
+		return new DiskCacheTileLoader();
+	}
+
+	@Override
+	public int getMinimumZoomLevel() {
+		return tileSource != null ? tileSource.getMinimumZoomLevel() : MINIMUM_ZOOMLEVEL;
+	}
+
+	@Override
+	public int getMaximumZoomLevel() {
+		return tileSource != null ? tileSource.getMaximumZoomLevel() : MAXIMUM_ZOOMLEVEL;
+	}
+
+	@Override
+	public void setTileSource(ITileSource tileSource) {
+		this.tileSource = tileSource;
+	}
+
+	/**
+	 * Loads a tile from the disk cache, if present.
+	 */
+	private class DiskCacheTileLoader extends TileLoader {
+
+		@Override
+		protected Drawable loadTile(MapTileRequestState state) throws CantContinueException {
+			if (tileSource == null || !getSdCardAvailable()) {
+				return null;
+			}
+
+			File file = diskCache.get(tileSource, state.getMapTile());
+			if (file == null) {
+				return null;
+			}
+			return tileSource.getDrawable(file.getPath());
+		}
+	}
+
+}
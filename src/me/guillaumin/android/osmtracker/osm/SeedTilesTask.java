@@ -0,0 +1,356 @@
+package me.guillaumin.android.osmtracker.osm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.guillaumin.android.osmtracker.OSMTracker;
+import me.guillaumin.android.osmtracker.R;
+import me.guillaumin.android.osmtracker.db.TrackContentProvider;
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+
+import org.osmdroid.tileprovider.MapTile;
+import org.osmdroid.tileprovider.constants.OpenStreetMapTileProviderConstants;
+import org.osmdroid.tileprovider.modules.ArchiveFileFactory;
+import org.osmdroid.tileprovider.modules.IArchiveFile;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
+
+import android.app.ProgressDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.DialogInterface.OnCancelListener;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.widget.Toast;
+
+/**
+ * Pre-seeds the tile cache with all tiles covering a track bounding box,
+ * for a range of zoom levels. Tiles are imported from local archives when
+ * available, and downloaded otherwise.
+ * <br />
+ * Downloading against a local tile server is possible by setting the
+ * tile server URL in the preferences.
+ *
+ */
+public class SeedTilesTask extends AsyncTask<Void, Integer, Boolean> implements OpenStreetMapTileProviderConstants {
+
+	private static final String TAG = SeedTilesTask.class.getSimpleName();
+
+	/**
+	 * Refuse to seed more tiles than this at once
+	 */
+	private static final int MAX_TILES = 10000;
+
+	/**
+	 * Number of tiles to add around the bounding box, on each side
+	 */
+	private static final int MARGIN_TILES = 1;
+
+	/**
+	 * Stop seeding once this ratio of the disk budget has been written,
+	 * so that seeded tiles do not evict each other.
+	 */
+	private static final float MAX_BUDGET_RATIO = 0.8f;
+
+	private static final int CONNECT_TIMEOUT = 10000;
+	private static final int READ_TIMEOUT = 30000;
+
+	/**
+	 * {@link Context} to get resources
+	 */
+	private Context context;
+
+	/**
+	 * Track whose bounding box must be cached
+	 */
+	private long trackId;
+
+	private int minZoom;
+	private int maxZoom;
+
+	private ITileSource tileSource;
+	private TileDiskCache diskCache;
+
+	/**
+	 * Local archives to import tiles from
+	 */
+	private List<IArchiveFile> archives = new ArrayList<IArchiveFile>();
+
+	/**
+	 * Dialog to display while seeding
+	 */
+	private ProgressDialog dialog;
+
+	private int downloaded = 0;
+	private int imported = 0;
+	private int alreadyCached = 0;
+	private int failed = 0;
+
+	/**
+	 * Message in case of an error
+	 */
+	private String errorMsg = null;
+
+	public SeedTilesTask(Context context, long trackId) {
+		this.context = context;
+		this.trackId = trackId;
+
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+		tileSource = CachedTileProvider.getTileSource(prefs);
+		diskCache = CachedTileProvider.getDiskCache(prefs);
+		minZoom = parseZoom(prefs.getString(OSMTracker.Preferences.KEY_OSM_SEED_ZOOM_MIN,
+				OSMTracker.Preferences.VAL_OSM_SEED_ZOOM_MIN));
+		maxZoom = parseZoom(prefs.getString(OSMTracker.Preferences.KEY_OSM_SEED_ZOOM_MAX,
+				OSMTracker.Preferences.VAL_OSM_SEED_ZOOM_MAX));
+		if (minZoom > maxZoom) {
+			int tmp = minZoom;
+			minZoom = maxZoom;
+			maxZoom = tmp;
+		}
+	}
+
+	@Override
+	protected void onPreExecute() {
+		dialog = new ProgressDialog(context);
+		dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		dialog.setIndeterminate(true);
+		dialog.setTitle(context.getResources().getString(R.string.displaytrackmap_seeding)
+				.replace("{0}", Integer.toString(minZoom))
+				.replace("{1}", Integer.toString(maxZoom)));
+		dialog.setCancelable(true);
+		dialog.setOnCancelListener(new OnCancelListener() {
+			@Override
+			public void onCancel(DialogInterface dialog) {
+				cancel(false);
+			}
+		});
+		dialog.show();
+	}
+
+	@Override
+	protected Boolean doInBackground(Void... params) {
+		// Bounding box of the track
+		Cursor c = context.getContentResolver().query(TrackContentProvider.trackPointsUri(trackId),
+				new String[] {
+					"min(" + Schema.COL_LATITUDE + ")", "max(" + Schema.COL_LATITUDE + ")",
+					"min(" + Schema.COL_LONGITUDE + ")", "max(" + Schema.COL_LONGITUDE + ")",
+					"count(*)" },
+				null, null, null);
+		double south, north, west, east;
+		try {
+			if (!c.moveToFirst() || c.getInt(4) == 0) {
+				errorMsg = context.getResources().getString(R.string.displaytrackmap_seed_empty);
+				return false;
+			}
+			south = c.getDouble(0);
+			north = c.getDouble(1);
+			west = c.getDouble(2);
+			east = c.getDouble(3);
+		} finally {
+			c.close();
+		}
+
+		// Count tiles first, to bail out early on huge areas
+		int total = 0;
+		for (int z = minZoom; z <= maxZoom; z++) {
+			total += (tileX(east, z) - tileX(west, z) + 1 + 2 * MARGIN_TILES)
+					* (tileY(south, z) - tileY(north, z) + 1 + 2 * MARGIN_TILES);
+		}
+		if (total > MAX_TILES) {
+			errorMsg = context.getResources().getString(R.string.displaytrackmap_seed_too_many)
+					.replace("{0}", Integer.toString(total));
+			return false;
+		}
+		publishProgress(0, total);
+
+		findArchives();
+
+		long maxBytes = (long) (diskCache.getBudgetBytes() * MAX_BUDGET_RATIO);
+		long writtenBytes = 0;
+		int done = 0;
+		for (int z = minZoom; z <= maxZoom; z++) {
+			int maxTile = (1 << z) - 1;
+			int xMin = Math.max(0, tileX(west, z) - MARGIN_TILES);
+			int xMax = Math.min(maxTile, tileX(east, z) + MARGIN_TILES);
+			int yMin = Math.max(0, tileY(north, z) - MARGIN_TILES);
+			int yMax = Math.min(maxTile, tileY(south, z) + MARGIN_TILES);
+
+			for (int x = xMin; x <= xMax; x++) {
+				for (int y = yMin; y <= yMax; y++) {
+					if (isCancelled()) {
+						return true;
+					}
+
+					MapTile tile = new MapTile(z, x, y);
+					if (diskCache.contains(tileSource, tile)) {
+						alreadyCached++;
+					} else if (importTile(tile)) {
+						imported++;
+						writtenBytes += diskCache.getFile(tileSource, tile).length();
+					} else if (downloadTile(tile)) {
+						downloaded++;
+						writtenBytes += diskCache.getFile(tileSource, tile).length();
+					} else {
+						failed++;
+					}
+
+					if (writtenBytes > maxBytes) {
+						errorMsg = context.getResources().getString(R.string.displaytrackmap_seed_budget);
+						return false;
+					}
+					publishProgress(++done);
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected void onProgressUpdate(Integer... values) {
+		if (values.length > 1) {
+			dialog.setIndeterminate(false);
+			dialog.setMax(values[1]);
+		}
+		dialog.setProgress(values[0]);
+	}
+
+	@Override
+	protected void onPostExecute(Boolean success) {
+		dialog.dismiss();
+		showResult(success);
+	}
+
+	@Override
+	protected void onCancelled() {
+		dialog.dismiss();
+		showResult(true);
+	}
+
+	private void showResult(boolean success) {
+		String msg = context.getResources().getString(R.string.displaytrackmap_seed_done)
+				.replace("{0}", Integer.toString(downloaded))
+				.replace("{1}", Integer.toString(imported))
+				.replace("{2}", Integer.toString(alreadyCached))
+				.replace("{3}", Integer.toString(failed));
+		if (!success) {
+			msg = errorMsg + "\n" + msg;
+		}
+		Toast.makeText(context, msg, Toast.LENGTH_LONG).show();
+	}
+
+	/**
+	 * Copies a tile from a local archive into the cache.
+	 * @return true if the tile was found in an archive.
+	 */
+	private boolean importTile(MapTile tile) {
+		for (IArchiveFile archive : archives) {
+			InputStream is = archive.getInputStream(tileSource, tile);
+			if (is != null) {
+				try {
+					return diskCache.saveFile(tileSource, tile, is);
+				} finally {
+					closeQuietly(is);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Downloads a tile from the tile server into the cache.
+	 * @return true if the tile was downloaded.
+	 */
+	private boolean downloadTile(MapTile tile) {
+		if (!(tileSource instanceof OnlineTileSourceBase)) {
+			return false;
+		}
+
+		String url = ((OnlineTileSourceBase) tileSource).getTileURLString(tile);
+		HttpURLConnection conn = null;
+		InputStream is = null;
+		try {
+			conn = (HttpURLConnection) new URL(url).openConnection();
+			conn.setConnectTimeout(CONNECT_TIMEOUT);
+			conn.setReadTimeout(READ_TIMEOUT);
+			if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				Log.w(TAG, "Unable to download " + url + ": HTTP " + conn.getResponseCode());
+				return false;
+			}
+			is = conn.getInputStream();
+			return diskCache.saveFile(tileSource, tile, is);
+		} catch (IOException ioe) {
+			Log.w(TAG, "Unable to download " + url + ": " + ioe.getMessage());
+			return false;
+		} finally {
+			closeQuietly(is);
+			if (conn != null) {
+				conn.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Finds tile archives (ZIP, SQLite, GEMF) in the osmdroid directory.
+	 */
+	private void findArchives() {
+		File[] files = OSMDROID_PATH.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (file.isFile()) {
+					IArchiveFile archive = ArchiveFileFactory.getArchiveFile(file);
+					if (archive != null) {
+						archives.add(archive);
+					}
+				}
+			}
+		}
+		Log.v(TAG, "Found " + archives.size() + " tile archives");
+	}
+
+	/**
+	 * @return Slippy map X tile number for a longitude
+	 */
+	private static int tileX(double lon, int zoom) {
+		int n = 1 << zoom;
+		int x = (int) Math.floor((lon + 180) / 360 * n);
+		return Math.min(Math.max(x, 0), n - 1);
+	}
+
+	/**
+	 * @return Slippy map Y tile number for a latitude
+	 */
+	private static int tileY(double lat, int zoom) {
+		int n = 1 << zoom;
+		double latRad = Math.toRadians(lat);
+		int y = (int) Math.floor((1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * n);
+		return Math.min(Math.max(y, 0), n - 1);
+	}
+
+	private int parseZoom(String value) {
+		try {
+			int zoom = Integer.parseInt(value.trim());
+			return Math.min(Math.max(zoom, tileSource.getMinimumZoomLevel()), tileSource.getMaximumZoomLevel());
+		} catch (NumberFormatException nfe) {
+			return tileSource.getMinimumZoomLevel();
+		}
+	}
+
+	private static void closeQuietly(InputStream is) {
+		if (is != null) {
+			try {
+				is.close();
+			} catch (IOException ioe) {
+				// Ignore
+			}
+		}
+	}
+
+}
@@ -0,0 +1,291 @@
+package me.guillaumin.android.osmtracker.osm;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.osmdroid.tileprovider.MapTile;
+import org.osmdroid.tileprovider.constants.OpenStreetMapTileProviderConstants;
+import org.osmdroid.tileprovider.modules.IFilesystemCache;
+import org.osmdroid.tileprovider.tilesource.ITileSource;
+
+import android.util.Log;
+
+/**
+ * On-disk tile cache bounded by a size budget, with least-recently-used
+ * eviction. Tiles are stored with the same layout as osmdroid's own
+ * TileWriter, so tiles already downloaded by osmdroid are reused.
+ * <br />
+ * Access order survives restarts thanks to the file modification date,
+ * which is bumped each time a tile is read.
+ *
+ */
+public class TileDiskCache implements IFilesystemCache, OpenStreetMapTileProviderConstants {
+
+	private static final String TAG = TileDiskCache.class.getSimpleName();
+
+	/**
+	 * Size of the buffer used when writing a tile
+	 */
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Once the budget is exceeded, trim down to this ratio of the budget
+	 * to avoid evicting on every single write.
+	 */
+	private static final float TRIM_RATIO = 0.9f;
+
+	/**
+	 * Do not bump the modification date of a tile more often than this,
+	 * to avoid a file system write on each read.
+	 */
+	private static final long TOUCH_INTERVAL = ONE_HOUR;
+
+	/**
+	 * Single instance, shared by the map display and the seeding task.
+	 */
+	private static TileDiskCache instance;
+
+	/**
+	 * Cached files, in access order (eldest first), with their size.
+	 */
+	private final LinkedHashMap<File, Long> files = new LinkedHashMap<File, Long>(1024, 0.75f, true);
+
+	/**
+	 * Sum of the size of all cached files, in bytes
+	 */
+	private long usedBytes = 0;
+
+	/**
+	 * Maximum size of the cache, in bytes
+	 */
+	private long budgetBytes;
+
+	/**
+	 * Whether the cache directory has been scanned
+	 */
+	private boolean indexed = false;
+
+	/**
+	 * @param budgetBytes Maximum size of the cache, in bytes
+	 * @return The shared instance, with its budget updated.
+	 */
+	public static synchronized TileDiskCache getInstance(long budgetBytes) {
+		if (instance == null) {
+			instance = new TileDiskCache(budgetBytes);
+		} else {
+			instance.setBudget(budgetBytes);
+		}
+		return instance;
+	}
+
+	private TileDiskCache(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+	}
+
+	/**
+	 * Changes the budget, evicting tiles if needed.
+	 * @param budgetBytes New budget, in bytes
+	 */
+	public synchronized void setBudget(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+		if (indexed) {
+			trim();
+		}
+	}
+
+	/**
+	 * @return Current size of the cache, in bytes
+	 */
+	public synchronized long getUsedBytes() {
+		ensureIndexed();
+		return usedBytes;
+	}
+
+	/**
+	 * @return Maximum size of the cache, in bytes
+	 */
+	public synchronized long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	/**
+	 * Gets the file where a tile is (or would be) stored.
+	 */
+	public File getFile(ITileSource tileSource, MapTile tile) {
+		return new File(TILE_PATH_BASE, tileSource.getTileRelativeFilenameString(tile) + TILE_PATH_EXTENSION);
+	}
+
+	/**
+	 * Looks up a tile and marks it as recently used.
+	 * @return The tile file, or null if the tile is not cached.
+	 */
+	public synchronized File get(ITileSource tileSource, MapTile tile) {
+		ensureIndexed();
+		File file = getFile(tileSource, tile);
+		if (files.get(file) == null) {
+			if (!file.exists()) {
+				return null;
+			}
+			// Written by someone else (osmdroid itself, or copied manually)
+			add(file, file.length());
+		}
+		long now = System.currentTimeMillis();
+		if (now - file.lastModified() > TOUCH_INTERVAL) {
+			file.setLastModified(now);
+		}
+		return file;
+	}
+
+	/**
+	 * @return true if the tile is present in the cache, without affecting its
+	 * eviction order.
+	 */
+	public synchronized boolean contains(ITileSource tileSource, MapTile tile) {
+		ensureIndexed();
+		File file = getFile(tileSource, tile);
+		return files.containsKey(file) || file.exists();
+	}
+
+	@Override
+	public boolean saveFile(ITileSource tileSource, MapTile tile, InputStream stream) {
+		File file = getFile(tileSource, tile);
+		File parent = file.getParentFile();
+		if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+			Log.w(TAG, "Unable to create tile directory " + parent);
+			return false;
+		}
+
+		// Write to a temporary file first, so that a partially
+		// downloaded tile is never served.
+		File tmp = new File(parent, file.getName() + ".tmp");
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE);
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = stream.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			out.close();
+			out = null;
+		} catch (IOException ioe) {
+			Log.w(TAG, "Unable to write tile " + tile + ": " + ioe.getMessage());
+			tmp.delete();
+			return false;
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException ioe) {
+					// Ignore
+				}
+			}
+		}
+
+		synchronized (this) {
+			ensureIndexed();
+			remove(file);
+			if (!tmp.renameTo(file)) {
+				tmp.delete();
+				return false;
+			}
+			add(file, file.length());
+			if (usedBytes > budgetBytes) {
+				trim();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evicts least recently used tiles until the cache fits in
+	 * {@link #TRIM_RATIO} of its budget.
+	 */
+	private void trim() {
+		long target = (long) (budgetBytes * TRIM_RATIO);
+		int evicted = 0;
+		Iterator<Map.Entry<File, Long>> it = files.entrySet().iterator();
+		while (usedBytes > target && it.hasNext()) {
+			Map.Entry<File, Long> eldest = it.next();
+			it.remove();
+			usedBytes -= eldest.getValue();
+			eldest.getKey().delete();
+			evicted++;
+		}
+		Log.v(TAG, "Evicted " + evicted + " tiles, cache is now " + usedBytes + " bytes");
+	}
+
+	private void add(File file, long size) {
+		files.put(file, size);
+		usedBytes += size;
+	}
+
+	private void remove(File file) {
+		Long size = files.remove(file);
+		if (size != null) {
+			usedBytes -= size;
+		}
+	}
+
+	/**
+	 * Scans the cache directory on first use, ordering existing
+	 * tiles by modification date.
+	 */
+	private void ensureIndexed() {
+		if (indexed) {
+			return;
+		}
+		indexed = true;
+
+		long start = System.currentTimeMillis();
+		List<File> found = new ArrayList<File>();
+		listTiles(TILE_PATH_BASE, found);
+		File[] sorted = found.toArray(new File[found.size()]);
+		Arrays.sort(sorted, new Comparator<File>() {
+			@Override
+			public int compare(File f1, File f2) {
+				long d1 = f1.lastModified();
+				long d2 = f2.lastModified();
+				return (d1 < d2) ? -1 : ((d1 == d2) ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < sorted.length; i++) {
+			add(sorted[i], sorted[i].length());
+		}
+		Log.v(TAG, "Indexed " + sorted.length + " tiles (" + usedBytes + " bytes) in "
+				+ (System.currentTimeMillis() - start) + "ms");
+
+		if (usedBytes > budgetBytes) {
+			trim();
+		}
+	}
+
+	/**
+	 * Recursively lists tile files under a directory.
+	 */
+	private static void listTiles(File dir, List<File> out) {
+		File[] children = dir.listFiles();
+		if (children == null) {
+			return;
+		}
+		for (File child : children) {
+			if (child.isDirectory()) {
+				listTiles(child, out);
+			} else if (child.getName().endsWith(TILE_PATH_EXTENSION)) {
+				out.add(child);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,37 @@
+package me.guillaumin.android.osmtracker.osm;
+
+import org.osmdroid.ResourceProxy;
+import org.osmdroid.tileprovider.MapTile;
+import org.osmdroid.tileprovider.tilesource.OnlineTileSourceBase;
+
+/**
+ * Slippy map tile source ({zoom}/{x}/{y}.png) served from a user-defined
+ * base URL, e.g. a local tile server or a mirror reachable offline.
+ *
+ */
+public class UrlTileSource extends OnlineTileSourceBase {
+
+	/**
+	 * Name of the source, also used as the cache sub-directory
+	 */
+	public static final String NAME = "OSMTrackerCustom";
+
+	private static final int MIN_ZOOM = 0;
+	private static final int MAX_ZOOM = 18;
+	private static final int TILE_SIZE = 256;
+	private static final String EXTENSION = ".png";
+
+	/**
+	 * @param baseUrl Base URL of the server, with or without trailing slash.
+	 */
+	public UrlTileSource(String baseUrl) {
+		super(NAME, ResourceProxy.string.unknown, MIN_ZOOM, MAX_ZOOM, TILE_SIZE, EXTENSION,
+				baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+	}
+
+	@Override
+	public String getTileURLString(MapTile tile) {
+		return getBaseUrl() + tile.getZoomLevel() + "/" + tile.getX() + "/" + tile.getY() + mImageFilenameEnding;
+	}
+
+}
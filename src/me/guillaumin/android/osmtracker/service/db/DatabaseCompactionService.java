@@ -0,0 +1,216 @@
+package me.guillaumin.android.osmtracker.service.db;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.guillaumin.android.osmtracker.OSMTracker;
+import me.guillaumin.android.osmtracker.db.DataHelper;
+import me.guillaumin.android.osmtracker.db.TrackContentProvider;
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import android.app.AlarmManager;
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Seals finished tracks not sealed yet (see {@link TrackContentProvider#trackPackUri(long)}),
+ * archives old tracks if enabled (see {@link TrackContentProvider#trackArchiveUri(long)}),
+ * then compacts the database (see {@link TrackContentProvider#CONTENT_URI_COMPACT})
+ * when the device is idle: no track is being recorded and the device is charging.
+ * <br />
+ * The service is started periodically by an alarm, see {@link #schedule(Context)}.
+ * Statistics about compactions are kept in the {@link #PREFS_NAME} preferences.
+ *
+ */
+public class DatabaseCompactionService extends IntentService {
+
+	private static final String TAG = DatabaseCompactionService.class.getSimpleName();
+
+	/**
+	 * Name of the preferences holding statistics
+	 */
+	public static final String PREFS_NAME = "compaction";
+
+	/** Date of the last compaction */
+	public static final String STAT_LAST_RUN = "last_run";
+	/** Duration of the last compaction, in ms */
+	public static final String STAT_LAST_DURATION = "last_duration";
+	/** Pages released by the last compaction */
+	public static final String STAT_LAST_RECLAIMED = "last_reclaimed";
+	/** Pages released by all compactions */
+	public static final String STAT_TOTAL_RECLAIMED = "total_reclaimed";
+	/** Number of compactions */
+	public static final String STAT_RUNS = "runs";
+	/** Number of times the compaction was skipped because the device was busy */
+	public static final String STAT_SKIPPED = "skipped";
+	/** Number of tracks archived by all compactions */
+	public static final String STAT_ARCHIVED_TRACKS = "archived_tracks";
+	/** Number of tracks sealed by all compactions */
+	public static final String STAT_SEALED_TRACKS = "sealed_tracks";
+
+	/**
+	 * How often to check if the device is idle
+	 */
+	private static final long CHECK_INTERVAL = AlarmManager.INTERVAL_HOUR;
+
+	/**
+	 * Minimum delay between two compactions
+	 */
+	private static final long MIN_COMPACTION_INTERVAL = AlarmManager.INTERVAL_DAY;
+
+	/**
+	 * Extra of {@link Intent#ACTION_BATTERY_CHANGED} giving the power source
+	 * (BatteryManager.EXTRA_PLUGGED, only defined from API 5)
+	 */
+	private static final String BATTERY_EXTRA_PLUGGED = "plugged";
+
+	public DatabaseCompactionService() {
+		super(TAG);
+	}
+
+	/**
+	 * Schedules periodic compaction checks, if not already scheduled.
+	 * Alarms don't survive a reboot, so this should be called on application start.
+	 * @param context Context to use
+	 */
+	public static void schedule(Context context) {
+		Intent intent = new Intent(context, DatabaseCompactionService.class);
+		if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+			// Already scheduled. Don't reschedule, it would delay the next check.
+			return;
+		}
+
+		PendingIntent pi = PendingIntent.getService(context, 0, intent, 0);
+		AlarmManager am = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+		// Don't wake up the device for this
+		am.setInexactRepeating(AlarmManager.ELAPSED_REALTIME, SystemClock.elapsedRealtime() + CHECK_INTERVAL,
+				CHECK_INTERVAL, pi);
+	}
+
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		SharedPreferences stats = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
+
+		if (System.currentTimeMillis() - stats.getLong(STAT_LAST_RUN, 0) < MIN_COMPACTION_INTERVAL) {
+			// Compacted recently
+			return;
+		}
+
+		if (DataHelper.getActiveTrackId(getContentResolver()) != -1 || !isCharging()) {
+			Log.v(TAG, "Device busy, skipping compaction");
+			stats.edit().putInt(STAT_SKIPPED, stats.getInt(STAT_SKIPPED, 0) + 1).commit();
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		int sealedTracks = sealTracks();
+		int archivedTracks = archiveTracks();
+		int reclaimed = getContentResolver().update(TrackContentProvider.CONTENT_URI_COMPACT, new ContentValues(),
+				null, null);
+		long duration = System.currentTimeMillis() - start;
+		Log.i(TAG, "Database compacted in " + duration + "ms, " + reclaimed + " pages released");
+
+		stats.edit()
+			.putLong(STAT_LAST_RUN, start)
+			.putLong(STAT_LAST_DURATION, duration)
+			.putInt(STAT_LAST_RECLAIMED, reclaimed)
+			.putLong(STAT_TOTAL_RECLAIMED, stats.getLong(STAT_TOTAL_RECLAIMED, 0) + reclaimed)
+			.putInt(STAT_RUNS, stats.getInt(STAT_RUNS, 0) + 1)
+			.putInt(STAT_ARCHIVED_TRACKS, stats.getInt(STAT_ARCHIVED_TRACKS, 0) + archivedTracks)
+			.putInt(STAT_SEALED_TRACKS, stats.getInt(STAT_SEALED_TRACKS, 0) + sealedTracks)
+			.commit();
+	}
+
+	/**
+	 * Seals inactive tracks that aren't, e.g. tracks recorded before sealing
+	 * existed, or whose recording was interrupted.
+	 * @return Number of sealed tracks
+	 */
+	private int sealTracks() {
+		String selection = Schema.COL_ACTIVE + " = ? AND " + Schema.COL_ARCHIVE_TP_COUNT + " IS NULL AND "
+			+ Schema.TBL_TRACK + "." + Schema.COL_ID + " NOT IN (SELECT " + Schema.COL_TRACK_ID
+			+ " FROM " + Schema.TBL_TRACKPOINT_PACK + ")";
+
+		List<Long> trackIds = new ArrayList<Long>();
+		Cursor c = getContentResolver().query(TrackContentProvider.CONTENT_URI_TRACK, null, selection,
+				new String[] {Integer.toString(Schema.VAL_TRACK_INACTIVE)}, null);
+		try {
+			int idIdx = c.getColumnIndex(Schema.COL_ID);
+			while (c.moveToNext()) {
+				trackIds.add(c.getLong(idIdx));
+			}
+		} finally {
+			c.close();
+		}
+
+		int sealed = 0;
+		for (long trackId : trackIds) {
+			if (getContentResolver().update(TrackContentProvider.trackPackUri(trackId), new ContentValues(), null, null) > 0) {
+				sealed++;
+			}
+		}
+		Log.v(TAG, sealed + " tracks sealed");
+		return sealed;
+	}
+
+	/**
+	 * Archives inactive tracks older than the configured age, or already exported,
+	 * depending on preferences.
+	 * @return Number of archived tracks
+	 */
+	private int archiveTracks() {
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		if (!prefs.getBoolean(OSMTracker.Preferences.KEY_ARCHIVE_ENABLED, OSMTracker.Preferences.VAL_ARCHIVE_ENABLED)) {
+			return 0;
+		}
+
+		long maxAge = Long.parseLong(prefs.getString(OSMTracker.Preferences.KEY_ARCHIVE_AGE,
+				OSMTracker.Preferences.VAL_ARCHIVE_AGE)) * AlarmManager.INTERVAL_DAY;
+		String selection = Schema.COL_ACTIVE + " = ? AND " + Schema.COL_ARCHIVE_TP_COUNT + " IS NULL AND ("
+			+ Schema.COL_START_DATE + " < ?";
+		if (prefs.getBoolean(OSMTracker.Preferences.KEY_ARCHIVE_EXPORTED, OSMTracker.Preferences.VAL_ARCHIVE_EXPORTED)) {
+			selection += " OR " + Schema.COL_EXPORT_DATE + " IS NOT NULL";
+		}
+		selection += ")";
+
+		List<Long> trackIds = new ArrayList<Long>();
+		Cursor c = getContentResolver().query(TrackContentProvider.CONTENT_URI_TRACK, null, selection,
+				new String[] {Integer.toString(Schema.VAL_TRACK_INACTIVE), Long.toString(System.currentTimeMillis() - maxAge)},
+				null);
+		try {
+			int idIdx = c.getColumnIndex(Schema.COL_ID);
+			while (c.moveToNext()) {
+				trackIds.add(c.getLong(idIdx));
+			}
+		} finally {
+			c.close();
+		}
+
+		int archived = 0;
+		for (long trackId : trackIds) {
+			if (getContentResolver().update(TrackContentProvider.trackArchiveUri(trackId), new ContentValues(), null, null) > 0) {
+				archived++;
+			}
+		}
+		Log.v(TAG, archived + " tracks archived");
+		return archived;
+	}
+
+	/**
+	 * @return true if the device is plugged to a power source
+	 */
+	private boolean isCharging() {
+		// Battery status is a sticky broadcast, no need for a receiver
+		Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		return battery != null && battery.getIntExtra(BATTERY_EXTRA_PLUGGED, 0) != 0;
+	}
+
+}
@@ -0,0 +1,99 @@
+package me.guillaumin.android.osmtracker.service.db;
+
+import me.guillaumin.android.osmtracker.OSMTracker;
+import me.guillaumin.android.osmtracker.db.FixedPointMigration;
+import me.guillaumin.android.osmtracker.db.TrackContentProvider;
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+
+import android.app.IntentService;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.database.SQLException;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Runs pending database migrations ({@link me.guillaumin.android.osmtracker.db.Migration})
+ * in the background, one step at a time
+ * (see {@link TrackContentProvider#CONTENT_URI_MIGRATION}). Progress can be followed
+ * by querying, or observing, this Uri. Optional migrations enabled in the preferences
+ * (e.g. {@link FixedPointMigration}) are scheduled first.
+ * <br />
+ * Not exported: it's only started by the application, see {@link #start(Context)}.
+ *
+ */
+public class MigrationService extends IntentService {
+
+	private static final String TAG = MigrationService.class.getSimpleName();
+
+	/**
+	 * Extra (String): name of a migration to schedule before running
+	 */
+	public static final String EXTRA_MIGRATION = "migration";
+
+	/**
+	 * Pause between two steps, so that the recording isn't held back
+	 */
+	private static final long STEP_PAUSE = 50;
+
+	public MigrationService() {
+		super(TAG);
+	}
+
+	/**
+	 * Runs pending migrations, if any. Should be called on application start.
+	 * @param context Context to use
+	 */
+	public static void start(Context context) {
+		context.startService(new Intent(context, MigrationService.class));
+	}
+
+	/**
+	 * Schedules a migration, then runs pending migrations
+	 * @param context Context to use
+	 * @param migration Name of the migration to schedule
+	 */
+	public static void start(Context context, String migration) {
+		context.startService(new Intent(context, MigrationService.class).putExtra(EXTRA_MIGRATION, migration));
+	}
+
+	@Override
+	protected void onHandleIntent(Intent intent) {
+		String migration = intent.getStringExtra(EXTRA_MIGRATION);
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		if (migration == null && prefs.getBoolean(OSMTracker.Preferences.KEY_STORAGE_FIXED_POINT,
+				OSMTracker.Preferences.VAL_STORAGE_FIXED_POINT)) {
+			// No-op if the conversion is already done
+			migration = FixedPointMigration.NAME;
+		}
+
+		long start = SystemClock.elapsedRealtime();
+		int steps = 0;
+		int pending;
+		try {
+			ContentValues values = new ContentValues();
+			if (migration != null) {
+				values.put(Schema.COL_NAME, migration);
+			}
+			do {
+				pending = getContentResolver().update(TrackContentProvider.CONTENT_URI_MIGRATION, values,
+						null, null);
+				values.clear();
+				steps++;
+				SystemClock.sleep(STEP_PAUSE);
+			} while (pending > 0);
+		} catch (SQLException sqle) {
+			// Failed step was rolled back, it will be retried on next start
+			Log.e(TAG, "Migration step failed", sqle);
+			return;
+		}
+
+		if (steps > 1) {
+			Log.i(TAG, "Migrations done in " + (SystemClock.elapsedRealtime() - start) + "ms, " + steps + " steps");
+		}
+	}
+
+}
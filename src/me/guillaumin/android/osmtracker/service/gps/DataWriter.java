@@ -0,0 +1,509 @@
+package me.guillaumin.android.osmtracker.service.gps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import me.guillaumin.android.osmtracker.db.DataHelper;
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.location.Location;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Single writer for the GPS logger: trackpoint and waypoint mutations are queued
+ * and performed in order by a dedicated thread, through {@link DataHelper}.
+ * <br />
+ * Pending commands on the same waypoint are coalesced: successive updates are merged,
+ * and a deletion cancels pending updates (and a pending insertion, in which case
+ * nothing is written at all).
+ * <br />
+ * With a {@link FixJournal}, trackpoints aren't queued: they're appended to the
+ * journal, and drained into the database in bulk once {@link #DRAIN_BATCH} of them
+ * are pending, or after {@link #DRAIN_DELAY}. The journal is always drained before
+ * a command is performed, so that the order is kept. Trackpoints recovered from the
+ * journal after a crash, and already in the database, are skipped.
+ * <br />
+ * Journaled trackpoints are forced to the storage by this thread, at most
+ * {@link #SYNC_DELAY} after they're appended, so that the caller of
+ * {@link #track(long, Location)} only writes to memory.
+ *
+ */
+public class DataWriter extends Thread {
+
+	private static final String TAG = DataWriter.class.getSimpleName();
+
+	private static final int CMD_TRACKPOINT = 0;
+	private static final int CMD_WAYPOINT = 1;
+	private static final int CMD_UPDATE_WAYPOINT = 2;
+	private static final int CMD_DELETE_WAYPOINT = 3;
+	private static final int CMD_STOP_TRACKING = 4;
+
+	/**
+	 * Number of pending trackpoints in the journal triggering a drain
+	 */
+	private static final int DRAIN_BATCH = 50;
+
+	/**
+	 * Longest time a trackpoint stays in the journal, in ms
+	 */
+	private static final long DRAIN_DELAY = 1000;
+
+	/**
+	 * Longest time a journaled trackpoint waits to be forced to the storage, in ms
+	 */
+	private static final long SYNC_DELAY = 100;
+
+	/**
+	 * Maximum number of trackpoints written in a single transaction
+	 */
+	private static final int DRAIN_MAX = 1000;
+
+	/**
+	 * A queued mutation
+	 */
+	private static class Command {
+		int type;
+		long trackId;
+		Location location;
+		int nbSatellites;
+		String name;
+		String link;
+		String uuid;
+		/** {@link Instrumentation#now()} when queued */
+		long queuedTime;
+		/** {@link SystemClock#elapsedRealtime()} when the waypoint was requested */
+		long requestTime;
+
+		Command(int type, long trackId, String uuid) {
+			this.type = type;
+			this.trackId = trackId;
+			this.uuid = uuid;
+		}
+	}
+
+	/**
+	 * Data helper performing the writes
+	 */
+	private DataHelper dataHelper;
+
+	/**
+	 * Journal of the trackpoints, null to queue them in memory
+	 */
+	private final FixJournal journal;
+
+	/**
+	 * Trackpoints recovered from the journal, and not drained yet
+	 */
+	private int recoveredLeft;
+
+	/**
+	 * Pending commands. Guarded by this.
+	 */
+	private final LinkedList<Command> queue = new LinkedList<Command>();
+
+	/**
+	 * Set when no more commands are accepted. The thread ends once the queue is empty.
+	 */
+	private boolean closed = false;
+
+	/** Highest queue depth seen */
+	private int maxQueueDepth = 0;
+	/** Number of commands written */
+	private long writtenCount = 0;
+	/** Number of commands merged into or cancelled by another one */
+	private long coalescedCount = 0;
+	/** Sum of queue-to-written latencies, in ms */
+	private long totalLatency = 0;
+	/** Highest queue-to-written latency, in ms */
+	private long maxLatency = 0;
+	/** Number of trackpoints drained from the journal */
+	private long drainedCount = 0;
+
+	/**
+	 * @param dataHelper Data helper performing the writes
+	 */
+	public DataWriter(DataHelper dataHelper) {
+		this(dataHelper, null);
+	}
+
+	/**
+	 * @param dataHelper Data helper performing the writes
+	 * @param journal Journal of the trackpoints, null to queue them in memory.
+	 * Closed when the thread ends.
+	 */
+	public DataWriter(DataHelper dataHelper, FixJournal journal) {
+		super(TAG);
+		this.dataHelper = dataHelper;
+		this.journal = journal;
+		if (journal != null) {
+			recoveredLeft = journal.getRecoveredCount();
+		}
+	}
+
+	/**
+	 * Journals, or queues, a trackpoint, see {@link DataHelper#track(long, Location)}
+	 */
+	public void track(long trackId, Location location) {
+		if (journal != null && !isClosed()) {
+			long start = Instrumentation.now();
+			boolean appended = journal.append(dataHelper.getTrackpointValues(trackId, location));
+			Instrumentation.JOURNAL_APPEND.record(start);
+			if (appended) {
+				int pending = journal.getPendingCount();
+				if (pending == 1 || pending >= DRAIN_BATCH || journal.getUnsyncedCount() == 1) {
+					// Starts the drain or sync delay, or drains now
+					synchronized (this) {
+						notifyAll();
+					}
+				}
+				return;
+			}
+			Log.w(TAG, "Journal full, queuing trackpoint in memory");
+		}
+
+		Command cmd = new Command(CMD_TRACKPOINT, trackId, null);
+		cmd.location = location;
+		enqueue(cmd);
+	}
+
+	/**
+	 * Queues a waypoint, see {@link DataHelper#wayPoint(long, Location, int, String, String, String)}
+	 * @param requestTime {@link SystemClock#elapsedRealtime()} when the waypoint was requested
+	 */
+	public void wayPoint(long trackId, Location location, int nbSatellites, String name, String link, String uuid,
+			long requestTime) {
+		Command cmd = new Command(CMD_WAYPOINT, trackId, uuid);
+		cmd.requestTime = requestTime;
+		cmd.location = location;
+		cmd.nbSatellites = nbSatellites;
+		cmd.name = name;
+		cmd.link = link;
+		enqueue(cmd);
+	}
+
+	/**
+	 * Queues a waypoint update, see {@link DataHelper#updateWayPoint(long, String, String, String)}.
+	 * Merged into a pending update of the same waypoint, if any.
+	 */
+	public synchronized void updateWayPoint(long trackId, String uuid, String name, String link) {
+		if (uuid != null) {
+			for (Command pending : queue) {
+				if (pending.type == CMD_UPDATE_WAYPOINT && uuid.equals(pending.uuid) && pending.trackId == trackId) {
+					if (name != null) {
+						pending.name = name;
+					}
+					if (link != null) {
+						pending.link = link;
+					}
+					coalescedCount++;
+					return;
+				}
+			}
+		}
+
+		Command cmd = new Command(CMD_UPDATE_WAYPOINT, trackId, uuid);
+		cmd.name = name;
+		cmd.link = link;
+		enqueue(cmd);
+	}
+
+	/**
+	 * Queues a waypoint deletion, see {@link DataHelper#deleteWayPoint(String)}.
+	 * Pending updates of the waypoint are dropped. If the waypoint insertion
+	 * itself is still pending, it's dropped and the deletion isn't queued.
+	 */
+	public synchronized void deleteWayPoint(String uuid) {
+		if (uuid != null) {
+			boolean insertPending = false;
+			for (Iterator<Command> it = queue.iterator(); it.hasNext();) {
+				Command pending = it.next();
+				if (uuid.equals(pending.uuid)
+						&& (pending.type == CMD_UPDATE_WAYPOINT || pending.type == CMD_WAYPOINT)) {
+					insertPending |= (pending.type == CMD_WAYPOINT);
+					it.remove();
+					coalescedCount++;
+				}
+			}
+			if (insertPending) {
+				coalescedCount++;
+				return;
+			}
+		}
+
+		enqueue(new Command(CMD_DELETE_WAYPOINT, -1, uuid));
+	}
+
+	/**
+	 * Queues the end of a track, see {@link DataHelper#stopTracking(long)},
+	 * then its sealing, see {@link DataHelper#sealTrack(long)}
+	 */
+	public void stopTracking(long trackId) {
+		enqueue(new Command(CMD_STOP_TRACKING, trackId, null));
+	}
+
+	/**
+	 * Stops accepting commands. Pending ones are still written, then the thread ends.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	private synchronized boolean isClosed() {
+		return closed;
+	}
+
+	private synchronized void enqueue(Command cmd) {
+		if (closed) {
+			Log.w(TAG, "Writer closed, ignoring command " + cmd.type);
+			return;
+		}
+		cmd.queuedTime = Instrumentation.now();
+		queue.addLast(cmd);
+		if (queue.size() > maxQueueDepth) {
+			maxQueueDepth = queue.size();
+		}
+		notifyAll();
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			Command cmd;
+			boolean stopping;
+			boolean drainDue;
+			synchronized (this) {
+				while (queue.isEmpty() && !closed && !isJournalDue() && !isJournalSyncDue()) {
+					try {
+						if (journal != null && journal.getUnsyncedCount() > 0) {
+							wait(SYNC_DELAY);
+						} else if (journal != null && journal.getPendingCount() > 0) {
+							wait(DRAIN_DELAY);
+						} else {
+							wait();
+						}
+					} catch (InterruptedException ie) {
+						Log.w(TAG, "Interrupted while waiting for commands", ie);
+					}
+				}
+				cmd = queue.isEmpty() ? null : queue.removeFirst();
+				stopping = (cmd == null && closed);
+				drainDue = (cmd != null || stopping || isJournalDue());
+			}
+
+			if (journal != null) {
+				// One force for the trackpoints journaled since the last one
+				journal.sync();
+			}
+			if (drainDue) {
+				// Trackpoints journaled before the command are written first
+				drainJournal(stopping);
+			}
+
+			if (cmd == null) {
+				if (stopping) {
+					// Closed and drained
+					Log.v(TAG, "Writer stopped. " + writtenCount + " commands written, "
+							+ drainedCount + " trackpoints drained, "
+							+ coalescedCount + " coalesced, average latency " + getAverageLatency() + "ms");
+					if (journal != null) {
+						journal.close();
+					}
+					return;
+				}
+				continue;
+			}
+
+			write(cmd);
+
+			if (cmd.type == CMD_TRACKPOINT) {
+				// Trackpoints are queued as soon as the fix arrives
+				Instrumentation.FIX_TO_ROW.record(cmd.queuedTime);
+			} else if (cmd.type == CMD_WAYPOINT) {
+				// From the button press, through the binder or a broadcast
+				Instrumentation.WAYPOINT_PRESS_TO_ROW.recordMicros((SystemClock.elapsedRealtime() - cmd.requestTime) * 1000);
+			}
+
+			long latency = (Instrumentation.now() - cmd.queuedTime) / 1000000;
+			synchronized (this) {
+				writtenCount++;
+				totalLatency += latency;
+				if (latency > maxLatency) {
+					maxLatency = latency;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if the journal should be drained now
+	 */
+	private boolean isJournalDue() {
+		if (journal == null) {
+			return false;
+		}
+		int pending = journal.getPendingCount();
+		return pending >= DRAIN_BATCH || (pending > 0 && journal.getPendingAge() >= DRAIN_DELAY);
+	}
+
+	/**
+	 * @return true if the journal should be forced to the storage now
+	 */
+	private boolean isJournalSyncDue() {
+		return journal != null && journal.getUnsyncedAge() >= SYNC_DELAY;
+	}
+
+	/**
+	 * Writes the trackpoints pending in the journal, by batches of at most {@link #DRAIN_MAX}.
+	 * A failed batch is retried, unless stopping: it's then left in the journal,
+	 * and will be recovered on next start.
+	 * @param stopping true if the thread is about to end
+	 */
+	private void drainJournal(boolean stopping) {
+		if (journal == null) {
+			return;
+		}
+
+		// Trackpoints appended meanwhile wait for the next drain
+		int toDrain = journal.getPendingCount();
+		while (toDrain > 0) {
+			long start = Instrumentation.now();
+			long oldestPendingTime = journal.getOldestPendingTime();
+			ContentValues[] batch = journal.readPending(Math.min(toDrain, DRAIN_MAX));
+			try {
+				writeTrackpoints(batch);
+			} catch (SQLException sqle) {
+				Log.e(TAG, "Unable to drain " + batch.length + " journaled trackpoints", sqle);
+				if (stopping || isClosed()) {
+					return;
+				}
+				SystemClock.sleep(DRAIN_DELAY);
+				continue;
+			}
+			journal.markDrained(batch.length);
+			toDrain -= batch.length;
+
+			if (oldestPendingTime != 0) {
+				// Age of the oldest trackpoint of the batch
+				Instrumentation.FIX_TO_ROW.record(oldestPendingTime);
+			}
+			Instrumentation.JOURNAL_DRAIN.record(start);
+			synchronized (this) {
+				drainedCount += batch.length;
+			}
+		}
+	}
+
+	/**
+	 * Writes journaled trackpoints in a single transaction, whatever their tracks:
+	 * if it fails, none is written, and the batch can be retried as is.
+	 * @param trackpoints Trackpoints, in order
+	 */
+	private void writeTrackpoints(ContentValues[] trackpoints) {
+		// Last timestamp in the database, by track, for recovered trackpoints
+		Map<Long, Long> lastTimestamps = new HashMap<Long, Long>();
+		List<ContentValues> toWrite = new ArrayList<ContentValues>(trackpoints.length);
+		int recovered = 0;
+
+		for (int i = 0; i < trackpoints.length; i++) {
+			long trackId = trackpoints[i].getAsLong(Schema.COL_TRACK_ID);
+			if (i < recoveredLeft) {
+				// The crash may have happened after the write, but before the drain was marked
+				Long lastTimestamp = lastTimestamps.get(trackId);
+				if (lastTimestamp == null) {
+					lastTimestamp = dataHelper.getLastTrackpointTimestamp(trackId);
+					lastTimestamps.put(trackId, lastTimestamp);
+				}
+				if (trackpoints[i].getAsLong(Schema.COL_TIMESTAMP) <= lastTimestamp) {
+					continue;
+				}
+				recovered++;
+			}
+			toWrite.add(trackpoints[i]);
+		}
+		if (!toWrite.isEmpty()) {
+			dataHelper.track(toWrite.toArray(new ContentValues[toWrite.size()]));
+		}
+
+		if (recoveredLeft > 0) {
+			Instrumentation.JOURNAL_RECOVERED.add(recovered);
+			recoveredLeft = Math.max(0, recoveredLeft - trackpoints.length);
+		}
+	}
+
+	/**
+	 * Performs a command
+	 * @param cmd Command to perform
+	 */
+	private void write(Command cmd) {
+		switch (cmd.type) {
+		case CMD_TRACKPOINT:
+			dataHelper.track(cmd.trackId, cmd.location);
+			break;
+		case CMD_WAYPOINT:
+			dataHelper.wayPoint(cmd.trackId, cmd.location, cmd.nbSatellites, cmd.name, cmd.link, cmd.uuid);
+			break;
+		case CMD_UPDATE_WAYPOINT:
+			dataHelper.updateWayPoint(cmd.trackId, cmd.uuid, cmd.name, cmd.link);
+			break;
+		case CMD_DELETE_WAYPOINT:
+			dataHelper.deleteWayPoint(cmd.uuid);
+			break;
+		case CMD_STOP_TRACKING:
+			dataHelper.stopTracking(cmd.trackId);
+			// All its trackpoints are written, as commands are in order
+			dataHelper.sealTrack(cmd.trackId);
+			break;
+		}
+	}
+
+	/**
+	 * @return Number of pending commands, and of trackpoints pending in the journal
+	 */
+	public synchronized int getQueueDepth() {
+		return queue.size() + (journal != null ? journal.getPendingCount() : 0);
+	}
+
+	/**
+	 * @return Highest number of pending commands seen
+	 */
+	public synchronized int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * @return Number of commands written
+	 */
+	public synchronized long getWrittenCount() {
+		return writtenCount;
+	}
+
+	/**
+	 * @return Number of commands merged into, or cancelled by, another one
+	 */
+	public synchronized long getCoalescedCount() {
+		return coalescedCount;
+	}
+
+	/**
+	 * @return Average delay between queuing and writing a command, in ms
+	 */
+	public synchronized long getAverageLatency() {
+		return (writtenCount > 0) ? totalLatency / writtenCount : 0;
+	}
+
+	/**
+	 * @return Highest delay between queuing and writing a command, in ms
+	 */
+	public synchronized long getMaxLatency() {
+		return maxLatency;
+	}
+
+}
@@ -0,0 +1,173 @@
+package me.guillaumin.android.osmtracker.service.gps;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.os.SystemClock;
+
+/**
+ * Fixed-size ring buffer of the most recent fixes, with the time they were
+ * received at, used to compute the position at a given time (e.g. when a
+ * waypoint button was pressed) without asking the system for its last
+ * known location.
+ * <br />
+ * There must be a single writer ({@link #add(Location, long)}). Readers don't
+ * lock: they check after reading that the slots they used weren't overwritten
+ * meanwhile, and retry otherwise.
+ *
+ */
+public class FixBuffer {
+
+	/**
+	 * Default number of fixes kept
+	 */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * Maximum time to extrapolate after the newest fix, in ms. Beyond this
+	 * the newest fix is used as-is, the speed it was computed with is
+	 * too old to be trusted.
+	 */
+	private static final long MAX_EXTRAPOLATION = 2000;
+
+	private final int capacity;
+
+	private final double[] latitudes;
+	private final double[] longitudes;
+	/** NaN if the fix has no altitude */
+	private final double[] altitudes;
+	/** NaN if the fix has no accuracy */
+	private final float[] accuracies;
+	/** Time of the fixes, see {@link Location#getTime()} */
+	private final long[] times;
+	/** {@link SystemClock#elapsedRealtime()} when the fixes were received */
+	private final long[] receivedTimes;
+
+	/**
+	 * Number of fixes ever added. A slot is written before this is increased.
+	 */
+	private volatile long count = 0;
+
+	/**
+	 * @param capacity Number of fixes to keep, at least 3
+	 */
+	public FixBuffer(int capacity) {
+		this.capacity = capacity;
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		altitudes = new double[capacity];
+		accuracies = new float[capacity];
+		times = new long[capacity];
+		receivedTimes = new long[capacity];
+	}
+
+	/**
+	 * Adds a fix. Must always be called from the same thread.
+	 * @param location The fix
+	 * @param receivedTime {@link SystemClock#elapsedRealtime()} when it was received
+	 */
+	public void add(Location location, long receivedTime) {
+		int i = slot(count);
+		latitudes[i] = location.getLatitude();
+		longitudes[i] = location.getLongitude();
+		altitudes[i] = location.hasAltitude() ? location.getAltitude() : Double.NaN;
+		accuracies[i] = location.hasAccuracy() ? location.getAccuracy() : Float.NaN;
+		times[i] = location.getTime();
+		receivedTimes[i] = receivedTime;
+		count = count + 1;
+	}
+
+	/**
+	 * Computes the position at a given time: interpolated between the two
+	 * fixes surrounding it, or extrapolated from the two newest fixes if it's
+	 * after the newest one.
+	 * @param time {@link SystemClock#elapsedRealtime()} to compute the position at
+	 * @return The position, or null if no fix was received yet
+	 */
+	public Location locationAt(long time) {
+		while (true) {
+			long last = count - 1;
+			if (last < 0) {
+				return null;
+			}
+			// Keep one slot of margin for the writer
+			long first = Math.max(0, last - capacity + 2);
+
+			// Newest fix received at or before the requested time
+			long before = last;
+			while (before >= first && receivedTimes[slot(before)] > time) {
+				before--;
+			}
+
+			Location location;
+			if (before < first) {
+				// Older than anything we have
+				location = toLocation(first, first, 0);
+			} else if (before < last) {
+				location = interpolate(before, before + 1, time);
+			} else if (last > first && time - receivedTimes[slot(last)] <= MAX_EXTRAPOLATION) {
+				location = interpolate(last - 1, last, time);
+			} else {
+				location = toLocation(last, last, 0);
+			}
+
+			if (count < first + capacity) {
+				// Slots we read weren't overwritten
+				return location;
+			}
+		}
+	}
+
+	/**
+	 * @return Number of fixes in the buffer
+	 */
+	public int size() {
+		return (int) Math.min(count, capacity);
+	}
+
+	/**
+	 * Interpolates (or extrapolates) between two fixes, by the time they were received at
+	 */
+	private Location interpolate(long a, long b, long time) {
+		long span = receivedTimes[slot(b)] - receivedTimes[slot(a)];
+		if (span <= 0) {
+			return toLocation(b, b, 0);
+		}
+		return toLocation(a, b, (double) (time - receivedTimes[slot(a)]) / span);
+	}
+
+	/**
+	 * Builds a Location at a fraction between two fixes
+	 * @param a First fix
+	 * @param b Second fix
+	 * @param f Fraction, 0 for a, 1 for b, > 1 to extrapolate
+	 */
+	private Location toLocation(long a, long b, double f) {
+		int i = slot(a);
+		int j = slot(b);
+
+		Location location = new Location(LocationManager.GPS_PROVIDER);
+		location.setLatitude(latitudes[i] + (latitudes[j] - latitudes[i]) * f);
+		location.setLongitude(longitudes[i] + (longitudes[j] - longitudes[i]) * f);
+		location.setTime(times[i] + Math.round((times[j] - times[i]) * f));
+
+		if (!Double.isNaN(altitudes[i]) && !Double.isNaN(altitudes[j])) {
+			location.setAltitude(altitudes[i] + (altitudes[j] - altitudes[i]) * f);
+		} else if (!Double.isNaN(altitudes[j])) {
+			location.setAltitude(altitudes[j]);
+		}
+
+		// Can't be more accurate than the worst of both fixes
+		if (!Float.isNaN(accuracies[i]) && !Float.isNaN(accuracies[j])) {
+			location.setAccuracy(Math.max(accuracies[i], accuracies[j]));
+		} else if (!Float.isNaN(accuracies[j])) {
+			location.setAccuracy(accuracies[j]);
+		}
+
+		return location;
+	}
+
+	private int slot(long index) {
+		return (int) (index % capacity);
+	}
+
+}
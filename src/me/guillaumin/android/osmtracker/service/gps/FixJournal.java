@@ -0,0 +1,354 @@
+package me.guillaumin.android.osmtracker.service.gps;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
+import android.content.ContentValues;
+import android.util.Log;
+
+/**
+ * Append-only journal of trackpoints, in a memory-mapped file. It's the first
+ * landing zone of fixes: appending is a few memory writes, and the entry survives
+ * a crash of the application as soon as it's appended. Entries are then drained
+ * in bulk into the database by the {@link DataWriter}.
+ * <br />
+ * The file is a ring of fixed size entries after a header. Each entry has a sequence
+ * number, and a commit marker written last; the header holds the sequence number
+ * of the last entry drained. On opening, committed entries following it are
+ * recovered, and will be drained again.
+ * <br />
+ * Unless disabled, entries are forced to the storage by {@link #sync()}, which the
+ * {@link DataWriter} thread calls shortly after they're appended: a group of entries
+ * shares one force, and appending never waits for the storage.
+ *
+ */
+public class FixJournal {
+
+	private static final String TAG = FixJournal.class.getSimpleName();
+
+	/**
+	 * Magic number at the beginning of the file
+	 */
+	private static final int MAGIC = 0x4f534d4a;
+
+	/**
+	 * Version of the journal format
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Size of the header: magic, version, sequence number of the last entry drained
+	 */
+	private static final int HEADER_SIZE = 64;
+	private static final int HEADER_DRAINED = 8;
+
+	/**
+	 * Size of an entry: commit marker, padding, sequence number, track id,
+	 * latitude, longitude, elevation, accuracy (NaN if missing), timestamp
+	 */
+	private static final int ENTRY_SIZE = 64;
+	private static final int ENTRY_SEQUENCE = 8;
+	private static final int ENTRY_TRACK_ID = 16;
+	private static final int ENTRY_LATITUDE = 24;
+	private static final int ENTRY_LONGITUDE = 32;
+	private static final int ENTRY_ELEVATION = 40;
+	private static final int ENTRY_ACCURACY = 48;
+	private static final int ENTRY_TIMESTAMP = 56;
+
+	/**
+	 * Commit marker of a complete entry
+	 */
+	private static final int COMMITTED = 0x46495821;
+
+	/**
+	 * Default size of the file: 32767 entries, almost an hour at 10 fixes per second
+	 */
+	public static final int DEFAULT_CAPACITY = 2 * 1024 * 1024;
+
+	private final RandomAccessFile file;
+
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * Force entries to the storage on {@link #sync()}
+	 */
+	private final boolean forceWrites;
+
+	/**
+	 * Number of entries the ring can hold
+	 */
+	private final int slots;
+
+	/** Sequence number of the last entry drained */
+	private long drainedSequence;
+	/** Sequence number of the next entry appended */
+	private long nextSequence;
+	/** Sequence number of the last entry forced to the storage */
+	private long syncedSequence;
+	/** {@link Instrumentation#now()} when the oldest entry not forced yet was appended */
+	private long oldestUnsyncedTime;
+	/** {@link Instrumentation#now()} when the oldest pending entry was appended, 0 if it was recovered */
+	private long oldestPendingTime;
+	/** Entries recovered on opening */
+	private final int recoveredCount;
+
+	/**
+	 * Opens a journal, creating it if needed, and recovers its pending entries
+	 * @param path Journal file. Should be on internal storage.
+	 * @param capacity Size of the file, in bytes
+	 * @param forceWrites true to force entries to the storage on {@link #sync()}: entries
+	 * then also survive a crash of the device, once synced
+	 * @throws IOException If the file can't be opened or mapped
+	 */
+	public FixJournal(File path, int capacity, boolean forceWrites) throws IOException {
+		this.forceWrites = forceWrites;
+		slots = (capacity - HEADER_SIZE) / ENTRY_SIZE;
+		if (slots < 1) {
+			throw new IllegalArgumentException("Capacity too small: " + capacity);
+		}
+
+		file = new RandomAccessFile(path, "rw");
+		boolean created = file.length() < HEADER_SIZE;
+		try {
+			file.setLength(HEADER_SIZE + slots * ENTRY_SIZE);
+			buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+		} catch (IOException ioe) {
+			file.close();
+			throw ioe;
+		}
+
+		if (created || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION) {
+			if (!created) {
+				Log.w(TAG, "Unknown journal format, starting a new one: " + path);
+			}
+			for (int i = 0; i < slots; i++) {
+				buffer.putInt(HEADER_SIZE + i * ENTRY_SIZE, 0);
+			}
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, FORMAT_VERSION);
+			buffer.putLong(HEADER_DRAINED, 0);
+			buffer.force();
+		}
+
+		drainedSequence = buffer.getLong(HEADER_DRAINED);
+		long sequence = drainedSequence + 1;
+		while (sequence - drainedSequence <= slots) {
+			int position = getPosition(sequence);
+			if (buffer.getInt(position) != COMMITTED || buffer.getLong(position + ENTRY_SEQUENCE) != sequence) {
+				// Older entry, or interrupted append
+				break;
+			}
+			sequence++;
+		}
+		nextSequence = sequence;
+		syncedSequence = nextSequence - 1;
+		recoveredCount = (int) (nextSequence - drainedSequence - 1);
+		oldestPendingTime = 0;
+		if (recoveredCount > 0) {
+			Log.i(TAG, "Recovered " + recoveredCount + " trackpoints from " + path);
+		}
+	}
+
+	/**
+	 * @return Position in the file of the entry with this sequence number
+	 */
+	private int getPosition(long sequence) {
+		return HEADER_SIZE + (int) (sequence % slots) * ENTRY_SIZE;
+	}
+
+	/**
+	 * Appends a trackpoint
+	 * @param values Trackpoint, with the columns of {@link Schema#TBL_TRACKPOINT}
+	 * @return false if the journal is full
+	 */
+	public synchronized boolean append(ContentValues values) {
+		if (nextSequence - drainedSequence > slots) {
+			return false;
+		}
+
+		int position = getPosition(nextSequence);
+		// Invalidate the previous entry of the slot first, the marker is written last
+		buffer.putInt(position, 0);
+		buffer.putLong(position + ENTRY_SEQUENCE, nextSequence);
+		buffer.putLong(position + ENTRY_TRACK_ID, values.getAsLong(Schema.COL_TRACK_ID));
+		buffer.putDouble(position + ENTRY_LATITUDE, values.getAsDouble(Schema.COL_LATITUDE));
+		buffer.putDouble(position + ENTRY_LONGITUDE, values.getAsDouble(Schema.COL_LONGITUDE));
+		buffer.putDouble(position + ENTRY_ELEVATION, values.containsKey(Schema.COL_ELEVATION)
+				? values.getAsDouble(Schema.COL_ELEVATION) : Double.NaN);
+		buffer.putDouble(position + ENTRY_ACCURACY, values.containsKey(Schema.COL_ACCURACY)
+				? values.getAsDouble(Schema.COL_ACCURACY) : Double.NaN);
+		buffer.putLong(position + ENTRY_TIMESTAMP, values.getAsLong(Schema.COL_TIMESTAMP));
+		buffer.putInt(position, COMMITTED);
+
+		if (nextSequence == drainedSequence + 1) {
+			oldestPendingTime = Instrumentation.now();
+		}
+		if (!forceWrites) {
+			// Nothing to wait for
+			syncedSequence = nextSequence;
+		} else if (nextSequence == syncedSequence + 1) {
+			oldestUnsyncedTime = Instrumentation.now();
+		}
+		nextSequence++;
+		return true;
+	}
+
+	/**
+	 * Reads the oldest pending entries, without draining them
+	 * @param max Maximum number of entries to read
+	 * @return Trackpoints, with the columns of {@link Schema#TBL_TRACKPOINT}
+	 */
+	public synchronized ContentValues[] readPending(int max) {
+		int count = (int) Math.min(max, nextSequence - drainedSequence - 1);
+		ContentValues[] entries = new ContentValues[count];
+		for (int i = 0; i < count; i++) {
+			int position = getPosition(drainedSequence + 1 + i);
+			ContentValues values = new ContentValues();
+			values.put(Schema.COL_TRACK_ID, buffer.getLong(position + ENTRY_TRACK_ID));
+			values.put(Schema.COL_LATITUDE, buffer.getDouble(position + ENTRY_LATITUDE));
+			values.put(Schema.COL_LONGITUDE, buffer.getDouble(position + ENTRY_LONGITUDE));
+			double elevation = buffer.getDouble(position + ENTRY_ELEVATION);
+			if (!Double.isNaN(elevation)) {
+				values.put(Schema.COL_ELEVATION, elevation);
+			}
+			double accuracy = buffer.getDouble(position + ENTRY_ACCURACY);
+			if (!Double.isNaN(accuracy)) {
+				values.put(Schema.COL_ACCURACY, accuracy);
+			}
+			values.put(Schema.COL_TIMESTAMP, buffer.getLong(position + ENTRY_TIMESTAMP));
+			entries[i] = values;
+		}
+		return entries;
+	}
+
+	/**
+	 * Marks the oldest pending entries as drained, once they're in the database
+	 * @param count Number of entries drained
+	 */
+	public void markDrained(int count) {
+		synchronized (this) {
+			drainedSequence += count;
+			buffer.putLong(HEADER_DRAINED, drainedSequence);
+			// Remaining entries were appended during the drain
+			oldestPendingTime = Instrumentation.now();
+		}
+		if (forceWrites) {
+			force();
+		}
+	}
+
+	/**
+	 * Forces the entries appended since the last sync to the storage, if forcing
+	 * is enabled. Called from the writer thread: appends aren't blocked meanwhile.
+	 */
+	public void sync() {
+		synchronized (this) {
+			if (!forceWrites || syncedSequence == nextSequence - 1) {
+				return;
+			}
+		}
+		force();
+	}
+
+	/**
+	 * Forces the file to the storage, outside of the lock so that appends go on
+	 */
+	private void force() {
+		long sequence;
+		synchronized (this) {
+			sequence = nextSequence - 1;
+		}
+		long start = Instrumentation.now();
+		buffer.force();
+		Instrumentation.JOURNAL_SYNC.record(start);
+		synchronized (this) {
+			syncedSequence = Math.max(syncedSequence, sequence);
+			if (syncedSequence < nextSequence - 1) {
+				// Appended during the force, may not be on the storage
+				oldestUnsyncedTime = Instrumentation.now();
+			}
+		}
+	}
+
+	/**
+	 * @return Number of entries not forced to the storage yet, always 0 if forcing is disabled
+	 */
+	public synchronized int getUnsyncedCount() {
+		return (int) (nextSequence - 1 - syncedSequence);
+	}
+
+	/**
+	 * @return Time since the oldest entry not forced to the storage was appended, in ms.
+	 * 0 if there's none.
+	 */
+	public synchronized long getUnsyncedAge() {
+		if (syncedSequence == nextSequence - 1) {
+			return 0;
+		}
+		return (Instrumentation.now() - oldestUnsyncedTime) / 1000000;
+	}
+
+	/**
+	 * @return Number of entries not drained yet
+	 */
+	public synchronized int getPendingCount() {
+		return (int) (nextSequence - drainedSequence - 1);
+	}
+
+	/**
+	 * @return Time since the oldest pending entry was appended, in ms. Very large
+	 * for recovered entries.
+	 */
+	public synchronized long getPendingAge() {
+		return (Instrumentation.now() - oldestPendingTime) / 1000000;
+	}
+
+	/**
+	 * @return {@link Instrumentation#now()} when the oldest pending entry was appended,
+	 * 0 if it was recovered
+	 */
+	public synchronized long getOldestPendingTime() {
+		return oldestPendingTime;
+	}
+
+	/**
+	 * @param trackId Id of a track
+	 * @return Timestamp of the newest pending entry if it belongs to this track,
+	 * -1 otherwise
+	 */
+	public synchronized long getLastPendingTimestamp(long trackId) {
+		if (nextSequence - drainedSequence <= 1) {
+			return -1;
+		}
+		int position = getPosition(nextSequence - 1);
+		if (buffer.getLong(position + ENTRY_TRACK_ID) != trackId) {
+			return -1;
+		}
+		return buffer.getLong(position + ENTRY_TIMESTAMP);
+	}
+
+	/**
+	 * @return Number of entries recovered when the journal was opened
+	 */
+	public int getRecoveredCount() {
+		return recoveredCount;
+	}
+
+	/**
+	 * Closes the journal. Pending entries stay in the file, they'll be recovered on next opening.
+	 */
+	public synchronized void close() {
+		buffer.force();
+		try {
+			file.close();
+		} catch (IOException ioe) {
+			Log.w(TAG, "Unable to close journal", ioe);
+		}
+	}
+
+}
@@ -1,11 +1,16 @@
 package me.guillaumin.android.osmtracker.service.gps;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+
 import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
 import me.guillaumin.android.osmtracker.activity.TrackLogger;
 import me.guillaumin.android.osmtracker.db.DataHelper;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -14,6 +19,8 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.location.GpsSatellite;
 import android.location.GpsStatus;
 import android.location.Location;
@@ -22,24 +29,55 @@ import android.location.LocationManager;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 /**
  * GPS logging service.
+ * <br />
+ * This is the only listener of the {@link LocationManager} in the application:
+ * fixes and GPS status are published to UI components through {@link GpsEventBuffer}.
+ * <br />
+ * While tracking, a checkpoint of the recording is kept in private preferences.
+ * If the process is killed, the system restarts the service (it's started, not
+ * only bound), and the recording of the track is resumed from the checkpoint.
  * 
  * @author Nicolas Guillaumin
  *
  */
-public class GPSLogger extends Service implements LocationListener {
+public class GPSLogger extends Service implements LocationListener, GpsStatus.Listener {
 
 	private static final String TAG = GPSLogger.class.getSimpleName();
 
+	/**
+	 * File of the fix journal, in the internal storage
+	 */
+	private static final String JOURNAL_FILENAME = "fixes.journal";
+
+	/**
+	 * Preferences file of the recording checkpoint, and its keys
+	 */
+	private static final String CHECKPOINT_NAME = "recording";
+	private static final String CHECKPOINT_TRACK_ID = "track_id";
+	private static final String CHECKPOINT_TIME = "time";
+
+	/**
+	 * Shortest interval between two fixes, to estimate the trackpoints
+	 * missed during a restart when logging every fix
+	 */
+	private static final long MIN_FIX_INTERVAL = 1000;
+
 	/**
 	 * Data helper.
 	 */
 	private DataHelper dataHelper;
 
+	/**
+	 * Performs database writes, in order, off the main thread
+	 */
+	private DataWriter dataWriter;
+
 	/**
 	 * Are we currently tracking ?
 	 */
@@ -60,10 +98,30 @@ public class GPSLogger extends Service implements LocationListener {
 	 */
 	private Location lastLocation;
 	
+	/**
+	 * Recent fixes, to compute waypoints position
+	 */
+	private FixBuffer recentFixes = new FixBuffer(FixBuffer.DEFAULT_CAPACITY);
+
 	/**
 	 * Last number of satellites used in fix.
 	 */
 	private int lastNbSatellites;
+
+	/**
+	 * GPS status, reused at each satellite status update
+	 */
+	private GpsStatus gpsStatus = null;
+
+	/**
+	 * Number of satellites in view, as of the last satellite status
+	 */
+	private int satellitesInView = 0;
+
+	/**
+	 * Number of satellites used in fix, as of the last satellite status
+	 */
+	private int satellitesUsed = 0;
 	
 	/**
 	 * LocationManager
@@ -79,15 +137,42 @@ public class GPSLogger extends Service implements LocationListener {
 	 * the timestamp of the last GPS fix we used
 	 */
 	private long lastGPSTimestamp = 0;
+
+	/**
+	 * the timestamp of the last satellite status we published
+	 */
+	private long lastSatelliteStatusTimestamp = 0;
+
+	/**
+	 * Buffer to publish GPS events to UI components
+	 */
+	private GpsEventBuffer gpsEvents = GpsEventBuffer.getInstance();
 	
 	/**
 	 * the interval (in ms) to log GPS fixes defined in the preferences
 	 */
 	private long gpsLoggingInterval;
+
+	/**
+	 * Trace being replayed instead of the GPS, if any
+	 */
+	private TraceReplay replay = null;
+
+	/**
+	 * {@link Instrumentation#now()} when the recording was resumed after a restart,
+	 * 0 once its first trackpoint is logged
+	 */
+	private long resumedTime = 0;
+
+	/**
+	 * Timestamp of the last trackpoint logged before a restart, -1 if unknown
+	 */
+	private long lastLoggedTimestamp = -1;
 	
 	
 	/**
 	 * Receives Intent for way point tracking, and stop/start logging.
+	 * Used by external callers, the application itself goes through {@link GPSLoggerBinder}.
 	 */
 	private BroadcastReceiver receiver = new BroadcastReceiver() {
 		
@@ -99,16 +184,13 @@ public class GPSLogger extends Service implements LocationListener {
 				// Track a way point
 				Bundle extras = intent.getExtras();
 				if (extras != null) {
-					// because of the gps logging interval our last fix could be very old
-					// so we'll request the last known location from the gps provider
-					lastLocation = lmgr.getLastKnownLocation(LocationManager.GPS_PROVIDER);
-					if(lastLocation != null){
-						Long trackId = extras.getLong(Schema.COL_TRACK_ID);
-						String uuid = extras.getString(OSMTracker.INTENT_KEY_UUID);
-						String name = extras.getString(OSMTracker.INTENT_KEY_NAME);
-						String link = extras.getString(OSMTracker.INTENT_KEY_LINK);
-						dataHelper.wayPoint(trackId, lastLocation, lastNbSatellites, name, link, uuid);
-					}
+					Long trackId = extras.getLong(Schema.COL_TRACK_ID);
+					String uuid = extras.getString(OSMTracker.INTENT_KEY_UUID);
+					String name = extras.getString(OSMTracker.INTENT_KEY_NAME);
+					String link = extras.getString(OSMTracker.INTENT_KEY_LINK);
+					// Broadcasts are delivered later, use the time of the request
+					long requestTime = extras.getLong(OSMTracker.INTENT_KEY_TIME, SystemClock.elapsedRealtime());
+					trackWayPoint(trackId, name, link, uuid, requestTime);
 				}
 			} else if (OSMTracker.INTENT_UPDATE_WP.equals(intent.getAction())) {
 				// Update an existing waypoint
@@ -118,14 +200,14 @@ public class GPSLogger extends Service implements LocationListener {
 					String uuid = extras.getString(OSMTracker.INTENT_KEY_UUID);
 					String name = extras.getString(OSMTracker.INTENT_KEY_NAME);
 					String link = extras.getString(OSMTracker.INTENT_KEY_LINK);
-					dataHelper.updateWayPoint(trackId, uuid, name, link);
+					dataWriter.updateWayPoint(trackId, uuid, name, link);
 				}
 			} else if (OSMTracker.INTENT_DELETE_WP.equals(intent.getAction())) {
 				// Delete an existing waypoint
 				Bundle extras = intent.getExtras();
 				if (extras != null) {
 					String uuid = extras.getString(OSMTracker.INTENT_KEY_UUID);
-					dataHelper.deleteWayPoint(uuid);
+					dataWriter.deleteWayPoint(uuid);
 				}
 			} else if (OSMTracker.INTENT_START_TRACKING.equals(intent.getAction()) ) {
 				Bundle extras = intent.getExtras();
@@ -135,6 +217,19 @@ public class GPSLogger extends Service implements LocationListener {
 				}
 			} else if (OSMTracker.INTENT_STOP_TRACKING.equals(intent.getAction()) ) {
 				stopTrackingAndSave();
+			} else if (OSMTracker.INTENT_REPLAY.equals(intent.getAction())) {
+				// Injects fake fixes, for tests only
+				if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+					Log.w(TAG, "Ignoring replay request, not a debuggable build");
+					return;
+				}
+				String file = intent.getStringExtra(OSMTracker.INTENT_KEY_FILE);
+				if (file != null) {
+					startReplay(new File(file), intent.getFloatExtra(OSMTracker.INTENT_KEY_SPEED, 1),
+							intent.getIntExtra(OSMTracker.INTENT_KEY_PROBE_INTERVAL, 0));
+				} else {
+					stopReplay();
+				}
 			}
 		}
 	};
@@ -163,7 +258,8 @@ public class GPSLogger extends Service implements LocationListener {
 	}
 
 	/**
-	 * Bind interface for service interaction
+	 * Bind interface for service interaction.
+	 * Calls are in-process, and must be made from the main thread.
 	 */
 	public class GPSLoggerBinder extends Binder {
 
@@ -175,11 +271,91 @@ public class GPSLogger extends Service implements LocationListener {
 		public GPSLogger getService() {			
 			return GPSLogger.this;
 		}
+
+		/**
+		 * @return true if we're currently tracking, otherwise false.
+		 */
+		public boolean isTracking() {
+			return GPSLogger.this.isTracking();
+		}
+
+		/**
+		 * Tracks a way point at the location the user was at when requesting it
+		 * @param trackId Id of the track
+		 * @param name Name of the waypoint
+		 * @param link Link of the waypoint (media file name), or null
+		 * @param uuid Unique id of the waypoint, or null
+		 * @param requestTime {@link SystemClock#elapsedRealtime()} when the waypoint was requested
+		 */
+		public void trackWaypoint(long trackId, String name, String link, String uuid, long requestTime) {
+			trackWayPoint(trackId, name, link, uuid, requestTime);
+		}
+
+		/**
+		 * Updates an existing way point
+		 * @param trackId Id of the track
+		 * @param uuid Unique id of the waypoint
+		 * @param name New name, or null to keep it
+		 * @param link New link, or null to keep it
+		 */
+		public void updateWaypoint(long trackId, String uuid, String name, String link) {
+			dataWriter.updateWayPoint(trackId, uuid, name, link);
+		}
+
+		/**
+		 * Deletes an existing way point
+		 * @param uuid Unique id of the waypoint
+		 */
+		public void deleteWaypoint(String uuid) {
+			dataWriter.deleteWayPoint(uuid);
+		}
+
+		/**
+		 * Starts logging for a track
+		 * @param trackId Id of the track
+		 */
+		public void startTracking(long trackId) {
+			GPSLogger.this.startTracking(trackId);
+		}
+
+		/**
+		 * Stops logging, and stops the service
+		 */
+		public void stopTracking() {
+			stopTrackingAndSave();
+		}
+
+		/**
+		 * Replays a trace instead of the GPS, see {@link TraceReplay}
+		 * @param trace GPX or NMEA file
+		 * @param speed Replay speed, 1 for real time, 0 for as fast as possible
+		 * @param probeInterval Every probeInterval-th fix is used to measure waypoint
+		 * positions instead of being replayed, 0 for none
+		 */
+		public void startReplay(File trace, float speed, int probeInterval) {
+			GPSLogger.this.startReplay(trace, speed, probeInterval);
+		}
+
+		/**
+		 * Stops the current replay, if any, and goes back to the GPS
+		 */
+		public void stopReplay() {
+			GPSLogger.this.stopReplay();
+		}
 	}
 	
 	@Override
 	public void onCreate() {	
 		dataHelper = new DataHelper(this);
+		FixJournal journal = null;
+		try {
+			// Forced to the storage by the writer thread, by groups of fixes
+			journal = new FixJournal(new File(getFilesDir(), JOURNAL_FILENAME), FixJournal.DEFAULT_CAPACITY, true);
+		} catch (IOException ioe) {
+			Log.e(TAG, "Unable to open the fix journal, trackpoints will be queued in memory", ioe);
+		}
+		dataWriter = new DataWriter(dataHelper, journal);
+		dataWriter.start();
 
 		//read the logging interval from preferences
 		gpsLoggingInterval = Long.parseLong(PreferenceManager.getDefaultSharedPreferences(this.getApplicationContext()).getString(
@@ -192,17 +368,23 @@ public class GPSLogger extends Service implements LocationListener {
 		filter.addAction(OSMTracker.INTENT_DELETE_WP);
 		filter.addAction(OSMTracker.INTENT_START_TRACKING);
 		filter.addAction(OSMTracker.INTENT_STOP_TRACKING);
+		filter.addAction(OSMTracker.INTENT_REPLAY);
 		registerReceiver(receiver, filter);
 
 		// Register ourselves for location updates
 		lmgr = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
 		lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
+		lmgr.addGpsStatusListener(this);
+
+		resumeRecording(journal);
 		
 		super.onCreate();
 	}
 	
 	@Override
 	public void onDestroy() {
+		stopReplay();
+
 		if (isTracking) {
 			// If we're currently tracking, save user data.
 			stopTrackingAndSave();
@@ -210,9 +392,13 @@ public class GPSLogger extends Service implements LocationListener {
 
 		// Unregister listener
 		lmgr.removeUpdates(this);
+		lmgr.removeGpsStatusListener(this);
 		
 		// Unregister broadcast receiver
 		unregisterReceiver(receiver);
+
+		// Pending writes are still performed
+		dataWriter.close();
 		
 		// Cancel any existing notification
 		stopNotifyBackgroundService();
@@ -220,6 +406,76 @@ public class GPSLogger extends Service implements LocationListener {
 		super.onDestroy();
 	}
 
+	/**
+	 * Replays a trace instead of the GPS. A replay already running is stopped.
+	 */
+	private void startReplay(File trace, float speed, int probeInterval) {
+		stopReplay();
+
+		// Real fixes would be mixed with replayed ones
+		lmgr.removeUpdates(this);
+		lmgr.removeGpsStatusListener(this);
+
+		// Pace and timestamp on the trace clock: it's in the past,
+		// and runs faster than the device clock
+		lastGPSTimestamp = 0;
+		dataHelper.setGpsClockForced(true);
+
+		replay = new TraceReplay(this, trace, speed, probeInterval);
+		replay.start();
+	}
+
+	/**
+	 * Stops the current replay, if any, and goes back to the GPS
+	 */
+	private void stopReplay() {
+		if (replay != null) {
+			replay.cancel();
+			replay = null;
+			lastGPSTimestamp = 0;
+			dataHelper.setGpsClockForced(false);
+			lmgr.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, this);
+			lmgr.addGpsStatusListener(this);
+		}
+	}
+
+	/**
+	 * Called by a replay on the main thread, once it's over
+	 */
+	void onReplayFinished(TraceReplay finished) {
+		if (replay == finished) {
+			// Not stopped meanwhile
+			stopReplay();
+		}
+	}
+
+	/**
+	 * Tracks a way point at the location computed from recent fixes for the
+	 * time it was requested at.
+	 * @param requestTime {@link SystemClock#elapsedRealtime()} when the waypoint was requested
+	 */
+	private void trackWayPoint(long trackId, String name, String link, String uuid, long requestTime) {
+		lastLocation = getWayPointLocation(requestTime);
+		if(lastLocation != null){
+			dataWriter.wayPoint(trackId, lastLocation, lastNbSatellites, name, link, uuid, requestTime);
+		}
+	}
+
+	/**
+	 * Computes the location of a way point. Because of the gps logging interval our
+	 * last logged fix could be very old, so we use the position at the time of the request instead.
+	 * @param requestTime {@link SystemClock#elapsedRealtime()} when the waypoint was requested
+	 * @return The location, or null if none is known
+	 */
+	Location getWayPointLocation(long requestTime) {
+		Location location = recentFixes.locationAt(requestTime);
+		if (location == null) {
+			// No fix received yet, try the last one known by the system
+			location = lmgr.getLastKnownLocation(LocationManager.GPS_PROVIDER);
+		}
+		return location;
+	}
+
 	/**
 	 * Start GPS tracking.
 	 */
@@ -227,6 +483,7 @@ public class GPSLogger extends Service implements LocationListener {
 		currentTrackId = trackId;
 		Log.v(TAG, "Starting track logging for track #" + trackId);
 		isTracking = true;
+		writeCheckpoint();
 		notifyBackgroundService();
 	}
 
@@ -235,7 +492,9 @@ public class GPSLogger extends Service implements LocationListener {
 	 */
 	private void stopTrackingAndSave() {
 		isTracking = false;
-		dataHelper.stopTracking(currentTrackId);
+		clearCheckpoint();
+		resumedTime = 0;
+		dataWriter.stopTracking(currentTrackId);
 		stopNotifyBackgroundService();
 		currentTrackId = -1;
 		this.stopSelf();
@@ -245,34 +504,154 @@ public class GPSLogger extends Service implements LocationListener {
 	public void onLocationChanged(Location location) {		
 		// We're receiving location, so GPS is enabled
 		isGpsEnabled = true;
+		Instrumentation.FIX_ARRIVALS.increment();
+
+		// Keep every fix, regardless of the logging interval
+		recentFixes.add(location, SystemClock.elapsedRealtime());
 		
+		// A replayed trace runs on its own clock
+		long now = (replay != null) ? location.getTime() : System.currentTimeMillis();
+
 		// first of all we check if the time from the last used fix to the current fix is greater than the logging interval
-		if((lastGPSTimestamp + gpsLoggingInterval) < System.currentTimeMillis()){
-			lastGPSTimestamp = System.currentTimeMillis(); // save the time of this fix
+		if((lastGPSTimestamp + gpsLoggingInterval) < now){
+			lastGPSTimestamp = now; // save the time of this fix
 		
 			lastLocation = location;
-			lastNbSatellites = countSatellites();
+			lastNbSatellites = satellitesUsed;
 			
 			if (isTracking) {
-				dataHelper.track(currentTrackId, location);
+				dataWriter.track(currentTrackId, location);
+				if (resumedTime != 0) {
+					onResumedTrackpoint();
+				}
 			}
+
+			gpsEvents.publishLocation(location);
+		} else {
+			Instrumentation.FIX_THROTTLED.increment();
+		}
+	}
+
+	@Override
+	public void onGpsStatusChanged(int event) {
+		switch (event) {
+		case GpsStatus.GPS_EVENT_FIRST_FIX:
+			gpsEvents.publish(GpsEventBuffer.EVENT_FIRST_FIX);
+			break;
+		case GpsStatus.GPS_EVENT_STARTED:
+			gpsEvents.publish(GpsEventBuffer.EVENT_GPS_STARTED);
+			break;
+		case GpsStatus.GPS_EVENT_STOPPED:
+			gpsEvents.publish(GpsEventBuffer.EVENT_GPS_STOPPED);
+			break;
+		case GpsStatus.GPS_EVENT_SATELLITE_STATUS:
+			countSatellites();
+			publishSatellites();
+			break;
+		}
+	}
+
+	/**
+	 * Saves the recording checkpoint. Synchronous, so that it's on the storage
+	 * before any trackpoint of the track.
+	 */
+	private void writeCheckpoint() {
+		getSharedPreferences(CHECKPOINT_NAME, MODE_PRIVATE).edit()
+			.putLong(CHECKPOINT_TRACK_ID, currentTrackId)
+			.putLong(CHECKPOINT_TIME, System.currentTimeMillis())
+			.commit();
+	}
+
+	/**
+	 * Clears the recording checkpoint, the recording ended normally
+	 */
+	private void clearCheckpoint() {
+		getSharedPreferences(CHECKPOINT_NAME, MODE_PRIVATE).edit().clear().commit();
+	}
+
+	/**
+	 * Resumes the recording of the checkpoint, if any, when the service is restarted
+	 * after being killed. Only resumed if its track is still the active one.
+	 * @param journal Journal of the trackpoints, to find the last one logged. May be null.
+	 */
+	private void resumeRecording(FixJournal journal) {
+		SharedPreferences checkpoint = getSharedPreferences(CHECKPOINT_NAME, MODE_PRIVATE);
+		long trackId = checkpoint.getLong(CHECKPOINT_TRACK_ID, -1);
+		if (trackId == -1) {
+			return;
+		}
+		if (DataHelper.getActiveTrackId(getContentResolver()) != trackId) {
+			Log.w(TAG, "Track #" + trackId + " of the checkpoint isn't active anymore, not resuming");
+			clearCheckpoint();
+			return;
+		}
+
+		// The journal first: its entries may be drained into the database meanwhile
+		long journalTimestamp = (journal != null) ? journal.getLastPendingTimestamp(trackId) : -1;
+		lastLocation = dataHelper.getLastTrackpoint(trackId);
+		lastLoggedTimestamp = Math.max(journalTimestamp, (lastLocation != null) ? lastLocation.getTime() : -1);
+
+		Log.i(TAG, "Resuming track logging for track #" + trackId + ", started "
+				+ new Date(checkpoint.getLong(CHECKPOINT_TIME, 0)));
+		Instrumentation.RECOVERY_RESTARTS.increment();
+		resumedTime = Instrumentation.now();
+		startTracking(trackId);
+	}
+
+	/**
+	 * Called on the first trackpoint logged after the recording was resumed,
+	 * to measure the recovery
+	 */
+	private void onResumedTrackpoint() {
+		Instrumentation.RECOVERY_FIRST_FIX.record(resumedTime);
+		resumedTime = 0;
+
+		if (lastLoggedTimestamp != -1) {
+			long gap = Math.max(0, System.currentTimeMillis() - lastLoggedTimestamp);
+			long lost = Math.max(0, gap / Math.max(gpsLoggingInterval, MIN_FIX_INTERVAL) - 1);
+			Instrumentation.RECOVERY_GAP.recordMicros(gap * 1000);
+			Instrumentation.RECOVERY_POINTS_LOST.add(lost);
+			Log.i(TAG, "Track logging resumed after " + gap + "ms, about " + lost + " trackpoints missed");
 		}
 	}
 
 	/**
-	 * Counts number of satellites used in last fix.
-	 * @return The number of satellites
+	 * Satellite status of a replayed trace, see {@link TraceReplay}
+	 * @param inView Satellites in view
+	 * @param used Satellites used in fix
 	 */
-	private int countSatellites() {
-		int count = 0;
-		GpsStatus status = lmgr.getGpsStatus(null);
-		for(GpsSatellite sat:status.getSatellites()) {
+	void onSatellitesReplayed(int inView, int used) {
+		satellitesInView = inView;
+		satellitesUsed = used;
+		publishSatellites();
+	}
+
+	/**
+	 * Publishes the satellite status, at the logging interval too
+	 */
+	private void publishSatellites() {
+		if ((lastSatelliteStatusTimestamp + gpsLoggingInterval) < System.currentTimeMillis()) {
+			lastSatelliteStatusTimestamp = System.currentTimeMillis();
+			gpsEvents.publishSatellites(satellitesInView, satellitesUsed);
+		}
+	}
+
+	/**
+	 * Counts satellites in view and used in fix, from the current GPS status.
+	 * The {@link GpsStatus} instance is reused.
+	 */
+	private void countSatellites() {
+		gpsStatus = lmgr.getGpsStatus(gpsStatus);
+		int inView = 0;
+		int used = 0;
+		for (GpsSatellite sat : gpsStatus.getSatellites()) {
+			inView++;
 			if (sat.usedInFix()) {
-				count++;
+				used++;
 			}
 		}
-		
-		return count;
+		satellitesInView = inView;
+		satellitesUsed = used;
 	}
 	
 	/**
@@ -306,16 +685,19 @@ public class GPSLogger extends Service implements LocationListener {
 	@Override
 	public void onProviderDisabled(String provider) {
 		isGpsEnabled = false;
+		gpsEvents.publish(GpsEventBuffer.EVENT_PROVIDER_DISABLED);
 	}
 
 	@Override
 	public void onProviderEnabled(String provider) {
 		isGpsEnabled = true;
+		gpsEvents.publish(GpsEventBuffer.EVENT_PROVIDER_ENABLED);
 	}
 
 	@Override
 	public void onStatusChanged(String provider, int status, Bundle extras) {
-		// Not interested in provider status			
+		// Not interested in provider status ourselves, but UI is
+		gpsEvents.publishProviderStatus(status);
 	}
 
 	/**
@@ -326,6 +708,13 @@ public class GPSLogger extends Service implements LocationListener {
 		return isGpsEnabled;
 	}
 	
+	/**
+	 * @return The writer performing database writes, for its metrics
+	 */
+	public DataWriter getDataWriter() {
+		return dataWriter;
+	}
+
 	/**
 	 * Setter for isTracking
 	 * @return true if we're currently tracking, otherwise false.
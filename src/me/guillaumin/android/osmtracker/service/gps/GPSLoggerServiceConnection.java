@@ -1,12 +1,9 @@
 package me.guillaumin.android.osmtracker.service.gps;
 
-import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
 import me.guillaumin.android.osmtracker.activity.TrackLogger;
-import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
 import me.guillaumin.android.osmtracker.layout.GpsStatusRecord;
 import android.content.ComponentName;
-import android.content.Intent;
 import android.content.ServiceConnection;
 import android.os.IBinder;
 /**
@@ -35,7 +32,7 @@ public class GPSLoggerServiceConnection implements ServiceConnection {
 	@Override
 	public void onServiceConnected(ComponentName name, IBinder service) {
 		
-		activity.setGpsLogger( ((GPSLogger.GPSLoggerBinder) service).getService());
+		activity.setGpsLogger((GPSLogger.GPSLoggerBinder) service);
 
 		// Update record status regarding of current tracking state
 		GpsStatusRecord gpsStatusRecord = (GpsStatusRecord) activity.findViewById(R.id.gpsStatus);
@@ -46,9 +43,12 @@ public class GPSLoggerServiceConnection implements ServiceConnection {
 		// If not already tracking, start tracking
 		if (!activity.getGpsLogger().isTracking()) {
 			activity.setEnabledActionButtons(false);
-			Intent intent = new Intent(OSMTracker.INTENT_START_TRACKING);
-			intent.putExtra(Schema.COL_TRACK_ID, activity.getCurrentTrackId());
-			activity.sendBroadcast(intent);
+			activity.getGpsLogger().startTracking(activity.getCurrentTrackId());
+		}
+
+		// The GPS may already be known as active, from the last fix published
+		if (gpsStatusRecord != null && gpsStatusRecord.isGpsActive()) {
+			activity.onGpsEnabled();
 		}
 	}
 
@@ -0,0 +1,322 @@
+package me.guillaumin.android.osmtracker.service.gps;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.location.GpsStatus;
+import android.location.Location;
+import android.location.LocationManager;
+import android.location.LocationProvider;
+
+/**
+ * In-process ring buffer of GPS events (fixes, satellite status, provider state)
+ * published by {@link GPSLogger}, so that UI components don't register their
+ * own listeners to the {@link LocationManager}.
+ * <br />
+ * There is a single producer, the GPS logger service. Consumers read events
+ * through their own {@link Reader}, without locking: a reader checks after
+ * copying an event that its slot wasn't overwritten meanwhile. A reader falling
+ * behind by more than the buffer capacity skips the oldest events.
+ * <br />
+ * {@link Listener}s are notified on the producer thread (the main thread)
+ * each time an event is published.
+ *
+ */
+public class GpsEventBuffer {
+
+	/** A fix, accepted by the logging interval */
+	public static final int EVENT_LOCATION = 0;
+	/** Satellite status, see {@link Reader#getSatellitesInView()} and {@link Reader#getSatellitesUsed()} */
+	public static final int EVENT_SATELLITES = 1;
+	/** See {@link GpsStatus#GPS_EVENT_STARTED} */
+	public static final int EVENT_GPS_STARTED = 2;
+	/** See {@link GpsStatus#GPS_EVENT_STOPPED} */
+	public static final int EVENT_GPS_STOPPED = 3;
+	/** See {@link GpsStatus#GPS_EVENT_FIRST_FIX} */
+	public static final int EVENT_FIRST_FIX = 4;
+	/** GPS provider enabled */
+	public static final int EVENT_PROVIDER_ENABLED = 5;
+	/** GPS provider disabled */
+	public static final int EVENT_PROVIDER_DISABLED = 6;
+	/** GPS provider status changed, see {@link Reader#getProviderStatus()} */
+	public static final int EVENT_PROVIDER_STATUS = 7;
+
+	/**
+	 * Number of events kept
+	 */
+	private static final int CAPACITY = 32;
+
+	/**
+	 * The process-wide buffer
+	 */
+	private static final GpsEventBuffer instance = new GpsEventBuffer(CAPACITY);
+
+	/**
+	 * Notified when events are published
+	 */
+	public interface Listener {
+		/**
+		 * Called on the producer thread after one event is published.
+		 * Read it with a {@link Reader}.
+		 */
+		public void onGpsEventPublished();
+	}
+
+	private final int capacity;
+
+	private final int[] types;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	/** NaN if no altitude */
+	private final double[] altitudes;
+	/** NaN if no accuracy */
+	private final float[] accuracies;
+	private final long[] times;
+	/** Satellites in view, or provider status */
+	private final int[] values;
+	/** Satellites used in fix */
+	private final int[] values2;
+
+	/**
+	 * Number of events ever published. A slot is written before this is increased.
+	 */
+	private volatile long published = 0;
+
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	/**
+	 * @return The process-wide buffer
+	 */
+	public static GpsEventBuffer getInstance() {
+		return instance;
+	}
+
+	private GpsEventBuffer(int capacity) {
+		this.capacity = capacity;
+		types = new int[capacity];
+		latitudes = new double[capacity];
+		longitudes = new double[capacity];
+		altitudes = new double[capacity];
+		accuracies = new float[capacity];
+		times = new long[capacity];
+		values = new int[capacity];
+		values2 = new int[capacity];
+	}
+
+	/**
+	 * @param l Listener to notify of new events
+	 */
+	public void subscribe(Listener l) {
+		listeners.add(l);
+	}
+
+	/**
+	 * @param l Listener to stop notifying
+	 */
+	public void unsubscribe(Listener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * @return A new reader, positioned after the last published event
+	 */
+	public Reader newReader() {
+		return new Reader(published);
+	}
+
+	/**
+	 * Publishes a fix. Producer only.
+	 */
+	void publishLocation(Location location) {
+		int i = slot(published);
+		types[i] = EVENT_LOCATION;
+		latitudes[i] = location.getLatitude();
+		longitudes[i] = location.getLongitude();
+		altitudes[i] = location.hasAltitude() ? location.getAltitude() : Double.NaN;
+		accuracies[i] = location.hasAccuracy() ? location.getAccuracy() : Float.NaN;
+		times[i] = location.getTime();
+		commit();
+	}
+
+	/**
+	 * Publishes a satellite status. Producer only.
+	 * @param inView Number of satellites in view
+	 * @param used Number of satellites used in fix
+	 */
+	void publishSatellites(int inView, int used) {
+		int i = slot(published);
+		types[i] = EVENT_SATELLITES;
+		values[i] = inView;
+		values2[i] = used;
+		commit();
+	}
+
+	/**
+	 * Publishes a provider status change. Producer only.
+	 * @param status See {@link LocationProvider}
+	 */
+	void publishProviderStatus(int status) {
+		int i = slot(published);
+		types[i] = EVENT_PROVIDER_STATUS;
+		values[i] = status;
+		commit();
+	}
+
+	/**
+	 * Publishes an event without data. Producer only.
+	 * @param type Type of event
+	 */
+	void publish(int type) {
+		types[slot(published)] = type;
+		commit();
+	}
+
+	private void commit() {
+		published = published + 1;
+		for (Listener l : listeners) {
+			l.onGpsEventPublished();
+		}
+	}
+
+	private int slot(long index) {
+		return (int) (index % capacity);
+	}
+
+	/**
+	 * Reads events, in order. A reader must be used by a single thread.
+	 */
+	public class Reader {
+
+		/**
+		 * Index of the next event to read
+		 */
+		private long position;
+
+		private int type;
+		private double latitude;
+		private double longitude;
+		private double altitude;
+		private float accuracy;
+		private long time;
+		private int value;
+		private int value2;
+
+		private Reader(long position) {
+			this.position = position;
+		}
+
+		/**
+		 * Moves to the next event.
+		 * @return true if there was one, false if all published events were read
+		 */
+		public boolean next() {
+			while (true) {
+				long last = published;
+				if (position >= last) {
+					return false;
+				}
+				if (last - position > capacity - 1) {
+					// Fell behind, skip overwritten events, keeping one slot of margin for the producer
+					position = last - capacity + 1;
+				}
+
+				read(slot(position));
+				if (published < position + capacity) {
+					// Slot wasn't overwritten while reading
+					position++;
+					return true;
+				}
+			}
+		}
+
+		/**
+		 * Reads the last published event of a type still in the buffer,
+		 * without moving the reader.
+		 * @param eventType Type of event to look for
+		 * @return true if one was found
+		 */
+		public boolean readLast(int eventType) {
+			while (true) {
+				long last = published;
+				long first = Math.max(0, last - capacity + 1);
+				long index = last - 1;
+				while (index >= first && types[slot(index)] != eventType) {
+					index--;
+				}
+				if (index < first) {
+					return false;
+				}
+
+				read(slot(index));
+				if (published < index + capacity) {
+					return true;
+				}
+			}
+		}
+
+		private void read(int i) {
+			type = types[i];
+			latitude = latitudes[i];
+			longitude = longitudes[i];
+			altitude = altitudes[i];
+			accuracy = accuracies[i];
+			time = times[i];
+			value = values[i];
+			value2 = values2[i];
+		}
+
+		/**
+		 * @return Type of the current event
+		 */
+		public int getType() {
+			return type;
+		}
+
+		public double getLatitude() {
+			return latitude;
+		}
+
+		public double getLongitude() {
+			return longitude;
+		}
+
+		public boolean hasAltitude() {
+			return !Double.isNaN(altitude);
+		}
+
+		public double getAltitude() {
+			return altitude;
+		}
+
+		public boolean hasAccuracy() {
+			return !Float.isNaN(accuracy);
+		}
+
+		public float getAccuracy() {
+			return accuracy;
+		}
+
+		/**
+		 * @return Time of the fix, see {@link Location#getTime()}
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public int getSatellitesInView() {
+			return value;
+		}
+
+		public int getSatellitesUsed() {
+			return value2;
+		}
+
+		/**
+		 * @return Provider status, see {@link LocationProvider}
+		 */
+		public int getProviderStatus() {
+			return value;
+		}
+	}
+
+}
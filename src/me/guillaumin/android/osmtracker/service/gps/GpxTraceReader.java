@@ -0,0 +1,152 @@
+package me.guillaumin.android.osmtracker.service.gps;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Xml;
+
+/**
+ * Reads the trackpoints of a GPX file, as written by the GPX export:
+ * &lt;trkpt lat lon&gt; with optional &lt;ele&gt;, &lt;time&gt; (UTC) and &lt;sat&gt;.
+ * Trackpoints without time are considered one second after the previous one.
+ *
+ */
+public class GpxTraceReader extends TraceReader {
+
+	private static final String TAG_TRACKPOINT = "trkpt";
+	private static final String TAG_ELEVATION = "ele";
+	private static final String TAG_TIME = "time";
+	private static final String TAG_SATELLITES = "sat";
+	private static final String ATTR_LATITUDE = "lat";
+	private static final String ATTR_LONGITUDE = "lon";
+
+	private final Reader input;
+
+	private final XmlPullParser parser;
+
+	/**
+	 * Used to parse times, reused
+	 */
+	private final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+	/**
+	 * Time of the last trackpoint read
+	 */
+	private long lastTime = 0;
+
+	/**
+	 * @param trace GPX file
+	 * @throws IOException
+	 */
+	public GpxTraceReader(File trace) throws IOException {
+		input = new BufferedReader(new FileReader(trace));
+		parser = Xml.newPullParser();
+		try {
+			parser.setInput(input);
+		} catch (XmlPullParserException xppe) {
+			input.close();
+			throw toIOException(xppe);
+		}
+	}
+
+	@Override
+	public Location next() throws IOException {
+		try {
+			Location location = null;
+			String text = null;
+			int eventType = parser.next();
+			while (eventType != XmlPullParser.END_DOCUMENT) {
+				switch (eventType) {
+				case XmlPullParser.START_TAG:
+					if (TAG_TRACKPOINT.equals(parser.getName())) {
+						location = new Location(LocationManager.GPS_PROVIDER);
+						location.setLatitude(Double.parseDouble(parser.getAttributeValue(null, ATTR_LATITUDE)));
+						location.setLongitude(Double.parseDouble(parser.getAttributeValue(null, ATTR_LONGITUDE)));
+						location.setTime(lastTime + 1000);
+						satellitesUsed = -1;
+					}
+					text = null;
+					break;
+				case XmlPullParser.TEXT:
+					text = parser.getText().trim();
+					break;
+				case XmlPullParser.END_TAG:
+					if (location != null) {
+						String name = parser.getName();
+						if (TAG_TRACKPOINT.equals(name)) {
+							lastTime = location.getTime();
+							return location;
+						} else if (text != null && text.length() > 0) {
+							if (TAG_ELEVATION.equals(name)) {
+								location.setAltitude(Double.parseDouble(text));
+							} else if (TAG_TIME.equals(name)) {
+								location.setTime(parseTime(text));
+							} else if (TAG_SATELLITES.equals(name)) {
+								satellitesUsed = Integer.parseInt(text);
+							}
+						}
+					}
+					text = null;
+					break;
+				}
+				eventType = parser.next();
+			}
+			return null;
+		} catch (XmlPullParserException xppe) {
+			throw toIOException(xppe);
+		} catch (NumberFormatException nfe) {
+			throw toIOException(nfe);
+		} catch (StringIndexOutOfBoundsException sioobe) {
+			// Truncated time
+			throw toIOException(sioobe);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+	/**
+	 * Parses a GPX time: yyyy-MM-ddTHH:mm:ss, with optional fraction of seconds.
+	 * The time zone is ignored, times are expected in UTC.
+	 * @param text Time to parse
+	 * @return Time, in ms since the epoch
+	 */
+	private long parseTime(String text) {
+		calendar.clear();
+		calendar.set(Integer.parseInt(text.substring(0, 4)),
+				Integer.parseInt(text.substring(5, 7)) - 1,
+				Integer.parseInt(text.substring(8, 10)),
+				Integer.parseInt(text.substring(11, 13)),
+				Integer.parseInt(text.substring(14, 16)),
+				Integer.parseInt(text.substring(17, 19)));
+		long time = calendar.getTimeInMillis();
+		if (text.length() > 20 && text.charAt(19) == '.') {
+			// Fraction of seconds, keep ms
+			int factor = 100;
+			for (int i = 20; i < text.length() && Character.isDigit(text.charAt(i)) && factor > 0; i++) {
+				time += (text.charAt(i) - '0') * factor;
+				factor /= 10;
+			}
+		}
+		return time;
+	}
+
+	private IOException toIOException(Exception e) {
+		IOException ioe = new IOException("Invalid GPX at line " + parser.getLineNumber() + ": " + e.getMessage());
+		ioe.initCause(e);
+		return ioe;
+	}
+
+}
@@ -0,0 +1,184 @@
+package me.guillaumin.android.osmtracker.service.gps;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import android.location.Location;
+import android.location.LocationManager;
+import android.util.Log;
+
+/**
+ * Reads an NMEA 0183 log. A fix is read for each valid RMC sentence,
+ * completed with the altitude and satellites used of the GGA sentence
+ * of the same time, and the satellites in view of the last GSV sentence.
+ * Sentences with a wrong checksum are ignored.
+ *
+ */
+public class NmeaTraceReader extends TraceReader {
+
+	private static final String TAG = NmeaTraceReader.class.getSimpleName();
+
+	/**
+	 * Knots to m/s
+	 */
+	private static final float KNOTS_TO_MPS = 0.514444f;
+
+	private final BufferedReader input;
+
+	/**
+	 * Used to compute times, reused
+	 */
+	private final Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+
+	/**
+	 * Time field of the last GGA sentence, to match it with the RMC one
+	 */
+	private String ggaTime = null;
+	private double ggaAltitude = Double.NaN;
+	private int ggaSatellitesUsed = -1;
+
+	/**
+	 * Satellites in view, from the last GSV sentence
+	 */
+	private int gsvSatellitesInView = -1;
+
+	/**
+	 * @param trace NMEA file
+	 * @throws IOException
+	 */
+	public NmeaTraceReader(File trace) throws IOException {
+		input = new BufferedReader(new FileReader(trace));
+	}
+
+	@Override
+	public Location next() throws IOException {
+		String line;
+		while ((line = input.readLine()) != null) {
+			line = line.trim();
+			if (line.length() < 7 || line.charAt(0) != '$' || !isChecksumValid(line)) {
+				continue;
+			}
+
+			int end = line.indexOf('*');
+			String[] fields = line.substring(1, (end > 0) ? end : line.length()).split(",");
+			try {
+				// Any talker: GP, GN, GL...
+				String type = fields[0].substring(2);
+				if ("GGA".equals(type)) {
+					ggaTime = field(fields, 1);
+					ggaSatellitesUsed = field(fields, 7).length() > 0 ? Integer.parseInt(field(fields, 7)) : -1;
+					ggaAltitude = field(fields, 9).length() > 0 ? Double.parseDouble(field(fields, 9)) : Double.NaN;
+				} else if ("GSV".equals(type)) {
+					if (field(fields, 3).length() > 0) {
+						gsvSatellitesInView = Integer.parseInt(field(fields, 3));
+					}
+				} else if ("RMC".equals(type) && "A".equals(field(fields, 2))) {
+					return toLocation(fields);
+				}
+			} catch (NumberFormatException nfe) {
+				Log.w(TAG, "Ignoring invalid sentence: " + line);
+			} catch (StringIndexOutOfBoundsException sioobe) {
+				Log.w(TAG, "Ignoring invalid sentence: " + line);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+	/**
+	 * Builds a fix from a valid RMC sentence
+	 * @param fields Fields of the sentence
+	 * @return The fix
+	 */
+	private Location toLocation(String[] fields) {
+		Location location = new Location(LocationManager.GPS_PROVIDER);
+		location.setLatitude(parseCoordinate(field(fields, 3), field(fields, 4)));
+		location.setLongitude(parseCoordinate(field(fields, 5), field(fields, 6)));
+		if (field(fields, 7).length() > 0) {
+			location.setSpeed(Float.parseFloat(field(fields, 7)) * KNOTS_TO_MPS);
+		}
+		if (field(fields, 8).length() > 0) {
+			location.setBearing(Float.parseFloat(field(fields, 8)));
+		}
+
+		// ddmmyy and hhmmss.sss
+		String date = field(fields, 9);
+		String time = field(fields, 1);
+		calendar.clear();
+		calendar.set(2000 + Integer.parseInt(date.substring(4, 6)),
+				Integer.parseInt(date.substring(2, 4)) - 1,
+				Integer.parseInt(date.substring(0, 2)),
+				Integer.parseInt(time.substring(0, 2)),
+				Integer.parseInt(time.substring(2, 4)),
+				Integer.parseInt(time.substring(4, 6)));
+		long millis = calendar.getTimeInMillis();
+		if (time.length() > 7) {
+			millis += Math.round(Double.parseDouble(time.substring(6)) * 1000);
+		}
+		location.setTime(millis);
+
+		satellitesInView = gsvSatellitesInView;
+		if (time.equals(ggaTime)) {
+			satellitesUsed = ggaSatellitesUsed;
+			if (!Double.isNaN(ggaAltitude)) {
+				location.setAltitude(ggaAltitude);
+			}
+		} else {
+			satellitesUsed = -1;
+		}
+		return location;
+	}
+
+	/**
+	 * Parses a (d)ddmm.mmmm coordinate
+	 * @param value Coordinate
+	 * @param hemisphere N, S, E or W
+	 * @return Coordinate in degrees
+	 */
+	private static double parseCoordinate(String value, String hemisphere) {
+		int dot = value.indexOf('.');
+		int degreesLength = ((dot >= 0) ? dot : value.length()) - 2;
+		double degrees = Integer.parseInt(value.substring(0, degreesLength))
+				+ Double.parseDouble(value.substring(degreesLength)) / 60;
+		return ("S".equals(hemisphere) || "W".equals(hemisphere)) ? -degrees : degrees;
+	}
+
+	/**
+	 * @return The field, or an empty string if it's missing
+	 */
+	private static String field(String[] fields, int index) {
+		return (index < fields.length) ? fields[index] : "";
+	}
+
+	/**
+	 * @param line Sentence
+	 * @return true if the sentence has no checksum, or a valid one
+	 */
+	private static boolean isChecksumValid(String line) {
+		int end = line.indexOf('*');
+		if (end < 0) {
+			return true;
+		}
+		if (end + 3 > line.length()) {
+			return false;
+		}
+		int checksum = 0;
+		for (int i = 1; i < end; i++) {
+			checksum ^= line.charAt(i);
+		}
+		try {
+			return checksum == Integer.parseInt(line.substring(end + 1, end + 3), 16);
+		} catch (NumberFormatException nfe) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+package me.guillaumin.android.osmtracker.service.gps;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.location.Location;
+
+/**
+ * Reads the fixes of a recorded GPS trace, in order, see {@link TraceReplay}.
+ *
+ */
+public abstract class TraceReader {
+
+	/**
+	 * Satellites in view as of the last fix read, or -1 if unknown
+	 */
+	protected int satellitesInView = -1;
+
+	/**
+	 * Satellites used in fix as of the last fix read, or -1 if unknown
+	 */
+	protected int satellitesUsed = -1;
+
+	/**
+	 * Opens a trace, as NMEA if its extension is .nmea, .log or .txt, as GPX otherwise
+	 * @param trace File to read
+	 * @return A reader for the file
+	 * @throws IOException
+	 */
+	public static TraceReader open(File trace) throws IOException {
+		String name = trace.getName().toLowerCase();
+		if (name.endsWith(".nmea") || name.endsWith(".log") || name.endsWith(".txt")) {
+			return new NmeaTraceReader(trace);
+		} else {
+			return new GpxTraceReader(trace);
+		}
+	}
+
+	/**
+	 * Reads the next fix
+	 * @return The fix, or null at the end of the trace
+	 * @throws IOException
+	 */
+	public abstract Location next() throws IOException;
+
+	/**
+	 * Closes the trace
+	 * @throws IOException
+	 */
+	public abstract void close() throws IOException;
+
+	/**
+	 * @return Satellites in view as of the last fix read, or -1 if unknown
+	 */
+	public int getSatellitesInView() {
+		return satellitesInView;
+	}
+
+	/**
+	 * @return Satellites used in fix as of the last fix read, or -1 if unknown
+	 */
+	public int getSatellitesUsed() {
+		return satellitesUsed;
+	}
+
+}
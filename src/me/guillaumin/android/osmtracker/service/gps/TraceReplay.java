@@ -0,0 +1,331 @@
+package me.guillaumin.android.osmtracker.service.gps;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+import me.guillaumin.android.osmtracker.OSMTracker;
+import me.guillaumin.android.osmtracker.db.DataHelper;
+import me.guillaumin.android.osmtracker.db.DatabaseHelper;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.location.Location;
+import android.os.Debug;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Process;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+/**
+ * Replays a recorded GPX or NMEA trace into the {@link GPSLogger}, in place
+ * of the GPS, at real time or faster. Fixes and satellite status go through
+ * the same path as real ones: logging interval, database writes, UI events.
+ * <br />
+ * The trace is read and paced on this thread, fixes are injected on the main
+ * thread. At the end, a report of the resources used per hour of recorded
+ * trace (CPU time, allocations, database growth) is logged and written as JSON
+ * to the storage directory.
+ * <br />
+ * The logging interval and the timestamps of the trackpoints follow the clock
+ * of the trace, so that the same trackpoints are recorded whatever the speed.
+ * <br />
+ * With a probe interval, every probeInterval-th fix of the trace isn't replayed:
+ * instead, a waypoint position is requested from the logger when that fix is due,
+ * as if a button was pressed, and compared to the fix. The report then gives the
+ * error of waypoint positions against this ground truth, and the error of simply
+ * using the newest fix. Probes need a replay speed, not as fast as possible.
+ *
+ */
+public class TraceReplay extends Thread {
+
+	private static final String TAG = TraceReplay.class.getSimpleName();
+
+	/**
+	 * Maximum number of fixes posted to the main thread and not injected yet,
+	 * when replaying as fast as possible
+	 */
+	private static final int MAX_PENDING_FIXES = 50;
+
+	/**
+	 * Delay before checking again that pending writes are done, in ms
+	 */
+	private static final long WRITER_DRAIN_DELAY = 200;
+
+	private final GPSLogger gpsLogger;
+
+	private final File trace;
+
+	/**
+	 * Replay speed, 1 for real time, 0 for as fast as possible
+	 */
+	private final float speed;
+
+	/**
+	 * Every probeInterval-th fix is a probe instead of being replayed, 0 for none
+	 */
+	private final int probeInterval;
+
+	/**
+	 * Handler of the main thread
+	 */
+	private final Handler handler = new Handler();
+
+	private volatile boolean cancelled = false;
+
+	/** Fixes read from the trace */
+	private volatile long readCount = 0;
+	/** Fixes injected into the logger */
+	private volatile long injectedCount = 0;
+	/** Time of the first and last fixes read */
+	private long firstFixTime = -1;
+	private long lastFixTime = -1;
+
+	/** Newest fix injected, on the main thread */
+	private Location lastInjected = null;
+	/** Probes measured, sum and max of the errors in m, on the main thread */
+	private int probeCount = 0;
+	private double probeErrorSum = 0;
+	private double probeErrorMax = 0;
+	/** Sum and max of the errors of the newest fix at the probes, in m */
+	private double lastFixErrorSum = 0;
+	private double lastFixErrorMax = 0;
+
+	/** Resources used, at start */
+	private long startRealtime;
+	private long startCpuTime;
+	private int startAllocSize;
+	private long startDbSize;
+
+	/**
+	 * Must be created on the main thread
+	 * @param gpsLogger Logger to inject fixes into
+	 * @param trace GPX or NMEA file, see {@link TraceReader#open(File)}
+	 * @param speed Replay speed, 1 for real time, 0 for as fast as possible
+	 * @param probeInterval Every probeInterval-th fix is used to measure waypoint
+	 * positions instead of being replayed, 0 for none. Ignored when replaying as fast as possible.
+	 */
+	public TraceReplay(GPSLogger gpsLogger, File trace, float speed, int probeInterval) {
+		super(TAG);
+		this.gpsLogger = gpsLogger;
+		this.trace = trace;
+		this.speed = speed;
+		this.probeInterval = (speed > 0) ? probeInterval : 0;
+	}
+
+	/**
+	 * Stops the replay. The report is still produced, for the part replayed.
+	 */
+	public void cancel() {
+		cancelled = true;
+		interrupt();
+	}
+
+	@Override
+	public void run() {
+		Log.i(TAG, "Replaying " + trace + " at speed " + speed);
+		Debug.startAllocCounting();
+		startRealtime = SystemClock.elapsedRealtime();
+		startCpuTime = Process.getElapsedCpuTime();
+		startAllocSize = Debug.getGlobalAllocSize();
+		startDbSize = getDatabaseFile().length();
+
+		TraceReader reader = null;
+		try {
+			reader = TraceReader.open(trace);
+			Location location;
+			while (!cancelled && (location = reader.next()) != null) {
+				if (firstFixTime < 0) {
+					firstFixTime = location.getTime();
+				}
+				lastFixTime = location.getTime();
+
+				if (speed > 0) {
+					long delay = startRealtime + (long) ((location.getTime() - firstFixTime) / speed)
+							- SystemClock.elapsedRealtime();
+					if (delay > 0) {
+						Thread.sleep(delay);
+					}
+				} else {
+					// Don't flood the main thread
+					while (readCount - injectedCount > MAX_PENDING_FIXES) {
+						Thread.sleep(10);
+					}
+				}
+
+				readCount++;
+				if (probeInterval > 0 && readCount % probeInterval == 0) {
+					handler.post(new Probe(location, SystemClock.elapsedRealtime()));
+				} else {
+					handler.post(new Injection(location, reader.getSatellitesInView(), reader.getSatellitesUsed()));
+				}
+			}
+		} catch (InterruptedException ie) {
+			Log.v(TAG, "Replay interrupted");
+		} catch (IOException ioe) {
+			Log.e(TAG, "Unable to replay " + trace, ioe);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException ioe) {
+					Log.w(TAG, "Unable to close " + trace, ioe);
+				}
+			}
+			handler.post(finish);
+		}
+	}
+
+	/**
+	 * Injects a fix into the logger
+	 */
+	private class Injection implements Runnable {
+		private final Location location;
+		private final int satellitesInView;
+		private final int satellitesUsed;
+
+		Injection(Location location, int satellitesInView, int satellitesUsed) {
+			this.location = location;
+			this.satellitesInView = satellitesInView;
+			this.satellitesUsed = satellitesUsed;
+		}
+
+		@Override
+		public void run() {
+			if (!cancelled) {
+				if (satellitesInView >= 0 || satellitesUsed >= 0) {
+					gpsLogger.onSatellitesReplayed(Math.max(satellitesInView, satellitesUsed),
+							Math.max(satellitesUsed, 0));
+				}
+				gpsLogger.onLocationChanged(location);
+				lastInjected = location;
+			}
+			injectedCount++;
+		}
+	}
+
+	/**
+	 * Requests a waypoint position at the time of a fix that isn't replayed,
+	 * and measures its distance to the fix
+	 */
+	private class Probe implements Runnable {
+		private final Location truth;
+		private final long requestTime;
+
+		/**
+		 * @param truth Fix not replayed
+		 * @param requestTime {@link SystemClock#elapsedRealtime()} when the fix was due
+		 */
+		Probe(Location truth, long requestTime) {
+			this.truth = truth;
+			this.requestTime = requestTime;
+		}
+
+		@Override
+		public void run() {
+			if (cancelled || lastInjected == null) {
+				return;
+			}
+			Location computed = gpsLogger.getWayPointLocation(requestTime);
+			if (computed == null) {
+				return;
+			}
+			double error = computed.distanceTo(truth);
+			double lastFixError = lastInjected.distanceTo(truth);
+			probeCount++;
+			probeErrorSum += error;
+			probeErrorMax = Math.max(probeErrorMax, error);
+			lastFixErrorSum += lastFixError;
+			lastFixErrorMax = Math.max(lastFixErrorMax, lastFixError);
+		}
+	}
+
+	/**
+	 * Reports once pending writes are done, then hands the GPS back to the logger
+	 */
+	private final Runnable finish = new Runnable() {
+		@Override
+		public void run() {
+			DataWriter dataWriter = gpsLogger.getDataWriter();
+			if (!cancelled && dataWriter.getQueueDepth() > 0) {
+				handler.postDelayed(this, WRITER_DRAIN_DELAY);
+				return;
+			}
+
+			try {
+				JSONObject report = getReport();
+				Log.i(TAG, "Replay report: " + report.toString());
+				writeReport(report);
+			} catch (Exception e) {
+				Log.e(TAG, "Unable to write replay report", e);
+			}
+			Debug.stopAllocCounting();
+			gpsLogger.onReplayFinished(TraceReplay.this);
+		}
+	};
+
+	/**
+	 * @return Resources used since the start, in total and per hour of trace
+	 * @throws JSONException
+	 */
+	private JSONObject getReport() throws JSONException {
+		long traceDuration = (firstFixTime >= 0) ? lastFixTime - firstFixTime : 0;
+		long cpuTime = Process.getElapsedCpuTime() - startCpuTime;
+		long allocSize = Debug.getGlobalAllocSize() - startAllocSize;
+		long dbGrowth = getDatabaseFile().length() - startDbSize;
+
+		JSONObject report = new JSONObject();
+		report.put("trace", trace.getAbsolutePath());
+		report.put("speed", speed);
+		report.put("cancelled", cancelled);
+		report.put("fixes", injectedCount);
+		report.put("trace_duration_ms", traceDuration);
+		report.put("replay_duration_ms", SystemClock.elapsedRealtime() - startRealtime);
+		report.put("cpu_ms", cpuTime);
+		report.put("alloc_bytes", allocSize);
+		report.put("db_growth_bytes", dbGrowth);
+		if (traceDuration > 0) {
+			report.put("cpu_ms_per_hour", cpuTime * 3600000L / traceDuration);
+			report.put("alloc_bytes_per_hour", allocSize * 3600000L / traceDuration);
+			report.put("db_growth_bytes_per_hour", dbGrowth * 3600000L / traceDuration);
+		}
+		if (probeCount > 0) {
+			report.put("probes", probeCount);
+			report.put("probe_error_avg_m", probeErrorSum / probeCount);
+			report.put("probe_error_max_m", probeErrorMax);
+			report.put("probe_last_fix_error_avg_m", lastFixErrorSum / probeCount);
+			report.put("probe_last_fix_error_max_m", lastFixErrorMax);
+		}
+		report.put("instrumentation", Instrumentation.toJSON());
+		return report;
+	}
+
+	/**
+	 * Writes the report in the storage directory
+	 */
+	private void writeReport(JSONObject report) throws IOException, JSONException {
+		File directory = new File(Environment.getExternalStorageDirectory(),
+				PreferenceManager.getDefaultSharedPreferences(gpsLogger).getString(
+						OSMTracker.Preferences.KEY_STORAGE_DIR, OSMTracker.Preferences.VAL_STORAGE_DIR));
+		directory.mkdirs();
+		File target = new File(directory, "replay_" + DataHelper.FILENAME_FORMATTER.format(new Date()) + ".json");
+		Writer writer = new FileWriter(target);
+		try {
+			writer.write(report.toString(2));
+		} finally {
+			writer.close();
+		}
+		Log.i(TAG, "Replay report written to " + target);
+	}
+
+	private File getDatabaseFile() {
+		return gpsLogger.getDatabasePath(DatabaseHelper.DB_NAME);
+	}
+
+}
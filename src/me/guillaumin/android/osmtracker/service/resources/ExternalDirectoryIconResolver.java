@@ -3,13 +3,13 @@ package me.guillaumin.android.osmtracker.service.resources;
 import java.io.File;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 
 /**
  * Implementation of {@link IconResolver} which reads icon
- * from an external directory.
+ * from an external directory. Decoded icons are kept in
+ * the {@link IconCache}.
  * 
  * @author Nicolas Guillaumin
  *
@@ -20,13 +20,19 @@ public class ExternalDirectoryIconResolver implements IconResolver {
 	 * Base directory to read icon files.
 	 */
 	private File directory;
+	
+	/**
+	 * Maximum size of icons, in pixels. Bigger icons are downsampled.
+	 */
+	private int maxIconSize;
 		
-	public ExternalDirectoryIconResolver(File baseDir) {
+	public ExternalDirectoryIconResolver(File baseDir, int maxIconSize) {
 		if (!baseDir.isDirectory()) {
 			throw new IllegalArgumentException("baseDir must be a directory. " + baseDir + " is not.");
 		}
 		
 		directory = baseDir;
+		this.maxIconSize = maxIconSize;
 	}
 	
 	@Override
@@ -36,7 +42,11 @@ public class ExternalDirectoryIconResolver implements IconResolver {
 		} else {
 			File iconFile = new File(directory, key);
 			if (iconFile.exists() && iconFile.canRead()) {
-				Bitmap iconBitmap = BitmapFactory.decodeFile(iconFile.getAbsolutePath());
+				Bitmap iconBitmap = IconCache.get(iconFile, maxIconSize);
+				if (iconBitmap == null) {
+					return null;
+				}
+				// Bitmap is shared, but each button needs its own drawable
 				BitmapDrawable iconDrawable = new BitmapDrawable(iconBitmap);
 				return iconDrawable;
 			} else {
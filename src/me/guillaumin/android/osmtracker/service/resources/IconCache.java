@@ -0,0 +1,125 @@
+package me.guillaumin.android.osmtracker.service.resources;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Process-wide cache of decoded icon bitmaps, bounded in memory and
+ * evicting least recently used icons first.
+ * <br />
+ * Entries are keyed by file path and modification date, so that an icon
+ * modified on the SD card is decoded again. Bitmaps are downsampled at
+ * decoding time to the requested size, to avoid keeping huge images
+ * in memory for small buttons.
+ *
+ */
+public class IconCache {
+
+	private static final String TAG = IconCache.class.getSimpleName();
+
+	/**
+	 * Share of the heap that cached icons may use
+	 */
+	private static final int HEAP_FRACTION = 16;
+
+	/**
+	 * Decoded bitmaps, in access order (eldest first)
+	 */
+	private static final LinkedHashMap<String, Bitmap> bitmaps = new LinkedHashMap<String, Bitmap>(64, 0.75f, true);
+
+	/**
+	 * Size of all cached bitmaps, in bytes
+	 */
+	private static long usedBytes = 0;
+
+	/**
+	 * Maximum size of all cached bitmaps, in bytes
+	 */
+	private static final long maxBytes = Runtime.getRuntime().maxMemory() / HEAP_FRACTION;
+
+	private IconCache() {
+	}
+
+	/**
+	 * Gets the decoded bitmap for an icon file, decoding it if needed.
+	 * @param file Icon file
+	 * @param maxSize Maximum width / height wanted, in pixels. The bitmap will be
+	 * downsampled by a power of 2 while staying at least this size.
+	 * @return The bitmap, or null if the file cannot be decoded.
+	 */
+	public static synchronized Bitmap get(File file, int maxSize) {
+		String key = file.getAbsolutePath() + ":" + file.lastModified() + ":" + maxSize;
+		Bitmap bitmap = bitmaps.get(key);
+		if (bitmap == null) {
+			bitmap = decode(file, maxSize);
+			if (bitmap != null) {
+				put(key, bitmap);
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Empties the cache.
+	 */
+	public static synchronized void clear() {
+		bitmaps.clear();
+		usedBytes = 0;
+	}
+
+	private static void put(String key, Bitmap bitmap) {
+		bitmaps.put(key, bitmap);
+		usedBytes += sizeOf(bitmap);
+
+		Iterator<Map.Entry<String, Bitmap>> it = bitmaps.entrySet().iterator();
+		while (usedBytes > maxBytes && it.hasNext()) {
+			Map.Entry<String, Bitmap> eldest = it.next();
+			if (eldest.getValue() == bitmap) {
+				// Never evict the one we've just added
+				continue;
+			}
+			// Do not recycle() evicted bitmaps, they may still be displayed
+			it.remove();
+			usedBytes -= sizeOf(eldest.getValue());
+		}
+	}
+
+	/**
+	 * Decodes a file, downsampling it to fit maxSize.
+	 */
+	private static Bitmap decode(File file, int maxSize) {
+		String path = file.getAbsolutePath();
+
+		// Read dimensions only, to compute the sample size
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(path, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			Log.w(TAG, "Unable to decode icon " + path);
+			return null;
+		}
+
+		int sampleSize = 1;
+		if (maxSize > 0) {
+			while (options.outWidth / (sampleSize * 2) >= maxSize
+					&& options.outHeight / (sampleSize * 2) >= maxSize) {
+				sampleSize *= 2;
+			}
+		}
+
+		options = new BitmapFactory.Options();
+		options.inSampleSize = sampleSize;
+		return BitmapFactory.decodeFile(path, options);
+	}
+
+	private static long sizeOf(Bitmap bitmap) {
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+
+}
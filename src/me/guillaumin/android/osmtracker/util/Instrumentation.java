@@ -0,0 +1,331 @@
+package me.guillaumin.android.osmtracker.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import me.guillaumin.android.osmtracker.db.DataHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.os.SystemClock;
+
+/**
+ * Lightweight, in-memory instrumentation of the recording pipeline:
+ * {@link Counter}s and latency {@link Histogram}s with fixed memory.
+ * Values are kept for the life of the process.
+ * <br />
+ * Typical use:
+ * <pre>
+ * long start = Instrumentation.now();
+ * ...
+ * Instrumentation.TRACKPOINT_INSERT.record(start);
+ * </pre>
+ *
+ */
+public class Instrumentation {
+
+	/**
+	 * All counters, in declaration order
+	 */
+	private static final List<Counter> counters = new ArrayList<Counter>();
+
+	/**
+	 * All histograms, in declaration order
+	 */
+	private static final List<Histogram> histograms = new ArrayList<Histogram>();
+
+	/** Fixes received by the GPS logger */
+	public static final Counter FIX_ARRIVALS = new Counter("gps.fix.arrivals");
+	/** Fixes dropped because of the logging interval */
+	public static final Counter FIX_THROTTLED = new Counter("gps.fix.throttled");
+	/** From a fix arrival to its trackpoint row inserted */
+	public static final Histogram FIX_TO_ROW = new Histogram("gps.fix.to_row");
+	/** Append of a trackpoint to the fix journal */
+	public static final Histogram JOURNAL_APPEND = new Histogram("gps.journal.append");
+	/** Force of the fix journal to the storage, for a group of appended trackpoints */
+	public static final Histogram JOURNAL_SYNC = new Histogram("gps.journal.sync");
+	/** Drain of a batch of the fix journal into the database */
+	public static final Histogram JOURNAL_DRAIN = new Histogram("gps.journal.drain");
+	/** Trackpoints recovered from the fix journal after a restart */
+	public static final Counter JOURNAL_RECOVERED = new Counter("gps.journal.recovered");
+	/** Recordings resumed after the GPS logger was killed */
+	public static final Counter RECOVERY_RESTARTS = new Counter("gps.recovery.restarts");
+	/** From a recording resumed to its first trackpoint */
+	public static final Histogram RECOVERY_FIRST_FIX = new Histogram("gps.recovery.first_fix");
+	/** Time without trackpoints around a restart of the GPS logger */
+	public static final Histogram RECOVERY_GAP = new Histogram("gps.recovery.gap");
+	/** Estimated trackpoints missed while the GPS logger was down */
+	public static final Counter RECOVERY_POINTS_LOST = new Counter("gps.recovery.points_lost");
+	/** From a waypoint request (button press) to its waypoint row inserted */
+	public static final Histogram WAYPOINT_PRESS_TO_ROW = new Histogram("ui.waypoint.press_to_row");
+	/** Button layout parsed from XML, its binary cache written: a start without cache */
+	public static final Histogram LAYOUT_PARSE = new Histogram("ui.layout.parse");
+	/** Button layout loaded from its binary cache: a start with cache */
+	public static final Histogram LAYOUT_CACHE_READ = new Histogram("ui.layout.cache_read");
+	/** Inflation of the views of a button layout page */
+	public static final Histogram LAYOUT_PAGE_INFLATE = new Histogram("ui.layout.page_inflate");
+	/** Trackpoint insertion in the content provider */
+	public static final Histogram TRACKPOINT_INSERT = new Histogram("db.trackpoint.insert");
+	/** Calls to notifyChange() from the content provider */
+	public static final Histogram NOTIFY_CHANGE = new Histogram("db.notify_change");
+	/** Trackpoint observer callback of the track display */
+	public static final Histogram DISPLAYTRACK_OBSERVER = new Histogram("ui.displaytrack.observer");
+	/** Trackpoint observer callback of the map display */
+	public static final Histogram DISPLAYTRACKMAP_OBSERVER = new Histogram("ui.displaytrackmap.observer");
+	/** Points (track and way points) written to GPX files */
+	public static final Counter EXPORT_POINTS = new Counter("export.points");
+	/** Writing of a GPX file */
+	public static final Histogram EXPORT_FILE = new Histogram("export.file");
+
+	/**
+	 * @return Current time for latency measures, in ns
+	 */
+	public static long now() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Resets all values
+	 */
+	public static void reset() {
+		for (Counter c : counters) {
+			c.reset();
+		}
+		for (Histogram h : histograms) {
+			h.reset();
+		}
+	}
+
+	/**
+	 * @return All values, as JSON
+	 * @throws JSONException
+	 */
+	public static JSONObject toJSON() throws JSONException {
+		JSONObject json = new JSONObject();
+		json.put("timestamp", System.currentTimeMillis());
+		json.put("uptime", SystemClock.elapsedRealtime());
+
+		JSONObject jsonCounters = new JSONObject();
+		for (Counter c : counters) {
+			jsonCounters.put(c.name, c.toJSON());
+		}
+		json.put("counters", jsonCounters);
+
+		JSONObject jsonHistograms = new JSONObject();
+		for (Histogram h : histograms) {
+			jsonHistograms.put(h.name, h.toJSON());
+		}
+		json.put("histograms", jsonHistograms);
+
+		// Derived value
+		json.put("export.points_per_second", (EXPORT_FILE.getTotal() > 0)
+				? EXPORT_POINTS.getCount() * 1000000L / EXPORT_FILE.getTotal() : 0);
+		return json;
+	}
+
+	/**
+	 * @return All values, as human readable text
+	 */
+	public static String dump() {
+		StringBuilder sb = new StringBuilder();
+		for (Counter c : counters) {
+			sb.append(c.name).append(": ").append(c.getCount())
+				.append(" (").append(c.getRatePerMinute()).append("/min)\n");
+		}
+		for (Histogram h : histograms) {
+			sb.append(h.name).append(": n=").append(h.getCount());
+			if (h.getCount() > 0) {
+				sb.append(", avg=").append(h.getTotal() / h.getCount()).append("us")
+					.append(", p50<").append(h.getPercentile(0.5)).append("us")
+					.append(", p95<").append(h.getPercentile(0.95)).append("us")
+					.append(", max=").append(h.getMax()).append("us");
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes all values as JSON to a new file
+	 * @param directory Directory to write to
+	 * @return The written file
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public static File writeJSON(File directory) throws IOException, JSONException {
+		directory.mkdirs();
+		File target = new File(directory, "instrumentation_"
+				+ DataHelper.FILENAME_FORMATTER.format(new Date()) + ".json");
+		Writer writer = new FileWriter(target);
+		try {
+			writer.write(toJSON().toString(2));
+		} finally {
+			writer.close();
+		}
+		return target;
+	}
+
+	/**
+	 * Counts events, and their rate since the first one.
+	 */
+	public static class Counter {
+
+		private final String name;
+		private long count = 0;
+		/** {@link SystemClock#elapsedRealtime()} of the first event */
+		private long firstTime = 0;
+		/** {@link SystemClock#elapsedRealtime()} of the last event */
+		private long lastTime = 0;
+
+		private Counter(String name) {
+			this.name = name;
+			counters.add(this);
+		}
+
+		public void increment() {
+			add(1);
+		}
+
+		public synchronized void add(long n) {
+			lastTime = SystemClock.elapsedRealtime();
+			if (count == 0) {
+				firstTime = lastTime;
+			}
+			count += n;
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return Events per minute between the first and last one
+		 */
+		public synchronized long getRatePerMinute() {
+			long duration = lastTime - firstTime;
+			return (duration > 0) ? count * 60000L / duration : 0;
+		}
+
+		synchronized void reset() {
+			count = 0;
+			firstTime = 0;
+			lastTime = 0;
+		}
+
+		synchronized JSONObject toJSON() throws JSONException {
+			JSONObject json = new JSONObject();
+			json.put("count", count);
+			json.put("rate_per_minute", getRatePerMinute());
+			return json;
+		}
+	}
+
+	/**
+	 * Latency histogram, in microseconds, with power of two buckets:
+	 * bucket i counts values in [2^(i-1), 2^i[, bucket 0 counts 0.
+	 */
+	public static class Histogram {
+
+		/**
+		 * Number of buckets. The last one holds everything above ~35 minutes.
+		 */
+		private static final int BUCKETS = 32;
+
+		private final String name;
+		private final long[] buckets = new long[BUCKETS];
+		private long count = 0;
+		private long total = 0;
+		private long max = 0;
+
+		private Histogram(String name) {
+			this.name = name;
+			histograms.add(this);
+		}
+
+		/**
+		 * Records the time elapsed since a start time
+		 * @param start Start time, from {@link Instrumentation#now()}
+		 */
+		public void record(long start) {
+			recordMicros((now() - start) / 1000);
+		}
+
+		/**
+		 * Records a value
+		 * @param micros Value, in microseconds
+		 */
+		public synchronized void recordMicros(long micros) {
+			if (micros < 0) {
+				micros = 0;
+			}
+			int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+			buckets[bucket]++;
+			count++;
+			total += micros;
+			if (micros > max) {
+				max = micros;
+			}
+		}
+
+		public synchronized long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return Sum of all values, in microseconds
+		 */
+		public synchronized long getTotal() {
+			return total;
+		}
+
+		public synchronized long getMax() {
+			return max;
+		}
+
+		/**
+		 * @param p Percentile, between 0 and 1
+		 * @return Upper bound of the bucket holding this percentile, in microseconds
+		 */
+		public synchronized long getPercentile(double p) {
+			long threshold = (long) Math.ceil(count * p);
+			long seen = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				seen += buckets[i];
+				if (seen >= threshold && seen > 0) {
+					return 1L << i;
+				}
+			}
+			return max;
+		}
+
+		synchronized void reset() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = 0;
+			}
+			count = 0;
+			total = 0;
+			max = 0;
+		}
+
+		synchronized JSONObject toJSON() throws JSONException {
+			JSONObject json = new JSONObject();
+			json.put("count", count);
+			json.put("total_us", total);
+			json.put("max_us", max);
+			JSONArray jsonBuckets = new JSONArray();
+			for (int i = 0; i < BUCKETS; i++) {
+				jsonBuckets.put(buckets[i]);
+			}
+			json.put("buckets", jsonBuckets);
+			return json;
+		}
+	}
+
+}
@@ -0,0 +1,200 @@
+package me.guillaumin.android.osmtracker.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+
+import me.guillaumin.android.osmtracker.layout.model.LayoutButton;
+import me.guillaumin.android.osmtracker.layout.model.LayoutPage;
+import android.util.Log;
+
+/**
+ * Binary cache of parsed user defined layouts, to avoid parsing
+ * the XML and resolving labels on each start.
+ * <br />
+ * Each cache file starts with a key (XML file hash and locale). If the key
+ * doesn't match, the cache is ignored and must be regenerated.
+ *
+ */
+public class UserDefinedLayoutCache {
+
+	private static final String TAG = UserDefinedLayoutCache.class.getSimpleName();
+
+	/**
+	 * Magic number at the beginning of cache files
+	 */
+	private static final int MAGIC = 0x4f534d4c;
+
+	/**
+	 * Version of the binary format. Must be increased when the
+	 * format or the model changes.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Reads a cached layout.
+	 * @param cacheFile Cache file
+	 * @param key Expected key
+	 * @return The cached pages, or null if there's no valid cache for this key.
+	 */
+	public static HashMap<String, LayoutPage> read(File cacheFile, String key) {
+		if (!cacheFile.exists()) {
+			return null;
+		}
+
+		DataInputStream in = null;
+		try {
+			// Read the whole file at once
+			byte[] data = new byte[(int) cacheFile.length()];
+			in = new DataInputStream(new FileInputStream(cacheFile));
+			in.readFully(data);
+			in.close();
+
+			in = new DataInputStream(new ByteArrayInputStream(data));
+			if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+				return null;
+			}
+
+			int pageCount = in.readInt();
+			HashMap<String, LayoutPage> pages = new HashMap<String, LayoutPage>(pageCount * 2);
+			for (int p = 0; p < pageCount; p++) {
+				LayoutPage page = new LayoutPage(readString(in), in.readInt());
+				int rowCount = in.readInt();
+				for (int r = 0; r < rowCount; r++) {
+					List<LayoutButton> row = page.addRow();
+					int buttonCount = in.readInt();
+					for (int b = 0; b < buttonCount; b++) {
+						row.add(new LayoutButton(readString(in), readString(in), readString(in), readString(in)));
+					}
+				}
+				pages.put(page.getName(), page);
+			}
+			return pages;
+		} catch (IOException ioe) {
+			Log.w(TAG, "Unable to read layout cache " + cacheFile + ": " + ioe.getMessage());
+			return null;
+		} finally {
+			closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Writes a layout to the cache.
+	 * @param cacheFile Cache file
+	 * @param key Key identifying the layout source
+	 * @param pages Parsed pages
+	 */
+	public static void write(File cacheFile, String key, HashMap<String, LayoutPage> pages) {
+		File tmp = new File(cacheFile.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE));
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeUTF(key);
+
+			out.writeInt(pages.size());
+			for (LayoutPage page : pages.values()) {
+				writeString(out, page.getName());
+				out.writeInt(page.getIconPos());
+				out.writeInt(page.getRows().size());
+				for (List<LayoutButton> row : page.getRows()) {
+					out.writeInt(row.size());
+					for (LayoutButton button : row) {
+						writeString(out, button.getType());
+						writeString(out, button.getLabel());
+						writeString(out, button.getIcon());
+						writeString(out, button.getTargetLayout());
+					}
+				}
+			}
+			out.close();
+			out = null;
+
+			if (!tmp.renameTo(cacheFile)) {
+				Log.w(TAG, "Unable to rename layout cache to " + cacheFile);
+				tmp.delete();
+			}
+		} catch (IOException ioe) {
+			Log.w(TAG, "Unable to write layout cache " + cacheFile + ": " + ioe.getMessage());
+			tmp.delete();
+		} finally {
+			closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Computes a MD5 hash of a file content.
+	 * @param file File to hash
+	 * @return Hexadecimal hash
+	 * @throws IOException
+	 */
+	public static String hash(File file) throws IOException {
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException nsae) {
+			// MD5 is always available on Android. Fall back on file size & date.
+			return file.length() + "-" + file.lastModified();
+		}
+
+		InputStream is = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = is.read(buffer)) != -1) {
+				md.update(buffer, 0, read);
+			}
+		} finally {
+			is.close();
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest()) {
+			sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes a string that may be null.
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		out.writeBoolean(s != null);
+		if (s != null) {
+			out.writeUTF(s);
+		}
+	}
+
+	/**
+	 * Reads a string written with {@link #writeString(DataOutputStream, String)}
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	private static void closeQuietly(Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException ioe) {
+				// Ignore
+			}
+		}
+	}
+
+}
@@ -0,0 +1,240 @@
+package me.guillaumin.android.osmtracker.util;
+
+import java.util.List;
+
+import me.guillaumin.android.osmtracker.R;
+import me.guillaumin.android.osmtracker.activity.TrackLogger;
+import me.guillaumin.android.osmtracker.layout.DisablableTableLayout;
+import me.guillaumin.android.osmtracker.layout.UserDefinedLayout;
+import me.guillaumin.android.osmtracker.layout.model.LayoutButton;
+import me.guillaumin.android.osmtracker.layout.model.LayoutPage;
+import me.guillaumin.android.osmtracker.listener.PageButtonOnClickListener;
+import me.guillaumin.android.osmtracker.listener.StillImageOnClickListener;
+import me.guillaumin.android.osmtracker.listener.TagButtonOnClickListener;
+import me.guillaumin.android.osmtracker.listener.TextNoteOnClickListener;
+import me.guillaumin.android.osmtracker.listener.VoiceRecOnClickListener;
+import me.guillaumin.android.osmtracker.service.resources.IconResolver;
+import me.guillaumin.android.osmtracker.util.UserDefinedLayoutReader.XmlSchema;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.LinearLayout;
+import android.widget.TableLayout;
+import android.widget.TableRow;
+
+/**
+ * Instantiates the views (Layouts, Buttons) of a page of
+ * an user defined layout, from its parsed {@link LayoutPage}.
+ *
+ */
+public class UserDefinedLayoutInflater {
+
+	/**
+	 * Context for creating views
+	 */
+	private Context context;
+
+	/**
+	 * The user defined Layout
+	 */
+	private UserDefinedLayout userDefinedLayout;
+
+	/**
+	 * {@link IconResolver} to retrieve button icons.
+	 */
+	private IconResolver iconResolver;
+
+	/**
+	 * Listener bound to text note buttons
+	 */
+	private TextNoteOnClickListener textNoteOnClickListener;
+
+	/**
+	 * Listener bound to voice record buttons
+	 */
+	private VoiceRecOnClickListener voiceRecordOnClickListener;
+
+	/**
+	 * Lister bound to picture buttons
+	 */
+	private StillImageOnClickListener stillImageOnClickListener;
+
+	/**
+	 * {@link Resources} to retrieve String resources
+	 */
+	private Resources resources;
+
+	/**
+	 * representing ScreenOrientation
+	 * see {@link Configuration.orientation}
+	 */
+	private int orientation;
+
+	/**
+	 * Current track id
+	 */
+	private long currentTrackId;
+
+	/**
+	 * TrackLogger activity, tracking waypoints
+	 */
+	private TrackLogger trackLogger;
+
+	/**
+	 * Constructor
+	 *
+	 * @param udl
+	 *            User defined layout
+	 * @param c
+	 *            Context for accessing resources
+	 * @param tl
+	 *            TrackLogger activity
+	 * @param trackId
+	 * 			  Current track id
+	 * @param ir
+	 * 			  Icon resolver to use to fetch icons
+	 */
+	public UserDefinedLayoutInflater(UserDefinedLayout udl, Context c, TrackLogger tl, long trackId, IconResolver ir) {
+		context = c;
+		resources = context.getResources();
+		userDefinedLayout = udl;
+		iconResolver = ir;
+		currentTrackId = trackId;
+		trackLogger = tl;
+		orientation = resources.getConfiguration().orientation;
+
+		// Initialize listeners which will be bound to buttons
+		textNoteOnClickListener = new TextNoteOnClickListener(tl);
+		voiceRecordOnClickListener = new VoiceRecOnClickListener(tl);
+		stillImageOnClickListener = new StillImageOnClickListener(tl);
+	}
+
+	/**
+	 * Inflates a page into a {@link TableLayout}
+	 *
+	 * @param page
+	 *            Page to inflate
+	 * @return The inflated layout
+	 */
+	public ViewGroup inflateLayout(LayoutPage page) {
+		// Create a new table layout and set default parameters
+		DisablableTableLayout tblLayout = new DisablableTableLayout(context);
+		tblLayout.setLayoutParams(new LinearLayout.LayoutParams(LinearLayout.LayoutParams.FILL_PARENT,
+				LinearLayout.LayoutParams.FILL_PARENT, 1));
+
+		for (List<LayoutButton> row : page.getRows()) {
+			inflateRow(tblLayout, row, page.getIconPos());
+		}
+
+		return tblLayout;
+	}
+
+	/**
+	 * Inflates a row into a {@link TableRow}
+	 *
+	 * @param layout
+	 *            {@link TableLayout} to rattach the row to
+	 * @param buttons
+	 *            Buttons of the row
+	 * @param iconPos
+	 *            Icon position for the current layout
+	 */
+	private void inflateRow(TableLayout layout, List<LayoutButton> buttons, int iconPos) {
+		TableRow tblRow = new TableRow(layout.getContext());
+		tblRow.setLayoutParams(new TableLayout.LayoutParams(TableLayout.LayoutParams.FILL_PARENT,
+				TableLayout.LayoutParams.FILL_PARENT, 1));
+
+		for (LayoutButton button : buttons) {
+			inflateButton(tblRow, button, iconPos);
+		}
+
+		// Add the inflated table row to the current layout
+		layout.addView(tblRow);
+	}
+
+	/**
+	 * Inflates a button
+	 *
+	 * @param row
+	 *            The table row to attach the button to
+	 * @param model
+	 *            Button definition
+	 * @param iconPos
+	 *            Icon position for the current layout
+	 */
+	private void inflateButton(TableRow row, LayoutButton model, int iconPos) {
+		Button button = new Button(row.getContext());
+		button.setLayoutParams(new TableRow.LayoutParams(TableRow.LayoutParams.FILL_PARENT,
+				TableRow.LayoutParams.FILL_PARENT, 1));
+
+		// TODO Use kind of ButtonFactory here
+
+		String buttonType = model.getType();
+		Drawable buttonIcon = null;
+		if (XmlSchema.ATTR_VAL_PAGE.equals(buttonType)) {
+			// Page button
+			button.setText(model.getLabel());
+			buttonIcon = iconResolver.getIcon(model.getIcon());
+			button.setOnClickListener(new PageButtonOnClickListener(userDefinedLayout, model.getTargetLayout()));
+		} else if (XmlSchema.ATTR_VAL_TAG.equals(buttonType)) {
+			// Standard tag button
+			button.setText(model.getLabel());
+			buttonIcon = iconResolver.getIcon(model.getIcon());
+			button.setOnClickListener(new TagButtonOnClickListener(trackLogger, currentTrackId));
+		} else if (XmlSchema.ATTR_VAL_VOICEREC.equals(buttonType)) {
+			// Voice record button
+			button.setText(resources.getString(R.string.gpsstatus_record_voicerec));
+			buttonIcon = resources.getDrawable(R.drawable.voice_32x32);
+			button.setOnClickListener(voiceRecordOnClickListener);
+		} else if (XmlSchema.ATTR_VAL_TEXTNOTE.equals(buttonType)) {
+			// Text note button
+			button.setText(resources.getString(R.string.gpsstatus_record_textnote));
+			buttonIcon = resources.getDrawable(R.drawable.text_32x32);
+			button.setOnClickListener(textNoteOnClickListener);
+		} else if (XmlSchema.ATTR_VAL_PICTURE.equals(buttonType)) {
+			// Picture button
+			button.setText(resources.getString(R.string.gpsstatus_record_stillimage));
+			buttonIcon = resources.getDrawable(R.drawable.camera_32x32);
+			button.setOnClickListener(stillImageOnClickListener);
+		}
+
+		// Where to draw the button's icon (depending on the current layout)
+		switch(iconPos){
+		case LayoutPage.ICON_POS_TOP:
+			// TOP position
+			button.setCompoundDrawablesWithIntrinsicBounds(null, buttonIcon, null, null);
+			break;
+		case LayoutPage.ICON_POS_RIGHT:
+			// RIGHT position
+			button.setCompoundDrawablesWithIntrinsicBounds(null, null, buttonIcon, null);
+			break;
+		case LayoutPage.ICON_POS_BOTTOM:
+			// BOTTOM position
+			button.setCompoundDrawablesWithIntrinsicBounds(null, null, null, buttonIcon);
+			break;
+		case LayoutPage.ICON_POS_LEFT:
+			// LEFT position
+			button.setCompoundDrawablesWithIntrinsicBounds(buttonIcon, null, null, null);
+			break;
+		case LayoutPage.ICON_POS_AUTO:
+		default:
+			// if no or an undefined value is given for the current layout
+			// AUTO position depending on screen orientation
+			if(orientation == Configuration.ORIENTATION_LANDSCAPE){
+				// in landscape mode draw icon to the LEFT
+				button.setCompoundDrawablesWithIntrinsicBounds(buttonIcon, null, null,null);
+			}else{
+				// in portrait mode draw icon to the TOP
+				button.setCompoundDrawablesWithIntrinsicBounds(null, buttonIcon, null, null);
+			}
+			break;
+		}
+
+
+		row.addView(button);
+	}
+
+}
@@ -3,9 +3,11 @@ package me.guillaumin.android.osmtracker.view;
 import java.text.DecimalFormat;
 
 import me.guillaumin.android.osmtracker.R;
+import me.guillaumin.android.osmtracker.db.PackedTrack;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider;
 import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
 import me.guillaumin.android.osmtracker.util.ArrayUtils;
+import me.guillaumin.android.osmtracker.util.Instrumentation;
 import me.guillaumin.android.osmtracker.util.MercatorProjection;
 import android.content.Context;
 import android.database.ContentObserver;
@@ -48,6 +50,11 @@ public class DisplayTrackView extends TextView {
 	 */
 	private double[][] coords;
 
+	/**
+	 * Id of the last trackpoint read, to only read new ones on changes
+	 */
+	private long lastTrackPointId = -1;
+
 	/**
 	 * Array of pixels coordinates to display track
 	 */
@@ -104,11 +111,14 @@ public class DisplayTrackView extends TextView {
 			// not been attached to window & measured when onChange()
 			// is fired.
 			if (getWidth() > 0 && getHeight() > 0) {
-				// Populate new data, and recompute projection
-				populateCoords();
-				projectData(getWidth(), getHeight());
-				// Force view redraw
-				invalidate();
+				long start = Instrumentation.now();
+				// Read new data, and recompute projection
+				if (appendCoords()) {
+					projectData(getWidth(), getHeight());
+					// Force view redraw
+					invalidate();
+				}
+				Instrumentation.DISPLAYTRACK_OBSERVER.record(start);
 			}
 		}
 		
@@ -224,23 +234,79 @@ public class DisplayTrackView extends TextView {
 	}
 	
 	/**
-	 * Populate coordinates from a cursor to current track Database
+	 * Populate coordinates from a cursor to current track Database,
+	 * or from its packs if the track is sealed
 	 */
 	public void populateCoords() {		
+		lastTrackPointId = -1;
+		PackedTrack packed = PackedTrack.read(getContext().getContentResolver(), currentTrackId);
+		if (packed != null) {
+			coords = new double[packed.size()][2];
+			for (int i = 0; i < coords.length; i++) {
+				coords[i][MercatorProjection.LONGITUDE] = packed.getLongitude(i);
+				coords[i][MercatorProjection.LATITUDE] = packed.getLatitude(i);
+				lastTrackPointId = Math.max(lastTrackPointId, packed.getId(i));
+			}
+		} else {
+			coords = readCoords(null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
+		}
+		
+		Log.v(TAG, "Extracted " + coords.length + " points from DB.");
+	}
+
+	/**
+	 * Appends trackpoints inserted since the last read to current coordinates
+	 * @return true if there were new trackpoints
+	 */
+	public boolean appendCoords() {
+		if (coords == null) {
+			populateCoords();
+			return true;
+		}
+
+		double[][] newCoords = readCoords(Schema.COL_ID + " > ?", new String[] {Long.toString(lastTrackPointId)},
+				Schema.COL_ID + " asc");
+		if (newCoords.length == 0) {
+			return false;
+		}
+
+		double[][] allCoords = new double[coords.length + newCoords.length][];
+		System.arraycopy(coords, 0, allCoords, 0, coords.length);
+		System.arraycopy(newCoords, 0, allCoords, coords.length, newCoords.length);
+		coords = allCoords;
+
+		Log.v(TAG, "Appended " + newCoords.length + " points from DB.");
+		return true;
+	}
+
+	/**
+	 * Reads trackpoints coordinates of the current track, and keeps track
+	 * of the last trackpoint id read
+	 * @param selection Additional selection, or null
+	 * @param selectionArgs Arguments of the selection
+	 * @param sortOrder Order of the trackpoints
+	 * @return Coordinates read
+	 */
+	private double[][] readCoords(String selection, String[] selectionArgs, String sortOrder) {
 		Cursor c = getContext().getContentResolver().query(
 				TrackContentProvider.trackPointsUri(currentTrackId),
-				null, null, null, TrackContentProvider.Schema.COL_TIMESTAMP + " asc");
-		coords = new double[c.getCount()][2];
+				new String[] {Schema.COL_ID, Schema.COL_LONGITUDE, Schema.COL_LATITUDE},
+				selection, selectionArgs, sortOrder);
+		double[][] result = new double[c.getCount()][2];
+		int idIdx = c.getColumnIndex(Schema.COL_ID);
+		int lonIdx = c.getColumnIndex(Schema.COL_LONGITUDE);
+		int latIdx = c.getColumnIndex(Schema.COL_LATITUDE);
 		int i=0;
 		
 		for(c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
-			coords[i][MercatorProjection.LONGITUDE] = c.getDouble(c.getColumnIndex(Schema.COL_LONGITUDE));
-			coords[i][MercatorProjection.LATITUDE] = c.getDouble(c.getColumnIndex(Schema.COL_LATITUDE));
+			result[i][MercatorProjection.LONGITUDE] = c.getDouble(lonIdx);
+			result[i][MercatorProjection.LATITUDE] = c.getDouble(latIdx);
+			lastTrackPointId = Math.max(lastTrackPointId, c.getLong(idIdx));
 			i++;
 		}
 		c.close();
-		
-		Log.v(TAG, "Extracted " + coords.length + " points from DB.");
+
+		return result;
 	}
 	
 	/**
@@ -2,13 +2,10 @@ package me.guillaumin.android.osmtracker.view;
 
 import java.util.UUID;
 
-import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
-import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
+import me.guillaumin.android.osmtracker.activity.TrackLogger;
 import android.app.AlertDialog;
-import android.content.Context;
 import android.content.DialogInterface;
-import android.content.Intent;
 import android.os.Bundle;
 import android.widget.EditText;
 
@@ -44,35 +41,35 @@ public class TextNoteDialog extends AlertDialog {
 	 */
 	private long wayPointTrackId;
 	
-	private Context context;
+	/**
+	 * Activity tracking the waypoint
+	 */
+	private TrackLogger trackLogger;
 
-	public TextNoteDialog(Context context, long trackId) {
-		super(context);
+	public TextNoteDialog(TrackLogger trackLogger, long trackId) {
+		super(trackLogger);
 
-		this.context = context;
+		this.trackLogger = trackLogger;
 		this.wayPointTrackId = trackId;
 		
 		// Text edit control for user input
-		input = new EditText(context);
+		input = new EditText(trackLogger);
 
 		// default settings
 		this.setTitle(R.string.gpsstatus_record_textnote);
 		this.setCancelable(true);
 		this.setView(input);
 
-		this.setButton(context.getResources().getString(android.R.string.ok),  new DialogInterface.OnClickListener() {
+		this.setButton(trackLogger.getResources().getString(android.R.string.ok),  new DialogInterface.OnClickListener() {
 			@Override
 			public void onClick(DialogInterface dialog, int which) {
 				// Track waypoint with user input text
-				Intent intent = new Intent(OSMTracker.INTENT_UPDATE_WP);
-				intent.putExtra(Schema.COL_TRACK_ID, TextNoteDialog.this.wayPointTrackId);
-				intent.putExtra(OSMTracker.INTENT_KEY_NAME, input.getText().toString());
-				intent.putExtra(OSMTracker.INTENT_KEY_UUID, TextNoteDialog.this.wayPointUuid);
-				TextNoteDialog.this.context.sendBroadcast(intent);
+				TextNoteDialog.this.trackLogger.updateWaypoint(TextNoteDialog.this.wayPointTrackId,
+						TextNoteDialog.this.wayPointUuid, input.getText().toString(), null);
 			}
 		});
 		
-		this.setButton2(context.getResources().getString(android.R.string.cancel),  new DialogInterface.OnClickListener() {
+		this.setButton2(trackLogger.getResources().getString(android.R.string.cancel),  new DialogInterface.OnClickListener() {
 			@Override
 			public void onClick(DialogInterface dialog, int which) {
 				// cancel the dialog
@@ -84,9 +81,7 @@ public class TextNoteDialog extends AlertDialog {
 			@Override
 			public void onCancel(DialogInterface dialog) {
 				// delete the waypoint because user canceled this dialog
-				Intent intent = new Intent(OSMTracker.INTENT_DELETE_WP);
-				intent.putExtra(OSMTracker.INTENT_KEY_UUID, TextNoteDialog.this.wayPointUuid);
-				TextNoteDialog.this.context.sendBroadcast(intent);
+				TextNoteDialog.this.trackLogger.deleteWaypoint(TextNoteDialog.this.wayPointUuid);
 			}
 		});
 		
@@ -101,11 +96,8 @@ public class TextNoteDialog extends AlertDialog {
 			// there is no UUID set for the waypoint we're working on
 			// so we need to generate a UUID and track this point
 	        wayPointUuid = UUID.randomUUID().toString();
-	        Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
-	        intent.putExtra(Schema.COL_TRACK_ID, wayPointTrackId);
-	        intent.putExtra(OSMTracker.INTENT_KEY_UUID, wayPointUuid);
-	        intent.putExtra(OSMTracker.INTENT_KEY_NAME, context.getResources().getString(R.string.gpsstatus_record_textnote));
-	        context.sendBroadcast(intent);
+	        trackLogger.trackWaypoint(wayPointTrackId,
+	        		trackLogger.getResources().getString(R.string.gpsstatus_record_textnote), null, wayPointUuid);
 		}
 		
 		super.onStart();
@@ -0,0 +1,421 @@
+package me.guillaumin.android.osmtracker.view;
+
+import org.osmdroid.views.MapView;
+import org.osmdroid.views.MapView.Projection;
+import org.osmdroid.views.overlay.Overlay;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+
+/**
+ * Overlay drawing a track path over an OSM map, designed for very long tracks.
+ * Replaces osmdroid's PathOverlay which keeps one object per point.
+ * <ul>
+ * <li>Points are kept in flat int arrays (latitude / longitude * 1e6).</li>
+ * <li>Each point is projected only once, into zoom-independent projected coordinates.</li>
+ * <li>For each zoom level, a simplified path is computed incrementally and cached:
+ * points closer than {@link #MIN_SEGMENT_PIXELS} to the previously kept point are skipped.</li>
+ * <li>The simplified path is split in blocks with a bounding box, so that blocks
+ * outside of the viewport are culled without looking at their points.</li>
+ * </ul>
+ */
+public class TrackPathOverlay extends Overlay {
+
+	/**
+	 * Initial capacity of point arrays
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * Minimum length (in screen pixels, Manhattan distance) of a drawn segment.
+	 * Shorter segments are merged with the next ones.
+	 */
+	private static final int MIN_SEGMENT_PIXELS = 2;
+
+	/**
+	 * Number of simplified points per culling block
+	 */
+	private static final int BLOCK_SIZE = 64;
+
+	/**
+	 * Number of zoom levels for which the simplified path is kept
+	 */
+	private static final int ZOOM_CACHE_SIZE = 3;
+
+	/**
+	 * Size of the buffer used to batch {@link Canvas#drawLines(float[], int, int, Paint)} calls.
+	 * Must be a multiple of 4 (x0, y0, x1, y1 for each segment)
+	 */
+	private static final int LINE_BUFFER_SIZE = 256;
+
+	/**
+	 * Offsets in block bounds array
+	 */
+	private static final int MIN_X = 0, MIN_Y = 1, MAX_X = 2, MAX_Y = 3;
+
+	/**
+	 * Paint used to draw the path
+	 */
+	private final Paint paint = new Paint();
+
+	/**
+	 * Raw coordinates of the points, in micro-degrees
+	 */
+	private int[] latitudesE6, longitudesE6;
+
+	/**
+	 * Projected coordinates of the points (zoom independent)
+	 */
+	private int[] projectedX, projectedY;
+
+	/**
+	 * Number of points in the path
+	 */
+	private int size;
+
+	/**
+	 * Number of points which have already been projected
+	 */
+	private int projectedCount;
+
+	/**
+	 * Cached simplified paths, one per recently used zoom level
+	 */
+	private final SimplifiedPath[] zoomCache = new SimplifiedPath[ZOOM_CACHE_SIZE];
+
+	/**
+	 * Counter used to find the least recently used cached zoom level
+	 */
+	private long drawCounter = 0;
+
+	/**
+	 * Buffer for batching lines drawing
+	 */
+	private final float[] lineBuffer = new float[LINE_BUFFER_SIZE];
+
+	/**
+	 * Number of used floats in {@link #lineBuffer}
+	 */
+	private int lineBufferCount;
+
+	/**
+	 * Re-usable objects to avoid allocations while drawing
+	 */
+	private final Point tmpPoint = new Point();
+	private final Point origin = new Point(0, 0);
+	private final Rect tmpRect = new Rect();
+
+	/**
+	 * Current clip, in projected coordinates
+	 */
+	private int clipMinX, clipMinY, clipMaxX, clipMaxY;
+
+	/**
+	 * Current shift between projected coordinates and screen pixels
+	 */
+	private int shift;
+
+	/**
+	 * Current offset between map pixels and screen pixels
+	 */
+	private int offsetX, offsetY;
+
+	public TrackPathOverlay(int color, Context ctx) {
+		super(ctx);
+		paint.setColor(color);
+		paint.setStrokeWidth(2.0f);
+		paint.setStyle(Paint.Style.STROKE);
+		clearPath();
+	}
+
+	/**
+	 * Removes all the points of the path.
+	 */
+	public void clearPath() {
+		latitudesE6 = new int[INITIAL_CAPACITY];
+		longitudesE6 = new int[INITIAL_CAPACITY];
+		projectedX = new int[INITIAL_CAPACITY];
+		projectedY = new int[INITIAL_CAPACITY];
+		size = 0;
+		projectedCount = 0;
+		for (int i = 0; i < zoomCache.length; i++) {
+			zoomCache[i] = null;
+		}
+	}
+
+	/**
+	 * Adds a point at the end of the path
+	 * @param latitudeE6 Latitude, in micro-degrees
+	 * @param longitudeE6 Longitude, in micro-degrees
+	 */
+	public void addPoint(int latitudeE6, int longitudeE6) {
+		if (size == latitudesE6.length) {
+			ensureCapacity(size * 2);
+		}
+		latitudesE6[size] = latitudeE6;
+		longitudesE6[size] = longitudeE6;
+		size++;
+	}
+
+	/**
+	 * @return Number of points in the path
+	 */
+	public int getNumberOfPoints() {
+		return size;
+	}
+
+	/**
+	 * Grows the point arrays
+	 * @param capacity New minimum capacity
+	 */
+	private void ensureCapacity(int capacity) {
+		if (capacity > latitudesE6.length) {
+			latitudesE6 = grow(latitudesE6, capacity, size);
+			longitudesE6 = grow(longitudesE6, capacity, size);
+			projectedX = grow(projectedX, capacity, projectedCount);
+			projectedY = grow(projectedY, capacity, projectedCount);
+		}
+	}
+
+	@Override
+	protected void onDraw(Canvas canvas, MapView mapView) {
+		if (size < 2) {
+			return;
+		}
+
+		Projection pj = mapView.getProjection();
+
+		// Project points added since last draw. This is done only once per point
+		for (; projectedCount < size; projectedCount++) {
+			pj.toMapPixelsProjected(latitudesE6[projectedCount], longitudesE6[projectedCount], tmpPoint);
+			projectedX[projectedCount] = tmpPoint.x;
+			projectedY[projectedCount] = tmpPoint.y;
+		}
+
+		// Find out how projected coordinates map to screen pixels at the current zoom level:
+		// screen = (projected >> shift) + offset
+		tmpRect.set(0, 0, 1, 1);
+		shift = Integer.numberOfTrailingZeros(pj.fromPixelsToProjected(tmpRect).width());
+		pj.toMapPixelsTranslated(origin, tmpPoint);
+		offsetX = tmpPoint.x;
+		offsetY = tmpPoint.y;
+
+		// Viewport, in projected coordinates
+		canvas.getClipBounds(tmpRect);
+		clipMinX = (tmpRect.left - offsetX) << shift;
+		clipMaxX = (tmpRect.right - offsetX) << shift;
+		clipMinY = (tmpRect.top - offsetY) << shift;
+		clipMaxY = (tmpRect.bottom - offsetY) << shift;
+
+		SimplifiedPath path = getSimplifiedPath(shift);
+		path.update();
+
+		lineBufferCount = 0;
+		int[] indices = path.indices;
+		int[] bounds = path.blockBounds;
+		int nbBlocks = (path.count + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		for (int b = 0; b < nbBlocks; b++) {
+			int o = b * 4;
+			if (bounds[o + MAX_X] < clipMinX || bounds[o + MIN_X] > clipMaxX
+					|| bounds[o + MAX_Y] < clipMinY || bounds[o + MIN_Y] > clipMaxY) {
+				// Whole block is outside the viewport
+				continue;
+			}
+			int end = Math.min((b + 1) * BLOCK_SIZE, path.count - 1);
+			for (int k = b * BLOCK_SIZE; k < end; k++) {
+				drawSegment(canvas, indices[k], indices[k + 1]);
+			}
+		}
+
+		// The last point may have been simplified out, but must always be drawn
+		// as it's the current position
+		if (path.count > 0 && indices[path.count - 1] != size - 1) {
+			drawSegment(canvas, indices[path.count - 1], size - 1);
+		}
+
+		if (lineBufferCount > 0) {
+			canvas.drawLines(lineBuffer, 0, lineBufferCount, paint);
+		}
+	}
+
+	@Override
+	protected void onDrawFinished(Canvas canvas, MapView mapView) {
+		// Nothing to draw on top
+	}
+
+	/**
+	 * Adds a segment to the line buffer if it's visible,
+	 * and flushes the buffer when full.
+	 * @param a Index of the first point
+	 * @param b Index of the second point
+	 */
+	private void drawSegment(Canvas canvas, int a, int b) {
+		int ax = projectedX[a], ay = projectedY[a];
+		int bx = projectedX[b], by = projectedY[b];
+
+		if ((ax < clipMinX && bx < clipMinX) || (ax > clipMaxX && bx > clipMaxX)
+				|| (ay < clipMinY && by < clipMinY) || (ay > clipMaxY && by > clipMaxY)) {
+			// Segment is outside the viewport
+			return;
+		}
+
+		lineBuffer[lineBufferCount++] = (ax >> shift) + offsetX;
+		lineBuffer[lineBufferCount++] = (ay >> shift) + offsetY;
+		lineBuffer[lineBufferCount++] = (bx >> shift) + offsetX;
+		lineBuffer[lineBufferCount++] = (by >> shift) + offsetY;
+		if (lineBufferCount == LINE_BUFFER_SIZE) {
+			canvas.drawLines(lineBuffer, 0, lineBufferCount, paint);
+			lineBufferCount = 0;
+		}
+	}
+
+	/**
+	 * Gets the cached simplified path for a zoom level, or creates it
+	 * by replacing the least recently used one.
+	 * @param zoomShift Shift between projected coordinates and screen pixels, identifies the zoom level
+	 * @return The simplified path for this zoom level
+	 */
+	private SimplifiedPath getSimplifiedPath(int zoomShift) {
+		drawCounter++;
+		int lru = 0;
+		for (int i = 0; i < zoomCache.length; i++) {
+			SimplifiedPath p = zoomCache[i];
+			if (p == null) {
+				lru = i;
+				break;
+			} else if (p.zoomShift == zoomShift) {
+				p.lastUsed = drawCounter;
+				return p;
+			} else if (p.lastUsed < zoomCache[lru].lastUsed) {
+				lru = i;
+			}
+		}
+
+		SimplifiedPath p = new SimplifiedPath(zoomShift);
+		p.lastUsed = drawCounter;
+		zoomCache[lru] = p;
+		return p;
+	}
+
+	/**
+	 * Copies an array into a bigger one
+	 */
+	private static int[] grow(int[] in, int capacity, int length) {
+		int[] out = new int[capacity];
+		System.arraycopy(in, 0, out, 0, length);
+		return out;
+	}
+
+	/**
+	 * Simplified version of the path for a given zoom level.
+	 * Only keeps the index of the remaining points, and the bounding
+	 * box of each block of {@link TrackPathOverlay#BLOCK_SIZE} kept points.
+	 */
+	private class SimplifiedPath {
+
+		/**
+		 * Shift between projected coordinates and screen pixels
+		 */
+		final int zoomShift;
+
+		/**
+		 * Minimum distance between 2 kept points, in projected coordinates
+		 */
+		final int tolerance;
+
+		/**
+		 * Indexes of the kept points
+		 */
+		int[] indices = new int[INITIAL_CAPACITY];
+
+		/**
+		 * Number of kept points
+		 */
+		int count = 0;
+
+		/**
+		 * Number of points of the path already processed
+		 */
+		int processed = 0;
+
+		/**
+		 * Bounding box of each block (minX, minY, maxX, maxY). A block also
+		 * includes the first point of the next block, to cover the joining segment.
+		 */
+		int[] blockBounds = new int[(INITIAL_CAPACITY / BLOCK_SIZE + 1) * 4];
+
+		/**
+		 * Last time this path was drawn, see {@link TrackPathOverlay#drawCounter}
+		 */
+		long lastUsed;
+
+		SimplifiedPath(int zoomShift) {
+			this.zoomShift = zoomShift;
+			this.tolerance = MIN_SEGMENT_PIXELS << zoomShift;
+		}
+
+		/**
+		 * Processes points added to the path since the last update
+		 */
+		void update() {
+			for (; processed < projectedCount; processed++) {
+				if (count == 0) {
+					keep(processed);
+				} else {
+					int last = indices[count - 1];
+					int d = Math.abs(projectedX[processed] - projectedX[last]) + Math.abs(projectedY[processed] - projectedY[last]);
+					if (d >= tolerance) {
+						keep(processed);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Keeps a point in the simplified path, and updates block bounds
+		 * @param index Index of the point to keep
+		 */
+		private void keep(int index) {
+			if (count == indices.length) {
+				indices = grow(indices, count * 2, count);
+			}
+			int block = count / BLOCK_SIZE;
+			if ((block + 1) * 4 > blockBounds.length) {
+				blockBounds = grow(blockBounds, blockBounds.length * 2, blockBounds.length);
+			}
+
+			indices[count] = index;
+			int x = projectedX[index], y = projectedY[index];
+			if (count % BLOCK_SIZE == 0) {
+				// First point of a new block
+				int o = block * 4;
+				blockBounds[o + MIN_X] = x;
+				blockBounds[o + MAX_X] = x;
+				blockBounds[o + MIN_Y] = y;
+				blockBounds[o + MAX_Y] = y;
+				if (block > 0) {
+					// Previous block must include the segment joining the 2 blocks
+					extend(block - 1, x, y);
+				}
+			} else {
+				extend(block, x, y);
+			}
+			count++;
+		}
+
+		/**
+		 * Extends a block bounding box to include a point
+		 */
+		private void extend(int block, int x, int y) {
+			int o = block * 4;
+			if (x < blockBounds[o + MIN_X]) blockBounds[o + MIN_X] = x;
+			if (x > blockBounds[o + MAX_X]) blockBounds[o + MAX_X] = x;
+			if (y < blockBounds[o + MIN_Y]) blockBounds[o + MIN_Y] = y;
+			if (y > blockBounds[o + MAX_Y]) blockBounds[o + MAX_Y] = y;
+		}
+	}
+
+}
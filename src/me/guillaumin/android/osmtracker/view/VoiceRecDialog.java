@@ -6,12 +6,11 @@ import java.util.UUID;
 
 import me.guillaumin.android.osmtracker.OSMTracker;
 import me.guillaumin.android.osmtracker.R;
+import me.guillaumin.android.osmtracker.activity.TrackLogger;
 import me.guillaumin.android.osmtracker.db.DataHelper;
-import me.guillaumin.android.osmtracker.db.TrackContentProvider.Schema;
 import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
-import android.content.Intent;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.media.MediaRecorder;
@@ -70,6 +69,11 @@ public class VoiceRecDialog extends ProgressDialog implements OnInfoListener{
 	 * the context for this dialog
 	 */
 	private Context context;
+
+	/**
+	 * Activity tracking the waypoint
+	 */
+	private TrackLogger trackLogger;
 	
 	/**
 	 * saves the orientation at the time when the dialog was started
@@ -87,9 +91,10 @@ public class VoiceRecDialog extends ProgressDialog implements OnInfoListener{
 	 */
 	private long dialogStartTime = 0;
 	
-	public VoiceRecDialog(Context context, long trackId) {
-		super(context);
-		this.context = context;
+	public VoiceRecDialog(TrackLogger trackLogger, long trackId) {
+		super(trackLogger);
+		this.context = trackLogger;
+		this.trackLogger = trackLogger;
 		this.wayPointTrackId = trackId;
 		
 		// Try to un-mute microphone, just in case
@@ -143,11 +148,8 @@ public class VoiceRecDialog extends ProgressDialog implements OnInfoListener{
 			// there is no UUID set for the waypoint we're working on
 			// so we need to generate a UUID and track this point
 	        wayPointUuid = UUID.randomUUID().toString();
-			Intent intent = new Intent(OSMTracker.INTENT_TRACK_WP);
-			intent.putExtra(Schema.COL_TRACK_ID, wayPointTrackId);
-			intent.putExtra(OSMTracker.INTENT_KEY_UUID, wayPointUuid);
-			intent.putExtra(OSMTracker.INTENT_KEY_NAME, context.getResources().getString(R.string.wpt_voicerec));
-	        context.sendBroadcast(intent);
+			trackLogger.trackWaypoint(wayPointTrackId, context.getResources().getString(R.string.wpt_voicerec),
+					null, wayPointUuid);
 		}
 		
 		if (!isRecording) {
@@ -204,11 +206,7 @@ public class VoiceRecDialog extends ProgressDialog implements OnInfoListener{
 	
 				// Still update waypoint, could be useful even without
 				// the voice file.
-				Intent intent = new Intent(OSMTracker.INTENT_UPDATE_WP);
-				intent.putExtra(Schema.COL_TRACK_ID, wayPointTrackId);
-				intent.putExtra(OSMTracker.INTENT_KEY_UUID, wayPointUuid);
-				intent.putExtra(OSMTracker.INTENT_KEY_LINK, audioFile.getName());
-				context.sendBroadcast(intent);
+				trackLogger.updateWaypoint(wayPointTrackId, wayPointUuid, null, audioFile.getName());
 			} else {
 				Log.w(TAG,"onStart() no suitable audioFile could be created");
 				// The audio file could not be created on the file system